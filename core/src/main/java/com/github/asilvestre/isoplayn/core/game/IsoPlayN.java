@@ -2,13 +2,14 @@ package com.github.asilvestre.isoplayn.core.game;
 
 import static playn.core.PlayN.*;
 
-import com.github.asilvestre.jpurexml.XmlDoc;
-import com.github.asilvestre.jpurexml.XmlParseException;
-import com.github.asilvestre.jpurexml.XmlParser;
+import com.github.asilvestre.isoplayn.core.render.IsoMapRenderer;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxMap;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxMapLoader;
 
 import playn.core.Game;
 import playn.core.Image;
 import playn.core.ImageLayer;
+import playn.core.util.Callback;
 
 public class IsoPlayN implements Game {
   @Override
@@ -17,31 +18,41 @@ public class IsoPlayN implements Game {
     Image bgImage = assets().getImage("images/bg.png");
     ImageLayer bgLayer = graphics().createImageLayer(bgImage);
     graphics().rootLayer().add(bgLayer);
+
+    // load the map with its tileset images and draw it on top of the
+    // background
+    new TmxMapLoader().load("tmx/test.tmx", new Callback<TmxMapLoader.LoadedMap>() {
+      public void onSuccess(TmxMapLoader.LoadedMap loaded) {
+        TmxMap map = loaded.getMap();
+        renderer = new IsoMapRenderer(map);
+        for (int i = 0; i < map.getTilesetCount(); i++) {
+          renderer.setTilesetImage(i, loaded.getTilesetImage(i));
+        }
+        graphics().rootLayer().add(graphics().createImmediateLayer(renderer));
+      }
+
+      public void onFailure(Throwable cause) {
+        log().error("Error loading the map", cause);
+      }
+    });
   }
 
   @Override
   public void paint(float alpha) {
-    // the background automatically paints itself, so no need to do anything here!
+    // the map is drawn by its immediate layer, keep the camera on the screen
+    if (renderer != null) {
+      renderer.setCamera(0, 0, graphics().width(), graphics().height());
+    }
   }
 
   @Override
   public void update(float delta) {
-	  
-	  XmlDoc d;
-	try {
-		d = XmlParser.parseXml("<root> hhh  </root>");
-		 log().info(d.toString());
-	} catch (XmlParseException e) {
-		// TODO Auto-generated catch block
-		e.printStackTrace();
-	}
-	  
-	  
-	 
   }
 
   @Override
   public int updateRate() {
     return 25;
   }
+
+  private IsoMapRenderer renderer;
 }
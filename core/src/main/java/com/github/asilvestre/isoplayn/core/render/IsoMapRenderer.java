@@ -0,0 +1,1231 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+import static playn.core.PlayN.*;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import playn.core.CanvasImage;
+import playn.core.CanvasSurface;
+import playn.core.Image;
+import playn.core.ImmediateLayer;
+import playn.core.Surface;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxChunkedTileGrid;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxData;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxEditableTileGrid;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxImage;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxLayer;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxMap;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxTileGrid;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxTileLayer;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxTileOffset;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxTileset;
+
+/**
+ * Draws the tile layers of an isometric map. Only the tiles inside the camera
+ * rectangle are visited, walking the map by rows of tiles with the same x + y
+ * from back to front, so the cost of a frame depends on the screen size and
+ * not on the map size.
+ *
+ * Every tile is still one Surface.drawImage call. Tiles are grouped by
+ * tileset before drawing so consecutive calls use the same texture, which
+ * lets backends batching quads by texture, like the GL one, merge them into
+ * one draw; other backends draw them one by one anyway. Tiles that fit inside
+ * their cell can't cover each other, those are drawn tileset by tileset.
+ * Tiles growing out of their cell, like walls or trees, are drawn from back to
+ * front after the tiles fitting the cells behind them. Tiles only growing
+ * upwards can go after all tiles fitting their cells, but tiles reaching the
+ * cells in front of theirs, like tiles with a positive y offset, go before the
+ * tiles fitting those cells, splitting them in bands of rows.
+ *
+ * Tiles can be taken from a TileAtlas instead of the tileset images, so all
+ * tilesets share a few textures and more draws get batched together.
+ *
+ * Sprites can be drawn between the tiles of a layer, each one after the row
+ * of tiles its feet are in, so tiles in front of a sprite hide it. Their
+ * order is kept by an IsoSpriteLayer, only sorting the sprites that moved.
+ *
+ * Layers that don't change can be cached, they are drawn once into offscreen
+ * images of blockSize x blockSize pixels and each frame only the images of the
+ * blocks touching the camera are drawn. Blocks are drawn again when a tile in
+ * them is invalidated or the layer gets a new tile grid.
+ *
+ * Map pixel coordinates place the top corner of tile 0,0 at x = map height *
+ * tile width / 2, y = 0.
+ */
+public class IsoMapRenderer implements ImmediateLayer.Renderer {
+
+	/**
+	 * Width and height in pixels of the blocks cached layers are split in
+	 */
+	public static final int DEFAULT_BLOCK_SIZE = 512;
+
+	/**
+	 * Cached blocks kept by default, as many as a couple of screens need
+	 */
+	public static final int DEFAULT_MAX_CACHED_BLOCKS = 32;
+
+	/**
+	 * @param map
+	 *            isometric map to draw
+	 */
+	public IsoMapRenderer(TmxMap map) {
+		if (map.getOrientation() != TmxMap.Orientations.ISOMETRIC) {
+			throw new IllegalArgumentException("Only isometric maps can be drawn");
+		}
+
+		this.map = map;
+
+		tileWidth = map.getTilewidth();
+		tileHeight = map.getTileheight();
+		originX = map.getHeight() * tileWidth / 2f;
+
+		int tilesetCount = map.getTilesetCount();
+		images = new Image[tilesetCount];
+		columns = new int[tilesetCount];
+		fitsCell = new boolean[tilesetCount];
+		reachesFront = new boolean[tilesetCount];
+		cellBatches = new TileBatch[tilesetCount];
+		for (int i = 0; i < tilesetCount; i++) {
+			cellBatches[i] = new TileBatch();
+		}
+		computeOverdraw();
+	}
+
+	/**
+	 * Starts loading the image of every tileset
+	 *
+	 * @param basePath
+	 *            path the tileset image sources are relative to, usually the
+	 *            folder of the TMX file ending in /
+	 */
+	public void loadTilesetImages(String basePath) {
+		for (int i = 0; i < images.length; i++) {
+			TmxImage image = map.getTilesetAt(i).getImage();
+			if (image != null && image.getSource() != null) {
+				setTilesetImage(i, assets().getImage(basePath + image.getSource()));
+			}
+		}
+	}
+
+	/**
+	 * @param index
+	 *            index of the tileset as in TmxMap.getTilesetAt
+	 * @param image
+	 *            image to take the tiles of the tileset from, tiles are not
+	 *            drawn until it is ready
+	 */
+	public void setTilesetImage(int index, Image image) {
+		images[index] = image;
+		columns[index] = 0;
+		invalidateCaches();
+	}
+
+	/**
+	 * @param index
+	 *            index of the tileset as in TmxMap.getTilesetAt
+	 * @return the image tiles of the tileset are taken from, null if none
+	 */
+	public Image getTilesetImage(int index) {
+		return images[index];
+	}
+
+	/**
+	 * Packs the tiles of all the tilesets with a ready image into an atlas
+	 * and draws them from it from then on
+	 *
+	 * @param pageSize
+	 *            maximum width and height of the atlas pages
+	 * @return the atlas
+	 */
+	public TileAtlas buildAtlas(int pageSize) {
+		TileAtlas res = new TileAtlas(pageSize);
+		res.pack(map, images);
+		setAtlas(res);
+
+		return res;
+	}
+
+	/**
+	 * @param atlas
+	 *            atlas to take the tiles from, tiles not in it are taken from
+	 *            the tileset images, null to stop using it
+	 */
+	public void setAtlas(TileAtlas atlas) {
+		this.atlas = atlas;
+		invalidateCaches();
+	}
+
+	/**
+	 * @return the atlas tiles are taken from, null if none
+	 */
+	public TileAtlas getAtlas() {
+		return atlas;
+	}
+
+	/**
+	 * Sets the part of the map to draw
+	 *
+	 * @param x
+	 *            left of the camera in map pixels
+	 * @param y
+	 *            top of the camera in map pixels
+	 * @param width
+	 * @param height
+	 */
+	public void setCamera(float x, float y, float width, float height) {
+		cameraX = x;
+		cameraY = y;
+		cameraWidth = width;
+		cameraHeight = height;
+	}
+
+	/**
+	 * Sets whether a layer is drawn from cached images of blocks of the layer
+	 * instead of tile by tile, worth it for layers that rarely change
+	 *
+	 * @param layer
+	 *            tile layer of the map
+	 * @param cached
+	 *            false releases the cached images of the layer
+	 */
+	public void setLayerCached(TmxTileLayer layer, boolean cached) {
+		LayerCache cache = caches.get(layer);
+		if (cached && cache == null) {
+			caches.put(layer, null);
+		} else if (!cached && caches.containsKey(layer)) {
+			releaseBlocks(cache);
+			caches.remove(layer);
+		}
+	}
+
+	/**
+	 * @param layer
+	 * @return whether the layer is drawn from cached images
+	 */
+	public boolean isLayerCached(TmxTileLayer layer) {
+		return caches.containsKey(layer);
+	}
+
+	/**
+	 * Marks the cached images a tile is drawn in to be drawn again, to be
+	 * called after changing the tile. Replacing the data or grid of the
+	 * layer invalidates the whole layer without needing to call this, and
+	 * changes made through a {@link TmxEditableTileGrid} only redraw the
+	 * chunks they touched without needing to call this either.
+	 *
+	 * @param layer
+	 *            tile layer of the map
+	 * @param x
+	 *            map coordinates of the tile
+	 * @param y
+	 */
+	public void invalidateTile(TmxTileLayer layer, int x, int y) {
+		LayerCache cache = caches.get(layer);
+		if (cache != null) {
+			invalidateTiles(cache, x, y, x, y);
+		}
+	}
+
+	/**
+	 * Marks the cached blocks a rectangle of tiles is drawn in to be drawn
+	 * again
+	 *
+	 * @param cache
+	 * @param x0
+	 *            map coordinates of the top left tile
+	 * @param y0
+	 * @param x1
+	 *            map coordinates of the bottom right tile
+	 * @param y1
+	 */
+	private void invalidateTiles(LayerCache cache, int x0, int y0, int x1, int y1) {
+		float halfWidth = tileWidth / 2f;
+		float halfHeight = tileHeight / 2f;
+		float left = (x0 - y1) * halfWidth + originX - halfWidth - overdrawLeft;
+		float right = (x1 - y0) * halfWidth + originX + halfWidth + overdrawRight;
+		float top = (x0 + y0) * halfHeight - overdrawTop;
+		float bottom = (x1 + y1) * halfHeight + tileHeight + overdrawBottom;
+		cache.invalidate(left, top, right - left, bottom - top);
+	}
+
+	/**
+	 * Marks the cached blocks of the chunks of an editable grid changed since
+	 * the cache last looked at it to be drawn again
+	 *
+	 * @param cache
+	 * @param grid
+	 */
+	private void invalidateChangedChunks(LayerCache cache, TmxEditableTileGrid grid) {
+		int modCount = grid.getModCount();
+		if (modCount == cache.modCount) {
+			return;
+		}
+
+		int chunkSize = grid.getChunkSize();
+		for (int cy = 0; cy < grid.getChunksDown(); cy++) {
+			for (int cx = 0; cx < grid.getChunksAcross(); cx++) {
+				if (grid.getChunkModCount(cx, cy) > cache.modCount) {
+					int x0 = cx * chunkSize;
+					int y0 = cy * chunkSize;
+					invalidateTiles(cache, x0, y0, Math.min(x0 + chunkSize, grid.getWidth()) - 1,
+							Math.min(y0 + chunkSize, grid.getHeight()) - 1);
+				}
+			}
+		}
+		cache.modCount = modCount;
+	}
+
+	/**
+	 * Marks all cached images of a layer to be drawn again
+	 *
+	 * @param layer
+	 *            tile layer of the map
+	 */
+	public void invalidateLayer(TmxTileLayer layer) {
+		LayerCache cache = caches.get(layer);
+		if (cache != null) {
+			cache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Draws the sprites of a sprite layer between the tiles of a tile layer.
+	 * Layers with sprites are never drawn from cached images.
+	 *
+	 * @param layer
+	 *            tile layer of the map
+	 * @param sprites
+	 *            sprites to draw with the layer, null for none
+	 */
+	public void setSprites(TmxTileLayer layer, IsoSpriteLayer sprites) {
+		if (sprites != null) {
+			spriteLayers.put(layer, sprites);
+		} else {
+			spriteLayers.remove(layer);
+		}
+	}
+
+	/**
+	 * @param layer
+	 *            tile layer of the map
+	 * @return the sprites drawn with the layer, null for none
+	 */
+	public IsoSpriteLayer getSprites(TmxTileLayer layer) {
+		return spriteLayers.get(layer);
+	}
+
+	/**
+	 * @return width and height in pixels of the blocks cached layers are
+	 *         split in
+	 */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Changes the size of the blocks cached layers are split in, releasing
+	 * the images cached so far
+	 *
+	 * @param blockSize
+	 *            width and height in pixels
+	 */
+	public void setBlockSize(int blockSize) {
+		if (blockSize <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid block size: %d", blockSize));
+		}
+
+		this.blockSize = blockSize;
+		for (TmxTileLayer layer : caches.keySet()) {
+			releaseBlocks(caches.get(layer));
+			caches.put(layer, null);
+		}
+	}
+
+	/**
+	 * @return maximum number of cached block images, 0 for no limit
+	 */
+	public int getMaxCachedBlocks() {
+		return maxCachedBlocks;
+	}
+
+	/**
+	 * Limits how many block images are kept, when a new one is needed beyond
+	 * the limit the one used the longest ago is released. Blocks needed by
+	 * the current frame are never released.
+	 *
+	 * @param maxCachedBlocks
+	 *            0 for no limit
+	 */
+	public void setMaxCachedBlocks(int maxCachedBlocks) {
+		this.maxCachedBlocks = maxCachedBlocks;
+
+		while (maxCachedBlocks > 0 && cachedBlocks > maxCachedBlocks && evictLeastRecentlyUsed()) {
+		}
+	}
+
+	/**
+	 * @return number of block images currently cached
+	 */
+	public int getCachedBlockCount() {
+		return cachedBlocks;
+	}
+
+	/**
+	 * @return number of block images drawn from their tiles in the last
+	 *         render
+	 */
+	public int getRedrawnBlockCount() {
+		return redrawnBlocks;
+	}
+
+	/**
+	 * @return width of the whole map in pixels
+	 */
+	public float getMapPixelWidth() {
+		return (map.getWidth() + map.getHeight()) * tileWidth / 2f;
+	}
+
+	/**
+	 * @return height of the whole map in pixels, not counting tiles taller
+	 *         than the map tiles
+	 */
+	public float getMapPixelHeight() {
+		return (map.getWidth() + map.getHeight()) * tileHeight / 2f;
+	}
+
+	/**
+	 * @return number of tiles drawn in the last render
+	 */
+	public int getDrawnTileCount() {
+		return drawnTiles;
+	}
+
+	/**
+	 * @return number of sprites drawn in the last render
+	 */
+	public int getDrawnSpriteCount() {
+		return drawnSprites;
+	}
+
+	/**
+	 * @return number of times the texture being drawn changed in the last
+	 *         render, each change ends a run of draws a batching backend can
+	 *         merge
+	 */
+	public int getBatchCount() {
+		return batches;
+	}
+
+	@Override
+	public void render(Surface surface) {
+		drawnTiles = 0;
+		drawnSprites = 0;
+		batches = 0;
+		redrawnBlocks = 0;
+		lastImage = null;
+		frame++;
+
+		surface.save();
+		surface.translate(-cameraX, -cameraY);
+
+		Iterator<TmxLayer> iterLayers = map.getLayers();
+		while (iterLayers.hasNext()) {
+			TmxLayer layer = iterLayers.next();
+			if (layer instanceof TmxTileLayer) {
+				TmxTileLayer tileLayer = (TmxTileLayer) layer;
+				if (tileLayer.isVisible() && tileLayer.getOpacity() > 0) {
+					TmxTileGrid grid = map.getTileGrid(tileLayer);
+					if (grid != null) {
+						surface.setAlpha(tileLayer.getOpacity());
+						IsoSpriteLayer sprites = spriteLayers.get(tileLayer);
+						if (sprites == null && caches.containsKey(tileLayer) && areImagesReady()) {
+							renderCachedLayer(surface, tileLayer, grid);
+						} else {
+							renderLayer(surface, grid, sprites, cameraX, cameraY, cameraWidth, cameraHeight);
+						}
+					}
+				}
+			}
+		}
+
+		surface.setAlpha(1);
+		surface.restore();
+	}
+
+	/**
+	 * Creates the image a block of a cached layer is drawn on
+	 *
+	 * @param width
+	 * @param height
+	 * @return a new image
+	 */
+	protected CanvasImage createBlockImage(float width, float height) {
+		return graphics().createImage(width, height);
+	}
+
+	/**
+	 * Draws the cached blocks of a layer touching the camera, drawing the
+	 * ones missing or invalidated first
+	 *
+	 * @param surface
+	 * @param layer
+	 * @param grid
+	 *            current tiles of the layer
+	 */
+	private void renderCachedLayer(Surface surface, TmxTileLayer layer, TmxTileGrid grid) {
+		LayerCache cache = caches.get(layer);
+		if (cache == null || cache.grid != grid) {
+			releaseBlocks(cache);
+			cache = createCache(grid);
+			caches.put(layer, cache);
+		} else if (grid instanceof TmxEditableTileGrid) {
+			invalidateChangedChunks(cache, (TmxEditableTileGrid) grid);
+		}
+
+		int size = cache.blockSize;
+		int bxMin = Math.max(0, (int) Math.floor((cameraX - cache.left) / size));
+		int bxMax = Math.min(cache.blocksAcross - 1, (int) Math.floor((cameraX + cameraWidth - cache.left) / size));
+		int byMin = Math.max(0, (int) Math.floor((cameraY - cache.top) / size));
+		int byMax = Math.min(cache.blocksDown - 1, (int) Math.floor((cameraY + cameraHeight - cache.top) / size));
+
+		for (int by = byMin; by <= byMax; by++) {
+			for (int bx = bxMin; bx <= bxMax; bx++) {
+				float x = cache.left + bx * size;
+				float y = cache.top + by * size;
+
+				LayerCache.Block block = cache.blocks[by * cache.blocksAcross + bx];
+				if (block == null) {
+					if (maxCachedBlocks > 0 && cachedBlocks >= maxCachedBlocks) {
+						evictLeastRecentlyUsed();
+					}
+
+					block = new LayerCache.Block();
+					block.image = createBlockImage(size, size);
+					cache.blocks[by * cache.blocksAcross + bx] = block;
+					cachedBlocks++;
+				}
+				block.lastUse = frame;
+
+				if (block.dirty) {
+					Surface blockSurface = new CanvasSurface(block.image.canvas());
+					blockSurface.clear();
+					blockSurface.save();
+					blockSurface.translate(-x, -y);
+					renderLayer(blockSurface, grid, null, x, y, size, size);
+					blockSurface.restore();
+					block.dirty = false;
+					redrawnBlocks++;
+					lastImage = null;
+				}
+
+				if (block.image != lastImage) {
+					lastImage = block.image;
+					batches++;
+				}
+				surface.drawImage(block.image, x, y);
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty cache covering all the pixels the tiles of a grid can
+	 * be drawn on
+	 *
+	 * @param grid
+	 * @return the cache
+	 */
+	private LayerCache createCache(TmxTileGrid grid) {
+		int startX = 0;
+		int startY = 0;
+		if (grid instanceof TmxChunkedTileGrid) {
+			startX = ((TmxChunkedTileGrid) grid).getStartX();
+			startY = ((TmxChunkedTileGrid) grid).getStartY();
+		}
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+
+		float halfWidth = tileWidth / 2f;
+		float halfHeight = tileHeight / 2f;
+		float left = (startX - startY - height + 1) * halfWidth + originX - halfWidth - overdrawLeft;
+		float right = (startX - startY + width - 1) * halfWidth + originX + halfWidth + overdrawRight;
+		float top = (startX + startY) * halfHeight - overdrawTop;
+		float bottom = (startX + startY + width + height - 2) * halfHeight + tileHeight + overdrawBottom;
+
+		LayerCache res = new LayerCache(grid, left, top, right, bottom, blockSize);
+		if (grid instanceof TmxEditableTileGrid) {
+			res.modCount = ((TmxEditableTileGrid) grid).getModCount();
+		}
+		return res;
+	}
+
+	/**
+	 * Marks all the blocks of all cached layers to be drawn again
+	 */
+	private void invalidateCaches() {
+		for (LayerCache cache : caches.values()) {
+			if (cache != null) {
+				cache.invalidateAll();
+			}
+		}
+	}
+
+	/**
+	 * Releases the block images of a cache
+	 *
+	 * @param cache
+	 *            can be null
+	 */
+	private void releaseBlocks(LayerCache cache) {
+		if (cache != null) {
+			for (int i = 0; i < cache.blocks.length; i++) {
+				if (cache.blocks[i] != null) {
+					cache.blocks[i] = null;
+					cachedBlocks--;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases the block image used the longest ago, except the ones used in
+	 * the current frame
+	 *
+	 * @return true if some block was released
+	 */
+	private boolean evictLeastRecentlyUsed() {
+		LayerCache oldestCache = null;
+		int oldest = -1;
+		for (LayerCache cache : caches.values()) {
+			if (cache == null) {
+				continue;
+			}
+
+			for (int i = 0; i < cache.blocks.length; i++) {
+				LayerCache.Block block = cache.blocks[i];
+				if (block != null && block.lastUse < frame
+						&& (oldest < 0 || block.lastUse < oldestCache.blocks[oldest].lastUse)) {
+					oldestCache = cache;
+					oldest = i;
+				}
+			}
+		}
+
+		if (oldest < 0) {
+			return false;
+		}
+
+		oldestCache.blocks[oldest] = null;
+		cachedBlocks--;
+		return true;
+	}
+
+	/**
+	 * @return whether all tileset images are ready, cached blocks are not
+	 *         drawn until they are so no tile is missing from them
+	 */
+	private boolean areImagesReady() {
+		for (int i = 0; i < images.length; i++) {
+			if (images[i] != null && !isTilesetReady(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * @param index
+	 *            index of the tileset
+	 * @return whether the tiles of a tileset can be drawn
+	 */
+	private boolean isTilesetReady(int index) {
+		if (atlas != null && atlas.hasTileset(index)) {
+			return true;
+		}
+
+		Image image = images[index];
+		return image != null && image.isReady();
+	}
+
+	/**
+	 * Draws the tiles of a layer touching a rectangle from back to front
+	 *
+	 * @param surface
+	 * @param grid
+	 * @param sprites
+	 *            sprites to draw between the tiles, can be null
+	 * @param viewX
+	 *            left of the rectangle in map pixels
+	 * @param viewY
+	 *            top of the rectangle in map pixels
+	 * @param viewWidth
+	 * @param viewHeight
+	 */
+	private void renderLayer(Surface surface, TmxTileGrid grid, IsoSpriteLayer sprites, float viewX, float viewY,
+			float viewWidth, float viewHeight) {
+		// Infinite maps are drawn from their first chunk
+		int startX = 0;
+		int startY = 0;
+		if (grid instanceof TmxChunkedTileGrid) {
+			startX = ((TmxChunkedTileGrid) grid).getStartX();
+			startY = ((TmxChunkedTileGrid) grid).getStartY();
+		}
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+
+		float halfWidth = tileWidth / 2f;
+		float halfHeight = tileHeight / 2f;
+
+		// Rows of tiles with the same x + y and columns of tiles with the same
+		// x - y are counted from the first tile of the grid
+		int rowShift = startX + startY;
+		int colShift = startX - startY;
+
+		// Rows touching the rectangle, growing it by how far tile images can
+		// go out of their cells
+		int rowMin = Math.max(0, (int) Math.floor((viewY - tileHeight - overdrawBottom) / halfHeight) - rowShift);
+		int rowMax = Math.min(width + height - 2, (int) Math.ceil((viewY + viewHeight + overdrawTop) / halfHeight)
+				- rowShift);
+
+		// Same for columns
+		int colMin = (int) Math.floor((viewX - originX - halfWidth - overdrawRight) / halfWidth) - colShift;
+		int colMax = (int) Math.ceil((viewX + viewWidth - originX + halfWidth + overdrawLeft) / halfWidth)
+				- colShift;
+
+		for (int row = rowMin; row <= rowMax; row++) {
+			// Keeping x and y inside the grid
+			int colLo = Math.max(colMin, Math.max(-row, row - 2 * (height - 1)));
+			int colHi = Math.min(colMax, Math.min(row, 2 * (width - 1) - row));
+
+			// x - y has the same parity as x + y
+			if (((colLo + row) & 1) != 0) {
+				colLo++;
+			}
+
+			float cellY = (row + rowShift) * halfHeight;
+			for (int col = colLo; col <= colHi; col += 2) {
+				int x = (row + col) >> 1;
+				int y = (row - col) >> 1;
+
+				int gid = grid.getGid(x, y);
+				if (gid != 0) {
+					float cellX = (col + colShift) * halfWidth + originX - halfWidth;
+					addTile(gid, grid.getFlip(x, y), cellX, cellY, row + rowShift);
+				}
+			}
+		}
+
+		if (sprites == null) {
+			drawBatches(surface);
+		} else {
+			drawBatches(surface, sprites, viewX, viewY, viewWidth, viewHeight);
+		}
+	}
+
+	/**
+	 * Adds a visible tile to the batch it has to be drawn with
+	 *
+	 * @param gid
+	 *            global tile id without flip flags
+	 * @param flip
+	 *            flip flags of the tile
+	 * @param cellX
+	 *            left of the cell in map pixels
+	 * @param cellY
+	 *            top of the cell in map pixels
+	 * @param row
+	 *            x + y of the cell in map coordinates
+	 */
+	private void addTile(int gid, int flip, float cellX, float cellY, int row) {
+		int index = map.resolveGid(gid);
+		if (index < 0) {
+			return;
+		}
+
+		if (!isTilesetReady(index)) {
+			return;
+		}
+
+		int localId = gid - map.getTilesetAt(index).getFirstgid();
+		TileBatch batch = fitsCell[index] ? cellBatches[index] : overflowBatch;
+		batch.add(cellX, cellY, row, index, localId, flip);
+	}
+
+	/**
+	 * Draws the tiles collected for a layer and empties the batches
+	 *
+	 * @param surface
+	 */
+	private void drawBatches(Surface surface) {
+		nextFrontTile = -1;
+		for (int tile = 0; tile < overflowBatch.count; tile++) {
+			drawOverflowTile(surface, tile);
+		}
+		finishBatches(surface);
+	}
+
+	/**
+	 * Draws the tiles collected for a layer with the sprites touching a
+	 * rectangle, each sprite after the tiles of its row that grow out of
+	 * their cells, and empties the batches
+	 *
+	 * @param surface
+	 * @param sprites
+	 * @param viewX
+	 *            left of the rectangle in map pixels
+	 * @param viewY
+	 *            top of the rectangle in map pixels
+	 * @param viewWidth
+	 * @param viewHeight
+	 */
+	private void drawBatches(Surface surface, IsoSpriteLayer sprites, float viewX, float viewY, float viewWidth,
+			float viewHeight) {
+		nextFrontTile = -1;
+
+		// Sprite feet can be up to two rows below the row they are sorted in
+		float halfHeight = tileHeight / 2f;
+		int margin = sprites.getCullMargin();
+		int rowMin = (int) Math.floor((viewY - margin) / halfHeight) - 2;
+		int rowMax = (int) Math.ceil((viewY + viewHeight + margin) / halfHeight);
+
+		int tile = 0;
+		Iterator<IsoSprite> iterSprites = sprites.getSpritesFrom(rowMin);
+		while (iterSprites.hasNext()) {
+			IsoSprite sprite = iterSprites.next();
+			if (sprite.sortRow > rowMax) {
+				break;
+			}
+
+			for (; tile < overflowBatch.count && overflowBatch.rows[tile] <= sprite.sortRow; tile++) {
+				drawOverflowTile(surface, tile);
+			}
+
+			// Tiles fitting their cells are under the sprite unless a tile
+			// behind them reaching their cells still has to be drawn
+			drawCellTiles(surface, getCellRowLimit(tile));
+
+			if (sprite.isVisible()) {
+				drawSprite(surface, sprite, viewX - margin, viewX + viewWidth + margin);
+			}
+		}
+
+		for (; tile < overflowBatch.count; tile++) {
+			drawOverflowTile(surface, tile);
+		}
+		finishBatches(surface);
+	}
+
+	/**
+	 * Draws a tile growing out of its cell after the tiles fitting their
+	 * cells it has to cover
+	 *
+	 * @param surface
+	 * @param tile
+	 *            index of the tile in overflowBatch
+	 */
+	private void drawOverflowTile(Surface surface, int tile) {
+		drawCellTiles(surface, getCellRowLimit(tile));
+		drawBatchTile(surface, overflowBatch, tile);
+	}
+
+	/**
+	 * @param tile
+	 *            index of the next tile to draw in overflowBatch
+	 * @return last row of the tiles fitting their cells that can be drawn
+	 *         before that tile, the row of the next tile reaching the cells
+	 *         in front of its own
+	 */
+	private int getCellRowLimit(int tile) {
+		if (nextFrontTile < tile) {
+			nextFrontTile = tile;
+			while (nextFrontTile < overflowBatch.count && !reachesFront[overflowBatch.tilesets[nextFrontTile]]) {
+				nextFrontTile++;
+			}
+		}
+
+		return nextFrontTile < overflowBatch.count ? overflowBatch.rows[nextFrontTile] : Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Draws the tiles fitting their cells not drawn yet up to a row, tileset
+	 * by tileset
+	 *
+	 * @param surface
+	 * @param row
+	 *            x + y of the last row to draw in map coordinates
+	 */
+	private void drawCellTiles(Surface surface, int row) {
+		for (int i = 0; i < cellBatches.length; i++) {
+			TileBatch batch = cellBatches[i];
+			for (; batch.drawn < batch.count && batch.rows[batch.drawn] <= row; batch.drawn++) {
+				drawBatchTile(surface, batch, batch.drawn);
+			}
+		}
+	}
+
+	/**
+	 * Draws the tiles fitting their cells left and empties the batches
+	 *
+	 * @param surface
+	 */
+	private void finishBatches(Surface surface) {
+		drawCellTiles(surface, Integer.MAX_VALUE);
+		for (int i = 0; i < cellBatches.length; i++) {
+			cellBatches[i].clear();
+		}
+		overflowBatch.clear();
+	}
+
+	private void drawBatchTile(Surface surface, TileBatch batch, int i) {
+		if (drawTile(surface, batch.tilesets[i], batch.localIds[i], batch.flips[i], batch.xs[i], batch.ys[i])) {
+			drawnTiles++;
+		}
+	}
+
+	/**
+	 * Draws a sprite if it is inside a range of x
+	 *
+	 * @param surface
+	 * @param sprite
+	 * @param left
+	 *            lowest x in map pixels the feet of a drawn sprite can be at
+	 * @param right
+	 *            highest x in map pixels the feet of a drawn sprite can be
+	 *            at
+	 */
+	private void drawSprite(Surface surface, IsoSprite sprite, float left, float right) {
+		float x = (sprite.getX() - sprite.getY()) * tileWidth / 2f + originX;
+		float y = (sprite.getX() + sprite.getY()) * tileHeight / 2f;
+		if (x < left || x > right) {
+			return;
+		}
+
+		Image image = sprite.getImage();
+		if (image != null) {
+			if (!image.isReady()) {
+				return;
+			}
+
+			if (image != lastImage) {
+				lastImage = image;
+				batches++;
+			}
+			surface.drawImage(image, x - sprite.getOriginX(), y - sprite.getOriginY());
+			drawnSprites++;
+			return;
+		}
+
+		int index = map.resolveGid(sprite.getGid());
+		if (index < 0 || !isTilesetReady(index)) {
+			return;
+		}
+
+		// Tiles stand on the middle of their bottom edge
+		TmxTileset tileset = map.getTilesetAt(index);
+		if (drawTile(surface, index, sprite.getGid() - tileset.getFirstgid(), sprite.getFlip(), x
+				- tileset.getTilewidth() / 2f, y - tileHeight)) {
+			drawnSprites++;
+		}
+	}
+
+	/**
+	 * Draws a tile with its bottom left corner at the bottom left corner of
+	 * its cell
+	 *
+	 * @param surface
+	 * @param index
+	 *            index of the tileset
+	 * @param localId
+	 *            id of the tile inside the tileset
+	 * @param flip
+	 *            flip flags of the tile
+	 * @param cellX
+	 *            left of the cell in map pixels
+	 * @param cellY
+	 *            top of the cell in map pixels
+	 * @return false if the tile can't be found in the tileset image
+	 */
+	private boolean drawTile(Surface surface, int index, int localId, int flip, float cellX, float cellY) {
+		TmxTileset tileset = map.getTilesetAt(index);
+		if (localId < 0 || localId >= tileset.getTileCount()) {
+			return drawUnlistedTile(surface, index, localId, flip, cellX, cellY);
+		}
+
+		int w = tileset.getTileRect(localId, TmxTileset.RECT_WIDTH);
+		int h = tileset.getTileRect(localId, TmxTileset.RECT_HEIGHT);
+		float dstX = cellX + tileset.getTileRect(localId, TmxTileset.RECT_OFFSET_X);
+		float dstY = cellY + tileHeight - h + tileset.getTileRect(localId, TmxTileset.RECT_OFFSET_Y);
+
+		Image image;
+		float srcX;
+		float srcY;
+		int slot = atlas != null ? atlas.getSlot(index, localId) : -1;
+		if (slot >= 0) {
+			image = atlas.getPage(atlas.getSlotPage(slot));
+			srcX = atlas.getSlotX(slot);
+			srcY = atlas.getSlotY(slot);
+		} else {
+			image = images[index];
+			if (image == null || !image.isReady()) {
+				return false;
+			}
+			srcX = tileset.getTileRect(localId, TmxTileset.RECT_X);
+			srcY = tileset.getTileRect(localId, TmxTileset.RECT_Y);
+		}
+
+		drawImage(surface, image, flip, dstX, dstY, w, h, srcX, srcY);
+		return true;
+	}
+
+	/**
+	 * Draws a tile of a tileset whose image size is unknown until the image
+	 * is loaded, so its tiles are not in the tileset table
+	 *
+	 * @see #drawTile
+	 */
+	private boolean drawUnlistedTile(Surface surface, int index, int localId, int flip, float cellX, float cellY) {
+		Image image = images[index];
+		if (image == null || !image.isReady()) {
+			return false;
+		}
+
+		TmxTileset tileset = map.getTilesetAt(index);
+		int cols = getColumns(index, tileset, image);
+		if (cols <= 0) {
+			return false;
+		}
+
+		int w = tileset.getTilewidth();
+		int h = tileset.getTileheight();
+		float srcX = tileset.getMargin() + (localId % cols) * (w + tileset.getSpacing());
+		float srcY = tileset.getMargin() + (localId / cols) * (h + tileset.getSpacing());
+
+		float dstX = cellX;
+		float dstY = cellY + tileHeight - h;
+		TmxTileOffset offset = tileset.getTileOffset();
+		if (offset != null) {
+			dstX += offset.getX();
+			dstY += offset.getY();
+		}
+
+		drawImage(surface, image, flip, dstX, dstY, w, h, srcX, srcY);
+		return true;
+	}
+
+	/**
+	 * Draws a part of an image flipped as a tile
+	 */
+	private void drawImage(Surface surface, Image image, int flip, float dstX, float dstY, int w, int h, float srcX,
+			float srcY) {
+		if (image != lastImage) {
+			lastImage = image;
+			batches++;
+		}
+
+		if (flip == 0) {
+			surface.drawImage(image, dstX, dstY, w, h, srcX, srcY, w, h);
+		} else {
+			// Flipping around the center of the tile, the diagonal flip goes
+			// first as in Tiled
+			surface.save();
+			surface.translate(dstX + w / 2f, dstY + h / 2f);
+			surface.scale((flip & TmxData.FLIPPED_HORIZONTALLY) != 0 ? -1 : 1,
+					(flip & TmxData.FLIPPED_VERTICALLY) != 0 ? -1 : 1);
+			if ((flip & TmxData.FLIPPED_DIAGONALLY) != 0) {
+				surface.transform(0, 1, 1, 0, 0, 0);
+			}
+			surface.drawImage(image, -w / 2f, -h / 2f, w, h, srcX, srcY, w, h);
+			surface.restore();
+		}
+	}
+
+	/**
+	 * @return number of tile columns in the image of a tileset, 0 if unknown
+	 */
+	private int getColumns(int index, TmxTileset tileset, Image image) {
+		if (columns[index] == 0) {
+			TmxImage tmxImage = tileset.getImage();
+			float imageWidth = tmxImage != null && tmxImage.getWidth() > 0 ? tmxImage.getWidth() : image.width();
+			int step = tileset.getTilewidth() + tileset.getSpacing();
+			if (step > 0) {
+				columns[index] = (int) ((imageWidth - 2 * tileset.getMargin() + tileset.getSpacing()) / step);
+			}
+		}
+
+		return columns[index];
+	}
+
+	/**
+	 * Finds how far tile images can be drawn out of their cells, so tiles in
+	 * cells just out of the camera that still reach into it get drawn
+	 */
+	private void computeOverdraw() {
+		for (int i = 0; i < images.length; i++) {
+			TmxTileset tileset = map.getTilesetAt(i);
+			int offsetX = 0;
+			int offsetY = 0;
+			if (tileset.getTileOffset() != null) {
+				offsetX = tileset.getTileOffset().getX();
+				offsetY = tileset.getTileOffset().getY();
+			}
+
+			overdrawTop = Math.max(overdrawTop, tileset.getTileheight() - tileHeight - offsetY);
+			overdrawBottom = Math.max(overdrawBottom, offsetY);
+			overdrawLeft = Math.max(overdrawLeft, -offsetX);
+			overdrawRight = Math.max(overdrawRight, tileset.getTilewidth() - tileWidth + offsetX);
+
+			fitsCell[i] = tileset.getTilewidth() <= tileWidth && tileset.getTileheight() <= tileHeight
+					&& offsetX == 0 && offsetY == 0;
+			reachesFront[i] = tileset.getTilewidth() > tileWidth || offsetX != 0 || offsetY > 0;
+		}
+	}
+
+	/**
+	 * Map being drawn
+	 */
+	private final TmxMap map;
+
+	/**
+	 * Size of the map cells in pixels
+	 */
+	private final int tileWidth;
+	private final int tileHeight;
+
+	/**
+	 * X of the top corner of tile 0,0 in map pixels
+	 */
+	private final float originX;
+
+	/**
+	 * Image of each tileset by tileset index
+	 */
+	private final Image[] images;
+
+	/**
+	 * Tile columns in the image of each tileset, 0 until computed
+	 */
+	private final int[] columns;
+
+	/**
+	 * Whether the tiles of each tileset fit inside a map cell
+	 */
+	private final boolean[] fitsCell;
+
+	/**
+	 * Whether the tiles of each tileset can be drawn over cells in front of
+	 * theirs, where tiles fitting those cells have to cover them
+	 */
+	private final boolean[] reachesFront;
+
+	/**
+	 * Visible tiles of the layer being drawn that fit their cell, one batch
+	 * per tileset
+	 */
+	private final TileBatch[] cellBatches;
+
+	/**
+	 * Visible tiles of the layer being drawn that grow out of their cell, in
+	 * back to front order
+	 */
+	private final TileBatch overflowBatch = new TileBatch();
+
+	/**
+	 * Index in overflowBatch of the next tile reaching the cells in front of
+	 * its own, count if there is none, -1 until looked for
+	 */
+	private int nextFrontTile = -1;
+
+	/**
+	 * Pixels tile images can go out of their cells in each direction
+	 */
+	private int overdrawTop = 0;
+	private int overdrawBottom = 0;
+	private int overdrawLeft = 0;
+	private int overdrawRight = 0;
+
+	/**
+	 * Camera rectangle in map pixels
+	 */
+	private float cameraX = 0;
+	private float cameraY = 0;
+	private float cameraWidth = 0;
+	private float cameraHeight = 0;
+
+	/**
+	 * Tiles drawn in the last render
+	 */
+	private int drawnTiles = 0;
+
+	/**
+	 * Sprites drawn in the last render
+	 */
+	private int drawnSprites = 0;
+
+	/**
+	 * Texture changes in the last render
+	 */
+	private int batches = 0;
+
+	/**
+	 * Image of the last tile drawn
+	 */
+	private Image lastImage;
+
+	/**
+	 * Cache of each cached layer, null until the layer is first drawn
+	 */
+	private final IdentityHashMap<TmxTileLayer, LayerCache> caches = new IdentityHashMap<TmxTileLayer, LayerCache>();
+
+	/**
+	 * Atlas tiles are taken from, null if none
+	 */
+	private TileAtlas atlas;
+
+	/**
+	 * Sprites drawn with each tile layer
+	 */
+	private final IdentityHashMap<TmxTileLayer, IsoSpriteLayer> spriteLayers = new IdentityHashMap<TmxTileLayer,
+			IsoSpriteLayer>();
+
+	/**
+	 * Size of the blocks of new caches
+	 */
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	/**
+	 * Maximum number of cached block images, 0 for no limit
+	 */
+	private int maxCachedBlocks = DEFAULT_MAX_CACHED_BLOCKS;
+
+	/**
+	 * Number of cached block images in all caches
+	 */
+	private int cachedBlocks = 0;
+
+	/**
+	 * Block images drawn from their tiles in the last render
+	 */
+	private int redrawnBlocks = 0;
+
+	/**
+	 * Number of renders so far
+	 */
+	private long frame = 0;
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+import playn.core.Image;
+
+/**
+ * Something standing on an isometric map, drawn between the tiles in front of
+ * it and the ones behind it. Its position is the point of the map its feet
+ * touch, in map coordinates so tile x, y covers from x, y to x + 1, y + 1.
+ *
+ * A sprite shows either an image or a tile of the map tilesets, tiles are
+ * drawn with the middle of their bottom edge at the position as Tiled does
+ * with tile objects.
+ */
+public class IsoSprite {
+
+	/**
+	 * Creates a sprite showing an image
+	 *
+	 * @param image
+	 * @param originX
+	 *            x of the pixel of the image placed at the sprite position
+	 * @param originY
+	 *            y of the pixel of the image placed at the sprite position
+	 */
+	public IsoSprite(Image image, float originX, float originY) {
+		this.image = image;
+		this.originX = originX;
+		this.originY = originY;
+	}
+
+	/**
+	 * Creates a sprite showing a tile of the map
+	 *
+	 * @param gid
+	 *            global tile id without flip flags
+	 * @param flip
+	 *            flip flags of the tile
+	 */
+	public IsoSprite(int gid, int flip) {
+		this.gid = gid;
+		this.flip = flip;
+	}
+
+	/**
+	 * @return x map coordinate of the sprite feet
+	 */
+	public float getX() {
+		return x;
+	}
+
+	/**
+	 * @return y map coordinate of the sprite feet
+	 */
+	public float getY() {
+		return y;
+	}
+
+	/**
+	 * Moves the sprite, its drawing order is updated the next time its layer
+	 * is drawn
+	 *
+	 * @param x
+	 *            map coordinates of the sprite feet
+	 * @param y
+	 */
+	public void setPosition(float x, float y) {
+		this.x = x;
+		this.y = y;
+
+		if (layer != null) {
+			layer.moved(this);
+		}
+	}
+
+	/**
+	 * @return the image shown, null for tile sprites
+	 */
+	public Image getImage() {
+		return image;
+	}
+
+	/**
+	 * @return the tile shown without flip flags, 0 for image sprites
+	 */
+	public int getGid() {
+		return gid;
+	}
+
+	/**
+	 * @return the flip flags of the tile shown
+	 */
+	public int getFlip() {
+		return flip;
+	}
+
+	/**
+	 * @return x of the pixel of the image placed at the sprite position
+	 */
+	public float getOriginX() {
+		return originX;
+	}
+
+	/**
+	 * @return y of the pixel of the image placed at the sprite position
+	 */
+	public float getOriginY() {
+		return originY;
+	}
+
+	/**
+	 * @return whether the sprite is drawn
+	 */
+	public boolean isVisible() {
+		return visible;
+	}
+
+	/**
+	 * @param visible
+	 *            whether the sprite is drawn
+	 */
+	public void setVisible(boolean visible) {
+		this.visible = visible;
+	}
+
+	/**
+	 * @return the layer the sprite is in, null if none
+	 */
+	public IsoSpriteLayer getLayer() {
+		return layer;
+	}
+
+	/**
+	 * Map coordinates of the feet
+	 */
+	private float x = 0;
+	private float y = 0;
+
+	/**
+	 * Image shown and the pixel of it placed at the position
+	 */
+	private Image image;
+	private float originX = 0;
+	private float originY = 0;
+
+	/**
+	 * Tile shown when there is no image
+	 */
+	private int gid = 0;
+	private int flip = 0;
+
+	private boolean visible = true;
+
+	/**
+	 * Layer the sprite is in
+	 */
+	IsoSpriteLayer layer;
+
+	/**
+	 * Position the sprite is sorted by in its layer, only changed while the
+	 * sprite is out of the sorted set
+	 */
+	int sortRow;
+	float sortDepth;
+
+	/**
+	 * Order the sprite was added to its layer, breaks ties between sprites at
+	 * the same depth
+	 */
+	long sortId;
+
+	/**
+	 * Whether the sprite moved since its layer was last sorted
+	 */
+	boolean moved;
+}
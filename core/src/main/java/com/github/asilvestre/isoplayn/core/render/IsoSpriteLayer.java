@@ -0,0 +1,225 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxMap;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxObject;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxObjectGroup;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxObjectTile;
+
+/**
+ * Sprites kept in isometric drawing order, by the row of tiles with the same
+ * x + y their feet are in and then by x + y. A sprite is drawn after the
+ * tiles of its row.
+ *
+ * Sprites are kept sorted all the time, moving one only sorts it again the
+ * next time the layer is drawn, so a frame costs O(m log n) for m sprites
+ * moved out of n.
+ */
+public class IsoSpriteLayer {
+
+	/**
+	 * Pixels sprites can reach out of their row by default
+	 */
+	public static final int DEFAULT_CULL_MARGIN = 256;
+
+	/**
+	 * @param sprite
+	 *            sprite to add, it is removed from any other layer
+	 */
+	public void add(IsoSprite sprite) {
+		if (sprite.layer != null) {
+			sprite.layer.remove(sprite);
+		}
+
+		sprite.layer = this;
+		sprite.moved = false;
+		sprite.sortId = nextId++;
+		setSortKey(sprite);
+		sorted.add(sprite);
+	}
+
+	/**
+	 * @param sprite
+	 *            sprite to remove
+	 * @return false if the sprite wasn't in this layer
+	 */
+	public boolean remove(IsoSprite sprite) {
+		if (sprite.layer != this) {
+			return false;
+		}
+
+		// Moved sprites are skipped when sorting once they are out
+		sorted.remove(sprite);
+		sprite.layer = null;
+		return true;
+	}
+
+	/**
+	 * Adds a sprite for every visible tile object of an object group
+	 *
+	 * @param group
+	 *            objects to add
+	 * @param map
+	 *            isometric map the objects are in, Tiled measures both object
+	 *            axes in map tile heights
+	 * @return sprites added, in the order of the objects
+	 */
+	public ArrayList<IsoSprite> addObjects(TmxObjectGroup group, TmxMap map) {
+		ArrayList<IsoSprite> res = new ArrayList<IsoSprite>();
+
+		float unit = map.getTileheight();
+		Iterator<TmxObject> iterObjects = group.getObjects();
+		while (iterObjects.hasNext()) {
+			TmxObject object = iterObjects.next();
+			if (object instanceof TmxObjectTile && object.isVisible()) {
+				TmxObjectTile tile = (TmxObjectTile) object;
+				IsoSprite sprite = new IsoSprite(tile.getGid(), tile.getFlip());
+				sprite.setPosition(object.getX() / unit, object.getY() / unit);
+				add(sprite);
+				res.add(sprite);
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * @return number of sprites in the layer
+	 */
+	public int getSpriteCount() {
+		return sorted.size();
+	}
+
+	/**
+	 * @return how many pixels sprites can reach above or below the row they
+	 *         are in and still be drawn when their row is out of the camera
+	 */
+	public int getCullMargin() {
+		return cullMargin;
+	}
+
+	/**
+	 * @param cullMargin
+	 *            how many pixels sprites can reach above or below the row
+	 *            they are in, usually the height of the tallest sprite
+	 */
+	public void setCullMargin(int cullMargin) {
+		this.cullMargin = cullMargin;
+	}
+
+	/**
+	 * @return the sprites in drawing order, sorting the moved ones first
+	 */
+	public Iterator<IsoSprite> getSprites() {
+		sort();
+
+		return sorted.iterator();
+	}
+
+	/**
+	 * @param row
+	 *            x + y of a row of tiles
+	 * @return the sprites in drawing order from the given row, sorting the
+	 *         moved ones first
+	 */
+	Iterator<IsoSprite> getSpritesFrom(int row) {
+		sort();
+
+		probe.sortRow = row;
+		return sorted.tailSet(probe).iterator();
+	}
+
+	/**
+	 * Sorts again the sprites moved since the last call
+	 *
+	 * @return number of sprites sorted again
+	 */
+	int sort() {
+		int count = 0;
+		for (int i = 0; i < moved.size(); i++) {
+			IsoSprite sprite = moved.get(i);
+			sprite.moved = false;
+			if (sprite.layer == this) {
+				sorted.remove(sprite);
+				setSortKey(sprite);
+				sorted.add(sprite);
+				count++;
+			}
+		}
+		moved.clear();
+
+		return count;
+	}
+
+	/**
+	 * Called by sprites of this layer when they move
+	 *
+	 * @param sprite
+	 */
+	void moved(IsoSprite sprite) {
+		if (!sprite.moved) {
+			sprite.moved = true;
+			moved.add(sprite);
+		}
+	}
+
+	private static void setSortKey(IsoSprite sprite) {
+		sprite.sortRow = (int) Math.floor(sprite.getX()) + (int) Math.floor(sprite.getY());
+		sprite.sortDepth = sprite.getX() + sprite.getY();
+	}
+
+	/**
+	 * Sprites in drawing order
+	 */
+	private final TreeSet<IsoSprite> sorted = new TreeSet<IsoSprite>(new Comparator<IsoSprite>() {
+		public int compare(IsoSprite a, IsoSprite b) {
+			if (a.sortRow != b.sortRow) {
+				return a.sortRow < b.sortRow ? -1 : 1;
+			}
+			if (a.sortDepth != b.sortDepth) {
+				return a.sortDepth < b.sortDepth ? -1 : 1;
+			}
+			return a.sortId < b.sortId ? -1 : a.sortId > b.sortId ? 1 : 0;
+		}
+	});
+
+	/**
+	 * Sprites moved since the last sort
+	 */
+	private final ArrayList<IsoSprite> moved = new ArrayList<IsoSprite>();
+
+	/**
+	 * Sorts before every sprite of a row, to look sprites up by row
+	 */
+	private final IsoSprite probe = new IsoSprite(null, 0, 0);
+	{
+		probe.sortDepth = Float.NEGATIVE_INFINITY;
+		probe.sortId = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Id of the next sprite added
+	 */
+	private long nextId = 0;
+
+	private int cullMargin = DEFAULT_CULL_MARGIN;
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+import playn.core.CanvasImage;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxTileGrid;
+
+/**
+ * Pre-drawn images of a tile layer, the pixels the layer covers are split in
+ * square blocks each drawn on its own image the first time it is seen
+ */
+class LayerCache {
+
+	/**
+	 * @param grid
+	 *            tiles the blocks are drawn from
+	 * @param left
+	 *            left of the pixels covered by the layer in map pixels
+	 * @param top
+	 *            top of the pixels covered by the layer in map pixels
+	 * @param right
+	 * @param bottom
+	 * @param blockSize
+	 *            width and height of each block in pixels
+	 */
+	LayerCache(TmxTileGrid grid, float left, float top, float right, float bottom, int blockSize) {
+		this.grid = grid;
+		this.left = (int) Math.floor(left);
+		this.top = (int) Math.floor(top);
+		this.blockSize = blockSize;
+
+		blocksAcross = Math.max(1, (int) Math.ceil((right - this.left) / blockSize));
+		blocksDown = Math.max(1, (int) Math.ceil((bottom - this.top) / blockSize));
+		blocks = new Block[blocksAcross * blocksDown];
+	}
+
+	/**
+	 * Marks the blocks touching a rectangle to be drawn again
+	 *
+	 * @param x
+	 *            left of the rectangle in map pixels
+	 * @param y
+	 *            top of the rectangle in map pixels
+	 * @param width
+	 * @param height
+	 */
+	void invalidate(float x, float y, float width, float height) {
+		int bxMin = Math.max(0, (int) Math.floor((x - left) / blockSize));
+		int bxMax = Math.min(blocksAcross - 1, (int) Math.floor((x + width - left) / blockSize));
+		int byMin = Math.max(0, (int) Math.floor((y - top) / blockSize));
+		int byMax = Math.min(blocksDown - 1, (int) Math.floor((y + height - top) / blockSize));
+
+		for (int by = byMin; by <= byMax; by++) {
+			for (int bx = bxMin; bx <= bxMax; bx++) {
+				Block block = blocks[by * blocksAcross + bx];
+				if (block != null) {
+					block.dirty = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Marks all blocks to be drawn again
+	 */
+	void invalidateAll() {
+		for (int i = 0; i < blocks.length; i++) {
+			if (blocks[i] != null) {
+				blocks[i].dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * A block of the layer
+	 */
+	static class Block {
+		/**
+		 * Pixels of the layer in the block
+		 */
+		CanvasImage image;
+
+		/**
+		 * Whether image has to be drawn again
+		 */
+		boolean dirty = true;
+
+		/**
+		 * Last frame the block was drawn in
+		 */
+		long lastUse;
+	}
+
+	/**
+	 * Tiles the blocks are drawn from
+	 */
+	final TmxTileGrid grid;
+
+	/**
+	 * Top left corner of the first block in map pixels
+	 */
+	final int left;
+	final int top;
+
+	/**
+	 * Width and height of each block in pixels
+	 */
+	final int blockSize;
+
+	/**
+	 * Number of blocks in each direction
+	 */
+	final int blocksAcross;
+	final int blocksDown;
+
+	/**
+	 * Blocks row by row, null until they are first drawn or after being
+	 * released
+	 */
+	final Block[] blocks;
+
+	/**
+	 * Mod count of the grid when its changes were last looked at, only used
+	 * for editable grids
+	 */
+	int modCount;
+}
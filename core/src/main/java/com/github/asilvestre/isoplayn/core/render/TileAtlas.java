@@ -0,0 +1,331 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+import static playn.core.PlayN.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import playn.core.CanvasImage;
+import playn.core.Image;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxImage;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxMap;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxTileset;
+
+/**
+ * Tiles of all the tilesets of a map copied into a few big images, so drawing
+ * a map binds a few textures instead of one per tileset.
+ *
+ * Tiles are cut from the tileset images taking margin and spacing into
+ * account and placed in rows on pages of at most pageSize x pageSize pixels,
+ * with a transparent pixel between them so they don't bleed into each other
+ * when scaled. Pixels of the trans colour of a tileset image become
+ * transparent while copying, so nothing has to be done about it when drawing.
+ */
+public class TileAtlas {
+
+	/**
+	 * Default maximum width and height of the pages, supported by most GPUs
+	 */
+	public static final int DEFAULT_PAGE_SIZE = 2048;
+
+	/**
+	 * Transparent pixels left between tiles
+	 */
+	private static final int PADDING = 1;
+
+	public TileAtlas() {
+		this(DEFAULT_PAGE_SIZE);
+	}
+
+	/**
+	 * @param pageSize
+	 *            maximum width and height of the pages in pixels
+	 */
+	public TileAtlas(int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid page size: %d", pageSize));
+		}
+
+		this.pageSize = pageSize;
+	}
+
+	/**
+	 * Copies the tiles of all the tilesets of a map to the atlas, replacing
+	 * whatever it had
+	 *
+	 * @param map
+	 * @param images
+	 *            image of each tileset by tileset index, tilesets without a
+	 *            ready image are left out
+	 */
+	public void pack(TmxMap map, Image[] images) {
+		int tilesetCount = map.getTilesetCount();
+		firstSlots = new int[tilesetCount + 1];
+
+		// Counting the tiles of each tileset
+		int[] counts = new int[tilesetCount];
+		int slots = 0;
+		for (int i = 0; i < tilesetCount; i++) {
+			firstSlots[i] = slots;
+			if (i < images.length && images[i] != null && images[i].isReady()) {
+				TmxTileset tileset = map.getTilesetAt(i);
+				if (tileset.getTilewidth() + PADDING > pageSize || tileset.getTileheight() + PADDING > pageSize) {
+					throw new IllegalArgumentException(String.format("Tiles of tileset %s don't fit in a page",
+							tileset.getName()));
+				}
+
+				counts[i] = getColumns(tileset, images[i]) * getRows(tileset, images[i]);
+				slots += counts[i];
+			}
+		}
+		firstSlots[tilesetCount] = slots;
+
+		slotPages = new int[slots];
+		slotXs = new int[slots];
+		slotYs = new int[slots];
+
+		// Placing the tiles in rows, tallest tilesets first so rows waste
+		// less space
+		Integer[] order = new Integer[tilesetCount];
+		for (int i = 0; i < tilesetCount; i++) {
+			order[i] = i;
+		}
+		final TmxMap sortedMap = map;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return sortedMap.getTilesetAt(b).getTileheight() - sortedMap.getTilesetAt(a).getTileheight();
+			}
+		});
+
+		ArrayList<int[]> pageSizes = new ArrayList<int[]>();
+		int page = 0;
+		int x = 0;
+		int y = 0;
+		int rowHeight = 0;
+		int pageWidth = 0;
+		for (int i : order) {
+			TmxTileset tileset = map.getTilesetAt(i);
+			int w = tileset.getTilewidth() + PADDING;
+			int h = tileset.getTileheight() + PADDING;
+
+			for (int slot = firstSlots[i]; slot < firstSlots[i] + counts[i]; slot++) {
+				if (x + w > pageSize) {
+					x = 0;
+					y += rowHeight;
+					rowHeight = 0;
+				}
+				if (y + h > pageSize) {
+					pageSizes.add(new int[] { pageWidth, y });
+					page++;
+					x = 0;
+					y = 0;
+					pageWidth = 0;
+				}
+
+				slotPages[slot] = page;
+				slotXs[slot] = x;
+				slotYs[slot] = y;
+				x += w;
+				rowHeight = Math.max(rowHeight, h);
+				pageWidth = Math.max(pageWidth, x);
+			}
+		}
+		if (slots > 0) {
+			pageSizes.add(new int[] { pageWidth, y + rowHeight });
+		}
+
+		pages = new CanvasImage[pageSizes.size()];
+		for (int i = 0; i < pages.length; i++) {
+			pages[i] = createPage(pageSizes.get(i)[0], pageSizes.get(i)[1]);
+		}
+
+		for (int i = 0; i < tilesetCount; i++) {
+			if (counts[i] > 0) {
+				copyTiles(map.getTilesetAt(i), images[i], firstSlots[i]);
+			}
+		}
+	}
+
+	/**
+	 * @return number of pages
+	 */
+	public int getPageCount() {
+		return pages.length;
+	}
+
+	/**
+	 * @param page
+	 * @return the image of a page
+	 */
+	public CanvasImage getPage(int page) {
+		return pages[page];
+	}
+
+	/**
+	 * @param tileset
+	 *            index of the tileset as in TmxMap.getTilesetAt
+	 * @return whether the tiles of the tileset are in the atlas
+	 */
+	public boolean hasTileset(int tileset) {
+		return tileset < firstSlots.length - 1 && firstSlots[tileset + 1] > firstSlots[tileset];
+	}
+
+	/**
+	 * @param tileset
+	 *            index of the tileset as in TmxMap.getTilesetAt
+	 * @param localId
+	 *            id of the tile inside the tileset
+	 * @return position of the tile in the atlas, -1 if it isn't in it
+	 */
+	public int getSlot(int tileset, int localId) {
+		if (tileset >= firstSlots.length - 1 || localId < 0) {
+			return -1;
+		}
+
+		int slot = firstSlots[tileset] + localId;
+		return slot < firstSlots[tileset + 1] ? slot : -1;
+	}
+
+	/**
+	 * @param slot
+	 *            position of a tile as returned by getSlot
+	 * @return the page the tile is in
+	 */
+	public int getSlotPage(int slot) {
+		return slotPages[slot];
+	}
+
+	/**
+	 * @param slot
+	 *            position of a tile as returned by getSlot
+	 * @return left of the tile in its page in pixels
+	 */
+	public int getSlotX(int slot) {
+		return slotXs[slot];
+	}
+
+	/**
+	 * @param slot
+	 *            position of a tile as returned by getSlot
+	 * @return top of the tile in its page in pixels
+	 */
+	public int getSlotY(int slot) {
+		return slotYs[slot];
+	}
+
+	/**
+	 * Creates the image of a page
+	 *
+	 * @param width
+	 * @param height
+	 * @return a new transparent image
+	 */
+	protected CanvasImage createPage(float width, float height) {
+		return graphics().createImage(width, height);
+	}
+
+	/**
+	 * Copies the tiles of a tileset image to their places in the pages,
+	 * clearing the pixels of the trans colour
+	 */
+	private void copyTiles(TmxTileset tileset, Image image, int firstSlot) {
+		int imageWidth = (int) image.width();
+		int imageHeight = (int) image.height();
+		int[] pixels = new int[imageWidth * imageHeight];
+		image.getRgb(0, 0, imageWidth, imageHeight, pixels, 0, imageWidth);
+
+		TmxImage tmxImage = tileset.getImage();
+		if (tmxImage != null && tmxImage.getAlpha() != null) {
+			int trans = tmxImage.getAlpha() & 0xffffff;
+			for (int i = 0; i < pixels.length; i++) {
+				if ((pixels[i] & 0xffffff) == trans) {
+					pixels[i] = 0;
+				}
+			}
+		}
+
+		int w = tileset.getTilewidth();
+		int h = tileset.getTileheight();
+		int cols = getColumns(tileset, image);
+		int count = cols * getRows(tileset, image);
+		for (int i = 0; i < count; i++) {
+			int srcX = tileset.getMargin() + (i % cols) * (w + tileset.getSpacing());
+			int srcY = tileset.getMargin() + (i / cols) * (h + tileset.getSpacing());
+			int slot = firstSlot + i;
+			pages[slotPages[slot]].setRgb(slotXs[slot], slotYs[slot], w, h, pixels, srcY * imageWidth + srcX,
+					imageWidth);
+		}
+	}
+
+	/**
+	 * @return number of tile columns in the image of a tileset, 0 if the
+	 *         tileset has no tile width
+	 */
+	private static int getColumns(TmxTileset tileset, Image image) {
+		int step = tileset.getTilewidth() + tileset.getSpacing();
+		if (tileset.getTilewidth() <= 0 || step <= 0) {
+			return 0;
+		}
+
+		TmxImage tmxImage = tileset.getImage();
+		float width = tmxImage != null && tmxImage.getWidth() > 0 ? tmxImage.getWidth() : image.width();
+		width = Math.min(width, image.width());
+		return Math.max(0, (int) ((width - 2 * tileset.getMargin() + tileset.getSpacing()) / step));
+	}
+
+	/**
+	 * @return number of tile rows in the image of a tileset, 0 if the tileset
+	 *         has no tile height
+	 */
+	private static int getRows(TmxTileset tileset, Image image) {
+		int step = tileset.getTileheight() + tileset.getSpacing();
+		if (tileset.getTileheight() <= 0 || step <= 0) {
+			return 0;
+		}
+
+		TmxImage tmxImage = tileset.getImage();
+		float height = tmxImage != null && tmxImage.getHeight() > 0 ? tmxImage.getHeight() : image.height();
+		height = Math.min(height, image.height());
+		return Math.max(0, (int) ((height - 2 * tileset.getMargin() + tileset.getSpacing()) / step));
+	}
+
+	/**
+	 * Maximum width and height of the pages
+	 */
+	private final int pageSize;
+
+	/**
+	 * Pages holding the tiles
+	 */
+	private CanvasImage[] pages = new CanvasImage[0];
+
+	/**
+	 * First slot of the tiles of each tileset, plus the number of slots at
+	 * the end
+	 */
+	private int[] firstSlots = new int[1];
+
+	/**
+	 * Page and position of the tile in each slot
+	 */
+	private int[] slotPages = new int[0];
+	private int[] slotXs = new int[0];
+	private int[] slotYs = new int[0];
+}
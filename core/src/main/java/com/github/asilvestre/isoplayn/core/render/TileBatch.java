@@ -0,0 +1,105 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+/**
+ * List of tiles waiting to be drawn, kept in parallel arrays that are reused
+ * from frame to frame so collecting tiles allocates nothing once they have
+ * grown enough
+ */
+class TileBatch {
+
+	/**
+	 * Adds a tile at the end of the batch
+	 *
+	 * @param cellX
+	 *            left of the cell in map pixels
+	 * @param cellY
+	 *            top of the cell in map pixels
+	 * @param row
+	 *            x + y of the cell in map coordinates
+	 * @param tileset
+	 *            index of the tileset
+	 * @param localId
+	 *            id of the tile inside its tileset
+	 * @param flip
+	 *            flip flags of the tile
+	 */
+	void add(float cellX, float cellY, int row, int tileset, int localId, int flip) {
+		if (count == xs.length) {
+			grow();
+		}
+
+		xs[count] = cellX;
+		ys[count] = cellY;
+		rows[count] = row;
+		tilesets[count] = tileset;
+		localIds[count] = localId;
+		flips[count] = flip;
+		count++;
+	}
+
+	/**
+	 * Empties the batch keeping its capacity
+	 */
+	void clear() {
+		count = 0;
+		drawn = 0;
+	}
+
+	private void grow() {
+		int capacity = Math.max(xs.length * 2, 64);
+
+		float[] newXs = new float[capacity];
+		float[] newYs = new float[capacity];
+		int[] newRows = new int[capacity];
+		int[] newTilesets = new int[capacity];
+		int[] newLocalIds = new int[capacity];
+		int[] newFlips = new int[capacity];
+		System.arraycopy(xs, 0, newXs, 0, count);
+		System.arraycopy(ys, 0, newYs, 0, count);
+		System.arraycopy(rows, 0, newRows, 0, count);
+		System.arraycopy(tilesets, 0, newTilesets, 0, count);
+		System.arraycopy(localIds, 0, newLocalIds, 0, count);
+		System.arraycopy(flips, 0, newFlips, 0, count);
+		xs = newXs;
+		ys = newYs;
+		rows = newRows;
+		tilesets = newTilesets;
+		localIds = newLocalIds;
+		flips = newFlips;
+	}
+
+	/**
+	 * Number of tiles in the batch
+	 */
+	int count = 0;
+
+	/**
+	 * Number of tiles from the start of the batch already drawn
+	 */
+	int drawn = 0;
+
+	/**
+	 * Tiles in the order they were added
+	 */
+	float[] xs = new float[0];
+	float[] ys = new float[0];
+	int[] rows = new int[0];
+	int[] tilesets = new int[0];
+	int[] localIds = new int[0];
+	int[] flips = new int[0];
+}
@@ -1,5 +1,10 @@
 package com.github.asilvestre.isoplayn.core.tmxparser;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
 public class Coord {
 
 	/**
@@ -73,4 +78,31 @@ public class Coord {
 			return false;
 		return true;
 	}
+
+	/**
+	 * @param coords
+	 * @return the coordinates packed as x0, y0, x1, y1...
+	 */
+	static int[] pack(Collection<Coord> coords) {
+		int[] res = new int[coords.size() * 2];
+		int i = 0;
+		for (Coord coord : coords) {
+			res[i++] = coord.x;
+			res[i++] = coord.y;
+		}
+		return res;
+	}
+
+	/**
+	 * @param points
+	 *            coordinates packed as x0, y0, x1, y1...
+	 * @return a list with a copy of each coordinate
+	 */
+	static List<Coord> unpack(int[] points) {
+		ArrayList<Coord> res = new ArrayList<Coord>(points.length / 2);
+		for (int i = 0; i + 1 < points.length; i += 2) {
+			res.add(new Coord(points[i], points[i + 1]));
+		}
+		return Collections.unmodifiableList(res);
+	}
 }
@@ -0,0 +1,113 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+/**
+ * Tile grid kept in an array in the heap
+ */
+public class TmxArrayTileGrid implements TmxTileGrid {
+
+	/**
+	 * @param width
+	 * @param height
+	 * @param gids
+	 *            global tile ids row by row without flip flags, the array is
+	 *            used directly, not copied
+	 */
+	public TmxArrayTileGrid(int width, int height, int[] gids) {
+		this(width, height, gids, null);
+	}
+
+	/**
+	 * @param width
+	 * @param height
+	 * @param gids
+	 *            global tile ids row by row without flip flags, the array is
+	 *            used directly, not copied
+	 * @param flips
+	 *            flip flags of each tile as returned by TmxData.getFlips, null
+	 *            if no tile is flipped
+	 */
+	public TmxArrayTileGrid(int width, int height, int[] gids, byte[] flips) {
+		if (width < 0 || height < 0 || gids.length != width * height
+				|| (flips != null && flips.length != gids.length)) {
+			throw new IllegalArgumentException(String.format("%d tiles can't fill a %dx%d grid", gids.length,
+					width, height));
+		}
+
+		this.width = width;
+		this.height = height;
+		this.gids = gids;
+		this.flips = flips;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getGid(int x, int y) {
+		checkBounds(x, y);
+
+		return gids[y * width + x];
+	}
+
+	@Override
+	public int getFlip(int x, int y) {
+		checkBounds(x, y);
+
+		return flips != null ? flips[y * width + x] << TmxDataDecoder.FLIP_SHIFT : 0;
+	}
+
+	@Override
+	public void getRow(int y, int[] dst, int dstOffset) {
+		checkBounds(0, y);
+
+		System.arraycopy(gids, y * width, dst, dstOffset, width);
+	}
+
+	private void checkBounds(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IndexOutOfBoundsException(String.format("Tile out of the grid: %d,%d", x, y));
+		}
+	}
+
+	/**
+	 * Width in tiles
+	 */
+	private final int width;
+
+	/**
+	 * Height in tiles
+	 */
+	private final int height;
+
+	/**
+	 * Global tile ids row by row
+	 */
+	private final int[] gids;
+
+	/**
+	 * Flip flags of each tile in gids, null if no tile is flipped
+	 */
+	private final byte[] flips;
+}
@@ -0,0 +1,623 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Compact binary representation of a parsed TMX map (.tmxb). Tile data is
+ * stored already decoded so loading it is a matter of copying arrays, there
+ * is no XML, base64 or zlib involved.
+ *
+ * All numbers are big endian, strings are UTF-8 prefixed by their length in
+ * bytes (-1 for null) and every block of properties is prefixed by its count
+ * (-1 for null).
+ */
+public class TmxBinaryFormat {
+
+	/**
+	 * Current version of the format, loading any other version fails
+	 */
+	public static final int VERSION = 2;
+
+	/**
+	 * Converts a map to the binary format
+	 *
+	 * @param map
+	 * @return the map in binary format
+	 */
+	public static byte[] compile(TmxMap map) {
+		Writer out = new Writer();
+
+		out.writeBytes(MAGIC);
+		out.writeInt(VERSION);
+
+		out.writeString(map.getVersion());
+		out.writeInt(map.getOrientation().ordinal());
+		out.writeInt(map.getWidth());
+		out.writeInt(map.getHeight());
+		out.writeInt(map.getTilewidth());
+		out.writeInt(map.getTileheight());
+		out.writeInt(map.getBackgroundColor());
+		writeProperties(out, map.getProperties());
+
+		LinkedList<TmxTileset> tilesets = toList(map.getTilesets());
+		out.writeInt(tilesets.size());
+		for (TmxTileset tileset : tilesets) {
+			writeTileset(out, tileset);
+		}
+
+		LinkedList<TmxLayer> layers = toList(map.getLayers());
+		out.writeInt(layers.size());
+		for (TmxLayer layer : layers) {
+			if (layer instanceof TmxTileLayer) {
+				out.writeByte(TILE_LAYER);
+				writeTileLayer(out, (TmxTileLayer) layer);
+			} else if (layer instanceof TmxObjectGroup) {
+				out.writeByte(OBJECT_GROUP);
+				writeObjectGroup(out, (TmxObjectGroup) layer);
+			} else {
+				throw new IllegalArgumentException(String.format("Unsupported layer: %s", layer.description()));
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Reads a map in binary format
+	 *
+	 * @param bytes
+	 *            map as returned by compile
+	 * @return the map
+	 * @throws ParseTmxException
+	 *             if the bytes are not a map in a supported version of the
+	 *             format
+	 */
+	public static TmxMap load(byte[] bytes) throws ParseTmxException {
+		Reader in = new Reader(bytes);
+
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (in.readByte() != MAGIC[i]) {
+				throw new ParseTmxException("Not a binary TMX map");
+			}
+		}
+
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new ParseTmxException(String.format("Unsupported binary TMX version: %d", version));
+		}
+
+		TmxMap map = new TmxMap();
+		map.setVersion(in.readString());
+		map.setOrientation(in.readEnum(TmxMap.Orientations.values()));
+		map.setWidth(in.readInt());
+		map.setHeight(in.readInt());
+		map.setTilewidth(in.readInt());
+		map.setTileheight(in.readInt());
+		map.setBackgroundColor(in.readInt());
+		map.setProperties(readProperties(in));
+
+		int tilesetCount = in.readCount();
+		for (int i = 0; i < tilesetCount; i++) {
+			map.addTileset(readTileset(in));
+		}
+
+		int layerCount = in.readCount();
+		for (int i = 0; i < layerCount; i++) {
+			byte type = in.readByte();
+			if (type == TILE_LAYER) {
+				map.addLayer(readTileLayer(in));
+			} else if (type == OBJECT_GROUP) {
+				map.addLayer(readObjectGroup(in));
+			} else {
+				throw new ParseTmxException(String.format("Unknown binary TMX layer type: %d", type));
+			}
+		}
+
+		return map;
+	}
+
+	private static void writeTileset(Writer out, TmxTileset tileset) {
+		out.writeInt(tileset.getFirstgid());
+		out.writeString(tileset.getSource());
+		out.writeString(tileset.getName());
+		out.writeInt(tileset.getTilewidth());
+		out.writeInt(tileset.getTileheight());
+		out.writeInt(tileset.getSpacing());
+		out.writeInt(tileset.getMargin());
+		writeProperties(out, tileset.getProperties());
+
+		TmxTileOffset offset = tileset.getTileOffset();
+		out.writeBoolean(offset != null);
+		if (offset != null) {
+			out.writeInt(offset.getX());
+			out.writeInt(offset.getY());
+		}
+
+		TmxImage image = tileset.getImage();
+		out.writeBoolean(image != null);
+		if (image != null) {
+			out.writeString(image.getSource());
+			out.writeBoolean(image.getAlpha() != null);
+			if (image.getAlpha() != null) {
+				out.writeInt(image.getAlpha());
+			}
+			out.writeInt(image.getWidth());
+			out.writeInt(image.getHeight());
+		}
+
+		LinkedList<TmxTile> tiles = toList(tileset.getCustomTiles());
+		out.writeInt(tiles.size());
+		for (TmxTile tile : tiles) {
+			out.writeInt(tile.getId());
+			out.writeBoolean(tile.isHoritzontallyFlipped());
+			out.writeBoolean(tile.isVerticallyFlipped());
+			out.writeBoolean(tile.isDiagonallyFlipped());
+			writeProperties(out, tile.getProperties());
+		}
+
+		TmxTerrainTypes terrainTypes = tileset.getTerrainTypes();
+		out.writeBoolean(terrainTypes != null);
+		if (terrainTypes != null) {
+			out.writeInt(terrainTypes.getTerrainCount());
+			for (int i = 0; i < terrainTypes.getTerrainCount(); i++) {
+				TmxTerrain terrain = terrainTypes.getTerrain(i);
+				out.writeString(terrain.getName());
+				out.writeInt(terrain.getTile());
+				writeProperties(out, terrain.getProperties());
+			}
+		}
+	}
+
+	private static TmxTileset readTileset(Reader in) throws ParseTmxException {
+		TmxTileset tileset = new TmxTileset();
+		tileset.setFirstgid(in.readInt());
+		tileset.setSource(in.readString());
+		tileset.setName(in.readString());
+		tileset.setTilewidth(in.readInt());
+		tileset.setTileheight(in.readInt());
+		tileset.setSpacing(in.readInt());
+		tileset.setMargin(in.readInt());
+		tileset.setProperties(readProperties(in));
+
+		if (in.readBoolean()) {
+			TmxTileOffset offset = new TmxTileOffset();
+			offset.setX(in.readInt());
+			offset.setY(in.readInt());
+			tileset.setTileOffset(offset);
+		} else {
+			tileset.setTileOffset(null);
+		}
+
+		if (in.readBoolean()) {
+			TmxImage image = new TmxImage();
+			image.setSource(in.readString());
+			if (in.readBoolean()) {
+				image.setAlpha(in.readInt());
+			}
+			image.setWidth(in.readInt());
+			image.setHeight(in.readInt());
+			tileset.setImage(image);
+		}
+
+		int tileCount = in.readCount();
+		for (int i = 0; i < tileCount; i++) {
+			TmxTile tile = new TmxTile();
+			tile.setId(in.readInt());
+			tile.setHoritzontallyFlipped(in.readBoolean());
+			tile.setVerticallyFlipped(in.readBoolean());
+			tile.setDiagonallyFlipped(in.readBoolean());
+			tile.setProperties(readProperties(in));
+			tileset.addCustomTile(tile);
+		}
+
+		if (in.readBoolean()) {
+			TmxTerrainTypes terrainTypes = new TmxTerrainTypes();
+			int terrainCount = in.readCount();
+			for (int i = 0; i < terrainCount; i++) {
+				TmxTerrain terrain = new TmxTerrain();
+				terrain.setName(in.readString());
+				terrain.setTile(in.readInt());
+				terrain.setProperties(readProperties(in));
+				terrainTypes.addTerrain(terrain);
+			}
+			tileset.setTerrainTypes(terrainTypes);
+		} else {
+			tileset.setTerrainTypes(null);
+		}
+
+		return tileset;
+	}
+
+	private static void writeTileLayer(Writer out, TmxTileLayer layer) {
+		out.writeString(layer.getName());
+		out.writeFloat(layer.getOpacity());
+		out.writeBoolean(layer.isVisible());
+		writeProperties(out, layer.getProperties());
+
+		TmxData data = layer.getData();
+		out.writeBoolean(data != null);
+		if (data != null) {
+			out.writeInt(data.getEncoding().ordinal());
+			out.writeInt(data.getCompression().ordinal());
+			out.writeInts(data.getRawGids());
+
+			out.writeInt(data.getChunkCount());
+			Iterator<TmxDataChunk> iterChunks = data.getChunks();
+			while (iterChunks.hasNext()) {
+				TmxDataChunk chunk = iterChunks.next();
+				out.writeInt(chunk.getX());
+				out.writeInt(chunk.getY());
+				out.writeInt(chunk.getWidth());
+				out.writeInt(chunk.getHeight());
+				out.writeString(chunk.getData());
+			}
+		}
+	}
+
+	private static TmxTileLayer readTileLayer(Reader in) throws ParseTmxException {
+		TmxTileLayer layer = new TmxTileLayer();
+		layer.setName(in.readString());
+		layer.setOpacity(in.readFloat());
+		layer.setVisible(in.readBoolean());
+		layer.setProperties(readProperties(in));
+
+		if (in.readBoolean()) {
+			TmxData data = new TmxData();
+			data.setEncoding(in.readEnum(TmxData.Encoding.values()));
+			data.setCompression(in.readEnum(TmxData.Compression.values()));
+			data.setGids(in.readInts());
+
+			// Chunks stay encoded so they can still be decoded lazily
+			int chunkCount = in.readCount();
+			for (int i = 0; i < chunkCount; i++) {
+				TmxDataChunk chunk = new TmxDataChunk();
+				chunk.setX(in.readInt());
+				chunk.setY(in.readInt());
+				chunk.setWidth(in.readInt());
+				chunk.setHeight(in.readInt());
+				chunk.setData(in.readString());
+				data.addChunk(chunk);
+			}
+
+			layer.setData(data);
+		}
+
+		return layer;
+	}
+
+	private static void writeObjectGroup(Writer out, TmxObjectGroup group) {
+		out.writeString(group.getName());
+		out.writeInt(group.getColor());
+		out.writeFloat(group.getOpacity());
+		out.writeBoolean(group.isVisible());
+		writeProperties(out, group.getProperties());
+
+		LinkedList<TmxObject> objects = toList(group.getObjects());
+		out.writeInt(objects.size());
+		for (TmxObject obj : objects) {
+			if (obj instanceof TmxObjectTile) {
+				out.writeByte(OBJECT_TILE);
+			} else if (obj instanceof TmxObjectPolygon) {
+				out.writeByte(OBJECT_POLYGON);
+			} else if (obj instanceof TmxObjectPolyline) {
+				out.writeByte(OBJECT_POLYLINE);
+			} else {
+				out.writeByte(OBJECT_PLAIN);
+			}
+
+			out.writeString(obj.getName());
+			out.writeString(obj.getType());
+			out.writeInt(obj.getX());
+			out.writeInt(obj.getY());
+			out.writeInt(obj.getWidth());
+			out.writeInt(obj.getHeight());
+			out.writeBoolean(obj.isVisible());
+			writeProperties(out, obj.getProperties());
+
+			if (obj instanceof TmxObjectTile) {
+				out.writeInt(((TmxObjectTile) obj).getRawGid());
+			} else if (obj instanceof TmxObjectPolygon) {
+				out.writeInts(((TmxObjectPolygon) obj).points);
+			} else if (obj instanceof TmxObjectPolyline) {
+				out.writeInts(((TmxObjectPolyline) obj).points);
+			}
+		}
+	}
+
+	private static TmxObjectGroup readObjectGroup(Reader in) throws ParseTmxException {
+		TmxObjectGroup group = new TmxObjectGroup();
+		group.setName(in.readString());
+		group.setColor(in.readInt());
+		group.setOpacity(in.readFloat());
+		group.setVisible(in.readBoolean());
+		group.setProperties(readProperties(in));
+
+		int objectCount = in.readCount();
+		for (int i = 0; i < objectCount; i++) {
+			byte type = in.readByte();
+
+			TmxObject obj;
+			if (type == OBJECT_TILE) {
+				obj = new TmxObjectTile();
+			} else if (type == OBJECT_POLYGON) {
+				obj = new TmxObjectPolygon();
+			} else if (type == OBJECT_POLYLINE) {
+				obj = new TmxObjectPolyline();
+			} else if (type == OBJECT_PLAIN) {
+				obj = new TmxObject();
+			} else {
+				throw new ParseTmxException(String.format("Unknown binary TMX object type: %d", type));
+			}
+
+			obj.setName(in.readString());
+			obj.setType(in.readString());
+			obj.setX(in.readInt());
+			obj.setY(in.readInt());
+			obj.setWidth(in.readInt());
+			obj.setHeight(in.readInt());
+			obj.setVisible(in.readBoolean());
+			obj.setProperties(readProperties(in));
+
+			if (type == OBJECT_TILE) {
+				((TmxObjectTile) obj).setGid(in.readInt());
+			} else if (type == OBJECT_POLYGON) {
+				((TmxObjectPolygon) obj).setPoints(readPoints(in));
+			} else if (type == OBJECT_POLYLINE) {
+				((TmxObjectPolyline) obj).setPoints(readPoints(in));
+			}
+
+			group.addObject(obj);
+		}
+
+		return group;
+	}
+
+	private static int[] readPoints(Reader in) throws ParseTmxException {
+		int[] points = in.readInts();
+		if (points.length % 2 != 0) {
+			throw new ParseTmxException("Odd number of point coordinates in binary TMX");
+		}
+		return points;
+	}
+
+	private static void writeProperties(Writer out, TmxProperties properties) {
+		if (properties == null) {
+			out.writeInt(-1);
+			return;
+		}
+
+		out.writeInt(properties.getCount());
+		Iterator<String> names = properties.getNames();
+		while (names.hasNext()) {
+			String name = names.next();
+			out.writeString(name);
+			out.writeString(properties.getProperty(name));
+		}
+	}
+
+	private static TmxProperties readProperties(Reader in) throws ParseTmxException {
+		int count = in.readInt();
+		if (count < 0) {
+			return null;
+		}
+
+		TmxProperties properties = new TmxProperties();
+		for (int i = 0; i < count; i++) {
+			String name = in.readString();
+			properties.addProperty(name, in.readString());
+		}
+		return properties;
+	}
+
+	private static <T> LinkedList<T> toList(Iterator<T> iter) {
+		LinkedList<T> res = new LinkedList<T>();
+		while (iter.hasNext()) {
+			res.add(iter.next());
+		}
+		return res;
+	}
+
+	/**
+	 * Growable buffer the map is written to
+	 */
+	private static class Writer {
+		void writeByte(int value) {
+			ensureCapacity(1);
+			buffer[size++] = (byte) value;
+		}
+
+		void writeBytes(byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, buffer, size, bytes.length);
+			size += bytes.length;
+		}
+
+		void writeBoolean(boolean value) {
+			writeByte(value ? 1 : 0);
+		}
+
+		void writeInt(int value) {
+			ensureCapacity(4);
+			buffer[size++] = (byte) (value >>> 24);
+			buffer[size++] = (byte) (value >>> 16);
+			buffer[size++] = (byte) (value >>> 8);
+			buffer[size++] = (byte) value;
+		}
+
+		void writeFloat(float value) {
+			writeInt(Float.floatToIntBits(value));
+		}
+
+		/**
+		 * Writes the length of the array followed by all its values
+		 */
+		void writeInts(int[] values) {
+			writeInt(values.length);
+			ensureCapacity(values.length * 4);
+			for (int i = 0; i < values.length; i++) {
+				int value = values[i];
+				buffer[size++] = (byte) (value >>> 24);
+				buffer[size++] = (byte) (value >>> 16);
+				buffer[size++] = (byte) (value >>> 8);
+				buffer[size++] = (byte) value;
+			}
+		}
+
+		void writeString(String value) {
+			if (value == null) {
+				writeInt(-1);
+				return;
+			}
+
+			byte[] bytes;
+			try {
+				bytes = value.getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			writeInt(bytes.length);
+			writeBytes(bytes);
+		}
+
+		byte[] toByteArray() {
+			byte[] res = new byte[size];
+			System.arraycopy(buffer, 0, res, 0, size);
+			return res;
+		}
+
+		private void ensureCapacity(int extra) {
+			if (size + extra > buffer.length) {
+				byte[] bigger = new byte[Math.max(buffer.length * 2, size + extra)];
+				System.arraycopy(buffer, 0, bigger, 0, size);
+				buffer = bigger;
+			}
+		}
+
+		private byte[] buffer = new byte[4096];
+		private int size = 0;
+	}
+
+	/**
+	 * Reads values from a map in binary format checking it's not truncated
+	 */
+	private static class Reader {
+		Reader(byte[] buffer) {
+			this.buffer = buffer;
+		}
+
+		byte readByte() throws ParseTmxException {
+			require(1);
+			return buffer[pos++];
+		}
+
+		boolean readBoolean() throws ParseTmxException {
+			return readByte() != 0;
+		}
+
+		int readInt() throws ParseTmxException {
+			require(4);
+			return (buffer[pos++] & 0xFF) << 24 | (buffer[pos++] & 0xFF) << 16 | (buffer[pos++] & 0xFF) << 8
+					| (buffer[pos++] & 0xFF);
+		}
+
+		/**
+		 * Reads a number of elements, which can't be negative
+		 */
+		int readCount() throws ParseTmxException {
+			int count = readInt();
+			if (count < 0) {
+				throw new ParseTmxException(String.format("Invalid binary TMX count: %d", count));
+			}
+			return count;
+		}
+
+		float readFloat() throws ParseTmxException {
+			return Float.intBitsToFloat(readInt());
+		}
+
+		<E extends Enum<E>> E readEnum(E[] values) throws ParseTmxException {
+			int ordinal = readInt();
+			if (ordinal < 0 || ordinal >= values.length) {
+				throw new ParseTmxException(String.format("Invalid binary TMX enum value: %d", ordinal));
+			}
+			return values[ordinal];
+		}
+
+		int[] readInts() throws ParseTmxException {
+			int length = readCount();
+			require(length * 4L);
+
+			int[] values = new int[length];
+			for (int i = 0; i < length; i++) {
+				values[i] = (buffer[pos] & 0xFF) << 24 | (buffer[pos + 1] & 0xFF) << 16
+						| (buffer[pos + 2] & 0xFF) << 8 | (buffer[pos + 3] & 0xFF);
+				pos += 4;
+			}
+			return values;
+		}
+
+		String readString() throws ParseTmxException {
+			int length = readInt();
+			if (length < 0) {
+				return null;
+			}
+			require(length);
+
+			String res;
+			try {
+				res = new String(buffer, pos, length, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			pos += length;
+			return res;
+		}
+
+		private void require(long bytes) throws ParseTmxException {
+			if (pos + bytes > buffer.length) {
+				throw new ParseTmxException("Truncated binary TMX map");
+			}
+		}
+
+		private final byte[] buffer;
+		private int pos = 0;
+	}
+
+	/**
+	 * Bytes every map in binary format starts with
+	 */
+	private static final byte[] MAGIC = new byte[] { 'T', 'M', 'X', 'B' };
+
+	/**
+	 * Layer types
+	 */
+	private static final byte TILE_LAYER = 0;
+	private static final byte OBJECT_GROUP = 1;
+
+	/**
+	 * Object types
+	 */
+	private static final byte OBJECT_PLAIN = 0;
+	private static final byte OBJECT_TILE = 1;
+	private static final byte OBJECT_POLYGON = 2;
+	private static final byte OBJECT_POLYLINE = 3;
+}
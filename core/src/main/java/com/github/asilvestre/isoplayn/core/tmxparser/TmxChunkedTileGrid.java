@@ -0,0 +1,478 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.util.Iterator;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tile grid split in fixed size chunks. Chunks without tiles take no memory,
+ * and chunks coming from an infinite map layer are decoded the first time one
+ * of their tiles is read and can be evicted to keep a bounded number of them
+ * decoded.
+ *
+ * Coordinates are relative to the top left tile of the grid, for infinite
+ * maps that tile is at getStartX(), getStartY() in map coordinates.
+ */
+public class TmxChunkedTileGrid implements TmxTileGrid {
+
+	/**
+	 * Chunk size used when none is given
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 32;
+
+	/**
+	 * Splits a grid into chunks
+	 *
+	 * @param grid
+	 *            tiles to split
+	 * @param chunkSize
+	 *            width and height of each chunk in tiles
+	 * @return the chunked grid
+	 */
+	public static TmxChunkedTileGrid fromGrid(TmxTileGrid grid, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid chunk size: %d", chunkSize));
+		}
+
+		TmxChunkedTileGrid res = new TmxChunkedTileGrid(0, 0, grid.getWidth(), grid.getHeight(), chunkSize,
+				chunkSize, null, null);
+
+		int[] row = new int[grid.getWidth()];
+		for (int y = 0; y < res.height; y++) {
+			grid.getRow(y, row, 0);
+
+			for (int x = 0; x < res.width; x++) {
+				int flip = grid.getFlip(x, y);
+				if (row[x] == 0 && flip == 0) {
+					continue;
+				}
+
+				int index = (y / chunkSize) * res.chunksAcross + x / chunkSize;
+				Chunk chunk = res.chunks[index];
+				if (chunk == null) {
+					chunk = new Chunk(null);
+					chunk.gids = new int[chunkSize * chunkSize];
+					res.chunks[index] = chunk;
+				}
+
+				int tile = (y % chunkSize) * chunkSize + x % chunkSize;
+				chunk.gids[tile] = row[x];
+				if (flip != 0) {
+					if (chunk.flips == null) {
+						chunk.flips = new byte[chunk.gids.length];
+					}
+					chunk.flips[tile] = (byte) (flip >>> TmxDataDecoder.FLIP_SHIFT);
+				}
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Creates a grid over the chunks of an infinite map layer, no chunk is
+	 * decoded until it is read
+	 *
+	 * @param data
+	 *            layer data with chunks of the same size aligned to each other
+	 * @return the chunked grid
+	 */
+	public static TmxChunkedTileGrid fromChunks(TmxData data) {
+		if (data.getChunkCount() == 0) {
+			throw new IllegalArgumentException("Layer data has no chunks");
+		}
+
+		// Finding the bounds of all chunks
+		Iterator<TmxDataChunk> iterChunks = data.getChunks();
+		TmxDataChunk first = iterChunks.next();
+		int chunkWidth = first.getWidth();
+		int chunkHeight = first.getHeight();
+		int minX = first.getX();
+		int minY = first.getY();
+		int maxX = minX;
+		int maxY = minY;
+		while (iterChunks.hasNext()) {
+			TmxDataChunk chunk = iterChunks.next();
+			minX = Math.min(minX, chunk.getX());
+			minY = Math.min(minY, chunk.getY());
+			maxX = Math.max(maxX, chunk.getX());
+			maxY = Math.max(maxY, chunk.getY());
+		}
+
+		TmxChunkedTileGrid res = new TmxChunkedTileGrid(minX, minY, maxX + chunkWidth - minX, maxY + chunkHeight
+				- minY, chunkWidth, chunkHeight, data.getEncoding(), data.getCompression());
+
+		iterChunks = data.getChunks();
+		while (iterChunks.hasNext()) {
+			TmxDataChunk chunk = iterChunks.next();
+			if (chunk.getWidth() != chunkWidth || chunk.getHeight() != chunkHeight
+					|| (chunk.getX() - minX) % chunkWidth != 0 || (chunk.getY() - minY) % chunkHeight != 0) {
+				throw new IllegalArgumentException(String.format("Chunk at %d,%d doesn't fit the grid",
+						chunk.getX(), chunk.getY()));
+			}
+
+			int index = (chunk.getY() - minY) / chunkHeight * res.chunksAcross + (chunk.getX() - minX) / chunkWidth;
+			if (res.chunks[index] != null) {
+				throw new IllegalArgumentException(String.format("Duplicated chunk at %d,%d", chunk.getX(),
+						chunk.getY()));
+			}
+			res.chunks[index] = new Chunk(chunk);
+		}
+
+		return res;
+	}
+
+	private TmxChunkedTileGrid(int startX, int startY, int width, int height, int chunkWidth, int chunkHeight,
+			TmxData.Encoding encoding, TmxData.Compression compression) {
+		this.startX = startX;
+		this.startY = startY;
+		this.width = width;
+		this.height = height;
+		this.chunkWidth = chunkWidth;
+		this.chunkHeight = chunkHeight;
+		this.encoding = encoding;
+		this.compression = compression;
+
+		chunksAcross = (width + chunkWidth - 1) / chunkWidth;
+		chunks = new Chunk[chunksAcross * ((height + chunkHeight - 1) / chunkHeight)];
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @return map x coordinate of the left column of the grid
+	 */
+	public int getStartX() {
+		return startX;
+	}
+
+	/**
+	 * @return map y coordinate of the top row of the grid
+	 */
+	public int getStartY() {
+		return startY;
+	}
+
+	/**
+	 * @return width of the chunks in tiles
+	 */
+	public int getChunkWidth() {
+		return chunkWidth;
+	}
+
+	/**
+	 * @return height of the chunks in tiles
+	 */
+	public int getChunkHeight() {
+		return chunkHeight;
+	}
+
+	/**
+	 * @return maximum number of chunks kept decoded, 0 for no limit
+	 */
+	public int getMaxDecodedChunks() {
+		return maxDecodedChunks;
+	}
+
+	/**
+	 * Limits how many chunks are kept decoded, when a chunk has to be decoded
+	 * beyond the limit the least recently read one is released. Only chunks
+	 * that can be decoded again are released.
+	 *
+	 * @param maxDecodedChunks
+	 *            0 for no limit
+	 */
+	public void setMaxDecodedChunks(int maxDecodedChunks) {
+		TmxFreezer.checkMutable(frozen);
+		this.maxDecodedChunks = maxDecodedChunks;
+
+		while (maxDecodedChunks > 0 && decodedChunks > maxDecodedChunks && evictLeastRecentlyUsed(null)) {
+		}
+	}
+
+	/**
+	 * @return number of chunks decoded from their payload right now
+	 */
+	public int getDecodedChunkCount() {
+		return decodedChunks;
+	}
+
+	@Override
+	public int getGid(int x, int y) {
+		checkBounds(x, y);
+
+		Chunk chunk = chunks[(y / chunkHeight) * chunksAcross + x / chunkWidth];
+		if (chunk == null) {
+			return 0;
+		}
+
+		int[] gids = getChunkGids(chunk);
+		return gids != null ? gids[(y % chunkHeight) * chunkWidth + x % chunkWidth] : 0;
+	}
+
+	@Override
+	public int getFlip(int x, int y) {
+		checkBounds(x, y);
+
+		Chunk chunk = chunks[(y / chunkHeight) * chunksAcross + x / chunkWidth];
+		if (chunk == null || getChunkGids(chunk) == null || chunk.flips == null) {
+			return 0;
+		}
+
+		return chunk.flips[(y % chunkHeight) * chunkWidth + x % chunkWidth] << TmxDataDecoder.FLIP_SHIFT;
+	}
+
+	@Override
+	public void getRow(int y, int[] dst, int dstOffset) {
+		checkBounds(0, y);
+
+		int chunkRow = y / chunkHeight;
+		int rowStart = (y % chunkHeight) * chunkWidth;
+		for (int cx = 0; cx < chunksAcross; cx++) {
+			int x = cx * chunkWidth;
+			int count = Math.min(chunkWidth, width - x);
+
+			Chunk chunk = chunks[chunkRow * chunksAcross + cx];
+			int[] gids = chunk != null ? getChunkGids(chunk) : null;
+			if (gids != null) {
+				System.arraycopy(gids, rowStart, dst, dstOffset + x, count);
+			} else {
+				for (int i = 0; i < count; i++) {
+					dst[dstOffset + x + i] = 0;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param chunk
+	 * @return the tiles of the chunk, decoding them if needed
+	 * @throws IllegalStateException
+	 *             if the chunk payload is not correctly encoded or compressed
+	 *             or hasn't the size of the chunk, so wrong chunks are never
+	 *             taken for empty parts of the map
+	 */
+	private int[] getChunkGids(Chunk chunk) {
+		if (frozen) {
+			return chunk.gids;
+		}
+
+		if (chunk.gids != null) {
+			// Decoded chunks that can be released are kept in read order
+			if (chunk.source != null && chunk != newest) {
+				unlink(chunk);
+				append(chunk);
+			}
+		} else if (chunk.source != null) {
+			int[] gids;
+			try {
+				gids = TmxDataDecoder.decode(chunk.source.getData(), encoding, compression);
+			} catch (ParseTmxException e) {
+				throw new IllegalStateException(String.format("Error decoding the chunk at %d,%d: %s",
+						chunk.source.getX(), chunk.source.getY(), e.getMessage()), e);
+			}
+
+			if (gids.length != chunkWidth * chunkHeight) {
+				throw new IllegalStateException(String.format("Chunk at %d,%d has %d tiles, expecting %d",
+						chunk.source.getX(), chunk.source.getY(), gids.length, chunkWidth * chunkHeight));
+			}
+
+			chunk.flips = TmxDataDecoder.splitFlips(gids, gids.length);
+			chunk.gids = gids;
+			decodedChunks++;
+			append(chunk);
+			if (maxDecodedChunks > 0 && decodedChunks > maxDecodedChunks) {
+				evictLeastRecentlyUsed(chunk);
+			}
+		}
+
+		return chunk.gids;
+	}
+
+	/**
+	 * Decodes every chunk and stops keeping track of reads, so the grid can be
+	 * read from many threads at once without locking
+	 *
+	 * @throws IllegalStateException
+	 *             if a chunk payload is wrong
+	 */
+	void freeze() {
+		maxDecodedChunks = 0;
+		for (int i = 0; i < chunks.length; i++) {
+			if (chunks[i] != null) {
+				getChunkGids(chunks[i]);
+			}
+		}
+
+		frozen = true;
+	}
+
+	/**
+	 * Releases the decoded tiles of the chunk that was read the longest ago
+	 *
+	 * @param keep
+	 *            chunk that can't be released
+	 * @return true if some chunk was released
+	 */
+	private boolean evictLeastRecentlyUsed(Chunk keep) {
+		Chunk chunk = oldest != keep ? oldest : keep.next;
+		if (chunk == null) {
+			return false;
+		}
+
+		unlink(chunk);
+		chunk.gids = null;
+		chunk.flips = null;
+		decodedChunks--;
+		return true;
+	}
+
+	/**
+	 * Adds a chunk at the end of the list of decoded chunks, as the most
+	 * recently read one
+	 */
+	private void append(Chunk chunk) {
+		chunk.prev = newest;
+		chunk.next = null;
+		if (newest != null) {
+			newest.next = chunk;
+		} else {
+			oldest = chunk;
+		}
+		newest = chunk;
+	}
+
+	/**
+	 * Removes a chunk from the list of decoded chunks
+	 */
+	private void unlink(Chunk chunk) {
+		if (chunk.prev != null) {
+			chunk.prev.next = chunk.next;
+		} else {
+			oldest = chunk.next;
+		}
+		if (chunk.next != null) {
+			chunk.next.prev = chunk.prev;
+		} else {
+			newest = chunk.prev;
+		}
+		chunk.prev = null;
+		chunk.next = null;
+	}
+
+	private void checkBounds(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IndexOutOfBoundsException(String.format("Tile out of the grid: %d,%d", x, y));
+		}
+	}
+
+	/**
+	 * A chunk of the grid
+	 */
+	private static class Chunk {
+		Chunk(TmxDataChunk source) {
+			this.source = source;
+		}
+
+		/**
+		 * Encoded tiles, null if the chunk can't be decoded again
+		 */
+		TmxDataChunk source;
+
+		/**
+		 * Decoded tiles row by row without flip flags, null while not decoded
+		 */
+		int[] gids;
+
+		/**
+		 * Flip flags of the decoded tiles, null if no tile is flipped
+		 */
+		byte[] flips;
+
+		/**
+		 * Neighbours in the list of chunks decoded from their payload, from
+		 * the least to the most recently read one
+		 */
+		Chunk prev;
+		Chunk next;
+	}
+
+	/**
+	 * Map coordinates of the top left tile
+	 */
+	private final int startX;
+	private final int startY;
+
+	/**
+	 * Size in tiles
+	 */
+	private final int width;
+	private final int height;
+
+	/**
+	 * Size of each chunk in tiles
+	 */
+	private final int chunkWidth;
+	private final int chunkHeight;
+
+	/**
+	 * How chunk payloads are encoded and compressed
+	 */
+	private final TmxData.Encoding encoding;
+	private final TmxData.Compression compression;
+
+	/**
+	 * Number of chunks in a row of chunks
+	 */
+	private final int chunksAcross;
+
+	/**
+	 * Chunks row by row, null for chunks without tiles
+	 */
+	private final Chunk[] chunks;
+
+	/**
+	 * Maximum number of chunks decoded from a payload, 0 for no limit
+	 */
+	private int maxDecodedChunks = 0;
+
+	/**
+	 * Number of chunks currently decoded from a payload
+	 */
+	private int decodedChunks = 0;
+
+	/**
+	 * Ends of the list of chunks decoded from their payload, the least
+	 * recently read one is released first
+	 */
+	private Chunk oldest;
+	private Chunk newest;
+
+	/**
+	 * Whether every chunk is decoded for good, see freeze
+	 */
+	private boolean frozen = false;
+}
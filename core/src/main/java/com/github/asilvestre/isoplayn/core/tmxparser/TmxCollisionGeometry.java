@@ -0,0 +1,584 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Collision shapes of a polygon or polyline object: its bounding box, the
+ * segments of its outline and, for polygons, a triangulation and a
+ * decomposition into convex pieces. Everything is relative to the object
+ * position like the points of the object, and points are referred to by their
+ * index in the object.
+ *
+ * Geometry is computed by build after parsing, only for those who ask for it,
+ * and kept by each object until its points change. It never changes once
+ * computed and can be read from any thread.
+ */
+public final class TmxCollisionGeometry {
+
+	/**
+	 * Fields of each segment in getSegments, see getSegment
+	 */
+	public static final int SEGMENT_X0 = 0;
+	public static final int SEGMENT_Y0 = 1;
+	public static final int SEGMENT_X1 = 2;
+	public static final int SEGMENT_Y1 = 3;
+	public static final int SEGMENT_STRIDE = 4;
+
+	/**
+	 * Computes the geometry of every polygon and polyline of a map and keeps
+	 * it in the objects
+	 *
+	 * @param map
+	 *            map to process, it can't be frozen
+	 */
+	public static void build(TmxMap map) {
+		TmxFreezer.checkMutable(map.isFrozen());
+
+		map.accept(new TmxElementVisitor.Default() {
+			@Override
+			public void visit(TmxObjectPolygon objectPolygon) {
+				objectPolygon.setCollisionGeometry(compute(objectPolygon));
+			}
+
+			@Override
+			public void visit(TmxObjectPolyline objectPolyline) {
+				objectPolyline.setCollisionGeometry(compute(objectPolyline));
+			}
+		});
+	}
+
+	/**
+	 * Computes the geometry of a polygon without keeping it
+	 *
+	 * @param polygon
+	 * @return the geometry
+	 */
+	public static TmxCollisionGeometry compute(TmxObjectPolygon polygon) {
+		int[] points = polygon.points;
+		int count = points.length / 2;
+
+		int[] segments = new int[count > 1 ? count * 4 : 0];
+		for (int i = 0; i < count && count > 1; i++) {
+			int next = (i + 1) % count;
+			segments[i * 4] = points[i * 2];
+			segments[i * 4 + 1] = points[i * 2 + 1];
+			segments[i * 4 + 2] = points[next * 2];
+			segments[i * 4 + 3] = points[next * 2 + 1];
+		}
+
+		int[] triangles = triangulate(points);
+		ArrayList<int[]> pieces = mergeTriangles(points, triangles);
+
+		int[] pieceStarts = new int[pieces.size() + 1];
+		for (int i = 0; i < pieces.size(); i++) {
+			pieceStarts[i + 1] = pieceStarts[i] + pieces.get(i).length;
+		}
+		int[] pieceVertices = new int[pieceStarts[pieces.size()]];
+		for (int i = 0; i < pieces.size(); i++) {
+			System.arraycopy(pieces.get(i), 0, pieceVertices, pieceStarts[i], pieces.get(i).length);
+		}
+
+		return new TmxCollisionGeometry(getBounds(points), segments, triangles, pieceStarts, pieceVertices);
+	}
+
+	/**
+	 * Computes the geometry of a polyline without keeping it
+	 *
+	 * @param polyline
+	 * @return the geometry
+	 */
+	public static TmxCollisionGeometry compute(TmxObjectPolyline polyline) {
+		int[] points = polyline.points;
+		int count = points.length / 2;
+
+		int[] segments = new int[Math.max(0, count - 1) * 4];
+		for (int i = 0; i + 1 < count; i++) {
+			System.arraycopy(points, i * 2, segments, i * 4, 4);
+		}
+
+		return new TmxCollisionGeometry(getBounds(points), segments, new int[0], new int[] { 0 }, new int[0]);
+	}
+
+	/**
+	 * @return left of the bounding box
+	 */
+	public int getLeft() {
+		return bounds[0];
+	}
+
+	/**
+	 * @return top of the bounding box
+	 */
+	public int getTop() {
+		return bounds[1];
+	}
+
+	/**
+	 * @return right of the bounding box
+	 */
+	public int getRight() {
+		return bounds[2];
+	}
+
+	/**
+	 * @return bottom of the bounding box
+	 */
+	public int getBottom() {
+		return bounds[3];
+	}
+
+	/**
+	 * @return number of segments, the closed outline of a polygon or the
+	 *         lines of a polyline
+	 */
+	public int getSegmentCount() {
+		return segments.length / SEGMENT_STRIDE;
+	}
+
+	/**
+	 * @return a copy of the segments packed as x0, y0, x1, y1 for each one,
+	 *         getSegment doesn't allocate
+	 */
+	public int[] getSegments() {
+		return segments.clone();
+	}
+
+	/**
+	 * @param segment
+	 *            from 0 to getSegmentCount() - 1
+	 * @param field
+	 *            SEGMENT_X0, SEGMENT_Y0, SEGMENT_X1 or SEGMENT_Y1
+	 * @return a coordinate of the segment
+	 */
+	public int getSegment(int segment, int field) {
+		if (segment < 0 || segment >= getSegmentCount() || field < 0 || field >= SEGMENT_STRIDE) {
+			throw new IndexOutOfBoundsException(String.format("Segment out of bounds: %d,%d", segment, field));
+		}
+
+		return segments[segment * SEGMENT_STRIDE + field];
+	}
+
+	/**
+	 * @return number of triangles, 0 for polylines
+	 */
+	public int getTriangleCount() {
+		return triangles.length / 3;
+	}
+
+	/**
+	 * @return a copy of the indexes of the points of each triangle, three per
+	 *         triangle with the winding of the polygon made positive,
+	 *         getTriangleVertex doesn't allocate
+	 */
+	public int[] getTriangles() {
+		return triangles.clone();
+	}
+
+	/**
+	 * @param triangle
+	 *            from 0 to getTriangleCount() - 1
+	 * @param i
+	 *            from 0 to 2
+	 * @return index of the i-th point of the triangle in the polygon
+	 */
+	public int getTriangleVertex(int triangle, int i) {
+		if (triangle < 0 || triangle >= getTriangleCount() || i < 0 || i >= 3) {
+			throw new IndexOutOfBoundsException(String.format("Triangle vertex out of bounds: %d,%d", triangle, i));
+		}
+
+		return triangles[triangle * 3 + i];
+	}
+
+	/**
+	 * @return number of convex pieces, 0 for polylines
+	 */
+	public int getPieceCount() {
+		return pieceStarts.length - 1;
+	}
+
+	/**
+	 * @param piece
+	 *            from 0 to getPieceCount() - 1
+	 * @return number of points of the piece
+	 */
+	public int getPieceSize(int piece) {
+		return pieceStarts[piece + 1] - pieceStarts[piece];
+	}
+
+	/**
+	 * @param piece
+	 *            from 0 to getPieceCount() - 1
+	 * @param i
+	 *            from 0 to getPieceSize(piece) - 1
+	 * @return index of the i-th point of the piece in the polygon
+	 */
+	public int getPieceVertex(int piece, int i) {
+		return pieceVertices[pieceStarts[piece] + i];
+	}
+
+	/**
+	 * @return a copy of where the points of each piece start in
+	 *         getPieceVertices, with one extra entry holding the end of the
+	 *         last piece, getPieceSize doesn't allocate
+	 */
+	public int[] getPieceStarts() {
+		return pieceStarts.clone();
+	}
+
+	/**
+	 * @return a copy of the indexes of the points of all the pieces one after
+	 *         the other, each piece with the same winding as the triangles,
+	 *         getPieceVertex doesn't allocate
+	 */
+	public int[] getPieceVertices() {
+		return pieceVertices.clone();
+	}
+
+	/**
+	 * @return the segments of getSegments without copying them, shared with
+	 *         the package
+	 */
+	int[] getSharedSegments() {
+		return segments;
+	}
+
+	/**
+	 * @return the triangles of getTriangles without copying them, shared with
+	 *         the package
+	 */
+	int[] getSharedTriangles() {
+		return triangles;
+	}
+
+	/**
+	 * @return the piece starts of getPieceStarts without copying them, shared
+	 *         with the package
+	 */
+	int[] getSharedPieceStarts() {
+		return pieceStarts;
+	}
+
+	/**
+	 * @return the piece vertices of getPieceVertices without copying them,
+	 *         shared with the package
+	 */
+	int[] getSharedPieceVertices() {
+		return pieceVertices;
+	}
+
+	private TmxCollisionGeometry(int[] bounds, int[] segments, int[] triangles, int[] pieceStarts,
+			int[] pieceVertices) {
+		this.bounds = bounds;
+		this.segments = segments;
+		this.triangles = triangles;
+		this.pieceStarts = pieceStarts;
+		this.pieceVertices = pieceVertices;
+	}
+
+	private static int[] getBounds(int[] points) {
+		if (points.length == 0) {
+			return new int[4];
+		}
+
+		int[] res = new int[] { points[0], points[1], points[0], points[1] };
+		for (int i = 2; i + 1 < points.length; i += 2) {
+			res[0] = Math.min(res[0], points[i]);
+			res[1] = Math.min(res[1], points[i + 1]);
+			res[2] = Math.max(res[2], points[i]);
+			res[3] = Math.max(res[3], points[i + 1]);
+		}
+		return res;
+	}
+
+	/**
+	 * Triangulates a simple polygon by ear clipping. Degenerate polygons, with
+	 * repeated or collinear points or crossing edges, give the triangles that
+	 * could be found instead of failing.
+	 *
+	 * @return three point indexes per triangle
+	 */
+	private static int[] triangulate(int[] points) {
+		int count = points.length / 2;
+		if (count < 3) {
+			return new int[0];
+		}
+
+		// Remaining points as a ring, with a positive winding
+		int[] ring = new int[count];
+		boolean reverse = signedArea(points) < 0;
+		for (int i = 0; i < count; i++) {
+			ring[i] = reverse ? count - 1 - i : i;
+		}
+
+		int[] res = new int[(count - 2) * 3];
+		int triangles = 0;
+		int remaining = count;
+		int i = 0;
+		int misses = 0;
+		while (remaining > 3) {
+			int prev = ring[(i + remaining - 1) % remaining];
+			int cur = ring[i];
+			int next = ring[(i + 1) % remaining];
+
+			if (isEar(points, ring, remaining, prev, cur, next)) {
+				res[triangles++] = prev;
+				res[triangles++] = cur;
+				res[triangles++] = next;
+				remove(ring, remaining--, i);
+				i %= remaining;
+				misses = 0;
+			} else if (++misses >= remaining) {
+				// No ear left, dropping a collinear point or giving up
+				int flat = findFlat(points, ring, remaining);
+				if (flat < 0) {
+					break;
+				}
+				remove(ring, remaining--, flat);
+				i = 0;
+				misses = 0;
+			} else {
+				i = (i + 1) % remaining;
+			}
+		}
+
+		if (remaining == 3 && cross(points, ring[0], ring[1], ring[2]) > 0) {
+			res[triangles++] = ring[0];
+			res[triangles++] = ring[1];
+			res[triangles++] = ring[2];
+		}
+
+		int[] trimmed = new int[triangles];
+		System.arraycopy(res, 0, trimmed, 0, triangles);
+		return trimmed;
+	}
+
+	/**
+	 * @return whether the triangle of three consecutive points of the ring
+	 *         is convex and has no other point of the ring inside
+	 */
+	private static boolean isEar(int[] points, int[] ring, int remaining, int prev, int cur, int next) {
+		if (cross(points, prev, cur, next) <= 0) {
+			return false;
+		}
+
+		for (int j = 0; j < remaining; j++) {
+			int p = ring[j];
+			if (p == prev || p == cur || p == next || samePoint(points, p, prev) || samePoint(points, p, cur)
+					|| samePoint(points, p, next)) {
+				continue;
+			}
+			if (cross(points, prev, cur, p) >= 0 && cross(points, cur, next, p) >= 0
+					&& cross(points, next, prev, p) >= 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return position in the ring of a point lying on the line between its
+	 *         neighbours, -1 if there is none
+	 */
+	private static int findFlat(int[] points, int[] ring, int remaining) {
+		for (int j = 0; j < remaining; j++) {
+			if (cross(points, ring[(j + remaining - 1) % remaining], ring[j], ring[(j + 1) % remaining]) == 0) {
+				return j;
+			}
+		}
+		return -1;
+	}
+
+	private static void remove(int[] ring, int remaining, int pos) {
+		System.arraycopy(ring, pos + 1, ring, pos, remaining - pos - 1);
+	}
+
+	/**
+	 * Joins triangles into convex pieces, removing the diagonals whose removal
+	 * keeps both sides convex (Hertel-Mehlhorn). That gives at most four times
+	 * the minimum number of pieces.
+	 *
+	 * @return point indexes of each piece
+	 */
+	private static ArrayList<int[]> mergeTriangles(int[] points, int[] triangles) {
+		int count = triangles.length / 3;
+
+		// Piece of each triangle, triangles merged into another piece point
+		// to it
+		int[] pieceOf = new int[count];
+		ArrayList<int[]> pieces = new ArrayList<int[]>();
+		for (int t = 0; t < count; t++) {
+			pieceOf[t] = t;
+			pieces.add(new int[] { triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2] });
+		}
+
+		// Triangle of each edge by its points
+		HashMap<Long, Integer> edges = new HashMap<Long, Integer>();
+		for (int t = 0; t < count; t++) {
+			for (int e = 0; e < 3; e++) {
+				edges.put(edgeKey(triangles[t * 3 + e], triangles[t * 3 + (e + 1) % 3]), t);
+			}
+		}
+
+		// Diagonals are the edges shared by two triangles
+		for (int t = 0; t < count; t++) {
+			for (int e = 0; e < 3; e++) {
+				int a = triangles[t * 3 + e];
+				int b = triangles[t * 3 + (e + 1) % 3];
+				Integer u = edges.get(edgeKey(b, a));
+				if (u == null || u < t) {
+					continue;
+				}
+
+				int first = findPiece(pieceOf, t);
+				int second = findPiece(pieceOf, u);
+				if (first == second) {
+					continue;
+				}
+
+				int[] merged = merge(pieces.get(first), pieces.get(second), a, b);
+				if (merged != null && isConvex(points, merged)) {
+					pieces.set(first, merged);
+					pieces.set(second, null);
+					pieceOf[second] = first;
+				}
+			}
+		}
+
+		ArrayList<int[]> res = new ArrayList<int[]>();
+		for (int[] piece : pieces) {
+			if (piece != null) {
+				res.add(piece);
+			}
+		}
+		return res;
+	}
+
+	private static int findPiece(int[] pieceOf, int t) {
+		while (pieceOf[t] != t) {
+			t = pieceOf[t];
+		}
+		return t;
+	}
+
+	private static Long edgeKey(int a, int b) {
+		return ((long) a << 32) | b;
+	}
+
+	/**
+	 * Joins two pieces along an edge going from a to b in the first one and
+	 * from b to a in the second one
+	 *
+	 * @return the joined piece, null if the pieces don't share the edge
+	 */
+	private static int[] merge(int[] first, int[] second, int a, int b) {
+		int posA = indexOf(first, a);
+		int posB = indexOf(second, b);
+		if (posA < 0 || posB < 0 || first[(posA + 1) % first.length] != b
+				|| second[(posB + 1) % second.length] != a) {
+			return null;
+		}
+
+		// The first piece from b round to a, then the second from a round to b
+		// without repeating them
+		int[] res = new int[first.length + second.length - 2];
+		int n = 0;
+		for (int i = 1; i <= first.length; i++) {
+			res[n++] = first[(posA + i) % first.length];
+		}
+		for (int i = 2; i < second.length; i++) {
+			res[n++] = second[(posB + i) % second.length];
+		}
+		return res;
+	}
+
+	private static int indexOf(int[] piece, int point) {
+		for (int i = 0; i < piece.length; i++) {
+			if (piece[i] == point) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isConvex(int[] points, int[] piece) {
+		for (int i = 0; i < piece.length; i++) {
+			int prev = piece[(i + piece.length - 1) % piece.length];
+			int next = piece[(i + 1) % piece.length];
+			if (cross(points, prev, piece[i], next) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return twice the signed area of the polygon
+	 */
+	private static long signedArea(int[] points) {
+		long res = 0;
+		int count = points.length / 2;
+		for (int i = 0; i < count; i++) {
+			int next = (i + 1) % count;
+			res += (long) points[i * 2] * points[next * 2 + 1] - (long) points[next * 2] * points[i * 2 + 1];
+		}
+		return res;
+	}
+
+	/**
+	 * @return cross product of a to b and b to c, positive if a, b, c turn
+	 *         the same way as a polygon with positive area
+	 */
+	private static long cross(int[] points, int a, int b, int c) {
+		long abX = (long) points[b * 2] - points[a * 2];
+		long abY = (long) points[b * 2 + 1] - points[a * 2 + 1];
+		long bcX = (long) points[c * 2] - points[b * 2];
+		long bcY = (long) points[c * 2 + 1] - points[b * 2 + 1];
+		return abX * bcY - abY * bcX;
+	}
+
+	private static boolean samePoint(int[] points, int a, int b) {
+		return points[a * 2] == points[b * 2] && points[a * 2 + 1] == points[b * 2 + 1];
+	}
+
+	/**
+	 * Left, top, right and bottom
+	 */
+	private final int[] bounds;
+
+	/**
+	 * x0, y0, x1, y1 of each segment
+	 */
+	private final int[] segments;
+
+	/**
+	 * Three point indexes per triangle
+	 */
+	private final int[] triangles;
+
+	/**
+	 * Where the points of each piece start in pieceVertices, with one extra
+	 * entry holding the end of the last piece
+	 */
+	private final int[] pieceStarts;
+
+	/**
+	 * Point indexes of the pieces one after the other
+	 */
+	private final int[] pieceVertices;
+}
@@ -0,0 +1,380 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * One bit per tile telling whether the tile blocks movement, derived from the
+ * tiles of one or more tile layers whose custom tile has a given property, for
+ * example collides=true. Rows are packed in 32 bit words so checking a
+ * rectangle tests a whole word of tiles at once.
+ *
+ * Coordinates are tile coordinates of the layers, tiles outside the grid
+ * count as blocked. After changing the gid of a tile of a layer the grid was
+ * built from call updateTile, which reuses the blocking gids found when the
+ * layer was added. Many threads can read the same grid at the same time as
+ * long as nobody changes it.
+ */
+public class TmxCollisionGrid {
+
+	/**
+	 * Builds the grid of a tile layer
+	 *
+	 * @param map
+	 *            map the layer belongs to
+	 * @param layer
+	 * @param property
+	 *            name of the tile property marking blocking tiles
+	 * @param value
+	 *            value of the property for blocking tiles
+	 * @return the grid, with the size of the tile grid of the layer
+	 * @throws IllegalArgumentException
+	 *             if the layer has no tile grid
+	 */
+	public static TmxCollisionGrid build(TmxMap map, TmxTileLayer layer, String property, String value) {
+		TmxTileGrid grid = map.getTileGrid(layer);
+		if (grid == null) {
+			throw new IllegalArgumentException(String.format("Layer %s has no tile grid", layer.getName()));
+		}
+
+		TmxCollisionGrid res = new TmxCollisionGrid(grid.getWidth(), grid.getHeight());
+		res.addLayer(map, layer, property, value);
+		return res;
+	}
+
+	/**
+	 * Creates a grid without blocked tiles
+	 *
+	 * @param width
+	 * @param height
+	 */
+	public TmxCollisionGrid(int width, int height) {
+		if (width < 0 || height < 0) {
+			throw new IllegalArgumentException(String.format("Invalid collision grid size: %d,%d", width, height));
+		}
+
+		this.width = width;
+		this.height = height;
+		this.stride = (width + 31) >>> 5;
+		this.words = new int[stride * height];
+	}
+
+	/**
+	 * Blocks the tiles of a layer whose custom tile has a property, tiles
+	 * already blocked stay blocked
+	 *
+	 * @param map
+	 *            map the layer belongs to
+	 * @param layer
+	 * @param property
+	 *            name of the tile property marking blocking tiles
+	 * @param value
+	 *            value of the property for blocking tiles
+	 * @throws IllegalArgumentException
+	 *             if the layer has no tile grid
+	 */
+	public void addLayer(TmxMap map, TmxTileLayer layer, String property, String value) {
+		TmxTileGrid grid = map.getTileGrid(layer);
+		if (grid == null) {
+			throw new IllegalArgumentException(String.format("Layer %s has no tile grid", layer.getName()));
+		}
+
+		// Whether each global tile id blocks, looked up once per tile type
+		// instead of once per tile
+		boolean[] blocking = getBlockingGids(map, property, value);
+		layers.add(layer);
+		blockingGids.add(blocking);
+		if (blocking.length == 0) {
+			return;
+		}
+
+		int rowWidth = Math.min(width, grid.getWidth());
+		int[] row = new int[grid.getWidth()];
+		for (int y = 0; y < Math.min(height, grid.getHeight()); y++) {
+			grid.getRow(y, row, 0);
+
+			int rowStart = y * stride;
+			for (int x = 0; x < rowWidth; x++) {
+				int gid = row[x];
+				if (gid > 0 && gid < blocking.length && blocking[gid]) {
+					words[rowStart + (x >>> 5)] |= 1 << (x & 31);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Updates a tile after its gid changed in a layer the grid was built
+	 * from, the tile blocks if it blocks in any of those layers. Tiles set
+	 * with setBlocked get the value of the layers back. Changes to the custom
+	 * tiles of the tilesets are not seen, the blocking gids are looked up
+	 * when the layers are added.
+	 *
+	 * @param map
+	 *            map the layer belongs to
+	 * @param layer
+	 *            layer whose tile changed
+	 * @param x
+	 * @param y
+	 * @return whether the tile went from blocking to free or the other way,
+	 *         false if the grid wasn't built from the layer
+	 */
+	public boolean updateTile(TmxMap map, TmxTileLayer layer, int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IndexOutOfBoundsException(String.format("Tile out of the grid: %d,%d", x, y));
+		}
+		// Layers compare by content, looking for the same object
+		boolean added = false;
+		for (int i = 0; i < layers.size() && !added; i++) {
+			added = layers.get(i) == layer;
+		}
+		if (!added) {
+			return false;
+		}
+
+		boolean blocked = false;
+		for (int i = 0; i < layers.size() && !blocked; i++) {
+			TmxTileGrid grid = map.getTileGrid(layers.get(i));
+			if (grid == null || x >= grid.getWidth() || y >= grid.getHeight()) {
+				continue;
+			}
+
+			boolean[] blocking = blockingGids.get(i);
+			int gid = grid.getGid(x, y);
+			blocked = gid > 0 && gid < blocking.length && blocking[gid];
+		}
+
+		if (blocked == isBlocked(x, y)) {
+			return false;
+		}
+		setBlocked(x, y, blocked);
+		return true;
+	}
+
+	/**
+	 * @return width of the grid in tiles
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return height of the grid in tiles
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return whether the tile blocks, true outside the grid
+	 */
+	public boolean isBlocked(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			return true;
+		}
+
+		return (words[y * stride + (x >>> 5)] & (1 << (x & 31))) != 0;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @param blocked
+	 *            whether the tile blocks from now on
+	 */
+	public void setBlocked(int x, int y, boolean blocked) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IndexOutOfBoundsException(String.format("Tile out of the grid: %d,%d", x, y));
+		}
+
+		if (blocked) {
+			words[y * stride + (x >>> 5)] |= 1 << (x & 31);
+		} else {
+			words[y * stride + (x >>> 5)] &= ~(1 << (x & 31));
+		}
+	}
+
+	/**
+	 * Checks a rectangle of tiles a word at a time
+	 *
+	 * @param x
+	 *            left tile
+	 * @param y
+	 *            top tile
+	 * @param width
+	 *            in tiles
+	 * @param height
+	 *            in tiles
+	 * @return whether any tile of the rectangle blocks, true if part of it is
+	 *         outside the grid, false if it is empty
+	 */
+	public boolean isAnyBlocked(int x, int y, int width, int height) {
+		if (width <= 0 || height <= 0) {
+			return false;
+		}
+		if (x < 0 || y < 0 || (long) x + width > this.width || (long) y + height > this.height) {
+			return true;
+		}
+
+		int firstWord = x >>> 5;
+		int lastWord = (x + width - 1) >>> 5;
+		int firstMask = -1 << (x & 31);
+		int lastMask = -1 >>> (31 - ((x + width - 1) & 31));
+
+		for (int row = y; row < y + height; row++) {
+			int rowStart = row * stride;
+			if (firstWord == lastWord) {
+				if ((words[rowStart + firstWord] & firstMask & lastMask) != 0) {
+					return true;
+				}
+				continue;
+			}
+
+			if ((words[rowStart + firstWord] & firstMask) != 0 || (words[rowStart + lastWord] & lastMask) != 0) {
+				return true;
+			}
+			for (int word = firstWord + 1; word < lastWord; word++) {
+				if (words[rowStart + word] != 0) {
+					return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Moves a rectangle of tiles horizontally until it would overlap a blocked
+	 * tile
+	 *
+	 * @param x
+	 *            left tile of the rectangle
+	 * @param y
+	 *            top tile of the rectangle
+	 * @param width
+	 *            in tiles
+	 * @param height
+	 *            in tiles
+	 * @param dx
+	 *            tiles to move, negative to move left
+	 * @return tiles the rectangle can move, from 0 to dx
+	 */
+	public int sweepX(int x, int y, int width, int height, int dx) {
+		int step = dx < 0 ? -1 : 1;
+		for (int moved = 0; moved != dx; moved += step) {
+			int column = dx < 0 ? x + moved - 1 : x + width + moved;
+			if (isAnyBlocked(column, y, 1, height)) {
+				return moved;
+			}
+		}
+		return dx;
+	}
+
+	/**
+	 * Moves a rectangle of tiles vertically until it would overlap a blocked
+	 * tile
+	 *
+	 * @param x
+	 *            left tile of the rectangle
+	 * @param y
+	 *            top tile of the rectangle
+	 * @param width
+	 *            in tiles
+	 * @param height
+	 *            in tiles
+	 * @param dy
+	 *            tiles to move, negative to move up
+	 * @return tiles the rectangle can move, from 0 to dy
+	 */
+	public int sweepY(int x, int y, int width, int height, int dy) {
+		int step = dy < 0 ? -1 : 1;
+		for (int moved = 0; moved != dy; moved += step) {
+			int row = dy < 0 ? y + moved - 1 : y + height + moved;
+			if (isAnyBlocked(x, row, width, 1)) {
+				return moved;
+			}
+		}
+		return dy;
+	}
+
+	/**
+	 * @return number of blocked tiles
+	 */
+	public int getBlockedCount() {
+		int res = 0;
+		for (int word : words) {
+			res += Integer.bitCount(word);
+		}
+		return res;
+	}
+
+	/**
+	 * @return for each global tile id whether its custom tile has the
+	 *         property, empty if no tile has it
+	 */
+	private static boolean[] getBlockingGids(TmxMap map, String property, String value) {
+		boolean[] res = new boolean[0];
+
+		Iterator<TmxTileset> iterTilesets = map.getTilesets();
+		while (iterTilesets.hasNext()) {
+			TmxTileset tileset = iterTilesets.next();
+
+			Iterator<TmxTile> iterTiles = tileset.getCustomTiles();
+			while (iterTiles.hasNext()) {
+				TmxTile tile = iterTiles.next();
+				TmxProperties properties = tile.getProperties();
+				if (properties == null || !value.equals(properties.getProperty(property))) {
+					continue;
+				}
+
+				int gid = tileset.getFirstgid() + tile.getId();
+				if (gid >= res.length) {
+					boolean[] bigger = new boolean[Math.max(gid + 1, res.length * 2)];
+					System.arraycopy(res, 0, bigger, 0, res.length);
+					res = bigger;
+				}
+				res[gid] = true;
+			}
+		}
+
+		return res;
+	}
+
+	private final int width;
+	private final int height;
+
+	/**
+	 * Words in each row
+	 */
+	private final int stride;
+
+	/**
+	 * Rows of bits one after the other, bit x & 31 of word x >>> 5 of a row
+	 * for the tile at x
+	 */
+	private final int[] words;
+
+	/**
+	 * Layers added to the grid and whether each global tile id blocks in
+	 * each of them
+	 */
+	private final ArrayList<TmxTileLayer> layers = new ArrayList<TmxTileLayer>();
+	private final ArrayList<boolean[]> blockingGids = new ArrayList<boolean[]>();
+}
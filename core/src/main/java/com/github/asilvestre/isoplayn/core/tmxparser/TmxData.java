@@ -17,8 +17,11 @@
 package com.github.asilvestre.isoplayn.core.tmxparser;
 
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.Vector;
 
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
 public class TmxData implements TmxElement {
 
 	public enum Encoding {
@@ -29,6 +32,19 @@ public class TmxData implements TmxElement {
 		NONE, GZIP, ZLIB,
 	}
 
+	/**
+	 * Flags in the high bits of global tile ids telling how the tile is
+	 * flipped
+	 */
+	public static final int FLIPPED_HORIZONTALLY = 0x80000000;
+	public static final int FLIPPED_VERTICALLY = 0x40000000;
+	public static final int FLIPPED_DIAGONALLY = 0x20000000;
+
+	/**
+	 * Bits of a global tile id left once the flip flags are removed
+	 */
+	public static final int GID_MASK = ~(FLIPPED_HORIZONTALLY | FLIPPED_VERTICALLY | FLIPPED_DIAGONALLY);
+
 	/**
 	 * @return the data
 	 */
@@ -47,7 +63,9 @@ public class TmxData implements TmxElement {
 	 * @param encoding
 	 */
 	public void setEncoding(Encoding encoding) {
+		TmxFreezer.checkMutable(frozen);
 		this.encoding = encoding;
+		this.decoded = data.length() == 0;
 	}
 
 	/**
@@ -61,7 +79,9 @@ public class TmxData implements TmxElement {
 	 * @param compression
 	 */
 	public void setCompression(Compression compression) {
+		TmxFreezer.checkMutable(frozen);
 		this.compression = compression;
+		this.decoded = data.length() == 0;
 	}
 
 	/**
@@ -69,7 +89,9 @@ public class TmxData implements TmxElement {
 	 *            the data to set
 	 */
 	public void setData(String data) {
+		TmxFreezer.checkMutable(frozen);
 		this.data = data;
+		this.decoded = data.length() == 0;
 	}
 
 	@Override
@@ -88,9 +110,161 @@ public class TmxData implements TmxElement {
 	}
 
 	/**
-	 * Decompresses data
+	 * Decodes and decompresses data into the global tile id array, it is
+	 * done lazily when the tile ids are first needed but calling it allows
+	 * getting decoding errors
+	 * 
+	 * @throws ParseTmxException
+	 *             if the data is not correctly encoded or compressed
+	 */
+	public void Decompress() throws ParseTmxException {
+		if (data.length() > 0) {
+			gids = TmxDataDecoder.decode(data, encoding, compression);
+			gidCount = gids.length;
+			flips = TmxDataDecoder.splitFlips(gids, gidCount);
+		}
+
+		decoded = true;
+	}
+
+	/**
+	 * @return the global tile ids of this layer data without their flip
+	 *         flags, row by row starting at the top left corner. Frozen data
+	 *         returns a copy, getGid doesn't allocate.
+	 */
+	public int[] getGids() {
+		int[] res = getSharedGids();
+		return frozen ? res.clone() : res;
+	}
+
+	/**
+	 * @return the global tile ids of getGids without copying them, shared
+	 *         with the package
+	 */
+	int[] getSharedGids() {
+		decodeIfNeeded();
+
+		// Trimming the spare capacity left by appending tiles
+		if (gids.length != gidCount) {
+			int[] trimmed = new int[gidCount];
+			System.arraycopy(gids, 0, trimmed, 0, gidCount);
+			gids = trimmed;
+
+			if (flips != null) {
+				byte[] trimmedFlips = new byte[gidCount];
+				System.arraycopy(flips, 0, trimmedFlips, 0, gidCount);
+				flips = trimmedFlips;
+			}
+		}
+
+		return gids;
+	}
+
+	/**
+	 * @return the flip flags of each tile in the same order as getGids, one
+	 *         byte per tile holding the flags of the global tile id shifted
+	 *         to the lowest bits, null if no tile is flipped. Frozen data
+	 *         returns a copy, getFlip doesn't allocate.
+	 */
+	public byte[] getFlips() {
+		byte[] res = getSharedFlips();
+		return frozen && res != null ? res.clone() : res;
+	}
+
+	/**
+	 * @return the flip flags of getFlips without copying them, shared with
+	 *         the package
+	 */
+	byte[] getSharedFlips() {
+		getSharedGids();
+
+		return flips;
+	}
+
+	/**
+	 * @return the global tile ids with their flip flags, as they are stored
+	 *         in TMX files
+	 */
+	public int[] getRawGids() {
+		int[] res = getSharedGids().clone();
+		if (flips != null) {
+			for (int i = 0; i < res.length; i++) {
+				res[i] |= flips[i] << TmxDataDecoder.FLIP_SHIFT;
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * @param index
+	 *            position of the tile, row by row starting at the top left
+	 *            corner
+	 * @return the global tile id at the given position without its flip
+	 *         flags
+	 */
+	public int getGid(int index) {
+		decodeIfNeeded();
+
+		if (index < 0 || index >= gidCount) {
+			throw new IndexOutOfBoundsException(String.format("Tile index out of bounds: %d", index));
+		}
+
+		return gids[index];
+	}
+
+	/**
+	 * @param index
+	 *            position of the tile, row by row starting at the top left
+	 *            corner
+	 * @return the flip flags of the tile, a combination of FLIPPED_HORIZONTALLY,
+	 *         FLIPPED_VERTICALLY and FLIPPED_DIAGONALLY
 	 */
-	public void Decompress() {
+	public int getFlip(int index) {
+		getGid(index);
+
+		return flips != null ? flips[index] << TmxDataDecoder.FLIP_SHIFT : 0;
+	}
+
+	/**
+	 * @return number of tiles in this layer data
+	 */
+	public int getGidCount() {
+		decodeIfNeeded();
+
+		return gidCount;
+	}
+
+	/**
+	 * Sets already decoded global tile ids, replacing any encoded data
+	 * 
+	 * @param gids
+	 *            global tile ids with their flip flags, the flags are cleared
+	 *            in place
+	 */
+	void setGids(int[] gids) {
+		this.data = "";
+		this.gids = gids;
+		this.gidCount = gids.length;
+		this.flips = TmxDataDecoder.splitFlips(gids, gidCount);
+		this.decoded = true;
+	}
+
+	/**
+	 * Decodes the data the first time the tiles are needed
+	 * 
+	 * @throws IllegalStateException
+	 *             if the data is not correctly encoded or compressed, so
+	 *             wrong data is never taken for a layer without tiles
+	 */
+	private void decodeIfNeeded() {
+		if (!decoded) {
+			try {
+				Decompress();
+			} catch (ParseTmxException e) {
+				throw new IllegalStateException(String.format("Error decoding the layer data: %s", e.getMessage()), e);
+			}
+		}
 	}
 
 	public void accept(TmxElementVisitor visitor) {
@@ -101,10 +275,66 @@ public class TmxData implements TmxElement {
 		while (iterTiles.hasNext()) {
 			iterTiles.next().accept(visitor);
 		}
+
+		Iterator<TmxDataChunk> iterChunks = chunks.iterator();
+		while (iterChunks.hasNext()) {
+			iterChunks.next().accept(visitor);
+		}
+	}
+
+	/**
+	 * Adds a chunk of an infinite map layer, chunked data has no tiles of its
+	 * own, see TmxChunkedTileGrid
+	 * 
+	 * @param chunk
+	 */
+	public void addChunk(TmxDataChunk chunk) {
+		TmxFreezer.checkMutable(frozen);
+		chunks.add(chunk);
+	}
+
+	/**
+	 * @return the chunks of an infinite map layer in the order they were added
+	 */
+	public Iterator<TmxDataChunk> getChunks() {
+		return TmxFreezer.iterator(chunks, frozen);
+	}
+
+	/**
+	 * @return number of chunks, 0 unless this is the data of an infinite map
+	 */
+	public int getChunkCount() {
+		return chunks.size();
 	}
 
 	public void addTile(TmxDataTile tile) {
+		TmxFreezer.checkMutable(frozen);
 		tiles.add(tile);
+		appendGid(tile.getGid());
+	}
+
+	private void appendGid(int gid) {
+		if (gidCount == gids.length) {
+			int[] bigger = new int[Math.max(gids.length * 2, 16)];
+			System.arraycopy(gids, 0, bigger, 0, gidCount);
+			gids = bigger;
+
+			if (flips != null) {
+				byte[] biggerFlips = new byte[gids.length];
+				System.arraycopy(flips, 0, biggerFlips, 0, gidCount);
+				flips = biggerFlips;
+			}
+		}
+
+		int flags = gid >>> TmxDataDecoder.FLIP_SHIFT;
+		if (flags != 0) {
+			if (flips == null) {
+				flips = new byte[gids.length];
+			}
+			flips[gidCount] = (byte) flags;
+		}
+
+		gids[gidCount++] = gid & GID_MASK;
 	}
 
 	/**
@@ -124,14 +354,47 @@ public class TmxData implements TmxElement {
 
 	private Vector<TmxDataTile> tiles = new Vector<TmxDataTile>();
 
+	/**
+	 * Chunks of an infinite map layer, each one encoded on its own
+	 */
+	private LinkedList<TmxDataChunk> chunks = new LinkedList<TmxDataChunk>();
+
+	/**
+	 * Decoded global tile ids without flip flags, either from data or from
+	 * the tiles added
+	 */
+	private int[] gids = new int[0];
+
+	/**
+	 * Flip flags of each tile in gids shifted to the lowest bits, null while
+	 * no tile is flipped so most layers don't pay for it
+	 */
+	private byte[] flips;
+
+	/**
+	 * Number of valid global tile ids in gids
+	 */
+	private int gidCount = 0;
+
+	/**
+	 * Whether data has already been decoded into gids
+	 */
+	private boolean decoded = true;
+
+	/**
+	 * Two data are equal when they hold the same tiles, no matter if they
+	 * were decoded from a string, added one by one or set directly. Data not
+	 * decoded yet is compared by its encoded string, neither method decodes
+	 * it nor throws on wrong data.
+	 */
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((compression == null) ? 0 : compression.hashCode());
-		result = prime * result + ((data == null) ? 0 : data.hashCode());
 		result = prime * result + ((encoding == null) ? 0 : encoding.hashCode());
-		result = prime * result + ((tiles == null) ? 0 : tiles.hashCode());
+		result = prime * result + hashTiles();
+		result = prime * result + chunks.hashCode();
 		return result;
 	}
 
@@ -146,18 +409,70 @@ public class TmxData implements TmxElement {
 		TmxData other = (TmxData) obj;
 		if (compression != other.compression)
 			return false;
-		if (data == null) {
-			if (other.data != null)
-				return false;
-		} else if (!data.equals(other.data))
-			return false;
 		if (encoding != other.encoding)
 			return false;
-		if (tiles == null) {
-			if (other.tiles != null)
+		if (!decoded || !other.decoded) {
+			if (!data.equals(other.data))
 				return false;
-		} else if (!tiles.equals(other.tiles))
+		} else if (!tilesEqual(other))
+			return false;
+		if (!chunks.equals(other.chunks))
 			return false;
 		return true;
 	}
+
+	/**
+	 * @return hash of the tiles with their flip flags, data not decoded yet
+	 *         is decoded into a temporary array so the hash matches the one
+	 *         of the same tiles decoded, wrong data hashes its string
+	 */
+	private int hashTiles() {
+		int[] raw = gids;
+		byte[] rawFlips = flips;
+		int count = gidCount;
+		if (!decoded) {
+			try {
+				raw = TmxDataDecoder.decode(data, encoding, compression);
+				rawFlips = null;
+				count = raw.length;
+			} catch (ParseTmxException e) {
+				return data.hashCode();
+			}
+		}
+
+		int result = 1;
+		for (int i = 0; i < count; i++) {
+			int gid = raw[i];
+			if (rawFlips != null) {
+				gid |= rawFlips[i] << TmxDataDecoder.FLIP_SHIFT;
+			}
+			result = 31 * result + gid;
+		}
+		return result;
+	}
+
+	/**
+	 * @param other
+	 *            decoded data, as this one
+	 * @return whether both hold the same tiles with the same flip flags,
+	 *         ignoring the spare capacity of the arrays
+	 */
+	private boolean tilesEqual(TmxData other) {
+		if (gidCount != other.gidCount)
+			return false;
+		for (int i = 0; i < gidCount; i++) {
+			if (gids[i] != other.gids[i])
+				return false;
+			int flags = flips != null ? flips[i] : 0;
+			int otherFlags = other.flips != null ? other.flips[i] : 0;
+			if (flags != otherFlags)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
@@ -15,6 +15,8 @@
  */
 package com.github.asilvestre.isoplayn.core.tmxparser;
 
+import java.util.Iterator;
+
 public class TmxDataAssembler extends TmxElementAssembler {
 	public TmxDataAssembler(TmxData data) {
 		super(data);
@@ -27,5 +29,28 @@ public class TmxDataAssembler extends TmxElementAssembler {
 		data.addTile(tile);
 	}
 
+	@Override
+	public void assemble(TmxDataChunk chunk) throws TmxInvalidAssembly {
+		// Chunks have to tile the layer as a grid
+		Iterator<TmxDataChunk> iterChunks = data.getChunks();
+		if (iterChunks.hasNext()) {
+			TmxDataChunk first = iterChunks.next();
+			if (chunk.getWidth() != first.getWidth() || chunk.getHeight() != first.getHeight()) {
+				throw new TmxInvalidAssembly(String.format("Chunk at %d,%d is %dx%d but previous chunks are %dx%d",
+						chunk.getX(), chunk.getY(), chunk.getWidth(), chunk.getHeight(), first.getWidth(),
+						first.getHeight()));
+			}
+			if ((chunk.getX() - first.getX()) % first.getWidth() != 0
+					|| (chunk.getY() - first.getY()) % first.getHeight() != 0) {
+				throw new TmxInvalidAssembly(String.format("Chunk at %d,%d is not aligned with previous chunks",
+						chunk.getX(), chunk.getY()));
+			}
+		} else if (chunk.getWidth() <= 0 || chunk.getHeight() <= 0) {
+			throw new TmxInvalidAssembly(String.format("Chunk at %d,%d has no tiles", chunk.getX(), chunk.getY()));
+		}
+
+		data.addChunk(chunk);
+	}
+
 	private TmxData data;
 }
@@ -0,0 +1,173 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+/**
+ * Piece of the data of an infinite map layer, its payload is kept encoded
+ * with the encoding and compression of its parent data until it is needed
+ */
+public class TmxDataChunk implements TmxElement {
+
+	@Override
+	public void accept(TmxElementVisitor visitor) {
+		visitor.visit(this);
+	}
+
+	@Override
+	public String description() {
+		return "TMX Data Chunk";
+	}
+
+	@Override
+	public TmxElementAssembler createAssembler() {
+		return new TmxDataChunkAssembler(this);
+	}
+
+	@Override
+	public void getAssembled(TmxElementAssembler assembler) throws TmxInvalidAssembly {
+		assembler.assemble(this);
+	}
+
+	/**
+	 * @return x coordinate of the top left tile of the chunk
+	 */
+	public int getX() {
+		return x;
+	}
+
+	/**
+	 * @param x
+	 */
+	public void setX(int x) {
+		TmxFreezer.checkMutable(frozen);
+		this.x = x;
+	}
+
+	/**
+	 * @return y coordinate of the top left tile of the chunk
+	 */
+	public int getY() {
+		return y;
+	}
+
+	/**
+	 * @param y
+	 */
+	public void setY(int y) {
+		TmxFreezer.checkMutable(frozen);
+		this.y = y;
+	}
+
+	/**
+	 * @return width in tiles
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @param width
+	 */
+	public void setWidth(int width) {
+		TmxFreezer.checkMutable(frozen);
+		this.width = width;
+	}
+
+	/**
+	 * @return height in tiles
+	 */
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * @param height
+	 */
+	public void setHeight(int height) {
+		TmxFreezer.checkMutable(frozen);
+		this.height = height;
+	}
+
+	/**
+	 * @return the encoded payload
+	 */
+	public String getData() {
+		return data;
+	}
+
+	/**
+	 * @param data
+	 */
+	public void setData(String data) {
+		TmxFreezer.checkMutable(frozen);
+		this.data = data;
+	}
+
+	private int x = 0;
+
+	private int y = 0;
+
+	private int width = 0;
+
+	private int height = 0;
+
+	/**
+	 * Encoded and possibly compressed tiles
+	 */
+	private String data = "";
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((data == null) ? 0 : data.hashCode());
+		result = prime * result + height;
+		result = prime * result + width;
+		result = prime * result + x;
+		result = prime * result + y;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		TmxDataChunk other = (TmxDataChunk) obj;
+		if (data == null) {
+			if (other.data != null)
+				return false;
+		} else if (!data.equals(other.data))
+			return false;
+		if (height != other.height)
+			return false;
+		if (width != other.width)
+			return false;
+		if (x != other.x)
+			return false;
+		if (y != other.y)
+			return false;
+		return true;
+	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
+}
@@ -0,0 +1,295 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+import com.jcraft.jzlib.GZIPException;
+import com.jcraft.jzlib.Inflater;
+import com.jcraft.jzlib.JZlib;
+
+/**
+ * Decodes the payload of a TMX data tag (base64 or CSV, optionally zlib or
+ * gzip compressed) into a flat array of global tile ids
+ */
+class TmxDataDecoder {
+
+	/**
+	 * Decodes a data payload
+	 *
+	 * @param data
+	 *            textual content of the data tag
+	 * @param encoding
+	 *            how the content is encoded
+	 * @param compression
+	 *            how the content is compressed, ignored for CSV
+	 * @return the global tile ids in the order they appear in the payload
+	 * @throws ParseTmxException
+	 */
+	static int[] decode(String data, TmxData.Encoding encoding, TmxData.Compression compression)
+			throws ParseTmxException {
+		if (encoding == TmxData.Encoding.CSV) {
+			return decodeCsv(data);
+		}
+
+		byte[] bytes = decodeBase64(data);
+
+		if (compression == TmxData.Compression.ZLIB || compression == TmxData.Compression.GZIP) {
+			return inflateGids(bytes, compression);
+		}
+
+		return toGids(bytes, bytes.length);
+	}
+
+	/**
+	 * Removes the flip flags from global tile ids
+	 *
+	 * @param gids
+	 *            global tile ids, the flags are cleared in place
+	 * @param count
+	 *            number of valid ids in gids
+	 * @return the flags of each tile shifted to the lowest bits, one byte per
+	 *         tile, or null if no tile is flipped
+	 */
+	static byte[] splitFlips(int[] gids, int count) {
+		byte[] flips = null;
+		for (int i = 0; i < count; i++) {
+			int flags = gids[i] >>> FLIP_SHIFT;
+			if (flags != 0) {
+				if (flips == null) {
+					flips = new byte[gids.length];
+				}
+				flips[i] = (byte) flags;
+				gids[i] &= TmxData.GID_MASK;
+			}
+		}
+
+		return flips;
+	}
+
+	/**
+	 * Parses a comma separated list of global tile ids without creating
+	 * intermediate strings
+	 *
+	 * @param data
+	 * @return the parsed global tile ids
+	 * @throws ParseTmxException
+	 */
+	static int[] decodeCsv(String data) throws ParseTmxException {
+		int count = 0;
+		int len = data.length();
+
+		// First pass to know how many values we have
+		boolean inNumber = false;
+		for (int i = 0; i < len; i++) {
+			char c = data.charAt(i);
+			if (c >= '0' && c <= '9') {
+				if (!inNumber) {
+					count++;
+					inNumber = true;
+				}
+			} else {
+				inNumber = false;
+			}
+		}
+
+		int[] gids = new int[count];
+		int index = 0;
+		long value = 0;
+		inNumber = false;
+		for (int i = 0; i < len; i++) {
+			char c = data.charAt(i);
+			if (c >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				inNumber = true;
+				if (value > 0xFFFFFFFFL) {
+					throw new ParseTmxException("CSV tile gid out of range");
+				}
+			} else if (c == ',' || Character.isWhitespace(c)) {
+				if (inNumber) {
+					// GIDs are unsigned 32 bit numbers, keep the high bits
+					gids[index++] = (int) value;
+					value = 0;
+					inNumber = false;
+				}
+			} else {
+				throw new ParseTmxException(String.format("Invalid character in CSV data: %c", c));
+			}
+		}
+		if (inNumber) {
+			gids[index++] = (int) value;
+		}
+
+		return gids;
+	}
+
+	/**
+	 * Decodes a base64 string skipping any whitespace in it
+	 *
+	 * @param data
+	 * @return the decoded bytes
+	 * @throws ParseTmxException
+	 */
+	static byte[] decodeBase64(String data) throws ParseTmxException {
+		int len = data.length();
+
+		// Counting the significant characters to size the output
+		int chars = 0;
+		int padding = 0;
+		for (int i = 0; i < len; i++) {
+			char c = data.charAt(i);
+			if (c == '=') {
+				padding++;
+			} else if (!Character.isWhitespace(c)) {
+				if (padding > 0) {
+					throw new ParseTmxException("Base64 data has characters after the padding");
+				}
+				chars++;
+			}
+		}
+
+		if ((chars + padding) % 4 != 0 || padding > 2) {
+			throw new ParseTmxException("Base64 data has an invalid length");
+		}
+
+		byte[] res = new byte[chars * 3 / 4];
+		int resIndex = 0;
+		int accum = 0;
+		int accumBits = 0;
+		for (int i = 0; i < len; i++) {
+			char c = data.charAt(i);
+			if (c == '=' || Character.isWhitespace(c)) {
+				continue;
+			}
+
+			int value = c < BASE64_VALUES.length ? BASE64_VALUES[c] : -1;
+			if (value < 0) {
+				throw new ParseTmxException(String.format("Invalid character in base64 data: %c", c));
+			}
+
+			accum = (accum << 6) | value;
+			accumBits += 6;
+			if (accumBits >= 8) {
+				accumBits -= 8;
+				res[resIndex++] = (byte) (accum >> accumBits);
+			}
+		}
+
+		return res;
+	}
+
+	/**
+	 * Inflates zlib or gzip compressed data and converts it to global tile ids
+	 *
+	 * @param input
+	 *            compressed bytes
+	 * @param compression
+	 *            type of compression, ZLIB or GZIP
+	 * @return the global tile ids
+	 * @throws ParseTmxException
+	 */
+	private static int[] inflateGids(byte[] input, TmxData.Compression compression) throws ParseTmxException {
+		// Adding 16 to the window bits makes zlib expect a gzip wrapper
+		int windowBits = compression == TmxData.Compression.GZIP ? JZlib.DEF_WBITS + 16 : JZlib.DEF_WBITS;
+
+		Inflater inflater;
+		try {
+			inflater = new Inflater(windowBits);
+		} catch (GZIPException e) {
+			throw new ParseTmxException(String.format("Error initializing data decompression: %s", e.toString()));
+		}
+
+		// Tile data usually compresses very well, start big and grow if needed
+		byte[] output = new byte[Math.max(input.length * 8, MIN_INFLATE_BUFFER)];
+		inflater.setInput(input);
+		inflater.setOutput(output);
+
+		int inflatedLength;
+		try {
+			while (true) {
+				int err = inflater.inflate(JZlib.Z_NO_FLUSH);
+
+				if (err == JZlib.Z_STREAM_END) {
+					break;
+				}
+
+				if (inflater.avail_out == 0) {
+					int used = inflater.next_out_index;
+					byte[] bigger = new byte[output.length * 2];
+					System.arraycopy(output, 0, bigger, 0, used);
+					output = bigger;
+					inflater.setOutput(output, used, output.length - used);
+				} else if (err != JZlib.Z_OK) {
+					throw new ParseTmxException(String.format("Error decompressing data: %s", inflater.msg));
+				}
+			}
+
+			inflatedLength = inflater.next_out_index;
+		} finally {
+			inflater.end();
+		}
+
+		return toGids(output, inflatedLength);
+	}
+
+	/**
+	 * Converts little endian unsigned 32 bit numbers into global tile ids
+	 *
+	 * @param bytes
+	 * @param length
+	 *            number of valid bytes in the buffer
+	 * @return the global tile ids
+	 * @throws ParseTmxException
+	 */
+	private static int[] toGids(byte[] bytes, int length) throws ParseTmxException {
+		if (length % 4 != 0) {
+			throw new ParseTmxException(String.format("Tile data length is not a multiple of 4: %d", length));
+		}
+
+		int[] gids = new int[length / 4];
+		for (int i = 0, j = 0; i < gids.length; i++, j += 4) {
+			gids[i] = (bytes[j] & 0xFF) | (bytes[j + 1] & 0xFF) << 8 | (bytes[j + 2] & 0xFF) << 16
+					| (bytes[j + 3] & 0xFF) << 24;
+		}
+
+		return gids;
+	}
+
+	/**
+	 * Position of the lowest flip flag in a global tile id
+	 */
+	static final int FLIP_SHIFT = 29;
+
+	/**
+	 * Minimum size of the buffer used to inflate data
+	 */
+	private static final int MIN_INFLATE_BUFFER = 4096;
+
+	/**
+	 * Value of each base64 character, -1 for invalid characters
+	 */
+	private static final int[] BASE64_VALUES = new int[128];
+
+	static {
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+		for (int i = 0; i < BASE64_VALUES.length; i++) {
+			BASE64_VALUES[i] = -1;
+		}
+		for (int i = 0; i < alphabet.length(); i++) {
+			BASE64_VALUES[alphabet.charAt(i)] = i;
+		}
+	}
+}
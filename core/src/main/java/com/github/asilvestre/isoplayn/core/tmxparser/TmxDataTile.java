@@ -51,6 +51,7 @@ public class TmxDataTile implements TmxElement {
 	 * @param gid
 	 */
 	public void setGid(int gid) {
+		TmxFreezer.checkMutable(frozen);
 		this.gid = gid;
 	}
 
@@ -77,4 +78,9 @@ public class TmxDataTile implements TmxElement {
 			return false;
 		return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
@@ -0,0 +1,388 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+/**
+ * Tile grid whose tiles can be changed while other threads read snapshots of
+ * it. Tiles are kept in fixed size chunks shared with the snapshots, taking a
+ * snapshot copies nothing and the first change to a chunk after a snapshot
+ * copies only that chunk.
+ *
+ * Changes and reads of the grid itself must happen on one thread, snapshots
+ * can be read from any thread without locking and never change.
+ */
+public class TmxEditableTileGrid implements TmxTileGrid {
+
+	/**
+	 * Chunk size used when none is given
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 16;
+
+	/**
+	 * Makes the tiles of a layer editable, replacing its tile grid with an
+	 * editable copy unless it already is editable
+	 *
+	 * @param map
+	 *            map the layer belongs to
+	 * @param layer
+	 * @return the editable grid of the layer
+	 * @throws IllegalArgumentException
+	 *             if the layer has no tile grid
+	 */
+	public static TmxEditableTileGrid edit(TmxMap map, TmxTileLayer layer) {
+		TmxTileGrid grid = map.getTileGrid(layer);
+		if (grid instanceof TmxEditableTileGrid) {
+			return (TmxEditableTileGrid) grid;
+		} else if (grid == null) {
+			throw new IllegalArgumentException(String.format("Layer %s has no tile grid", layer.getName()));
+		}
+
+		TmxEditableTileGrid res = new TmxEditableTileGrid(grid, DEFAULT_CHUNK_SIZE);
+		layer.setTileGrid(res);
+
+		return res;
+	}
+
+	/**
+	 * Creates a grid without tiles
+	 *
+	 * @param width
+	 * @param height
+	 * @param chunkSize
+	 *            width and height of each chunk in tiles
+	 */
+	public TmxEditableTileGrid(int width, int height, int chunkSize) {
+		if (chunkSize <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid chunk size: %d", chunkSize));
+		}
+
+		int chunksAcross = (width + chunkSize - 1) / chunkSize;
+		int chunksDown = (height + chunkSize - 1) / chunkSize;
+		tiles = new Tiles(width, height, chunkSize, chunksAcross, new Chunk[chunksAcross * chunksDown]);
+		chunkModCounts = new int[chunksAcross * chunksDown];
+	}
+
+	/**
+	 * Creates a grid with the tiles of another one
+	 *
+	 * @param grid
+	 *            tiles to copy
+	 * @param chunkSize
+	 *            width and height of each chunk in tiles
+	 */
+	public TmxEditableTileGrid(TmxTileGrid grid, int chunkSize) {
+		this(grid.getWidth(), grid.getHeight(), chunkSize);
+
+		int width = grid.getWidth();
+		int[] row = new int[width];
+		for (int y = 0; y < grid.getHeight(); y++) {
+			grid.getRow(y, row, 0);
+			for (int x = 0; x < width; x++) {
+				int flip = grid.getFlip(x, y);
+				if (row[x] != 0 || flip != 0) {
+					setGid(x, y, row[x] | flip);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int getWidth() {
+		return tiles.width;
+	}
+
+	@Override
+	public int getHeight() {
+		return tiles.height;
+	}
+
+	@Override
+	public int getGid(int x, int y) {
+		return tiles.getGid(x, y);
+	}
+
+	@Override
+	public int getFlip(int x, int y) {
+		return tiles.getFlip(x, y);
+	}
+
+	@Override
+	public void getRow(int y, int[] dst, int dstOffset) {
+		tiles.getRow(y, dst, dstOffset);
+	}
+
+	/**
+	 * Changes a tile, copying its chunk first if a snapshot shares it
+	 *
+	 * @param x
+	 * @param y
+	 * @param gid
+	 *            global tile id with its flip flags, 0 to clear the tile
+	 */
+	public void setGid(int x, int y, int gid) {
+		tiles.checkBounds(x, y);
+
+		int chunkSize = tiles.chunkSize;
+		int index = (y / chunkSize) * tiles.chunksAcross + x / chunkSize;
+		int tile = (y % chunkSize) * chunkSize + x % chunkSize;
+		int flags = gid >>> TmxDataDecoder.FLIP_SHIFT;
+
+		Chunk chunk = tiles.chunks[index];
+		if (chunk == null) {
+			if (gid == 0) {
+				return;
+			}
+			chunk = new Chunk(new int[chunkSize * chunkSize], null, version);
+		} else if (chunk.gids[tile] == (gid & TmxData.GID_MASK) && chunk.getFlags(tile) == flags) {
+			return;
+		} else if (chunk.version != version) {
+			chunk = new Chunk(chunk.gids.clone(), chunk.flips != null ? chunk.flips.clone() : null, version);
+			copiedChunks++;
+		}
+
+		if (flags != 0 && chunk.flips == null) {
+			chunk.flips = new byte[chunk.gids.length];
+		}
+		chunk.gids[tile] = gid & TmxData.GID_MASK;
+		if (chunk.flips != null) {
+			chunk.flips[tile] = (byte) flags;
+		}
+
+		if (tiles.chunks[index] != chunk) {
+			// Snapshots share the chunk table too, it is copied once
+			if (sharedTable) {
+				tiles = new Tiles(tiles.width, tiles.height, chunkSize, tiles.chunksAcross, tiles.chunks.clone());
+				sharedTable = false;
+			}
+			tiles.chunks[index] = chunk;
+		}
+
+		modCount++;
+		chunkModCounts[index] = modCount;
+	}
+
+	/**
+	 * Takes a snapshot of the tiles in constant time. The snapshot doesn't see
+	 * later changes and can be read from any thread.
+	 *
+	 * @return the snapshot
+	 */
+	public TmxTileGrid snapshot() {
+		sharedTable = true;
+		version++;
+
+		// A new object with final fields publishes the chunks safely
+		return new Tiles(tiles.width, tiles.height, tiles.chunkSize, tiles.chunksAcross, tiles.chunks);
+	}
+
+	/**
+	 * @return width and height of each chunk in tiles
+	 */
+	public int getChunkSize() {
+		return tiles.chunkSize;
+	}
+
+	/**
+	 * @return number of chunks in a row of chunks
+	 */
+	public int getChunksAcross() {
+		return tiles.chunksAcross;
+	}
+
+	/**
+	 * @return number of chunks in a column of chunks
+	 */
+	public int getChunksDown() {
+		return (tiles.height + tiles.chunkSize - 1) / tiles.chunkSize;
+	}
+
+	/**
+	 * @return number of tile changes made to the grid, it only grows
+	 */
+	public int getModCount() {
+		return modCount;
+	}
+
+	/**
+	 * Tells whether a chunk changed since a moment, those chunks changed after
+	 * the mod count was read are the ones whose mod count is greater than it
+	 *
+	 * @param cx
+	 *            chunk coordinates
+	 * @param cy
+	 * @return the mod count of the grid right after the last change to the
+	 *         chunk, 0 if it never changed
+	 */
+	public int getChunkModCount(int cx, int cy) {
+		if (cx < 0 || cx >= getChunksAcross() || cy < 0 || cy >= getChunksDown()) {
+			throw new IndexOutOfBoundsException(String.format("Chunk out of the grid: %d,%d", cx, cy));
+		}
+
+		return chunkModCounts[cy * tiles.chunksAcross + cx];
+	}
+
+	/**
+	 * @return number of chunks copied because a snapshot shared them
+	 */
+	public int getCopiedChunkCount() {
+		return copiedChunks;
+	}
+
+	/**
+	 * A chunk of tiles, it is only changed while no snapshot shares it
+	 */
+	private static class Chunk {
+		Chunk(int[] gids, byte[] flips, int version) {
+			this.gids = gids;
+			this.flips = flips;
+			this.version = version;
+		}
+
+		int getFlags(int tile) {
+			return flips != null ? flips[tile] : 0;
+		}
+
+		/**
+		 * Tiles row by row without flip flags
+		 */
+		final int[] gids;
+
+		/**
+		 * Flip flags of the tiles, null if no tile is flipped
+		 */
+		byte[] flips;
+
+		/**
+		 * Version of the grid when the chunk was created, the chunk is shared
+		 * with snapshots if it is older than the grid
+		 */
+		final int version;
+	}
+
+	/**
+	 * Chunk table, both the current tiles of the grid and its snapshots
+	 */
+	private static class Tiles implements TmxTileGrid {
+		Tiles(int width, int height, int chunkSize, int chunksAcross, Chunk[] chunks) {
+			this.width = width;
+			this.height = height;
+			this.chunkSize = chunkSize;
+			this.chunksAcross = chunksAcross;
+			this.chunks = chunks;
+		}
+
+		@Override
+		public int getWidth() {
+			return width;
+		}
+
+		@Override
+		public int getHeight() {
+			return height;
+		}
+
+		@Override
+		public int getGid(int x, int y) {
+			checkBounds(x, y);
+
+			Chunk chunk = chunks[(y / chunkSize) * chunksAcross + x / chunkSize];
+			return chunk != null ? chunk.gids[(y % chunkSize) * chunkSize + x % chunkSize] : 0;
+		}
+
+		@Override
+		public int getFlip(int x, int y) {
+			checkBounds(x, y);
+
+			Chunk chunk = chunks[(y / chunkSize) * chunksAcross + x / chunkSize];
+			if (chunk == null) {
+				return 0;
+			}
+
+			return chunk.getFlags((y % chunkSize) * chunkSize + x % chunkSize) << TmxDataDecoder.FLIP_SHIFT;
+		}
+
+		@Override
+		public void getRow(int y, int[] dst, int dstOffset) {
+			checkBounds(0, y);
+
+			int chunkRow = y / chunkSize;
+			int rowStart = (y % chunkSize) * chunkSize;
+			for (int cx = 0; cx < chunksAcross; cx++) {
+				int x = cx * chunkSize;
+				int count = Math.min(chunkSize, width - x);
+
+				Chunk chunk = chunks[chunkRow * chunksAcross + cx];
+				if (chunk != null) {
+					System.arraycopy(chunk.gids, rowStart, dst, dstOffset + x, count);
+				} else {
+					for (int i = 0; i < count; i++) {
+						dst[dstOffset + x + i] = 0;
+					}
+				}
+			}
+		}
+
+		void checkBounds(int x, int y) {
+			if (x < 0 || x >= width || y < 0 || y >= height) {
+				throw new IndexOutOfBoundsException(String.format("Tile out of the grid: %d,%d", x, y));
+			}
+		}
+
+		final int width;
+		final int height;
+		final int chunkSize;
+
+		/**
+		 * Number of chunks in a row of chunks
+		 */
+		final int chunksAcross;
+
+		/**
+		 * Chunks row by row, null for chunks without tiles
+		 */
+		final Chunk[] chunks;
+	}
+
+	/**
+	 * Current tiles
+	 */
+	private Tiles tiles;
+
+	/**
+	 * Whether the chunk table of tiles is shared with a snapshot
+	 */
+	private boolean sharedTable = false;
+
+	/**
+	 * Increased on every snapshot, chunks of older versions are shared
+	 */
+	private int version = 0;
+
+	/**
+	 * Chunks copied because of snapshots
+	 */
+	private int copiedChunks = 0;
+
+	/**
+	 * Tile changes made to the grid
+	 */
+	private int modCount = 0;
+
+	/**
+	 * Mod count right after the last change of each chunk, row by row
+	 */
+	private final int[] chunkModCounts;
+}
@@ -84,6 +84,10 @@ public abstract class TmxElementAssembler {
 	void assemble(TmxDataTile tile) throws TmxInvalidAssembly {
 		throwAssemblyError(tile);
 	}
+
+	void assemble(TmxDataChunk chunk) throws TmxInvalidAssembly {
+		throwAssemblyError(chunk);
+	}
 	
 	void assemble(TmxTerrain terrain) throws TmxInvalidAssembly {
 		throwAssemblyError(terrain);
@@ -36,6 +36,8 @@ public interface TmxElementVisitor {
 	void visit(TmxProperties properties);
 
 	void visit(TmxDataTile tile);
+
+	void visit(TmxDataChunk chunk);
 	
 	void visit(TmxTerrain terrain);
 	
@@ -102,6 +104,10 @@ public interface TmxElementVisitor {
 		@Override
 		public void visit(TmxDataTile tile) {
 		}
+
+		@Override
+		public void visit(TmxDataChunk chunk) {
+		}
 		
 		@Override
 		public void visit(TmxTerrain terrain) {
@@ -0,0 +1,232 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Builds the frozen snapshots returned by TmxMap.freeze
+ */
+final class TmxFreezer {
+
+	private TmxFreezer() {
+	}
+
+	/**
+	 * Called by every setter of the map elements
+	 *
+	 * @param frozen
+	 *            whether the element being changed is frozen
+	 * @throws IllegalStateException
+	 *             if it is
+	 */
+	static void checkMutable(boolean frozen) {
+		if (frozen) {
+			throw new IllegalStateException("Elements of a frozen map can't be changed");
+		}
+	}
+
+	/**
+	 * @param collection
+	 * @param frozen
+	 *            whether the element holding the collection is frozen
+	 * @return an iterator over the collection, it can't remove elements if
+	 *         the collection is frozen
+	 */
+	static <T> Iterator<T> iterator(Collection<T> collection, boolean frozen) {
+		return frozen ? Collections.unmodifiableCollection(collection).iterator() : collection.iterator();
+	}
+
+	/**
+	 * Copies a map and freezes the copy
+	 *
+	 * @param map
+	 * @return the frozen copy
+	 */
+	static TmxMap freeze(TmxMap map) {
+		TmxMap res;
+		try {
+			res = TmxBinaryFormat.load(TmxBinaryFormat.compile(map));
+		} catch (ParseTmxException e) {
+			throw new IllegalStateException(String.format("Error copying the map: %s", e.toString()));
+		}
+
+		// Tiles come from the grids, they may have been replaced since the
+		// layer data was parsed
+		Iterator<TmxLayer> iterLayers = map.getLayers();
+		Iterator<TmxLayer> iterCopies = res.getLayers();
+		while (iterLayers.hasNext()) {
+			TmxLayer layer = iterLayers.next();
+			TmxLayer copy = iterCopies.next();
+			if (layer instanceof TmxTileLayer) {
+				copyTiles(map, (TmxTileLayer) layer, res, (TmxTileLayer) copy);
+			} else if (layer instanceof TmxObjectGroup) {
+				copyCollisionGeometry((TmxObjectGroup) layer, (TmxObjectGroup) copy);
+			}
+		}
+
+		res.accept(FREEZE);
+
+		return res;
+	}
+
+	/**
+	 * Freezes a tileset in place, without copying it. Used for external
+	 * tilesets whose definition is shared by the maps using them.
+	 *
+	 * @param tileset
+	 */
+	static void freeze(TmxTileset tileset) {
+		tileset.accept(FREEZE);
+	}
+
+	/**
+	 * Gives the copy of a tile layer the tiles of the original one, in arrays
+	 * or in fully decoded chunks for infinite map layers
+	 */
+	private static void copyTiles(TmxMap map, TmxTileLayer layer, TmxMap copyMap, TmxTileLayer copy) {
+		TmxTileGrid grid = map.getTileGrid(layer);
+		if (grid == null) {
+			return;
+		}
+
+		TmxData data = copy.getData();
+		if (grid instanceof TmxChunkedTileGrid && data != null && data.getChunkCount() > 0) {
+			((TmxChunkedTileGrid) copyMap.getTileGrid(copy)).freeze();
+			return;
+		}
+
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		int[] gids = new int[width * height];
+		for (int y = 0; y < height; y++) {
+			grid.getRow(y, gids, y * width);
+			for (int x = 0; x < width; x++) {
+				gids[y * width + x] |= grid.getFlip(x, y);
+			}
+		}
+
+		if (data == null) {
+			data = new TmxData();
+			copy.setData(data);
+		}
+		data.setGids(gids);
+		copy.setTileGrid(new TmxArrayTileGrid(width, height, data.getSharedGids(), data.getSharedFlips()));
+	}
+
+	/**
+	 * Gives the objects of the copy of an object group the collision geometry
+	 * built for the original ones, it never changes so it is shared
+	 */
+	private static void copyCollisionGeometry(TmxObjectGroup group, TmxObjectGroup copy) {
+		Iterator<TmxObject> iterObjects = group.getObjects();
+		Iterator<TmxObject> iterCopies = copy.getObjects();
+		while (iterObjects.hasNext()) {
+			TmxObject obj = iterObjects.next();
+			TmxObject objCopy = iterCopies.next();
+			if (obj instanceof TmxObjectPolygon) {
+				((TmxObjectPolygon) objCopy).setCollisionGeometry(((TmxObjectPolygon) obj).getCollisionGeometry());
+			} else if (obj instanceof TmxObjectPolyline) {
+				((TmxObjectPolyline) objCopy).setCollisionGeometry(((TmxObjectPolyline) obj).getCollisionGeometry());
+			}
+		}
+	}
+
+	/**
+	 * Builds what the getters build lazily and marks the elements frozen
+	 */
+	private static final TmxElementVisitor FREEZE = new TmxElementVisitor() {
+		public void visit(TmxMap map) {
+			// Building the gid index now, reads must not write
+			map.resolveGid(0);
+			map.frozen = true;
+		}
+
+		public void visit(TmxData data) {
+			data.getSharedGids();
+			data.frozen = true;
+		}
+
+		public void visit(TmxImage image) {
+			image.frozen = true;
+		}
+
+		public void visit(TmxTileLayer layer) {
+			layer.frozen = true;
+		}
+
+		public void visit(TmxObjectTile objectTile) {
+			objectTile.frozen = true;
+		}
+
+		public void visit(TmxObjectPolygon objectPolygon) {
+			objectPolygon.frozen = true;
+		}
+
+		public void visit(TmxObjectPolyline objectPolyline) {
+			objectPolyline.frozen = true;
+		}
+
+		public void visit(TmxObject object) {
+			object.frozen = true;
+		}
+
+		public void visit(TmxObjectGroup objectGroup) {
+			objectGroup.frozen = true;
+		}
+
+		public void visit(TmxProperty property) {
+			property.frozen = true;
+		}
+
+		public void visit(TmxTileOffset tileOffset) {
+			tileOffset.frozen = true;
+		}
+
+		public void visit(TmxTileset tileset) {
+			tileset.getSharedTileRects();
+			tileset.frozen = true;
+		}
+
+		public void visit(TmxTile tile) {
+			tile.frozen = true;
+		}
+
+		public void visit(TmxProperties properties) {
+			properties.frozen = true;
+		}
+
+		public void visit(TmxDataTile tile) {
+			tile.frozen = true;
+		}
+
+		public void visit(TmxDataChunk chunk) {
+			chunk.frozen = true;
+		}
+
+		public void visit(TmxTerrain terrain) {
+			terrain.frozen = true;
+		}
+
+		public void visit(TmxTerrainTypes terrainTypes) {
+			terrainTypes.frozen = true;
+		}
+	};
+}
@@ -0,0 +1,673 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Finds paths on large collision grids with HPA*: the grid is split in square
+ * clusters, the free tiles on both sides of the borders between clusters are
+ * the entrances, and the paths between the entrances of each cluster are
+ * searched once and cached. A query searches the small graph of entrances and
+ * then joins the cached paths, paths are near the shortest ones but not
+ * always the shortest.
+ *
+ * After changing the collision grid call tileChanged, the clusters around the
+ * tile are built again before the next query. After changing the gid of a
+ * tile of a layer the grid was built from call updateTile instead, which
+ * updates the grid too. Like TmxPathfinder, it is used
+ * by one thread at a time.
+ */
+public class TmxHierarchicalPathfinder {
+
+	/**
+	 * Cluster size used when none is given
+	 */
+	public static final int DEFAULT_CLUSTER_SIZE = 32;
+
+	/**
+	 * Entrances this wide or wider get an entrance node at each end instead
+	 * of one in the middle
+	 */
+	public static final int WIDE_ENTRANCE = 6;
+
+	/**
+	 * @param grid
+	 *            tiles to avoid
+	 */
+	public TmxHierarchicalPathfinder(TmxCollisionGrid grid) {
+		this(grid, DEFAULT_CLUSTER_SIZE, true);
+	}
+
+	/**
+	 * Splits the grid in clusters and builds the graph of their entrances
+	 *
+	 * @param grid
+	 *            tiles to avoid
+	 * @param clusterSize
+	 *            width and height of the clusters in tiles
+	 * @param diagonal
+	 *            true to move in 8 directions, false for 4
+	 */
+	public TmxHierarchicalPathfinder(TmxCollisionGrid grid, int clusterSize, boolean diagonal) {
+		if (clusterSize <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid cluster size: %d", clusterSize));
+		}
+
+		this.grid = grid;
+		this.clusterSize = clusterSize;
+		this.clustersAcross = (grid.getWidth() + clusterSize - 1) / clusterSize;
+		this.clustersDown = (grid.getHeight() + clusterSize - 1) / clusterSize;
+		this.dirty = new boolean[clustersAcross * clustersDown];
+		this.dirtyBorders = new boolean[clustersAcross * clustersDown];
+
+		tilePathfinder = new TmxPathfinder(grid);
+		tilePathfinder.setDiagonal(diagonal);
+
+		clusters = new ArrayList<ArrayList<Node>>();
+		for (int i = 0; i < clustersAcross * clustersDown; i++) {
+			clusters.add(new ArrayList<Node>());
+			dirty[i] = true;
+			dirtyBorders[i] = true;
+		}
+		rebuild();
+	}
+
+	/**
+	 * Tells a tile of the collision grid changed, for example because the gid
+	 * of a tile changed and the grid was updated. The cluster of the tile is
+	 * built again before the next query, and its neighbours too if the tile
+	 * is on the border of the cluster.
+	 *
+	 * @param x
+	 * @param y
+	 */
+	public void tileChanged(int x, int y) {
+		if (x < 0 || x >= grid.getWidth() || y < 0 || y >= grid.getHeight()) {
+			throw new IndexOutOfBoundsException(String.format("Tile out of the grid: %d,%d", x, y));
+		}
+
+		int cluster = getCluster(x, y);
+		dirty[cluster] = true;
+		hasDirty = true;
+
+		int clusterX = x % clusterSize;
+		int clusterY = y % clusterSize;
+		if (clusterX == 0 || clusterX == clusterSize - 1 || clusterY == 0 || clusterY == clusterSize - 1) {
+			dirtyBorders[cluster] = true;
+		}
+	}
+
+	/**
+	 * Updates the collision grid after the gid of a tile changed in a layer
+	 * it was built from, see TmxCollisionGrid.updateTile, and calls
+	 * tileChanged if the tile went from blocking to free or the other way
+	 *
+	 * @param map
+	 *            map the layer belongs to
+	 * @param layer
+	 *            layer whose tile changed
+	 * @param x
+	 * @param y
+	 * @return whether the grid changed
+	 */
+	public boolean updateTile(TmxMap map, TmxTileLayer layer, int x, int y) {
+		if (!grid.updateTile(map, layer, x, y)) {
+			return false;
+		}
+
+		tileChanged(x, y);
+		return true;
+	}
+
+	/**
+	 * Finds a path
+	 *
+	 * @param startX
+	 * @param startY
+	 * @param goalX
+	 * @param goalY
+	 * @param path
+	 *            filled with the path found, emptied if there is none
+	 * @return whether a path was found
+	 */
+	public boolean findPath(int startX, int startY, int goalX, int goalY, TmxPathfinder.Path path) {
+		path.clear();
+		expanded = 0;
+		if (hasDirty) {
+			rebuild();
+		}
+
+		if (grid.isBlocked(startX, startY) || grid.isBlocked(goalX, goalY)) {
+			return false;
+		}
+
+		// The start and the goal join the graph for this query
+		int startCluster = getCluster(startX, startY);
+		int goalCluster = getCluster(goalX, goalY);
+		Node start = new Node(startX, startY, startCluster);
+		Node goal = new Node(goalX, goalY, goalCluster);
+
+		for (Node node : clusters.get(startCluster)) {
+			connect(start, node, startCluster);
+		}
+		ArrayList<Node> goalNodes = clusters.get(goalCluster);
+		for (Node node : goalNodes) {
+			connect(node, goal, goalCluster);
+		}
+		if (startCluster == goalCluster) {
+			connect(start, goal, startCluster);
+		}
+
+		boolean found = search(start, goal);
+
+		// Taking the goal out of the graph again
+		for (Node node : goalNodes) {
+			if (!node.edges.isEmpty() && node.edges.get(node.edges.size() - 1).to == goal) {
+				node.edges.remove(node.edges.size() - 1);
+			}
+		}
+
+		if (found) {
+			buildPath(goal, path);
+		}
+		return found;
+	}
+
+	/**
+	 * @return width and height of the clusters in tiles
+	 */
+	public int getClusterSize() {
+		return clusterSize;
+	}
+
+	/**
+	 * @return number of entrance nodes in the graph
+	 */
+	public int getNodeCount() {
+		if (hasDirty) {
+			rebuild();
+		}
+
+		int res = 0;
+		for (ArrayList<Node> nodes : clusters) {
+			res += nodes.size();
+		}
+		return res;
+	}
+
+	/**
+	 * @return graph nodes expanded by the last query
+	 */
+	public int getExpandedCount() {
+		return expanded;
+	}
+
+	/**
+	 * @return number of times a cluster was built, the first build included
+	 */
+	public int getClusterBuildCount() {
+		return clusterBuilds;
+	}
+
+	/**
+	 * A tile the graph goes through
+	 */
+	private static class Node {
+		Node(int x, int y, int cluster) {
+			this.x = x;
+			this.y = y;
+			this.cluster = cluster;
+		}
+
+		final int x;
+		final int y;
+		final int cluster;
+
+		final ArrayList<Edge> edges = new ArrayList<Edge>();
+
+		/**
+		 * State in the current query, valid if stamp is the query stamp
+		 */
+		int stamp = 0;
+		int cost;
+		int score;
+		Edge parentEdge;
+		Node parent;
+		int heapPosition;
+	}
+
+	/**
+	 * A way from one node to another
+	 */
+	private static class Edge {
+		Edge(Node to, int cost, int[] path) {
+			this.to = to;
+			this.cost = cost;
+			this.path = path;
+		}
+
+		final Node to;
+		final int cost;
+
+		/**
+		 * Tiles from the node to the other one packed as x0, y0, x1, y1...
+		 */
+		final int[] path;
+	}
+
+	/**
+	 * Builds the clusters marked as dirty. If their borders changed they are
+	 * searched for entrances again, and the neighbours are built again too.
+	 */
+	private void rebuild() {
+		boolean[] affected = dirty.clone();
+		for (int cy = 0; cy < clustersDown; cy++) {
+			for (int cx = 0; cx < clustersAcross; cx++) {
+				if (!dirtyBorders[cy * clustersAcross + cx]) {
+					continue;
+				}
+
+				if (cx > 0) {
+					affected[cy * clustersAcross + cx - 1] = true;
+				}
+				if (cx + 1 < clustersAcross) {
+					affected[cy * clustersAcross + cx + 1] = true;
+				}
+				if (cy > 0) {
+					affected[(cy - 1) * clustersAcross + cx] = true;
+				}
+				if (cy + 1 < clustersDown) {
+					affected[(cy + 1) * clustersAcross + cx] = true;
+				}
+			}
+		}
+
+		// Entrances on the changed borders
+		for (int cy = 0; cy < clustersDown; cy++) {
+			for (int cx = 0; cx < clustersAcross; cx++) {
+				int cluster = cy * clustersAcross + cx;
+				if (cx + 1 < clustersAcross && (dirtyBorders[cluster] || dirtyBorders[cluster + 1])) {
+					buildBorder(cluster, cluster + 1, true);
+				}
+				if (cy + 1 < clustersDown && (dirtyBorders[cluster] || dirtyBorders[cluster + clustersAcross])) {
+					buildBorder(cluster, cluster + clustersAcross, false);
+				}
+			}
+		}
+
+		for (int cluster = 0; cluster < affected.length; cluster++) {
+			if (affected[cluster]) {
+				buildCluster(cluster);
+			}
+			dirty[cluster] = false;
+			dirtyBorders[cluster] = false;
+		}
+		hasDirty = false;
+	}
+
+	/**
+	 * Finds the entrances on the border between two clusters, replacing the
+	 * ones found before
+	 *
+	 * @param vertical
+	 *            true if second is right of first, false if it is below
+	 */
+	private void buildBorder(int first, int second, boolean vertical) {
+		// Dropping the old entrances between the clusters
+		for (Node node : clusters.get(first)) {
+			removeEdgesTo(node, second);
+		}
+		for (Node node : clusters.get(second)) {
+			removeEdgesTo(node, first);
+		}
+
+		int firstX = (first % clustersAcross) * clusterSize;
+		int firstY = (first / clustersAcross) * clusterSize;
+		int length = vertical ? Math.min(clusterSize, grid.getHeight() - firstY) : Math.min(clusterSize,
+				grid.getWidth() - firstX);
+
+		// Runs of tiles free on both sides of the border
+		int runStart = -1;
+		for (int i = 0; i <= length; i++) {
+			boolean free = false;
+			if (i < length) {
+				int x = vertical ? firstX + clusterSize - 1 : firstX + i;
+				int y = vertical ? firstY + i : firstY + clusterSize - 1;
+				free = !grid.isBlocked(x, y) && !grid.isBlocked(vertical ? x + 1 : x, vertical ? y : y + 1);
+			}
+
+			if (free && runStart < 0) {
+				runStart = i;
+			} else if (!free && runStart >= 0) {
+				int runEnd = i - 1;
+				if (runEnd - runStart + 1 >= WIDE_ENTRANCE) {
+					addEntrance(first, second, vertical, runStart);
+					addEntrance(first, second, vertical, runEnd);
+				} else {
+					addEntrance(first, second, vertical, (runStart + runEnd) / 2);
+				}
+				runStart = -1;
+			}
+		}
+	}
+
+	/**
+	 * Links a tile on a border with the tile across it
+	 */
+	private void addEntrance(int first, int second, boolean vertical, int i) {
+		int x = (first % clustersAcross) * clusterSize + (vertical ? clusterSize - 1 : i);
+		int y = (first / clustersAcross) * clusterSize + (vertical ? i : clusterSize - 1);
+		int otherX = vertical ? x + 1 : x;
+		int otherY = vertical ? y : y + 1;
+
+		Node node = getNode(x, y, first);
+		Node other = getNode(otherX, otherY, second);
+		node.edges.add(new Edge(other, TmxPathfinder.STRAIGHT_COST, new int[] { x, y, otherX, otherY }));
+		other.edges.add(new Edge(node, TmxPathfinder.STRAIGHT_COST, new int[] { otherX, otherY, x, y }));
+	}
+
+	/**
+	 * Finds the paths between the entrances of a cluster, dropping the
+	 * entrances not leading anywhere
+	 */
+	private void buildCluster(int cluster) {
+		clusterBuilds++;
+
+		ArrayList<Node> nodes = clusters.get(cluster);
+		for (int i = nodes.size() - 1; i >= 0; i--) {
+			Node node = nodes.get(i);
+			removeEdgesTo(node, cluster);
+			if (node.edges.isEmpty()) {
+				nodes.remove(i);
+				nodesByTile.remove(node.y * grid.getWidth() + node.x);
+			}
+		}
+
+		for (int i = 0; i < nodes.size(); i++) {
+			for (int j = i + 1; j < nodes.size(); j++) {
+				Node from = nodes.get(i);
+				Node to = nodes.get(j);
+				if (!searchInCluster(from.x, from.y, to.x, to.y, cluster)) {
+					continue;
+				}
+
+				int[] points = getPoints(clusterPath);
+				int[] reversed = new int[points.length];
+				for (int p = 0; p < points.length; p += 2) {
+					reversed[points.length - 2 - p] = points[p];
+					reversed[points.length - 1 - p] = points[p + 1];
+				}
+				from.edges.add(new Edge(to, clusterPath.getCost(), points));
+				to.edges.add(new Edge(from, clusterPath.getCost(), reversed));
+			}
+		}
+	}
+
+	/**
+	 * Adds an edge for this query only from a node to another one of the
+	 * same cluster, if there is a way inside the cluster
+	 */
+	private void connect(Node from, Node to, int cluster) {
+		if (searchInCluster(from.x, from.y, to.x, to.y, cluster)) {
+			from.edges.add(new Edge(to, clusterPath.getCost(), getPoints(clusterPath)));
+		}
+	}
+
+	private boolean searchInCluster(int fromX, int fromY, int toX, int toY, int cluster) {
+		int left = (cluster % clustersAcross) * clusterSize;
+		int top = (cluster / clustersAcross) * clusterSize;
+		return tilePathfinder.findPath(fromX, fromY, toX, toY, left, top, left + clusterSize, top + clusterSize,
+				clusterPath);
+	}
+
+	/**
+	 * A* on the graph, the start and goal have been connected to it
+	 *
+	 * @return whether the goal was reached
+	 */
+	private boolean search(Node start, Node goal) {
+		stamp++;
+		if (stamp == 0) {
+			// Old stamps could match again, nodes older than the wrap are
+			// few enough to reset them all
+			for (ArrayList<Node> nodes : clusters) {
+				for (Node node : nodes) {
+					node.stamp = 0;
+				}
+			}
+			stamp = 1;
+		}
+
+		heap.clear();
+		start.stamp = stamp;
+		start.cost = 0;
+		start.score = estimate(start, goal);
+		start.parent = null;
+		start.parentEdge = null;
+		push(start);
+
+		while (!heap.isEmpty()) {
+			Node node = pop();
+			if (node == goal) {
+				return true;
+			}
+			expanded++;
+
+			for (Edge edge : node.edges) {
+				Node to = edge.to;
+				int cost = node.cost + edge.cost;
+				if (to.stamp == stamp) {
+					if (to.heapPosition == CLOSED || cost >= to.cost) {
+						continue;
+					}
+				} else {
+					to.stamp = stamp;
+					to.heapPosition = NOT_OPEN;
+				}
+
+				to.cost = cost;
+				to.score = cost + estimate(to, goal);
+				to.parent = node;
+				to.parentEdge = edge;
+				if (to.heapPosition == NOT_OPEN) {
+					push(to);
+				} else {
+					siftUp(to.heapPosition);
+				}
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return octile or Manhattan distance between two nodes, never more than
+	 *         the cost of a path between them
+	 */
+	private int estimate(Node from, Node to) {
+		int dx = Math.abs(from.x - to.x);
+		int dy = Math.abs(from.y - to.y);
+		if (!tilePathfinder.isDiagonal()) {
+			return TmxPathfinder.STRAIGHT_COST * (dx + dy);
+		}
+		return TmxPathfinder.STRAIGHT_COST * (dx + dy) + (TmxPathfinder.DIAGONAL_COST - 2 * TmxPathfinder.STRAIGHT_COST)
+				* Math.min(dx, dy);
+	}
+
+	/**
+	 * Joins the tiles of the edges from the start to the goal
+	 */
+	private void buildPath(Node goal, TmxPathfinder.Path path) {
+		// Edges are visited from the goal, collected and then added forwards
+		edgePath.clear();
+		for (Node node = goal; node.parentEdge != null; node = node.parent) {
+			edgePath.add(node.parentEdge);
+		}
+
+		path.setCost(goal.cost);
+		for (int e = edgePath.size() - 1; e >= 0; e--) {
+			int[] points = edgePath.get(e).path;
+			// The first tile of an edge is the last one of the previous edge
+			for (int p = path.size() > 0 ? 2 : 0; p < points.length; p += 2) {
+				path.add(points[p], points[p + 1]);
+			}
+		}
+		edgePath.clear();
+	}
+
+	private void push(Node node) {
+		node.heapPosition = heap.size();
+		heap.add(node);
+		siftUp(node.heapPosition);
+	}
+
+	private Node pop() {
+		Node res = heap.get(0);
+		res.heapPosition = CLOSED;
+
+		Node last = heap.remove(heap.size() - 1);
+		if (!heap.isEmpty()) {
+			heap.set(0, last);
+			last.heapPosition = 0;
+			siftDown(0);
+		}
+		return res;
+	}
+
+	private void siftUp(int pos) {
+		Node node = heap.get(pos);
+		while (pos > 0) {
+			int parentPos = (pos - 1) >> 1;
+			Node parent = heap.get(parentPos);
+			if (node.score >= parent.score) {
+				break;
+			}
+			heap.set(pos, parent);
+			parent.heapPosition = pos;
+			pos = parentPos;
+		}
+		heap.set(pos, node);
+		node.heapPosition = pos;
+	}
+
+	private void siftDown(int pos) {
+		Node node = heap.get(pos);
+		int size = heap.size();
+		while (true) {
+			int child = pos * 2 + 1;
+			if (child >= size) {
+				break;
+			}
+			if (child + 1 < size && heap.get(child + 1).score < heap.get(child).score) {
+				child++;
+			}
+			if (heap.get(child).score >= node.score) {
+				break;
+			}
+			heap.set(pos, heap.get(child));
+			heap.get(pos).heapPosition = pos;
+			pos = child;
+		}
+		heap.set(pos, node);
+		node.heapPosition = pos;
+	}
+
+	private int getCluster(int x, int y) {
+		return (y / clusterSize) * clustersAcross + x / clusterSize;
+	}
+
+	/**
+	 * @return the node of a tile, created and added to its cluster if there
+	 *         was none
+	 */
+	private Node getNode(int x, int y, int cluster) {
+		int tile = y * grid.getWidth() + x;
+		Node node = nodesByTile.get(tile);
+		if (node == null) {
+			node = new Node(x, y, cluster);
+			nodesByTile.put(tile, node);
+			clusters.get(cluster).add(node);
+		}
+		return node;
+	}
+
+	private static void removeEdgesTo(Node node, int cluster) {
+		for (int i = node.edges.size() - 1; i >= 0; i--) {
+			if (node.edges.get(i).to.cluster == cluster) {
+				node.edges.remove(i);
+			}
+		}
+	}
+
+	private static int[] getPoints(TmxPathfinder.Path path) {
+		int[] res = new int[path.size() * 2];
+		for (int i = 0; i < path.size(); i++) {
+			res[i * 2] = path.getX(i);
+			res[i * 2 + 1] = path.getY(i);
+		}
+		return res;
+	}
+
+	/**
+	 * Heap positions of nodes not in the heap
+	 */
+	private static final int NOT_OPEN = -1;
+	private static final int CLOSED = -2;
+
+	private final TmxCollisionGrid grid;
+	private final int clusterSize;
+	private final int clustersAcross;
+	private final int clustersDown;
+
+	/**
+	 * Entrance nodes of each cluster, clusters row by row
+	 */
+	private final ArrayList<ArrayList<Node>> clusters;
+
+	/**
+	 * Entrance nodes by tile, y * width + x
+	 */
+	private final HashMap<Integer, Node> nodesByTile = new HashMap<Integer, Node>();
+
+	/**
+	 * Clusters whose tiles changed since they were built
+	 */
+	private final boolean[] dirty;
+
+	/**
+	 * Clusters with changed tiles on their borders
+	 */
+	private final boolean[] dirtyBorders;
+	private boolean hasDirty = false;
+
+	/**
+	 * Searches paths inside a cluster
+	 */
+	private final TmxPathfinder tilePathfinder;
+	private final TmxPathfinder.Path clusterPath = new TmxPathfinder.Path();
+
+	/**
+	 * Open nodes of the current query, a binary heap ordered by score
+	 */
+	private final ArrayList<Node> heap = new ArrayList<Node>();
+	private final ArrayList<Edge> edgePath = new ArrayList<Edge>();
+
+	private int stamp = 0;
+	private int expanded = 0;
+	private int clusterBuilds = 0;
+}
@@ -30,6 +30,7 @@ public class TmxImage implements TmxElement {
 	 *            the source to set
 	 */
 	public void setSource(String source) {
+		TmxFreezer.checkMutable(frozen);
 		this.source = source;
 	}
 
@@ -45,6 +46,7 @@ public class TmxImage implements TmxElement {
 	 *            the alpha to set
 	 */
 	public void setAlpha(Integer alpha) {
+		TmxFreezer.checkMutable(frozen);
 		this.alpha = alpha;
 	}
 
@@ -60,6 +62,7 @@ public class TmxImage implements TmxElement {
 	 *            the width to set
 	 */
 	public void setWidth(int width) {
+		TmxFreezer.checkMutable(frozen);
 		this.width = width;
 	}
 
@@ -75,6 +78,7 @@ public class TmxImage implements TmxElement {
 	 *            the height to set
 	 */
 	public void setHeight(int height) {
+		TmxFreezer.checkMutable(frozen);
 		this.height = height;
 	}
 
@@ -167,4 +171,9 @@ public class TmxImage implements TmxElement {
 			return false;
 		return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
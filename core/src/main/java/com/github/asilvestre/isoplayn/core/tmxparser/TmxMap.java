@@ -43,6 +43,7 @@ public class TmxMap implements TmxElement {
      *            the version to set
      */
     public void setVersion(String version) {
+	TmxFreezer.checkMutable(frozen);
 	this.version = version;
     }
 
@@ -58,6 +59,7 @@ public class TmxMap implements TmxElement {
      *            the orientation to set
      */
     public void setOrientation(Orientations orientation) {
+	TmxFreezer.checkMutable(frozen);
 	this.orientation = orientation;
     }
 
@@ -73,6 +75,7 @@ public class TmxMap implements TmxElement {
      *            the width to set
      */
     public void setWidth(int width) {
+	TmxFreezer.checkMutable(frozen);
 	this.width = width;
     }
 
@@ -88,6 +91,7 @@ public class TmxMap implements TmxElement {
      *            the height to set
      */
     public void setHeight(int height) {
+	TmxFreezer.checkMutable(frozen);
 	this.height = height;
     }
 
@@ -103,6 +107,7 @@ public class TmxMap implements TmxElement {
      *            the tilewidth to set
      */
     public void setTilewidth(int tilewidth) {
+	TmxFreezer.checkMutable(frozen);
 	this.tilewidth = tilewidth;
     }
 
@@ -118,6 +123,7 @@ public class TmxMap implements TmxElement {
      *            the tileheight to set
      */
     public void setTileheight(int tileheight) {
+	TmxFreezer.checkMutable(frozen);
 	this.tileheight = tileheight;
     }
 
@@ -133,7 +139,7 @@ public class TmxMap implements TmxElement {
      * @return the tilesets
      */
     public Iterator<TmxTileset> getTilesets() {
-	return tilesets.values().iterator();
+	return TmxFreezer.iterator(tilesets.values(), frozen);
     }
 
     /**
@@ -141,14 +147,92 @@ public class TmxMap implements TmxElement {
      *            the tilesets to set
      */
     public void addTileset(TmxTileset tileset) {
+	TmxFreezer.checkMutable(frozen);
 	this.tilesets.put(tileset.getFirstgid(), tileset);
+	this.gidTilesets = null;
+    }
+
+    /**
+     * Finds the tileset a global tile id belongs to, flip flags are ignored.
+     * It uses a table built on the first call, so it takes constant time and
+     * allocates nothing.
+     * 
+     * @param gid
+     *            global tile id, as found in the layer data
+     * @return index of the tileset for getTilesetAt, -1 for empty tiles or
+     *         ids before the first tileset
+     */
+    public int resolveGid(int gid) {
+	if (gidTilesets == null) {
+	    buildGidIndex();
+	}
+
+	int id = gid & TmxData.GID_MASK;
+	if (id < gidTilesets.length) {
+	    return gidTilesets[id];
+	}
+
+	// Past the first id of the last tileset everything belongs to it
+	return tilesetsByIndex.length - 1;
+    }
+
+    /**
+     * @param gid
+     *            global tile id, as found in the layer data
+     * @return the id of the tile inside its tileset, -1 if resolveGid finds
+     *         no tileset for it
+     */
+    public int getLocalId(int gid) {
+	int index = resolveGid(gid);
+	return index >= 0 ? (gid & TmxData.GID_MASK) - tilesetsByIndex[index].getFirstgid() : -1;
+    }
+
+    /**
+     * @return number of tilesets, tileset indexes go from 0 to this - 1
+     */
+    public int getTilesetCount() {
+	return tilesets.size();
+    }
+
+    /**
+     * @param index
+     *            as returned by resolveGid
+     * @return the tileset, tilesets are indexed in firstgid order
+     */
+    public TmxTileset getTilesetAt(int index) {
+	if (gidTilesets == null) {
+	    buildGidIndex();
+	}
+
+	return tilesetsByIndex[index];
+    }
+
+    /**
+     * Builds the table used by resolveGid, covering every global tile id
+     * below the first id of the last tileset
+     */
+    private void buildGidIndex() {
+	tilesetsByIndex = tilesets.values().toArray(new TmxTileset[tilesets.size()]);
+
+	int lastFirstGid = tilesetsByIndex.length > 0 ? tilesetsByIndex[tilesetsByIndex.length - 1].getFirstgid() : 0;
+	int[] table = new int[Math.max(lastFirstGid, 1)];
+
+	int index = -1;
+	for (int id = 0; id < table.length; id++) {
+	    while (index + 1 < tilesetsByIndex.length && tilesetsByIndex[index + 1].getFirstgid() <= id) {
+		index++;
+	    }
+	    table[id] = id == 0 ? -1 : index;
+	}
+
+	gidTilesets = table;
     }
 
     /**
      * @return the layers ordered by Z, the first one being at the top
      */
     public Iterator<TmxLayer> getLayers() {
-	return layers.iterator();
+	return TmxFreezer.iterator(layers, frozen);
     }
 
     /**
@@ -158,17 +242,70 @@ public class TmxMap implements TmxElement {
      *            to add
      */
     public void addLayer(TmxLayer layer) {
+	TmxFreezer.checkMutable(frozen);
 	layers.add(layer);
     }
 
+    /**
+     * Gets the tile grid of a layer, creating one from the layer data the
+     * first time if the layer has none. Infinite map layers get a
+     * TmxChunkedTileGrid over their chunks, other layers an in-heap grid.
+     * 
+     * @param layer
+     * @return the tile grid or null if the layer data doesn't have exactly
+     *         width * height tiles
+     */
+    public TmxTileGrid getTileGrid(TmxTileLayer layer) {
+	TmxData data = layer.getData();
+	if (layer.getTileGrid() == null && data != null) {
+	    if (data.getChunkCount() > 0) {
+		layer.setTileGrid(TmxChunkedTileGrid.fromChunks(data));
+	    } else {
+		int[] gids = data.getSharedGids();
+		if (gids.length == width * height) {
+		    layer.setTileGrid(new TmxArrayTileGrid(width, height, gids, data.getSharedFlips()));
+		}
+	    }
+	}
+
+	return layer.getTileGrid();
+    }
+
     /**
      * @param properties
      *            the properties to set
      */
     public void setProperties(TmxProperties properties) {
+	TmxFreezer.checkMutable(frozen);
 	this.properties = properties;
     }
 
+    /**
+     * Makes an immutable snapshot of this map. The snapshot is a copy, so
+     * this map can still be changed, and every setter of the snapshot and of
+     * its elements throws IllegalStateException. Getters returning arrays
+     * return copies. Everything the getters build lazily is built beforehand
+     * and tiles are kept in plain arrays, so many threads can read the
+     * snapshot at the same time without locking.
+     * 
+     * The snapshot must be published safely: hand it to other threads
+     * through a final or volatile field, a lock, a concurrent collection or
+     * an executor. Its elements have fields that are not final, so a thread
+     * reading it from a plain field may see them half written.
+     * 
+     * @return the snapshot, this map if it is already frozen
+     */
+    public TmxMap freeze() {
+	return frozen ? this : TmxFreezer.freeze(this);
+    }
+
+    /**
+     * @return whether this map is a snapshot made by freeze
+     */
+    public boolean isFrozen() {
+	return frozen;
+    }
+
     /**
      * @return the properties for this map, if any
      */
@@ -187,6 +324,7 @@ public class TmxMap implements TmxElement {
      * @param backgroundColor the background color for the map
      */
     public void setBackgroundColor(int backgroundColor) {
+        TmxFreezer.checkMutable(frozen);
         this.backgroundColor = backgroundColor;
     }
 
@@ -205,7 +343,9 @@ public class TmxMap implements TmxElement {
 	    iterLayers.next().accept(visitor);
 	}
 
-	properties.accept(visitor);
+	if (properties != null) {
+		properties.accept(visitor);
+	}
     }
 
     @Override
@@ -263,6 +403,13 @@ public class TmxMap implements TmxElement {
      */
     private TreeMap<Integer, TmxTileset> tilesets = new TreeMap<Integer, TmxTileset>();
 
+    /**
+     * Tilesets in firstgid order and the index of the tileset of every global
+     * tile id up to the last tileset, built by resolveGid
+     */
+    private TmxTileset[] tilesetsByIndex;
+    private int[] gidTilesets;
+
     /**
      * Layers for this map ordered by Z, being the first the one at the top
      */
@@ -333,4 +480,9 @@ public class TmxMap implements TmxElement {
 	    return false;
 	return true;
     }
+
+    /**
+     * Whether this element belongs to a frozen map, see TmxMap.freeze
+     */
+    boolean frozen = false;
 }
\ No newline at end of file
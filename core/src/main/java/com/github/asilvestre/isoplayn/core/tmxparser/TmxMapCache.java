@@ -0,0 +1,316 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Parsed maps by file path and content, so loading the same map again returns
+ * the map parsed the first time. When the estimated size of the maps goes
+ * over a budget the least recently used ones are evicted.
+ *
+ * Maps returned by the cache are frozen, see {@link TmxMap#freeze()}, so
+ * everyone getting them can share them. The cache can be used from several
+ * threads at the same time, maps are parsed outside its lock.
+ */
+public class TmxMapCache {
+
+	/**
+	 * Budget used when none is given, 64MB
+	 */
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	public TmxMapCache() {
+		this(DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * @param maxBytes
+	 *            estimated size the cached maps can take
+	 */
+	public TmxMapCache(long maxBytes) {
+		setMaxBytes(maxBytes);
+	}
+
+	/**
+	 * Gets a map, parsing it if it is not in the cache. A file whose content
+	 * changed is parsed again.
+	 *
+	 * @param path
+	 *            path of the TMX file
+	 * @param xml
+	 *            content of the file
+	 * @return the map, frozen
+	 * @throws ParseTmxException
+	 */
+	public TmxMap get(String path, String xml) throws ParseTmxException {
+		String key = getKey(path, xml);
+
+		synchronized (this) {
+			Entry entry = entries.get(key);
+			if (entry != null) {
+				hits++;
+				return entry.map;
+			}
+			misses++;
+		}
+
+		TmxMap map = parse(xml).freeze();
+		Entry entry = new Entry(map, estimateBytes(map));
+
+		synchronized (this) {
+			// Another thread may have parsed the same file meanwhile
+			Entry other = entries.get(key);
+			if (other != null) {
+				return other.map;
+			}
+
+			entries.put(key, entry);
+			bytes += entry.bytes;
+			evict();
+		}
+
+		return map;
+	}
+
+	/**
+	 * @return estimated size the cached maps can take
+	 */
+	public synchronized long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * @param maxBytes
+	 *            estimated size the cached maps can take, maps are evicted
+	 *            right away if they take more
+	 */
+	public synchronized void setMaxBytes(long maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException(String.format("Invalid cache budget: %d", maxBytes));
+		}
+
+		this.maxBytes = maxBytes;
+		evict();
+	}
+
+	/**
+	 * @return estimated size of the cached maps
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	/**
+	 * @return number of cached maps
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return number of times a map was found in the cache
+	 */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/**
+	 * @return number of times a map had to be parsed
+	 */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/**
+	 * @return number of maps evicted to keep the cache within its budget
+	 */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/**
+	 * Empties the cache, the counters are kept
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Parses a map that isn't in the cache, the cache freezes it. Called
+	 * without holding the lock of the cache.
+	 *
+	 * @param xml
+	 *            describing the TMX
+	 * @return the map with its layers decoded
+	 * @throws ParseTmxException
+	 */
+	protected TmxMap parse(String xml) throws ParseTmxException {
+		return TmxParser.createTmxMapFromXml(xml);
+	}
+
+	/**
+	 * Estimates the memory taken by a parsed map, counting the tile grids,
+	 * the layer data, the tile rectangles of the tilesets and a fixed size
+	 * for each other element. The tile grids of the layers are created if
+	 * they weren't.
+	 *
+	 * @param map
+	 * @return estimated size in bytes
+	 */
+	public static long estimateBytes(final TmxMap map) {
+		final long[] res = new long[] { ELEMENT_BYTES };
+
+		map.accept(new TmxElementVisitor.Default() {
+			@Override
+			public void visit(TmxTileLayer layer) {
+				res[0] += ELEMENT_BYTES;
+
+				// Tiles take an int and a byte of flip flags at most
+				TmxTileGrid grid = map.getTileGrid(layer);
+				if (grid != null) {
+					res[0] += (long) grid.getWidth() * grid.getHeight() * 5;
+				}
+			}
+
+			@Override
+			public void visit(TmxData data) {
+				res[0] += ELEMENT_BYTES + data.getData().length() * 2;
+			}
+
+			@Override
+			public void visit(TmxDataChunk chunk) {
+				res[0] += ELEMENT_BYTES + chunk.getData().length() * 2;
+			}
+
+			@Override
+			public void visit(TmxTileset tileset) {
+				res[0] += ELEMENT_BYTES + tileset.getSharedTileRects().length * 4;
+			}
+
+			@Override
+			public void visit(TmxTile tile) {
+				res[0] += ELEMENT_BYTES;
+			}
+
+			@Override
+			public void visit(TmxDataTile tile) {
+				res[0] += ELEMENT_BYTES;
+			}
+
+			@Override
+			public void visit(TmxObject object) {
+				res[0] += ELEMENT_BYTES;
+			}
+
+			@Override
+			public void visit(TmxObjectPolygon objectPolygon) {
+				res[0] += ELEMENT_BYTES + objectPolygon.points.length * 4;
+			}
+
+			@Override
+			public void visit(TmxObjectPolyline objectPolyline) {
+				res[0] += ELEMENT_BYTES + objectPolyline.points.length * 4;
+			}
+
+			@Override
+			public void visit(TmxProperty property) {
+				res[0] += ELEMENT_BYTES + (property.getName().length() + property.getValue().length()) * 2;
+			}
+		});
+
+		return res[0];
+	}
+
+	/**
+	 * @param path
+	 * @param xml
+	 * @return key of a file with the given content, a 64 bit FNV-1a hash of
+	 *         the content tells apart different versions of the file
+	 */
+	private static String getKey(String path, String xml) {
+		long hash = 0xcbf29ce484222325L;
+		for (int i = 0; i < xml.length(); i++) {
+			hash ^= xml.charAt(i);
+			hash *= 0x100000001b3L;
+		}
+
+		return path + '#' + xml.length() + '#' + Long.toHexString(hash);
+	}
+
+	/**
+	 * Evicts the least recently used maps until the cache fits its budget,
+	 * called holding the lock of the cache
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, Entry>> iter = entries.entrySet().iterator();
+		while (bytes > maxBytes && iter.hasNext()) {
+			bytes -= iter.next().getValue().bytes;
+			iter.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * A cached map
+	 */
+	private static class Entry {
+		Entry(TmxMap map, long bytes) {
+			this.map = map;
+			this.bytes = bytes;
+		}
+
+		final TmxMap map;
+
+		/**
+		 * Estimated size of the map
+		 */
+		final long bytes;
+	}
+
+	/**
+	 * Fixed size estimated for each element of a map
+	 */
+	private static final int ELEMENT_BYTES = 64;
+
+	/**
+	 * Cached maps by key, from the least recently used to the most recently
+	 * used one
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/**
+	 * Estimated size the cached maps can take
+	 */
+	private long maxBytes;
+
+	/**
+	 * Estimated size of the cached maps
+	 */
+	private long bytes = 0;
+
+	/**
+	 * Counters
+	 */
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+}
@@ -0,0 +1,337 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static playn.core.PlayN.*;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+
+import playn.core.Image;
+import playn.core.util.Callback;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Loads a TMX file together with the images of its tilesets. Each image
+ * starts loading as soon as its tag is parsed, so images download while the
+ * rest of the map is parsed and decoded and while other images download,
+ * instead of being requested one after another once the map is ready.
+ * External tilesets are fetched the same way through a TmxTilesetCache, so
+ * maps sharing a TSX file parse it once, and images are kept by path so maps
+ * loaded by the same loader share them.
+ */
+public class TmxMapLoader {
+
+	/**
+	 * A map with the images of its tilesets
+	 */
+	public static class LoadedMap {
+		LoadedMap(TmxMap map, Image[] images) {
+			this.map = map;
+			this.images = images;
+		}
+
+		/**
+		 * @return the map
+		 */
+		public TmxMap getMap() {
+			return map;
+		}
+
+		/**
+		 * @param index
+		 *            index of the tileset as in TmxMap.getTilesetAt
+		 * @return the loaded image of the tileset, null if it has none
+		 */
+		public Image getTilesetImage(int index) {
+			return images[index];
+		}
+
+		private final TmxMap map;
+		private final Image[] images;
+	}
+
+	/**
+	 * @return whether maps are parsed as in
+	 *         TmxParser.createTmxMapFromXmlStream
+	 */
+	public boolean isStream() {
+		return stream;
+	}
+
+	/**
+	 * @param stream
+	 *            true to parse maps as in TmxParser.createTmxMapFromXmlStream
+	 */
+	public void setStream(boolean stream) {
+		this.stream = stream;
+	}
+
+	/**
+	 * @return whether the collision geometry of polygons and polylines is
+	 *         built after parsing
+	 */
+	public boolean isBuildCollisionGeometry() {
+		return buildCollisionGeometry;
+	}
+
+	/**
+	 * @param buildCollisionGeometry
+	 *            true to run TmxCollisionGeometry.build on the maps loaded
+	 */
+	public void setBuildCollisionGeometry(boolean buildCollisionGeometry) {
+		this.buildCollisionGeometry = buildCollisionGeometry;
+	}
+
+	/**
+	 * @return the cache of external tilesets used by this loader
+	 */
+	public TmxTilesetCache getTilesetCache() {
+		return tilesetCache;
+	}
+
+	/**
+	 * @param tilesetCache
+	 *            cache of external tilesets, it can be shared by many loaders
+	 */
+	public void setTilesetCache(TmxTilesetCache tilesetCache) {
+		this.tilesetCache = tilesetCache;
+	}
+
+	/**
+	 * Forgets the images loaded so far, maps loaded later load them again
+	 */
+	public void clearImages() {
+		imagesByPath.clear();
+	}
+
+	/**
+	 * Loads a TMX file and the images of its tilesets
+	 *
+	 * @param filepath
+	 *            path of the TMX file, image sources are relative to its
+	 *            folder
+	 * @param callback
+	 *            called once when the map and all its images are ready, or
+	 *            with the first error
+	 */
+	public void load(String filepath, final Callback<LoadedMap> callback) {
+		final String basePath = TmxTilesetCache.getFolder(filepath);
+
+		assets().getText(filepath, new Callback<String>() {
+			public void onFailure(Throwable cause) {
+				callback.onFailure(cause);
+			}
+
+			public void onSuccess(String value) {
+				loadXml(value, basePath, callback);
+			}
+		});
+	}
+
+	/**
+	 * Parses a TMX file and loads the images of its tilesets
+	 *
+	 * @param xml
+	 *            describing the TMX
+	 * @param basePath
+	 *            path image and tileset sources are relative to, ending in /
+	 *            unless empty
+	 * @param callback
+	 *            called once when the map and all its images are ready, or
+	 *            with the first error
+	 */
+	public void loadXml(String xml, final String basePath, Callback<LoadedMap> callback) {
+		final Load load = new Load(callback);
+
+		TmxMap map;
+		try {
+			map = TmxParser.parseTmxXml(xml, stream, new TmxParser.ElementListener() {
+				public void elementParsed(TmxElement elem, TmxElement parentElem) {
+					if (elem instanceof TmxImage && parentElem instanceof TmxTileset) {
+						load.addImage((TmxTileset) parentElem,
+								TmxTilesetCache.resolvePath(basePath, ((TmxImage) elem).getSource()));
+					} else if (elem instanceof TmxTileset) {
+						String source = ((TmxTileset) elem).getSource();
+						if (source != null && source.length() > 0) {
+							load.addExternalTileset((TmxTileset) elem, TmxTilesetCache.resolvePath(basePath, source));
+						}
+					}
+				}
+			});
+			TmxParser.decodeLayers(map);
+			if (buildCollisionGeometry) {
+				TmxCollisionGeometry.build(map);
+			}
+		} catch (ParseTmxException e) {
+			load.fail(e);
+			return;
+		}
+
+		load.mapReady(map);
+	}
+
+	/**
+	 * Starts loading an image
+	 *
+	 * @param path
+	 * @return the image, possibly not ready yet
+	 */
+	protected Image loadImage(String path) {
+		return assets().getImage(path);
+	}
+
+	/**
+	 * State of a map being loaded, calls the callback when the map and all
+	 * images are ready
+	 */
+	private class Load {
+		Load(Callback<LoadedMap> callback) {
+			this.callback = callback;
+		}
+
+		/**
+		 * Starts loading the image of a tileset, tilesets and maps sharing an
+		 * image share the load. Images that fail are loaded again next time.
+		 */
+		void addImage(TmxTileset tileset, final String path) {
+			Image image = imagesByPath.get(path);
+			if (image == null) {
+				image = loadImage(path);
+				imagesByPath.put(path, image);
+			}
+			images.put(tileset, image);
+
+			if (!requested.contains(path)) {
+				requested.add(path);
+				pending++;
+
+				final Image requestedImage = image;
+				image.addCallback(new Callback<Image>() {
+					public void onSuccess(Image result) {
+						pending--;
+						finishIfReady();
+					}
+
+					public void onFailure(Throwable cause) {
+						if (imagesByPath.get(path) == requestedImage) {
+							imagesByPath.remove(path);
+						}
+						fail(cause);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Gets an external tileset from the cache, the tileset of the map
+		 * takes its definition and then its image starts loading
+		 */
+		void addExternalTileset(final TmxTileset tileset, final String path) {
+			pending++;
+			tilesetCache.get(path, new Callback<TmxTileset>() {
+				public void onSuccess(TmxTileset definition) {
+					tileset.setDefinition(definition);
+					if (definition.getImage() != null) {
+						addImage(tileset, TmxTilesetCache.resolvePath(TmxTilesetCache.getFolder(path), definition
+								.getImage().getSource()));
+					}
+
+					pending--;
+					finishIfReady();
+				}
+
+				public void onFailure(Throwable cause) {
+					fail(cause);
+				}
+			});
+		}
+
+		void mapReady(TmxMap map) {
+			this.map = map;
+			finishIfReady();
+		}
+
+		void fail(Throwable cause) {
+			if (!done) {
+				done = true;
+				callback.onFailure(cause);
+			}
+		}
+
+		private void finishIfReady() {
+			if (done || map == null || pending > 0) {
+				return;
+			}
+			done = true;
+
+			Image[] res = new Image[map.getTilesetCount()];
+			for (int i = 0; i < res.length; i++) {
+				res[i] = images.get(map.getTilesetAt(i));
+			}
+			callback.onSuccess(new LoadedMap(map, res));
+		}
+
+		private final Callback<LoadedMap> callback;
+
+		/**
+		 * Image of each tileset by tileset
+		 */
+		private final IdentityHashMap<TmxTileset, Image> images = new IdentityHashMap<TmxTileset, Image>();
+
+		/**
+		 * Paths of the images this map waits for
+		 */
+		private final HashSet<String> requested = new HashSet<String>();
+
+		/**
+		 * Images and external tilesets not loaded yet
+		 */
+		private int pending = 0;
+
+		/**
+		 * Map once parsed and decoded
+		 */
+		private TmxMap map;
+
+		/**
+		 * Whether the callback has been called
+		 */
+		private boolean done = false;
+	}
+
+	/**
+	 * Whether maps are parsed without building an XML document first
+	 */
+	private boolean stream = false;
+
+	/**
+	 * Whether the collision geometry of the maps is built after parsing
+	 */
+	private boolean buildCollisionGeometry = false;
+
+	/**
+	 * Images requested by path, loaded or not
+	 */
+	private final HashMap<String, Image> imagesByPath = new HashMap<String, Image>();
+
+	/**
+	 * External tilesets already parsed
+	 */
+	private TmxTilesetCache tilesetCache = new TmxTilesetCache();
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Read only tile grid kept in a memory mapped file, so very large layers don't
+ * take heap space and the OS pages in only the parts being read.
+ * 
+ * It relies on java.nio so it is only available on the JVM.
+ */
+public class TmxMappedTileGrid implements TmxTileGrid {
+
+	/**
+	 * Writes a tile grid to a file and maps it
+	 * 
+	 * @param file
+	 *            file to write, it is overwritten if it exists
+	 * @param grid
+	 *            tiles to write
+	 * @return the mapped grid
+	 * @throws IOException
+	 */
+	public static TmxMappedTileGrid create(File file, TmxTileGrid grid) throws IOException {
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(width);
+			out.writeInt(height);
+
+			// Tiles are stored with their flip flags as in TMX files
+			int[] row = new int[width];
+			for (int y = 0; y < height; y++) {
+				grid.getRow(y, row, 0);
+				for (int x = 0; x < width; x++) {
+					out.writeInt(row[x] | grid.getFlip(x, y));
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		return open(file);
+	}
+
+	/**
+	 * Maps a file written by create
+	 * 
+	 * @param file
+	 * @return the mapped grid
+	 * @throws IOException
+	 *             if the file can't be read or it is not a tile grid
+	 */
+	public static TmxMappedTileGrid open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			// The mapping stays valid once the channel is closed
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+		} finally {
+			raf.close();
+		}
+
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException(String.format("Not a tile grid file: %s", file));
+		}
+
+		int width = buffer.getInt(4);
+		int height = buffer.getInt(8);
+		if (width < 0 || height < 0 || buffer.capacity() - HEADER_SIZE != (long) width * height * 4) {
+			throw new IOException(String.format("Tile grid file has a wrong size: %s", file));
+		}
+
+		buffer.position(HEADER_SIZE);
+		return new TmxMappedTileGrid(width, height, buffer.slice().asIntBuffer());
+	}
+
+	private TmxMappedTileGrid(int width, int height, IntBuffer gids) {
+		this.width = width;
+		this.height = height;
+		this.gids = gids;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getGid(int x, int y) {
+		checkBounds(x, y);
+
+		return gids.get(y * width + x) & TmxData.GID_MASK;
+	}
+
+	@Override
+	public int getFlip(int x, int y) {
+		checkBounds(x, y);
+
+		return gids.get(y * width + x) & ~TmxData.GID_MASK;
+	}
+
+	@Override
+	public void getRow(int y, int[] dst, int dstOffset) {
+		checkBounds(0, y);
+
+		// Absolute gets leave the buffer position alone so concurrent readers
+		// don't interfere with each other
+		int start = y * width;
+		for (int x = 0; x < width; x++) {
+			dst[dstOffset + x] = gids.get(start + x) & TmxData.GID_MASK;
+		}
+	}
+
+	private void checkBounds(int x, int y) {
+		if (x < 0 || x >= width || y < 0 || y >= height) {
+			throw new IndexOutOfBoundsException(String.format("Tile out of the grid: %d,%d", x, y));
+		}
+	}
+
+	/**
+	 * Identifies tile grid files, "TMXG"
+	 */
+	private static final int MAGIC = 0x544D5847;
+
+	/**
+	 * Magic, width and height
+	 */
+	private static final int HEADER_SIZE = 12;
+
+	/**
+	 * Width in tiles
+	 */
+	private final int width;
+
+	/**
+	 * Height in tiles
+	 */
+	private final int height;
+
+	/**
+	 * Global tile ids row by row with their flip flags
+	 */
+	private final IntBuffer gids;
+}
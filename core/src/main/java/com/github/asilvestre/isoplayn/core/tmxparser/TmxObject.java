@@ -30,6 +30,7 @@ public class TmxObject implements TmxElement {
 	 *            the name to set
 	 */
 	public void setName(String name) {
+		TmxFreezer.checkMutable(frozen);
 		this.name = name;
 	}
 
@@ -45,6 +46,7 @@ public class TmxObject implements TmxElement {
 	 *            the type to set
 	 */
 	public void setType(String type) {
+		TmxFreezer.checkMutable(frozen);
 		this.type = type;
 	}
 
@@ -60,6 +62,7 @@ public class TmxObject implements TmxElement {
 	 *            the x to set
 	 */
 	public void setX(int x) {
+		TmxFreezer.checkMutable(frozen);
 		this.x = x;
 	}
 
@@ -75,6 +78,7 @@ public class TmxObject implements TmxElement {
 	 *            the y to set
 	 */
 	public void setY(int y) {
+		TmxFreezer.checkMutable(frozen);
 		this.y = y;
 	}
 
@@ -90,6 +94,7 @@ public class TmxObject implements TmxElement {
 	 *            the width to set
 	 */
 	public void setWidth(int width) {
+		TmxFreezer.checkMutable(frozen);
 		this.width = width;
 	}
 
@@ -105,6 +110,7 @@ public class TmxObject implements TmxElement {
 	 *            the height to set
 	 */
 	public void setHeight(int height) {
+		TmxFreezer.checkMutable(frozen);
 		this.height = height;
 	}
 
@@ -113,6 +119,7 @@ public class TmxObject implements TmxElement {
 	 *            the properties to set
 	 */
 	public void setProperties(TmxProperties properties) {
+		TmxFreezer.checkMutable(frozen);
 		this.properties = properties;
 	}
 
@@ -135,6 +142,7 @@ public class TmxObject implements TmxElement {
 	 *            the visible to set
 	 */
 	public void setVisible(boolean visible) {
+		TmxFreezer.checkMutable(frozen);
 		this.visible = visible;
 	}
 
@@ -143,7 +151,9 @@ public class TmxObject implements TmxElement {
 		visitor.visit(this);
 		
 		//visiting all related objects
-		properties.accept(visitor);
+		if (properties != null) {
+			properties.accept(visitor);
+		}
 	}
 
 	@Override
@@ -252,4 +262,9 @@ public class TmxObject implements TmxElement {
 			return false;
 		return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
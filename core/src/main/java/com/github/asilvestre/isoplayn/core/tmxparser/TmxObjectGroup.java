@@ -33,6 +33,7 @@ public class TmxObjectGroup implements TmxLayer {
 	 *            the name to set
 	 */
 	public void setName(String name) {
+		TmxFreezer.checkMutable(frozen);
 		this.name = name;
 	}
 
@@ -48,6 +49,7 @@ public class TmxObjectGroup implements TmxLayer {
 	 *            the color to set
 	 */
 	public void setColor(int color) {
+		TmxFreezer.checkMutable(frozen);
 		this.color = color;
 	}
 
@@ -63,6 +65,7 @@ public class TmxObjectGroup implements TmxLayer {
 	 *            the opacity to set
 	 */
 	public void setOpacity(float opacity) {
+		TmxFreezer.checkMutable(frozen);
 		this.opacity = opacity;
 	}
 
@@ -78,6 +81,7 @@ public class TmxObjectGroup implements TmxLayer {
 	 *            the visible to set
 	 */
 	public void setVisible(boolean visible) {
+		TmxFreezer.checkMutable(frozen);
 		this.visible = visible;
 	}
 
@@ -85,7 +89,7 @@ public class TmxObjectGroup implements TmxLayer {
 	 * @return the objects
 	 */
 	public Iterator<TmxObject> getObjects() {
-		return objects.iterator();
+		return TmxFreezer.iterator(objects, frozen);
 	}
 
 	/**
@@ -93,6 +97,7 @@ public class TmxObjectGroup implements TmxLayer {
 	 *            the objects to set
 	 */
 	public void addObject(TmxObject object) {
+		TmxFreezer.checkMutable(frozen);
 		objects.add(object);
 	}
 
@@ -101,6 +106,7 @@ public class TmxObjectGroup implements TmxLayer {
 	 *            the properties to set
 	 */
 	public void setProperties(TmxProperties properties) {
+		TmxFreezer.checkMutable(frozen);
 		this.properties = properties;
 	}
 
@@ -121,7 +127,9 @@ public class TmxObjectGroup implements TmxLayer {
 			iterObjects.next().accept(visitor);
 		}
 		
-		properties.accept(visitor);
+		if (properties != null) {
+			properties.accept(visitor);
+		}
 	}
 
 	@Override
@@ -214,4 +222,9 @@ public class TmxObjectGroup implements TmxLayer {
 			return false;
 		return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
@@ -0,0 +1,387 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Uniform grid over the objects of an object group to find the objects in a
+ * region without going through all of them. Objects are matched by their
+ * bounding box in pixels: x, y, width and height, grown to fit the points of
+ * polygons and polylines, and going up from y for tile objects as Tiled draws
+ * them.
+ *
+ * The index doesn't see changes to the objects, it has to be built again
+ * after moving them. Queries fill a Result the caller keeps, so once it is
+ * big enough they allocate nothing. Many threads can query the same index at
+ * the same time with a Result each.
+ */
+public class TmxObjectIndex {
+
+	/**
+	 * Cell size used when none is given, in pixels
+	 */
+	public static final int DEFAULT_CELL_SIZE = 128;
+
+	/**
+	 * Maximum number of cells in each direction, cells are made bigger for
+	 * objects spread over larger areas
+	 */
+	public static final int MAX_CELLS = 1024;
+
+	/**
+	 * Objects found by a query, in no particular order. Keep one around and
+	 * pass it to every query.
+	 */
+	public static class Result {
+		/**
+		 * @return number of objects found
+		 */
+		public int size() {
+			return count;
+		}
+
+		/**
+		 * @param i
+		 *            from 0 to size() - 1
+		 * @return the object
+		 */
+		public TmxObject get(int i) {
+			if (i < 0 || i >= count) {
+				throw new IndexOutOfBoundsException(String.format("Result index out of bounds: %d", i));
+			}
+
+			return index.objects[hits[i]];
+		}
+
+		/**
+		 * @param i
+		 *            from 0 to size() - 1
+		 * @return position of the object in its group
+		 */
+		public int getIndex(int i) {
+			if (i < 0 || i >= count) {
+				throw new IndexOutOfBoundsException(String.format("Result index out of bounds: %d", i));
+			}
+
+			return hits[i];
+		}
+
+		/**
+		 * Gets ready for a query
+		 */
+		void start(TmxObjectIndex index) {
+			this.index = index;
+			count = 0;
+
+			if (stamps.length < index.objects.length) {
+				stamps = new int[index.objects.length];
+				stamp = 0;
+			}
+			stamp++;
+			if (stamp == 0) {
+				// The stamp wrapped around, old stamps could match again
+				for (int i = 0; i < stamps.length; i++) {
+					stamps[i] = 0;
+				}
+				stamp = 1;
+			}
+		}
+
+		/**
+		 * @return false if the object was already found by this query
+		 */
+		boolean visit(int object) {
+			if (stamps[object] == stamp) {
+				return false;
+			}
+			stamps[object] = stamp;
+			return true;
+		}
+
+		void add(int object) {
+			if (count == hits.length) {
+				int[] bigger = new int[Math.max(hits.length * 2, 16)];
+				System.arraycopy(hits, 0, bigger, 0, count);
+				hits = bigger;
+			}
+			hits[count++] = object;
+		}
+
+		private TmxObjectIndex index;
+		private int[] hits = new int[0];
+		private int count = 0;
+
+		/**
+		 * Query stamp of each object, telling if the current query already
+		 * found it in another cell
+		 */
+		private int[] stamps = new int[0];
+		private int stamp = 0;
+	}
+
+	public TmxObjectIndex(TmxObjectGroup group) {
+		this(group, DEFAULT_CELL_SIZE);
+	}
+
+	/**
+	 * Builds the index
+	 *
+	 * @param group
+	 *            objects to index
+	 * @param cellSize
+	 *            width and height of the cells in pixels, about the size of
+	 *            the regions queried works best
+	 */
+	public TmxObjectIndex(TmxObjectGroup group, int cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException(String.format("Invalid cell size: %d", cellSize));
+		}
+
+		ArrayList<TmxObject> list = new ArrayList<TmxObject>();
+		Iterator<TmxObject> iterObjects = group.getObjects();
+		while (iterObjects.hasNext()) {
+			list.add(iterObjects.next());
+		}
+		objects = list.toArray(new TmxObject[list.size()]);
+
+		// Bounds of each object and of all of them
+		bounds = new int[objects.length * 4];
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		int maxX = Integer.MIN_VALUE;
+		int maxY = Integer.MIN_VALUE;
+		for (int i = 0; i < objects.length; i++) {
+			computeBounds(objects[i], bounds, i * 4);
+			minX = Math.min(minX, bounds[i * 4]);
+			minY = Math.min(minY, bounds[i * 4 + 1]);
+			maxX = Math.max(maxX, bounds[i * 4 + 2]);
+			maxY = Math.max(maxY, bounds[i * 4 + 3]);
+		}
+		if (objects.length == 0) {
+			minX = minY = maxX = maxY = 0;
+		}
+
+		// Growing the cells if there would be too many of them
+		long spanX = (long) maxX - minX + 1;
+		long spanY = (long) maxY - minY + 1;
+		long size = Math.max(cellSize, (Math.max(spanX, spanY) + MAX_CELLS - 1) / MAX_CELLS);
+		this.cellSize = (int) size;
+		this.originX = minX;
+		this.originY = minY;
+		this.cellsAcross = (int) ((spanX + size - 1) / size);
+		this.cellsDown = (int) ((spanY + size - 1) / size);
+
+		// Counting the objects of each cell, then filling them
+		cellStarts = new int[cellsAcross * cellsDown + 1];
+		for (int i = 0; i < objects.length; i++) {
+			for (int cy = cellY(bounds[i * 4 + 1]); cy <= cellY(bounds[i * 4 + 3]); cy++) {
+				for (int cx = cellX(bounds[i * 4]); cx <= cellX(bounds[i * 4 + 2]); cx++) {
+					cellStarts[cy * cellsAcross + cx + 1]++;
+				}
+			}
+		}
+		for (int i = 1; i < cellStarts.length; i++) {
+			cellStarts[i] += cellStarts[i - 1];
+		}
+
+		cellObjects = new int[cellStarts[cellStarts.length - 1]];
+		int[] filled = new int[cellsAcross * cellsDown];
+		for (int i = 0; i < objects.length; i++) {
+			for (int cy = cellY(bounds[i * 4 + 1]); cy <= cellY(bounds[i * 4 + 3]); cy++) {
+				for (int cx = cellX(bounds[i * 4]); cx <= cellX(bounds[i * 4 + 2]); cx++) {
+					int cell = cy * cellsAcross + cx;
+					cellObjects[cellStarts[cell] + filled[cell]++] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of objects indexed
+	 */
+	public int getObjectCount() {
+		return objects.length;
+	}
+
+	/**
+	 * @param index
+	 *            position of the object in its group
+	 * @return the object
+	 */
+	public TmxObject getObject(int index) {
+		return objects[index];
+	}
+
+	/**
+	 * @return size of the cells in pixels
+	 */
+	public int getCellSize() {
+		return cellSize;
+	}
+
+	/**
+	 * Finds the objects whose bounds overlap a rectangle, touching edges count
+	 *
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @param res
+	 *            filled with the objects found
+	 */
+	public void queryRect(float x, float y, float width, float height, Result res) {
+		query(x, y, x + width, y + height, x, y, -1, res);
+	}
+
+	/**
+	 * Finds the objects whose bounds contain a point, edges included
+	 *
+	 * @param x
+	 * @param y
+	 * @param res
+	 *            filled with the objects found
+	 */
+	public void queryPoint(float x, float y, Result res) {
+		query(x, y, x, y, x, y, -1, res);
+	}
+
+	/**
+	 * Finds the objects whose bounds are within a distance of a point
+	 *
+	 * @param x
+	 * @param y
+	 * @param radius
+	 * @param res
+	 *            filled with the objects found
+	 */
+	public void queryRadius(float x, float y, float radius, Result res) {
+		query(x - radius, y - radius, x + radius, y + radius, x, y, radius, res);
+	}
+
+	/**
+	 * Finds the objects overlapping a rectangle and, if radius is not
+	 * negative, within radius of a point
+	 */
+	private void query(float left, float top, float right, float bottom, float centerX, float centerY,
+			float radius, Result res) {
+		res.start(this);
+
+		int firstX = Math.max(0, cellX(left));
+		int lastX = Math.min(cellsAcross - 1, cellX(right));
+		int firstY = Math.max(0, cellY(top));
+		int lastY = Math.min(cellsDown - 1, cellY(bottom));
+		float radius2 = radius * radius;
+
+		for (int cy = firstY; cy <= lastY; cy++) {
+			for (int cx = firstX; cx <= lastX; cx++) {
+				int cell = cy * cellsAcross + cx;
+				for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+					int object = cellObjects[i];
+					if (!res.visit(object)) {
+						continue;
+					}
+
+					int b = object * 4;
+					if (bounds[b] > right || bounds[b + 2] < left || bounds[b + 1] > bottom || bounds[b + 3] < top) {
+						continue;
+					}
+
+					if (radius >= 0) {
+						// Distance from the center to the closest point of the bounds
+						float dx = Math.max(bounds[b] - centerX, Math.max(0, centerX - bounds[b + 2]));
+						float dy = Math.max(bounds[b + 1] - centerY, Math.max(0, centerY - bounds[b + 3]));
+						if (dx * dx + dy * dy > radius2) {
+							continue;
+						}
+					}
+
+					res.add(object);
+				}
+			}
+		}
+
+	}
+
+	/**
+	 * Stores left, top, right and bottom of the bounds of an object
+	 */
+	private static void computeBounds(TmxObject obj, int[] dst, int offset) {
+		int left = obj.getX();
+		int top = obj.getY();
+		int right = left + obj.getWidth();
+		int bottom = top + obj.getHeight();
+
+		if (obj instanceof TmxObjectTile) {
+			top -= obj.getHeight();
+			bottom -= obj.getHeight();
+		} else if (obj instanceof TmxObjectPolygon || obj instanceof TmxObjectPolyline) {
+			int[] points = obj instanceof TmxObjectPolygon ? ((TmxObjectPolygon) obj).getPoints()
+					: ((TmxObjectPolyline) obj).getPoints();
+			for (int i = 0; i + 1 < points.length; i += 2) {
+				left = Math.min(left, obj.getX() + points[i]);
+				top = Math.min(top, obj.getY() + points[i + 1]);
+				right = Math.max(right, obj.getX() + points[i]);
+				bottom = Math.max(bottom, obj.getY() + points[i + 1]);
+			}
+		}
+
+		dst[offset] = left;
+		dst[offset + 1] = top;
+		dst[offset + 2] = right;
+		dst[offset + 3] = bottom;
+	}
+
+	private int cellX(float x) {
+		return (int) Math.floor((x - originX) / cellSize);
+	}
+
+	private int cellY(float y) {
+		return (int) Math.floor((y - originY) / cellSize);
+	}
+
+	/**
+	 * Objects in the order of the group
+	 */
+	private final TmxObject[] objects;
+
+	/**
+	 * Left, top, right and bottom of each object
+	 */
+	private final int[] bounds;
+
+	/**
+	 * Pixel position of the top left corner of the grid
+	 */
+	private final int originX;
+	private final int originY;
+
+	private final int cellSize;
+	private final int cellsAcross;
+	private final int cellsDown;
+
+	/**
+	 * Where the objects of each cell start in cellObjects, cells row by row
+	 * with one extra entry holding the end of the last cell
+	 */
+	private final int[] cellStarts;
+
+	/**
+	 * Objects of each cell, indexes into objects
+	 */
+	private final int[] cellObjects;
+}
@@ -16,16 +16,65 @@
 
 package com.github.asilvestre.isoplayn.core.tmxparser;
 
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
+import java.util.List;
 
 public class TmxObjectPolygon extends TmxObject {
 
 	/**
-	 * @return the coords
+	 * @return the points of the polygon relative to the object position,
+	 *         packed as x0, y0, x1, y1... it must not be modified. Frozen
+	 *         maps return a copy, getPointX and getPointY don't allocate.
 	 */
-	public Collection<Coord> getCoords() {
-		return coords;
+	public int[] getPoints() {
+		return frozen ? points.clone() : points;
+	}
+
+	/**
+	 * @param points
+	 *            points of the polygon relative to the object position, packed
+	 *            as x0, y0, x1, y1... they are copied
+	 */
+	public void setPoints(int[] points) {
+		TmxFreezer.checkMutable(frozen);
+		if (points.length % 2 != 0) {
+			throw new IllegalArgumentException(String.format("Odd number of point coordinates: %d", points.length));
+		}
+		this.points = points.clone();
+		collisionGeometry = null;
+	}
+
+	/**
+	 * @return number of points
+	 */
+	public int getPointCount() {
+		return points.length / 2;
+	}
+
+	/**
+	 * @param i
+	 *            from 0 to getPointCount() - 1
+	 * @return x of the point relative to the object position
+	 */
+	public int getPointX(int i) {
+		return points[i * 2];
+	}
+
+	/**
+	 * @param i
+	 *            from 0 to getPointCount() - 1
+	 * @return y of the point relative to the object position
+	 */
+	public int getPointY(int i) {
+		return points[i * 2 + 1];
+	}
+
+	/**
+	 * @return a copy of the points as coords, getPoints doesn't allocate
+	 */
+	public List<Coord> getCoords() {
+		return Coord.unpack(points);
 	}
 
 	/**
@@ -33,7 +82,19 @@ public class TmxObjectPolygon extends TmxObject {
 	 *            the coords to set
 	 */
 	public void setCoords(Collection<Coord> coords) {
-		this.coords.addAll(coords);
+		setPoints(Coord.pack(coords));
+	}
+
+	/**
+	 * @return collision geometry kept by TmxCollisionGeometry.build, null if
+	 *         it wasn't built or the points changed since
+	 */
+	public TmxCollisionGeometry getCollisionGeometry() {
+		return collisionGeometry;
+	}
+
+	void setCollisionGeometry(TmxCollisionGeometry collisionGeometry) {
+		this.collisionGeometry = collisionGeometry;
 	}
 
 	@Override
@@ -41,7 +102,9 @@ public class TmxObjectPolygon extends TmxObject {
 		visitor.visit(this);
 		
 		// visiting all related objects
-		properties.accept(visitor);
+		if (properties != null) {
+			properties.accept(visitor);
+		}
 	}
 
 	@Override
@@ -60,15 +123,21 @@ public class TmxObjectPolygon extends TmxObject {
 	}
 
 	/**
-	 * List of coords that make up the polygon
+	 * Points packed as x0, y0, x1, y1..., read directly by the package to
+	 * avoid copies of frozen points
+	 */
+	int[] points = new int[0];
+
+	/**
+	 * Computed from the points, null until built
 	 */
-	private LinkedList<Coord> coords = new LinkedList<Coord>();
+	private TmxCollisionGeometry collisionGeometry = null;
 
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = super.hashCode();
-		result = prime * result + ((coords == null) ? 0 : coords.hashCode());
+		result = prime * result + Arrays.hashCode(points);
 		return result;
 	}
 
@@ -81,10 +150,7 @@ public class TmxObjectPolygon extends TmxObject {
 		if (getClass() != obj.getClass())
 			return false;
 		TmxObjectPolygon other = (TmxObjectPolygon) obj;
-		if (coords == null) {
-			if (other.coords != null)
-				return false;
-		} else if (!coords.equals(other.coords))
+		if (!Arrays.equals(points, other.points))
 			return false;
 		return true;
 	}
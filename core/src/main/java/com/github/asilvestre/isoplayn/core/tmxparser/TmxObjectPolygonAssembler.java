@@ -27,7 +27,7 @@ public class TmxObjectPolygonAssembler extends TmxObjectAssembler {
 	
 	@Override
 	void assemble(TmxObjectPolygon obj) {
-		objectPoly.setCoords(obj.getCoords());
+		objectPoly.setPoints(obj.getPoints());
 	}
 
 	private TmxObjectPolygon objectPoly;
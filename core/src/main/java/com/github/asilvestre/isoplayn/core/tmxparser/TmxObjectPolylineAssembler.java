@@ -27,7 +27,7 @@ public class TmxObjectPolylineAssembler extends TmxObjectAssembler {
 	
 	@Override
 	void assemble(TmxObjectPolyline obj) {
-		objectPoly.setCoords(obj.getCoords());
+		objectPoly.setPoints(obj.getPoints());
 	}
 
 	private TmxObjectPolyline objectPoly;
@@ -25,7 +25,9 @@ public class TmxObjectTile extends TmxObject {
 		visitor.visit(this);
 
 		// visiting all related objects
-		properties.accept(visitor);
+		if (properties != null) {
+			properties.accept(visitor);
+		}
 	}
 
 	@Override
@@ -44,7 +46,7 @@ public class TmxObjectTile extends TmxObject {
 	}
 
 	/**
-	 * @return the gid
+	 * @return the gid without its flip flags
 	 */
 	public int getGid() {
 		return gid;
@@ -52,18 +54,62 @@ public class TmxObjectTile extends TmxObject {
 
 	/**
 	 * @param gid
-	 *            the gid to set
+	 *            the gid to set, its flip flags are split from it
 	 */
 	public void setGid(int gid) {
-		this.gid = gid;
+		TmxFreezer.checkMutable(frozen);
+		this.gid = gid & TmxData.GID_MASK;
+		this.flip = gid & ~TmxData.GID_MASK;
+	}
+
+	/**
+	 * @return the gid with its flip flags, as stored in TMX files
+	 */
+	public int getRawGid() {
+		return gid | flip;
+	}
+
+	/**
+	 * @return the flip flags, a combination of TmxData.FLIPPED_HORIZONTALLY,
+	 *         FLIPPED_VERTICALLY and FLIPPED_DIAGONALLY
+	 */
+	public int getFlip() {
+		return flip;
+	}
+
+	/**
+	 * @return whether the tile is flipped horizontally
+	 */
+	public boolean isHoritzontallyFlipped() {
+		return (flip & TmxData.FLIPPED_HORIZONTALLY) != 0;
+	}
+
+	/**
+	 * @return whether the tile is flipped vertically
+	 */
+	public boolean isVerticallyFlipped() {
+		return (flip & TmxData.FLIPPED_VERTICALLY) != 0;
+	}
+
+	/**
+	 * @return whether the tile is flipped diagonally
+	 */
+	public boolean isDiagonallyFlipped() {
+		return (flip & TmxData.FLIPPED_DIAGONALLY) != 0;
 	}
 
 	private int gid = 0;
 
+	/**
+	 * Flip flags of the gid
+	 */
+	private int flip = 0;
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
+		result = prime * result + flip;
 		result = prime * result + gid;
 		return result;
 	}
@@ -77,6 +123,8 @@ public class TmxObjectTile extends TmxObject {
 		if (getClass() != obj.getClass())
 			return false;
 		TmxObjectTile other = (TmxObjectTile) obj;
+		if (flip != other.flip)
+			return false;
 		if (gid != other.gid)
 			return false;
 		return true;
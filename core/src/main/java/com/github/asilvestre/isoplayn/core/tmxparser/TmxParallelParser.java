@@ -0,0 +1,163 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static playn.core.PlayN.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import playn.core.util.Callback;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Parses TMX files decoding the data of all tile layers concurrently once the
+ * tags have been parsed, so loading a map takes about as long as parsing it
+ * plus decoding its largest layer.
+ *
+ * It relies on java.util.concurrent so it is only available on the JVM, any
+ * executor works, a ForkJoinPool included.
+ */
+public class TmxParallelParser {
+
+	/**
+	 * Loads a TMX file and parses it
+	 *
+	 * @param filepath
+	 * @param stream
+	 *            true to parse it as in TmxParser.createTmxMapFromXmlStream
+	 * @param executor
+	 *            runs the layer decoding
+	 * @param callback
+	 *            to be called when the parsing and decoding finish
+	 */
+	public static void createTmxMapFromFile(String filepath, final boolean stream, final ExecutorService executor,
+			final Callback<TmxMap> callback) {
+		assets().getText(filepath, new Callback<String>() {
+			public void onFailure(Throwable cause) {
+				callback.onFailure(cause);
+			}
+
+			public void onSuccess(String value) {
+				try {
+					TmxMap res = createTmxMapFromXml(value, stream, executor);
+					callback.onSuccess(res);
+				} catch (ParseTmxException e) {
+					callback.onFailure(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Parses a TMX file
+	 *
+	 * @param xml
+	 *            describing the TMX
+	 * @param stream
+	 *            true to parse it as in TmxParser.createTmxMapFromXmlStream
+	 * @param executor
+	 *            runs the layer decoding
+	 * @return a TmxMap with all the information parsed from the xml and its
+	 *         layers decoded
+	 * @throws ParseTmxException
+	 */
+	public static TmxMap createTmxMapFromXml(String xml, boolean stream, ExecutorService executor)
+			throws ParseTmxException {
+		TmxMap res = TmxParser.parseTmxXml(xml, stream);
+		decodeLayers(res, executor);
+
+		return res;
+	}
+
+	/**
+	 * Decodes the data of all tile layers of a map concurrently, returning
+	 * once all of them are decoded
+	 *
+	 * @param map
+	 * @param executor
+	 *            runs the layer decoding
+	 * @throws ParseTmxException
+	 *             with the error of the first layer, in map order, that
+	 *             failed decoding
+	 */
+	public static void decodeLayers(TmxMap map, ExecutorService executor) throws ParseTmxException {
+		final int tileCount = map.getWidth() * map.getHeight();
+		final ArrayList<TmxData> datas = new ArrayList<TmxData>();
+		Iterator<TmxLayer> iterLayers = map.getLayers();
+		while (iterLayers.hasNext()) {
+			TmxLayer layer = iterLayers.next();
+			if (layer instanceof TmxTileLayer && ((TmxTileLayer) layer).getData() != null) {
+				datas.add(((TmxTileLayer) layer).getData());
+			}
+		}
+
+		// Submitting the biggest payloads first so they don't end up last
+		// in the queue
+		ArrayList<Integer> bySize = new ArrayList<Integer>(datas.size());
+		for (int i = 0; i < datas.size(); i++) {
+			bySize.add(i);
+		}
+		Collections.sort(bySize, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return datas.get(b).getData().length() - datas.get(a).getData().length();
+			}
+		});
+
+		ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>(datas.size());
+		for (final Integer index : bySize) {
+			futures.add(executor.submit(new Callable<Void>() {
+				public Void call() throws ParseTmxException {
+					TmxParser.decodeLayerData(datas.get(index), tileCount);
+					return null;
+				}
+			}));
+		}
+
+		// Waiting for all of them before reporting any error
+		ParseTmxException[] errors = new ParseTmxException[datas.size()];
+		for (int i = 0; i < futures.size(); i++) {
+			try {
+				futures.get(i).get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof ParseTmxException) {
+					errors[bySize.get(i)] = (ParseTmxException) cause;
+				} else if (cause instanceof RuntimeException) {
+					throw (RuntimeException) cause;
+				} else {
+					throw new RuntimeException(cause);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ParseTmxException("Interrupted while decoding layer data");
+			}
+		}
+
+		for (ParseTmxException error : errors) {
+			if (error != null) {
+				throw error;
+			}
+		}
+	}
+}
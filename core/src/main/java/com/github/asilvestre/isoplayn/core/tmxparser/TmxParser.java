@@ -44,6 +44,19 @@ public class TmxParser {
      * @throws ParseTmxException
      */
     public static void createTmxMapFromFile(String filepath, final Callback<TmxMap> callback) {
+	createTmxMapFromFile(filepath, false, callback);
+    }
+
+    /**
+     * Loads a TMX file and parses it
+     * 
+     * @param filepath
+     * @param stream
+     *            true to parse it with createTmxMapFromXmlStream
+     * @param callback
+     *            to be called when the parsing finishes
+     */
+    public static void createTmxMapFromFile(String filepath, final boolean stream, final Callback<TmxMap> callback) {
 	assets().getText(filepath, new Callback<String>() {
 	    public void onFailure(Throwable cause) {
 		callback.onFailure(cause);
@@ -51,7 +64,7 @@ public class TmxParser {
 
 	    public void onSuccess(String value) {
 		try {
-		    TmxMap res = createTmxMapFromXml(value);
+		    TmxMap res = stream ? createTmxMapFromXmlStream(value) : createTmxMapFromXml(value);
 		    callback.onSuccess(res);
 		} catch (ParseTmxException e) {
 		    callback.onFailure(e);
@@ -69,6 +82,59 @@ public class TmxParser {
      * @throws ParseTmxException
      */
     public static TmxMap createTmxMapFromXml(String xml) throws ParseTmxException {
+	TmxMap res = parseTmxXml(xml, false);
+	decodeLayers(res);
+
+	return res;
+    }
+
+    /**
+     * Parses a TMX file leaving the layer data encoded, decodeLayerData
+     * decodes it
+     * 
+     * @param xml
+     *            describing the TMX
+     * @param stream
+     *            true to parse it as in createTmxMapFromXmlStream
+     * @return a TmxMap with all the information parsed from the xml
+     * @throws ParseTmxException
+     */
+    static TmxMap parseTmxXml(String xml, boolean stream) throws ParseTmxException {
+	return parseTmxXml(xml, stream, null);
+    }
+
+    /**
+     * Parses a TMX file leaving the layer data encoded, telling a listener
+     * about each element as soon as it is parsed
+     * 
+     * @param xml
+     *            describing the TMX
+     * @param stream
+     *            true to parse it as in createTmxMapFromXmlStream
+     * @param listener
+     *            can be null
+     * @return a TmxMap with all the information parsed from the xml
+     * @throws ParseTmxException
+     */
+    static TmxMap parseTmxXml(String xml, boolean stream, ElementListener listener) throws ParseTmxException {
+	return stream ? parseTmxXmlStream(xml, listener) : parseTmxXmlDoc(xml, listener);
+    }
+
+    /**
+     * Gets told about elements while a TMX is parsed
+     */
+    interface ElementListener {
+	/**
+	 * Called once an element has its attributes and has been assembled
+	 * into its parent, before its children are parsed
+	 * 
+	 * @param elem
+	 * @param parentElem
+	 */
+	void elementParsed(TmxElement elem, TmxElement parentElem);
+    }
+
+    private static TmxMap parseTmxXmlDoc(String xml, ElementListener listener) throws ParseTmxException {
 	XmlDoc xmlDoc;
 	try {
 	    xmlDoc = XmlParser.parseXml(xml);
@@ -83,11 +149,128 @@ public class TmxParser {
 	}
 
 	// Start the parsing
-	TmxMap res = parseTmx(root);
+	TmxMap res = parseTmx(root, listener);
+
+	return res;
+    }
+
+    /**
+     * Parses a TMX file without building an XML document first, each tag is
+     * parsed as soon as it is read. The file is still taken as a whole string
+     * and layer data is still kept as full strings until decoded, what goes
+     * away is the DOM copy of the file, so memory peaks at one copy of the
+     * file instead of two.
+     * 
+     * @param xml
+     *            describing the TMX
+     * @return a TmxMap with all the information parsed from the xml
+     * @throws ParseTmxException
+     */
+    public static TmxMap createTmxMapFromXmlStream(String xml) throws ParseTmxException {
+	TmxMap res = parseTmxXml(xml, true);
+	decodeLayers(res);
+
+	return res;
+    }
+
+    private static TmxMap parseTmxXmlStream(String xml, ElementListener listener) throws ParseTmxException {
+	TmxXmlTokenizer tokenizer = new TmxXmlTokenizer(xml);
+
+	// Skipping anything before the root tag
+	TmxXmlTokenizer.Events event = tokenizer.next();
+	while (event == TmxXmlTokenizer.Events.TEXT) {
+	    event = tokenizer.next();
+	}
+
+	if (event != TmxXmlTokenizer.Events.START_TAG || !tokenizer.getName().equals("map")) {
+	    throw new ParseTmxException("Expecting a <map> tag as the root tag of the TMX");
+	}
+
+	// Start the parsing
+	TmxMap res = parseTmxMap(tokenizer.getAttributes());
+	parseTmxStream(tokenizer, res, listener);
+
+	return res;
+    }
+
+    /**
+     * Parses an external TSX tileset, its firstgid is 0 unless the file has
+     * one since it is given by each map using the tileset
+     * 
+     * @param xml
+     *            describing the TSX
+     * @return a TmxTileset with all the information parsed from the xml
+     * @throws ParseTmxException
+     */
+    public static TmxTileset createTmxTilesetFromXml(String xml) throws ParseTmxException {
+	XmlDoc xmlDoc;
+	try {
+	    xmlDoc = XmlParser.parseXml(xml);
+	} catch (XmlParseException e) {
+	    throw new ParseTmxException(String.format("Error parsing the TSX XML: %s", e.toString()));
+	}
+
+	XmlTag root = xmlDoc.root;
+
+	if (!root.name.equals("tileset")) {
+	    throw new ParseTmxException("Expecting a <tileset> tag as the root tag of the TSX");
+	}
+
+	TreeMap<String, String> attrs = new TreeMap<String, String>(root.attributes);
+	if (!attrs.containsKey("firstgid")) {
+	    attrs.put("firstgid", "0");
+	}
+	TmxTileset res = (TmxTileset) parseTmxTileset(attrs);
+
+	// Parse its children
+	Iterator<XmlTag> children = root.children.iterator();
+	while (children.hasNext()) {
+	    parseTmxTag(children.next(), root, res, null);
+	}
 
 	return res;
     }
 
+    /**
+     * Decodes the data of a tile layer
+     * 
+     * @param data
+     * @param tileCount
+     *            number of tiles the data must have, width * height of the
+     *            map, not checked for the chunks of infinite maps
+     * @throws ParseTmxException
+     *             if the data is not correctly encoded or compressed or it
+     *             hasn't the right number of tiles
+     */
+    static void decodeLayerData(TmxData data, int tileCount) throws ParseTmxException {
+	try {
+	    data.Decompress();
+	} catch (ParseTmxException e) {
+	    throw new ParseTmxException(String.format("Error decoding layer data: %s", e.toString()));
+	}
+
+	if (data.getChunkCount() == 0 && data.getGidCount() != tileCount) {
+	    throw new ParseTmxException(String.format("Layer data has %d tiles, expecting %d", data.getGidCount(),
+		    tileCount));
+	}
+    }
+
+    /**
+     * Decodes the data of all tile layers of a map one after another
+     * 
+     * @param map
+     * @throws ParseTmxException
+     */
+    static void decodeLayers(TmxMap map) throws ParseTmxException {
+	Iterator<TmxLayer> iterLayers = map.getLayers();
+	while (iterLayers.hasNext()) {
+	    TmxLayer layer = iterLayers.next();
+	    if (layer instanceof TmxTileLayer && ((TmxTileLayer) layer).getData() != null) {
+		decodeLayerData(((TmxTileLayer) layer).getData(), map.getWidth() * map.getHeight());
+	    }
+	}
+    }
+
     /**
      * Exception to signal there has been a problem parsing a TMX
      */
@@ -106,7 +289,19 @@ public class TmxParser {
      * Helper class that will wrap a parser for each TMX tag
      */
     private abstract static class TmxTagParser {
-	public abstract TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException;
+	public abstract TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException;
+
+	/**
+	 * Parses the text content of a tag, by default it is ignored
+	 * 
+	 * @param elem
+	 *            element returned by parseTmxTag for this same tag
+	 * @param content
+	 *            text inside the tag
+	 * @throws ParseTmxException
+	 */
+	public void parseTmxContent(TmxElement elem, String content) throws ParseTmxException {
+	}
     }
 
     /**
@@ -119,77 +314,103 @@ public class TmxParser {
 	Parsers = new TreeMap<String, TmxTagParser>();
 
 	Parsers.put("map", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxMap(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxMap(attrs);
 	    }
 	});
 	Parsers.put("image", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxImage(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxImage(attrs);
 	    }
 	});
 	Parsers.put("data", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxData(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxData(attrs);
+	    }
+
+	    public void parseTmxContent(TmxElement elem, String content) throws ParseTmxException {
+		parseTmxDataContent((TmxData) elem, content);
+	    }
+	});
+	Parsers.put("chunk", new TmxTagParser() {
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxDataChunk(attrs);
+	    }
+
+	    public void parseTmxContent(TmxElement elem, String content) throws ParseTmxException {
+		// Chunks are decoded when they are first read, see TmxChunkedTileGrid
+		((TmxDataChunk) elem).setData(content.trim());
 	    }
 	});
 	Parsers.put("layer", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxTileLayer(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxTileLayer(attrs);
 	    }
 	});
 	Parsers.put("polygon", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxObjectPolygon(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxObjectPolygon(attrs);
 	    }
 	});
 	Parsers.put("polyline", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxObjectPolyline(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxObjectPolyline(attrs);
 	    }
 	});
 	Parsers.put("object", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxObject(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxObject(attrs, null);
+	    }
+	});
+	// polygonobject and polylineobject are not actual TMX XML tags, an
+	// object is a polygon or a polyline when it has a child with that shape
+	Parsers.put("polygonobject", new TmxTagParser() {
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxObject(attrs, "polygon");
+	    }
+	});
+	Parsers.put("polylineobject", new TmxTagParser() {
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxObject(attrs, "polyline");
 	    }
 	});
 	Parsers.put("objectgroup", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxObjectGroup(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxObjectGroup(attrs);
 	    }
 	});
 	Parsers.put("property", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxProperty(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxProperty(attrs);
 	    }
 	});
 	Parsers.put("properties", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxProperties(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxProperties(attrs);
 	    }
 	});
 	Parsers.put("tileoffset", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxTileOffset(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxTileOffset(attrs);
 	    }
 	});
 	Parsers.put("tileset", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxTileset(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxTileset(attrs);
 	    }
 	});
 	// tilesettile is not an actual TMX XML tag we will have to disambiguate
 	// between two types of tiles
 	Parsers.put("tilesettile", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxTile(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxTile(attrs);
 	    }
 	});
 	// datatile is not an actual TMX XML tag we will have to disambiguate
 	// between two types of tiles
 	Parsers.put("datatile", new TmxTagParser() {
-	    public TmxElement parseTmxTag(XmlTag tag) throws ParseTmxException {
-		return parseTmxDataTile(tag);
+	    public TmxElement parseTmxTag(AbstractMap<String, String> attrs) throws ParseTmxException {
+		return parseTmxDataTile(attrs);
 	    }
 	});
     }
@@ -199,25 +420,28 @@ public class TmxParser {
      * 
      * @param tag
      *            TMX map tag
+     * @param listener
+     *            told about each element parsed, can be null
      * @return a TMX map with all the structure as defined in the passed XML
      * @throws ParseTmxException
      */
-    private static TmxMap parseTmx(XmlTag tag) throws ParseTmxException {
+    private static TmxMap parseTmx(XmlTag tag, ElementListener listener) throws ParseTmxException {
 	// Parsing the map attributes
-	TmxMap res = parseTmxMap(tag);
+	TmxMap res = parseTmxMap(tag.attributes);
 
 	// Parse its children
 	Iterator<XmlTag> children = tag.children.iterator();
 	while (children.hasNext()) {
 	    XmlTag child = children.next();
 
-	    parseTmxTag(child, tag, res);
+	    parseTmxTag(child, tag, res, listener);
 	}
 
 	return res;
     }
 
-    private static TmxElement parseTmxTag(XmlTag tag, XmlTag parentTag, TmxElement parentElem) throws ParseTmxException {
+    private static TmxElement parseTmxTag(XmlTag tag, XmlTag parentTag, TmxElement parentElem,
+	    ElementListener listener) throws ParseTmxException {
 	String tagName = tag.name;
 
 	// We need to disambiguate between the two types of tiles, the ones
@@ -227,35 +451,228 @@ public class TmxParser {
 	    tagName = parentTag.name + tagName;
 	}
 
+	// Objects are disambiguated by the shape of their first polygon or
+	// polyline child
+	if (tagName.equals("object")) {
+	    Iterator<XmlTag> iterChildren = tag.children.iterator();
+	    String shape = null;
+	    while (iterChildren.hasNext() && shape == null) {
+		shape = getObjectShape(iterChildren.next().name);
+	    }
+
+	    if (shape != null) {
+		tagName = shape + tagName;
+	    }
+	}
+
 	// Parsing this tag with its corresponding parser
+	TmxTagParser parser = getParser(tagName);
+	TmxElement elem = parser.parseTmxTag(tag.attributes);
+
+	if (tag.content != null) {
+	    parser.parseTmxContent(elem, tag.content);
+	}
+
+	assemble(elem, parentElem);
+	if (listener != null) {
+	    listener.elementParsed(elem, parentElem);
+	}
+
+	// Parse its children
+	Iterator<XmlTag> children = tag.children.iterator();
+	while (children.hasNext()) {
+	    XmlTag child = children.next();
+
+	    parseTmxTag(child, tag, elem, listener);
+	}
+
+	return elem;
+    }
+
+    /**
+     * A tag that has been opened but not closed yet while streaming
+     */
+    private static class StreamTag {
+	StreamTag(String name, TmxElement elem, TmxTagParser parser) {
+	    this.name = name;
+	    this.elem = elem;
+	    this.parser = parser;
+	}
+
+	/**
+	 * Name of the tag
+	 */
+	final String name;
+
+	/**
+	 * Element parsed from the tag
+	 */
+	final TmxElement elem;
+
+	/**
+	 * Parser for the tag, it will get its content when the tag closes
+	 */
+	final TmxTagParser parser;
+
+	/**
+	 * Text found inside the tag so far, null if none
+	 */
+	String content;
+    }
+
+    /**
+     * Parses the children of the map tag as the tokenizer reads them
+     * 
+     * @param tokenizer
+     *            positioned right after the map start tag
+     * @param map
+     *            map parsed from the map tag
+     * @param listener
+     *            told about each element parsed, can be null
+     * @throws ParseTmxException
+     */
+    private static void parseTmxStream(TmxXmlTokenizer tokenizer, TmxMap map, ElementListener listener)
+	    throws ParseTmxException {
+	LinkedList<StreamTag> openTags = new LinkedList<StreamTag>();
+	openTags.addFirst(new StreamTag("map", map, null));
+
+	while (!openTags.isEmpty()) {
+	    StreamTag parent = openTags.getFirst();
+
+	    switch (tokenizer.next()) {
+	    case START_TAG: {
+		String name = tokenizer.getName();
+		String tagName = name;
+
+		// Same disambiguation as in parseTmxTag
+		if (tagName.equals("tile")) {
+		    tagName = parent.name + tagName;
+		} else if (tagName.equals("object")) {
+		    String shape = lookAheadObjectShape(tokenizer);
+		    if (shape != null) {
+			tagName = shape + tagName;
+		    }
+		}
+
+		TmxTagParser parser = getParser(tagName);
+		TmxElement elem = parser.parseTmxTag(tokenizer.getAttributes());
+		assemble(elem, parent.elem);
+		if (listener != null) {
+		    listener.elementParsed(elem, parent.elem);
+		}
+
+		openTags.addFirst(new StreamTag(name, elem, parser));
+		break;
+	    }
+	    case TEXT: {
+		String text = tokenizer.getText();
+
+		// Whitespace between tags is not content
+		if (text.trim().length() > 0) {
+		    parent.content = parent.content == null ? text : parent.content + text;
+		}
+		break;
+	    }
+	    case END_TAG: {
+		if (!parent.name.equals(tokenizer.getName())) {
+		    throw new ParseTmxException(String.format("Error parsing the TMX XML: expecting </%s> but found </%s>",
+			    parent.name, tokenizer.getName()));
+		}
+
+		if (parent.content != null && parent.parser != null) {
+		    parent.parser.parseTmxContent(parent.elem, parent.content);
+		}
+
+		openTags.removeFirst();
+		break;
+	    }
+	    case END_DOCUMENT:
+		throw new ParseTmxException(String.format("Error parsing the TMX XML: missing </%s>", parent.name));
+	    }
+	}
+    }
+
+    /**
+     * Reads ahead the children of the object tag the tokenizer is at to find
+     * its shape, leaving the tokenizer where it was
+     * 
+     * @param tokenizer
+     *            positioned right after an object start tag
+     * @return the shape of the object as in getObjectShape
+     * @throws ParseTmxException
+     */
+    private static String lookAheadObjectShape(TmxXmlTokenizer tokenizer) throws ParseTmxException {
+	String shape = null;
+	int depth = 0;
+
+	tokenizer.mark();
+
+	boolean done = false;
+	while (!done && shape == null) {
+	    switch (tokenizer.next()) {
+	    case START_TAG:
+		if (depth == 0) {
+		    shape = getObjectShape(tokenizer.getName());
+		}
+		depth++;
+		break;
+	    case END_TAG:
+		done = depth == 0;
+		depth--;
+		break;
+	    case END_DOCUMENT:
+		done = true;
+		break;
+	    default:
+		break;
+	    }
+	}
+
+	tokenizer.reset();
+
+	return shape;
+    }
+
+    /**
+     * @param tagName
+     * @return the parser for a TMX tag name
+     * @throws ParseTmxException
+     *             if the tag is unknown
+     */
+    private static TmxTagParser getParser(String tagName) throws ParseTmxException {
 	TmxTagParser parser = Parsers.get(tagName);
 	if (parser == null) {
 	    throw new ParseTmxException(String.format("Unknown TMX tag: %s", tagName));
 	}
-	TmxElement elem = parser.parseTmxTag(tag);
 
+	return parser;
+    }
+
+    private static void assemble(TmxElement elem, TmxElement parentElem) throws ParseTmxException {
 	try {
 	    elem.getAssembled(parentElem.createAssembler());
 	} catch (TmxInvalidAssembly e) {
 	    throw new ParseTmxException(String.format("Error parsing TMX: %s", e.toString()));
 	}
+    }
 
-	// Parse its children
-	Iterator<XmlTag> children = tag.children.iterator();
-	while (children.hasNext()) {
-	    XmlTag child = children.next();
-
-	    parseTmxTag(child, tag, elem);
+    /**
+     * @param childName
+     *            name of a child tag of an object tag
+     * @return the shape the child gives to the object, null if it's not a
+     *         shape
+     */
+    private static String getObjectShape(String childName) {
+	if (childName.equals("polygon") || childName.equals("polyline")) {
+	    return childName;
 	}
 
-	return elem;
+	return null;
     }
 
-    private static TmxMap parseTmxMap(XmlTag tag) throws ParseTmxException {
+    private static TmxMap parseTmxMap(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxMap map = new TmxMap();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// getting version
 	if (attrs.containsKey("version")) {
 	    map.setVersion(attrs.get("version"));
@@ -325,11 +742,9 @@ public class TmxParser {
 	return map;
     }
 
-    private static TmxElement parseTmxImage(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxImage(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxImage image = new TmxImage();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// getting source
 	if (attrs.containsKey("source")) {
 	    image.setSource(attrs.get("source"));
@@ -380,11 +795,9 @@ public class TmxParser {
 	return image;
     }
 
-    private static TmxElement parseTmxData(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxData(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxData data = new TmxData();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// getting encoding
 	if (attrs.containsKey("encoding")) {
 	    String encodingStr = attrs.get("encoding");
@@ -411,22 +824,84 @@ public class TmxParser {
 			compressionStr));
 	    }
 	} else {
-	    throw new ParseTmxException("Data tag is missing compression attribute");
+	    // Uncompressed base64 and CSV data come without compression attribute
+	    data.setCompression(TmxData.Compression.NONE);
 	}
 
-	// getting the data content
-	if (tag.content != null) {
-	    data.setData(tag.content);
+	return data;
+    }
+
+    private static void parseTmxDataContent(TmxData data, String content) throws ParseTmxException {
+	// Tiled indents the data, the surrounding whitespace is not part of it,
+	// decoding waits until the whole map is parsed
+	data.setData(content.trim());
+    }
+
+    private static TmxElement parseTmxDataChunk(AbstractMap<String, String> attrs) throws ParseTmxException {
+	TmxDataChunk chunk = new TmxDataChunk();
+
+	// getting x
+	if (attrs.containsKey("x")) {
+	    String xStr = attrs.get("x");
+
+	    try {
+		int x = Integer.parseInt(xStr);
+		chunk.setX(x);
+	    } catch (NumberFormatException e) {
+		throw new ParseTmxException(String.format("Chunk x attribute not a number: %s", xStr));
+	    }
+	} else {
+	    throw new ParseTmxException("Chunk tag is missing x attribute");
 	}
 
-	return data;
+	// getting y
+	if (attrs.containsKey("y")) {
+	    String yStr = attrs.get("y");
+
+	    try {
+		int y = Integer.parseInt(yStr);
+		chunk.setY(y);
+	    } catch (NumberFormatException e) {
+		throw new ParseTmxException(String.format("Chunk y attribute not a number: %s", yStr));
+	    }
+	} else {
+	    throw new ParseTmxException("Chunk tag is missing y attribute");
+	}
+
+	// getting width
+	if (attrs.containsKey("width")) {
+	    String widthStr = attrs.get("width");
+
+	    try {
+		int width = Integer.parseInt(widthStr);
+		chunk.setWidth(width);
+	    } catch (NumberFormatException e) {
+		throw new ParseTmxException(String.format("Chunk width attribute not a number: %s", widthStr));
+	    }
+	} else {
+	    throw new ParseTmxException("Chunk tag is missing width attribute");
+	}
+
+	// getting height
+	if (attrs.containsKey("height")) {
+	    String heightStr = attrs.get("height");
+
+	    try {
+		int height = Integer.parseInt(heightStr);
+		chunk.setHeight(height);
+	    } catch (NumberFormatException e) {
+		throw new ParseTmxException(String.format("Chunk height attribute not a number: %s", heightStr));
+	    }
+	} else {
+	    throw new ParseTmxException("Chunk tag is missing height attribute");
+	}
+
+	return chunk;
     }
 
-    private static TmxElement parseTmxTileLayer(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxTileLayer(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxTileLayer layer = new TmxTileLayer();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// getting name
 	if (attrs.containsKey("name")) {
 	    layer.setName(attrs.get("name"));
@@ -467,16 +942,13 @@ public class TmxParser {
 	return layer;
     }
 
-    private static TmxElement parseTmxObjectPolygon(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxObjectPolygon(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxObjectPolygon polygon = new TmxObjectPolygon();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// Parsing points
 	if (attrs.containsKey("points")) {
 	    try {
-		LinkedList<Coord> points = parsePoints(attrs.get("points"));
-		polygon.setCoords(points);
+		polygon.setPoints(parsePoints(attrs.get("points")));
 	    } catch (ParseTmxException e) {
 		throw new ParseTmxException(String.format("Error parsing polygon points: %s", e.toString()));
 	    }
@@ -488,58 +960,106 @@ public class TmxParser {
     }
 
     /**
+     * Parses the points in place, without creating a string for each
+     * coordinate
+     *
      * @param pointsStr
-     * @return a linked list describing the points
+     * @return x and y of each point one after the other
      */
-    private static LinkedList<Coord> parsePoints(String pointsStr) throws ParseTmxException {
-	LinkedList<Coord> points = new LinkedList<Coord>();
-
-	// Look for all the commas
-	int commaPos = pointsStr.indexOf(',');
-	int lastCoordPos = 0; // Marks the end of last component found
-	while (commaPos != -1) {
-	    // Checking the comma isn't the last character of the string
-	    if (commaPos == pointsStr.length() - 1) {
+    private static int[] parsePoints(String pointsStr) throws ParseTmxException {
+	int[] points = new int[16];
+	int count = 0;
+
+	int length = pointsStr.length();
+	int pos = skipWhitespace(pointsStr, 0);
+	while (pos < length) {
+	    if (count + 2 > points.length) {
+		int[] bigger = new int[points.length * 2];
+		System.arraycopy(points, 0, bigger, 0, count);
+		points = bigger;
+	    }
+
+	    // x, then the comma and y
+	    pos = skipWhitespace(pointsStr, parsePointCoordinate(pointsStr, pos, points, count));
+	    if (pos == length || pointsStr.charAt(pos) != ',') {
 		throw new ParseTmxException(String.format("Wrong formatted coordinates: %s", pointsStr));
 	    }
+	    pos = skipWhitespace(pointsStr, pos + 1);
+	    pos = parsePointCoordinate(pointsStr, pos, points, count + 1);
+	    count += 2;
 
-	    // Parsing the x coordinate
-	    String xStr = pointsStr.substring(lastCoordPos, commaPos);
-	    xStr = xStr.trim();
+	    // Points are separated by whitespace
+	    if (pos < length && !Character.isWhitespace(pointsStr.charAt(pos))) {
+		throw new ParseTmxException(String.format("Wrong formatted coordinates: %s", pointsStr));
+	    }
+	    pos = skipWhitespace(pointsStr, pos);
+	}
 
-	    // Parsing the y coordinate
-	    lastCoordPos = pointsStr.indexOf(' ', commaPos);
-	    lastCoordPos = lastCoordPos != -1 ? lastCoordPos : pointsStr.length();
-	    String yStr = pointsStr.substring(commaPos + 1, lastCoordPos);
-	    yStr = yStr.trim();
+	int[] res = new int[count];
+	System.arraycopy(points, 0, res, 0, count);
+	return res;
+    }
 
-	    // Converting the string coordinates to numbers
-	    int x, y;
-	    try {
-		x = Integer.parseInt(xStr);
-		y = Integer.parseInt(yStr);
-	    } catch (NumberFormatException e) {
-		throw new ParseTmxException(String.format("Non-numeric coordinate %s,%s", xStr, yStr));
-	    }
+    /**
+     * Parses an integer coordinate of a points attribute
+     *
+     * @param pointsStr
+     * @param pos
+     *            where the coordinate starts
+     * @param dst
+     *            where to store the coordinate
+     * @param dstIndex
+     * @return position of the first character after the coordinate
+     */
+    private static int parsePointCoordinate(String pointsStr, int pos, int[] dst, int dstIndex)
+	    throws ParseTmxException {
+	int start = pos;
+	int length = pointsStr.length();
+
+	boolean negative = false;
+	if (pos < length && (pointsStr.charAt(pos) == '-' || pointsStr.charAt(pos) == '+')) {
+	    negative = pointsStr.charAt(pos) == '-';
+	    pos++;
+	}
 
-	    points.add(new Coord(x, y));
+	long value = 0;
+	int digitsStart = pos;
+	while (pos < length && pointsStr.charAt(pos) >= '0' && pointsStr.charAt(pos) <= '9') {
+	    value = value * 10 + (pointsStr.charAt(pos) - '0');
+	    if (value > (long) Integer.MAX_VALUE + 1) {
+		break;
+	    }
+	    pos++;
+	}
 
-	    commaPos = pointsStr.indexOf(',', lastCoordPos);
+	value = negative ? -value : value;
+	boolean endsHere = pos == length || pointsStr.charAt(pos) == ',' || Character.isWhitespace(pointsStr.charAt(pos));
+	if (pos == digitsStart || !endsHere || value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+	    int end = pos;
+	    while (end < length && pointsStr.charAt(end) != ',' && !Character.isWhitespace(pointsStr.charAt(end))) {
+		end++;
+	    }
+	    throw new ParseTmxException(String.format("Non-numeric coordinate %s", pointsStr.substring(start, end)));
 	}
 
-	return points;
+	dst[dstIndex] = (int) value;
+	return pos;
     }
 
-    private static TmxElement parseTmxObjectPolyline(XmlTag tag) throws ParseTmxException {
-	TmxObjectPolyline polyline = new TmxObjectPolyline();
+    private static int skipWhitespace(String str, int pos) {
+	while (pos < str.length() && Character.isWhitespace(str.charAt(pos))) {
+	    pos++;
+	}
+	return pos;
+    }
 
-	AbstractMap<String, String> attrs = tag.attributes;
+    private static TmxElement parseTmxObjectPolyline(AbstractMap<String, String> attrs) throws ParseTmxException {
+	TmxObjectPolyline polyline = new TmxObjectPolyline();
 
 	// Parsing points
 	if (attrs.containsKey("points")) {
 	    try {
-		LinkedList<Coord> points = parsePoints(attrs.get("points"));
-		polyline.setCoords(points);
+		polyline.setPoints(parsePoints(attrs.get("points")));
 	    } catch (ParseTmxException e) {
 		throw new ParseTmxException(String.format("Error parsing polyline points: %s", e.toString()));
 	    }
@@ -550,22 +1070,22 @@ public class TmxParser {
 	return polyline;
     }
 
-    private static TmxElement parseTmxObject(XmlTag tag) throws ParseTmxException {
+    /**
+     * @param attrs
+     * @param shape
+     *            polygon or polyline if the object has a child with that
+     *            shape, null otherwise
+     */
+    private static TmxElement parseTmxObject(AbstractMap<String, String> attrs, String shape)
+	    throws ParseTmxException {
 	// First we have to decide if this object is a regular object, an object
 	// polygon, polyline or tile
 	TmxObject res;
-	AbstractMap<String, String> attrs = tag.attributes;
 
 	// If it has a child that is a polygon, it's an object polygon; if it
 	// has a polyline it's a polyline
-	boolean isPolygon = false;
-	boolean isPolyline = false;
-	Iterator<XmlTag> iterChildren = tag.children.iterator();
-	while (iterChildren.hasNext() && !(isPolygon || isPolyline)) {
-	    XmlTag child = iterChildren.next();
-	    isPolygon = child.name.equals("polygon");
-	    isPolyline = child.name.equals("polyline");
-	}
+	boolean isPolygon = "polygon".equals(shape);
+	boolean isPolyline = "polyline".equals(shape);
 
 	// If it has a gid attribute, it's an object tile
 	if (attrs.containsKey("gid")) {
@@ -574,7 +1094,7 @@ public class TmxParser {
 
 	    String gidStr = attrs.get("gid");
 	    try {
-		int gid = Integer.parseInt(gidStr);
+		int gid = parseGid(gidStr);
 		tile.setGid(gid);
 	    } catch (NumberFormatException e) {
 		throw new ParseTmxException(String.format("Gid parameter for tile object has to be a number: %s",
@@ -671,11 +1191,9 @@ public class TmxParser {
 	return res;
     }
 
-    private static TmxElement parseTmxObjectGroup(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxObjectGroup(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxObjectGroup objGroup = new TmxObjectGroup();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// getting name
 	if (attrs.containsKey("name")) {
 	    String name = attrs.get("name");
@@ -732,11 +1250,9 @@ public class TmxParser {
 	return objGroup;
     }
 
-    private static TmxElement parseTmxProperty(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxProperty(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxProperty property = new TmxProperty();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// getting name
 	if (attrs.containsKey("name")) {
 	    String name = attrs.get("name");
@@ -756,15 +1272,13 @@ public class TmxParser {
 	return property;
     }
 
-    private static TmxElement parseTmxProperties(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxProperties(AbstractMap<String, String> attrs) throws ParseTmxException {
 	return new TmxProperties();
     }
 
-    private static TmxElement parseTmxTileOffset(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxTileOffset(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxTileOffset tileOffset = new TmxTileOffset();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// getting x
 	if (attrs.containsKey("x")) {
 	    String xStr = attrs.get("x");
@@ -796,11 +1310,9 @@ public class TmxParser {
 	return tileOffset;
     }
 
-    private static TmxElement parseTmxTileset(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxTileset(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxTileset tileset = new TmxTileset();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// getting firstgid
 	if (attrs.containsKey("firstgid")) {
 	    String firstGidStr = attrs.get("firstgid");
@@ -815,8 +1327,8 @@ public class TmxParser {
 	    throw new ParseTmxException("Tileset tag is missing firstgid attribute");
 	}
 
-	// getting source
-	// TODO: if there's a source we need to load it and parse it too
+	// getting source, the external tileset it points to is loaded by
+	// TmxMapLoader
 	if (attrs.containsKey("source")) {
 	    String source = attrs.get("source");
 	    tileset.setSource(source);
@@ -880,11 +1392,9 @@ public class TmxParser {
 	return tileset;
     }
 
-    private static TmxElement parseTmxTile(XmlTag tag) throws ParseTmxException {
+    private static TmxElement parseTmxTile(AbstractMap<String, String> attrs) throws ParseTmxException {
 	TmxTile tile = new TmxTile();
 
-	AbstractMap<String, String> attrs = tag.attributes;
-
 	// Getting id
 	if (attrs.containsKey("id")) {
 	    String idStr = attrs.get("id");
@@ -902,17 +1412,32 @@ public class TmxParser {
 	return tile;
     }
 
-    private static TmxElement parseTmxDataTile(XmlTag tag) throws ParseTmxException {
-	TmxDataTile tile = new TmxDataTile();
+    /**
+     * Parses a global tile id, they are unsigned 32 bit numbers as the flip
+     * flags take the highest bits
+     * 
+     * @param gidStr
+     * @return the global tile id
+     * @throws NumberFormatException
+     */
+    private static int parseGid(String gidStr) throws NumberFormatException {
+	long gid = Long.parseLong(gidStr);
+	if (gid < 0 || gid > 0xFFFFFFFFL) {
+	    throw new NumberFormatException(String.format("Gid out of range: %s", gidStr));
+	}
+
+	return (int) gid;
+    }
 
-	AbstractMap<String, String> attrs = tag.attributes;
+    private static TmxElement parseTmxDataTile(AbstractMap<String, String> attrs) throws ParseTmxException {
+	TmxDataTile tile = new TmxDataTile();
 
 	// Getting gid
 	if (attrs.containsKey("gid")) {
 	    String gidStr = attrs.get("gid");
 
 	    try {
-		int gid = Integer.parseInt(gidStr);
+		int gid = parseGid(gidStr);
 		tile.setGid(gid);
 	    } catch (NumberFormatException e) {
 		throw new ParseTmxException(String.format("Tile gid attribute not a number: %s", gidStr));
@@ -0,0 +1,613 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+/**
+ * Finds shortest paths between tiles of a collision grid with A*, or with Jump
+ * Point Search when moving in 8 directions. Paths go through tile coordinates
+ * of the layers, the same for orthogonal and isometric maps. Diagonal moves
+ * can't cut the corner of a blocked tile.
+ *
+ * The search buffers are allocated with the pathfinder and reused by every
+ * search, once the Path passed in is big enough a search allocates nothing.
+ * A pathfinder is used by one thread at a time, use one per thread to search
+ * the same grid from many threads.
+ */
+public class TmxPathfinder {
+
+	/**
+	 * Cost of a straight move
+	 */
+	public static final int STRAIGHT_COST = 10;
+
+	/**
+	 * Cost of a diagonal move, about STRAIGHT_COST * sqrt(2)
+	 */
+	public static final int DIAGONAL_COST = 14;
+
+	/**
+	 * Tiles of a path found, kept by the caller and passed to every search
+	 */
+	public static class Path {
+		/**
+		 * @return number of tiles, start and goal included, 0 if no path was
+		 *         found
+		 */
+		public int size() {
+			return count;
+		}
+
+		/**
+		 * @param i
+		 *            from 0 to size() - 1
+		 * @return x of the i-th tile
+		 */
+		public int getX(int i) {
+			checkIndex(i);
+			return points[i * 2];
+		}
+
+		/**
+		 * @param i
+		 *            from 0 to size() - 1
+		 * @return y of the i-th tile
+		 */
+		public int getY(int i) {
+			checkIndex(i);
+			return points[i * 2 + 1];
+		}
+
+		/**
+		 * @return cost of the path in STRAIGHT_COST and DIAGONAL_COST units
+		 */
+		public int getCost() {
+			return cost;
+		}
+
+		void clear() {
+			count = 0;
+			cost = 0;
+		}
+
+		void setCost(int cost) {
+			this.cost = cost;
+		}
+
+		void add(int x, int y) {
+			if (count * 2 == points.length) {
+				int[] bigger = new int[Math.max(points.length * 2, 32)];
+				System.arraycopy(points, 0, bigger, 0, count * 2);
+				points = bigger;
+			}
+			points[count * 2] = x;
+			points[count * 2 + 1] = y;
+			count++;
+		}
+
+		/**
+		 * Reverses the tiles, searches add them from the goal
+		 */
+		void reverse() {
+			for (int i = 0, j = count - 1; i < j; i++, j--) {
+				int x = points[i * 2];
+				int y = points[i * 2 + 1];
+				points[i * 2] = points[j * 2];
+				points[i * 2 + 1] = points[j * 2 + 1];
+				points[j * 2] = x;
+				points[j * 2 + 1] = y;
+			}
+		}
+
+		private void checkIndex(int i) {
+			if (i < 0 || i >= count) {
+				throw new IndexOutOfBoundsException(String.format("Path index out of bounds: %d", i));
+			}
+		}
+
+		private int[] points = new int[0];
+		private int count = 0;
+		private int cost = 0;
+	}
+
+	/**
+	 * Creates a pathfinder for 8 direction movement using Jump Point Search
+	 *
+	 * @param grid
+	 *            tiles to avoid, the pathfinder sees later changes to it
+	 */
+	public TmxPathfinder(TmxCollisionGrid grid) {
+		this.grid = grid;
+		this.width = grid.getWidth();
+
+		int size = grid.getWidth() * grid.getHeight();
+		costs = new int[size];
+		scores = new int[size];
+		parents = new int[size];
+		stamps = new int[size];
+		heapPositions = new int[size];
+		heap = new int[size];
+	}
+
+	/**
+	 * @return whether paths can move diagonally
+	 */
+	public boolean isDiagonal() {
+		return diagonal;
+	}
+
+	/**
+	 * @param diagonal
+	 *            true to move in 8 directions, false for 4
+	 */
+	public void setDiagonal(boolean diagonal) {
+		this.diagonal = diagonal;
+	}
+
+	/**
+	 * @return whether Jump Point Search is used when moving diagonally
+	 */
+	public boolean isJumpPoints() {
+		return jumpPoints;
+	}
+
+	/**
+	 * @param jumpPoints
+	 *            true to use Jump Point Search when moving diagonally, it
+	 *            finds paths as short as A* expanding far fewer tiles. Moving
+	 *            in 4 directions always uses A*.
+	 */
+	public void setJumpPoints(boolean jumpPoints) {
+		this.jumpPoints = jumpPoints;
+	}
+
+	/**
+	 * @return maximum number of tiles a search expands, 0 for no limit
+	 */
+	public int getMaxExpanded() {
+		return maxExpanded;
+	}
+
+	/**
+	 * @param maxExpanded
+	 *            maximum number of tiles a search expands before giving up, 0
+	 *            for no limit, it bounds the time taken by searches with no
+	 *            path
+	 */
+	public void setMaxExpanded(int maxExpanded) {
+		this.maxExpanded = maxExpanded;
+	}
+
+	/**
+	 * @return tiles expanded by the last search
+	 */
+	public int getExpandedCount() {
+		return expanded;
+	}
+
+	/**
+	 * Finds a shortest path
+	 *
+	 * @param startX
+	 * @param startY
+	 * @param goalX
+	 * @param goalY
+	 * @param path
+	 *            filled with the path found, emptied if there is none
+	 * @return whether a path was found
+	 */
+	public boolean findPath(int startX, int startY, int goalX, int goalY, Path path) {
+		return findPath(startX, startY, goalX, goalY, 0, 0, width, grid.getHeight(), path);
+	}
+
+	/**
+	 * Finds a shortest path that doesn't leave a rectangle of tiles
+	 *
+	 * @param left
+	 *            first column of the rectangle
+	 * @param top
+	 *            first row of the rectangle
+	 * @param right
+	 *            column after the last one
+	 * @param bottom
+	 *            row after the last one
+	 */
+	boolean findPath(int startX, int startY, int goalX, int goalY, int left, int top, int right, int bottom,
+			Path path) {
+		path.clear();
+		expanded = 0;
+
+		this.left = Math.max(0, left);
+		this.top = Math.max(0, top);
+		this.right = Math.min(width, right);
+		this.bottom = Math.min(grid.getHeight(), bottom);
+		this.goalX = goalX;
+		this.goalY = goalY;
+
+		if (!isFree(startX, startY) || !isFree(goalX, goalY)) {
+			return false;
+		}
+
+		nextSearch();
+		heapSize = 0;
+		int start = startY * width + startX;
+		int goal = goalY * width + goalX;
+		open(start, -1, 0);
+
+		boolean jump = diagonal && jumpPoints;
+		while (heapSize > 0) {
+			int node = pop();
+			if (node == goal) {
+				buildPath(goal, path);
+				return true;
+			}
+			if (maxExpanded > 0 && expanded >= maxExpanded) {
+				return false;
+			}
+			expanded++;
+
+			if (jump) {
+				expandJumpPoints(node);
+			} else {
+				expandNeighbours(node);
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Opens the neighbours of a tile, A*
+	 */
+	private void expandNeighbours(int node) {
+		int x = node % width;
+		int y = node / width;
+
+		for (int dir = 0; dir < 8; dir += diagonal ? 1 : 2) {
+			int dx = DIRECTIONS_X[dir];
+			int dy = DIRECTIONS_Y[dir];
+			if (!isFree(x + dx, y + dy)) {
+				continue;
+			}
+			if (dx != 0 && dy != 0 && (!isFree(x + dx, y) || !isFree(x, y + dy))) {
+				continue;
+			}
+
+			open(node + dy * width + dx, node, dx != 0 && dy != 0 ? DIAGONAL_COST : STRAIGHT_COST);
+		}
+	}
+
+	/**
+	 * Opens the jump points reachable from a tile in the directions its
+	 * parent left open, Jump Point Search
+	 */
+	private void expandJumpPoints(int node) {
+		int x = node % width;
+		int y = node / width;
+
+		int parent = parents[node];
+		if (parent < 0) {
+			for (int dir = 0; dir < 8; dir++) {
+				jumpFrom(node, x, y, DIRECTIONS_X[dir], DIRECTIONS_Y[dir]);
+			}
+			return;
+		}
+
+		int dx = Integer.signum(x - parent % width);
+		int dy = Integer.signum(y - parent / width);
+		if (dx != 0 && dy != 0) {
+			boolean freeX = isFree(x + dx, y);
+			boolean freeY = isFree(x, y + dy);
+			if (freeY) {
+				jumpFrom(node, x, y, 0, dy);
+			}
+			if (freeX) {
+				jumpFrom(node, x, y, dx, 0);
+			}
+			if (freeX && freeY) {
+				jumpFrom(node, x, y, dx, dy);
+			}
+		} else if (dx != 0) {
+			boolean next = isFree(x + dx, y);
+			boolean down = isFree(x, y + 1);
+			boolean up = isFree(x, y - 1);
+			if (next) {
+				jumpFrom(node, x, y, dx, 0);
+				if (down) {
+					jumpFrom(node, x, y, dx, 1);
+				}
+				if (up) {
+					jumpFrom(node, x, y, dx, -1);
+				}
+			}
+			if (down) {
+				jumpFrom(node, x, y, 0, 1);
+			}
+			if (up) {
+				jumpFrom(node, x, y, 0, -1);
+			}
+		} else {
+			boolean next = isFree(x, y + dy);
+			boolean right = isFree(x + 1, y);
+			boolean left = isFree(x - 1, y);
+			if (next) {
+				jumpFrom(node, x, y, 0, dy);
+				if (right) {
+					jumpFrom(node, x, y, 1, dy);
+				}
+				if (left) {
+					jumpFrom(node, x, y, -1, dy);
+				}
+			}
+			if (right) {
+				jumpFrom(node, x, y, 1, 0);
+			}
+			if (left) {
+				jumpFrom(node, x, y, -1, 0);
+			}
+		}
+	}
+
+	/**
+	 * Opens the jump point found going from a tile in a direction, if any
+	 */
+	private void jumpFrom(int node, int x, int y, int dx, int dy) {
+		if (dx != 0 && dy != 0 && (!isFree(x + dx, y) || !isFree(x, y + dy))) {
+			return;
+		}
+
+		int point = jump(x + dx, y + dy, dx, dy);
+		if (point < 0) {
+			return;
+		}
+
+		int steps = Math.max(Math.abs(point % width - x), Math.abs(point / width - y));
+		open(point, node, steps * (dx != 0 && dy != 0 ? DIAGONAL_COST : STRAIGHT_COST));
+	}
+
+	/**
+	 * Goes from a tile in a direction until finding a jump point: the goal, a
+	 * tile with a forced neighbour or, going diagonally, a tile a straight
+	 * jump point can be reached from
+	 *
+	 * @return the jump point, -1 if a blocked tile is reached first
+	 */
+	private int jump(int x, int y, int dx, int dy) {
+		while (true) {
+			if (!isFree(x, y)) {
+				return -1;
+			}
+			if (x == goalX && y == goalY) {
+				return y * width + x;
+			}
+
+			if (dx != 0 && dy != 0) {
+				if (jump(x + dx, y, dx, 0) >= 0 || jump(x, y + dy, 0, dy) >= 0) {
+					return y * width + x;
+				}
+				if (!isFree(x + dx, y) || !isFree(x, y + dy)) {
+					return -1;
+				}
+			} else if (dx != 0) {
+				// A wall behind ending next to the row opens a way around it
+				if ((isFree(x, y - 1) && !isFree(x - dx, y - 1)) || (isFree(x, y + 1) && !isFree(x - dx, y + 1))) {
+					return y * width + x;
+				}
+			} else {
+				if ((isFree(x - 1, y) && !isFree(x - 1, y - dy)) || (isFree(x + 1, y) && !isFree(x + 1, y - dy))) {
+					return y * width + x;
+				}
+			}
+
+			x += dx;
+			y += dy;
+		}
+	}
+
+	/**
+	 * Opens a tile reached from another one, or lowers its cost if this way
+	 * is cheaper
+	 */
+	private void open(int node, int parent, int moveCost) {
+		int cost = parent >= 0 ? costs[parent] + moveCost : 0;
+
+		if (stamps[node] != search) {
+			stamps[node] = search;
+			heapPositions[node] = NOT_OPEN;
+		} else if (heapPositions[node] == CLOSED || cost >= costs[node]) {
+			return;
+		}
+
+		costs[node] = cost;
+		scores[node] = cost + estimate(node % width, node / width);
+		parents[node] = parent;
+
+		if (heapPositions[node] == NOT_OPEN) {
+			heap[heapSize] = node;
+			heapPositions[node] = heapSize;
+			heapSize++;
+		}
+		siftUp(heapPositions[node]);
+	}
+
+	/**
+	 * @return estimated cost from a tile to the goal, never more than the
+	 *         real one
+	 */
+	private int estimate(int x, int y) {
+		int dx = Math.abs(x - goalX);
+		int dy = Math.abs(y - goalY);
+		if (!diagonal) {
+			return STRAIGHT_COST * (dx + dy);
+		}
+		return STRAIGHT_COST * (dx + dy) + (DIAGONAL_COST - 2 * STRAIGHT_COST) * Math.min(dx, dy);
+	}
+
+	/**
+	 * Adds the tiles from the start to a tile to a path, filling the straight
+	 * lines between jump points
+	 */
+	private void buildPath(int node, Path path) {
+		path.setCost(costs[node]);
+
+		int x = node % width;
+		int y = node / width;
+		path.add(x, y);
+		for (int parent = parents[node]; parent >= 0; parent = parents[parent]) {
+			int parentX = parent % width;
+			int parentY = parent / width;
+			int dx = Integer.signum(parentX - x);
+			int dy = Integer.signum(parentY - y);
+			while (x != parentX || y != parentY) {
+				x += dx;
+				y += dy;
+				path.add(x, y);
+			}
+		}
+		path.reverse();
+	}
+
+	private boolean isFree(int x, int y) {
+		return x >= left && x < right && y >= top && y < bottom && !grid.isBlocked(x, y);
+	}
+
+	/**
+	 * Starts a new search, tiles stamped by older searches are unvisited
+	 */
+	private void nextSearch() {
+		search++;
+		if (search == 0) {
+			// The stamp wrapped around, old stamps could match again
+			for (int i = 0; i < stamps.length; i++) {
+				stamps[i] = 0;
+			}
+			search = 1;
+		}
+	}
+
+	/**
+	 * @return the open tile with the lowest score, closing it
+	 */
+	private int pop() {
+		int res = heap[0];
+		heapPositions[res] = CLOSED;
+
+		heapSize--;
+		if (heapSize > 0) {
+			heap[0] = heap[heapSize];
+			heapPositions[heap[0]] = 0;
+			siftDown(0);
+		}
+		return res;
+	}
+
+	/**
+	 * @return whether a goes before b in the heap, ties go to the tile
+	 *         closest to the goal
+	 */
+	private boolean before(int a, int b) {
+		return scores[a] < scores[b] || (scores[a] == scores[b] && costs[a] > costs[b]);
+	}
+
+	private void siftUp(int pos) {
+		int node = heap[pos];
+		while (pos > 0) {
+			int parentPos = (pos - 1) >> 1;
+			if (!before(node, heap[parentPos])) {
+				break;
+			}
+			heap[pos] = heap[parentPos];
+			heapPositions[heap[pos]] = pos;
+			pos = parentPos;
+		}
+		heap[pos] = node;
+		heapPositions[node] = pos;
+	}
+
+	private void siftDown(int pos) {
+		int node = heap[pos];
+		while (true) {
+			int child = pos * 2 + 1;
+			if (child >= heapSize) {
+				break;
+			}
+			if (child + 1 < heapSize && before(heap[child + 1], heap[child])) {
+				child++;
+			}
+			if (!before(heap[child], node)) {
+				break;
+			}
+			heap[pos] = heap[child];
+			heapPositions[heap[pos]] = pos;
+			pos = child;
+		}
+		heap[pos] = node;
+		heapPositions[node] = pos;
+	}
+
+	/**
+	 * Straight directions first, A* moving in 4 directions takes the even
+	 * ones
+	 */
+	private static final int[] DIRECTIONS_X = new int[] { 1, 1, 0, -1, -1, -1, 0, 1 };
+	private static final int[] DIRECTIONS_Y = new int[] { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+	/**
+	 * Heap positions of tiles not in the heap
+	 */
+	private static final int NOT_OPEN = -1;
+	private static final int CLOSED = -2;
+
+	private final TmxCollisionGrid grid;
+	private final int width;
+
+	private boolean diagonal = true;
+	private boolean jumpPoints = true;
+	private int maxExpanded = 0;
+
+	/**
+	 * Search buffers indexed by tile, y * width + x. Only the tiles stamped
+	 * with the current search are valid, so nothing is cleared between
+	 * searches.
+	 */
+	private final int[] costs;
+	private final int[] scores;
+	private final int[] parents;
+	private final int[] stamps;
+
+	/**
+	 * Position of each tile in the heap, NOT_OPEN or CLOSED
+	 */
+	private final int[] heapPositions;
+
+	/**
+	 * Open tiles, a binary heap ordered by score
+	 */
+	private final int[] heap;
+	private int heapSize = 0;
+
+	private int search = 0;
+	private int expanded = 0;
+
+	/**
+	 * Current search
+	 */
+	private int goalX;
+	private int goalY;
+	private int left;
+	private int top;
+	private int right;
+	private int bottom;
+}
@@ -15,6 +15,7 @@
  */
 package com.github.asilvestre.isoplayn.core.tmxparser;
 
+import java.util.Iterator;
 import java.util.TreeMap;
 
 /**
@@ -36,9 +37,24 @@ public class TmxProperties implements TmxElement {
 	 * @param property
 	 */
 	public void addProperty(String name, String value) {
+		TmxFreezer.checkMutable(frozen);
 		properties.put(name, value);
 	}
 
+	/**
+	 * @return the names of all the properties in alphabetical order
+	 */
+	public Iterator<String> getNames() {
+		return TmxFreezer.iterator(properties.keySet(), frozen);
+	}
+
+	/**
+	 * @return number of properties
+	 */
+	public int getCount() {
+		return properties.size();
+	}
+
 	@Override
 	public void accept(TmxElementVisitor visitor) {
 		visitor.visit(this);
@@ -85,4 +101,9 @@ public class TmxProperties implements TmxElement {
 			return false;
 		return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
@@ -30,6 +30,7 @@ public class TmxProperty implements TmxElement {
 	 *            the name to set
 	 */
 	public void setName(String name) {
+		TmxFreezer.checkMutable(frozen);
 		this.name = name;
 	}
 
@@ -45,6 +46,7 @@ public class TmxProperty implements TmxElement {
 	 *            the value to set
 	 */
 	public void setValue(String value) {
+		TmxFreezer.checkMutable(frozen);
 		this.value = value;
 	}
 
@@ -108,4 +110,9 @@ public class TmxProperty implements TmxElement {
 			return false;
 		return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
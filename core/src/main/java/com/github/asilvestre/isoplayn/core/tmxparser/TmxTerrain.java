@@ -31,6 +31,7 @@ public class TmxTerrain implements TmxElement {
      * @param name the name to set
      */
     public void setName(String name) {
+        TmxFreezer.checkMutable(frozen);
         this.name = name;
     }
 
@@ -45,6 +46,7 @@ public class TmxTerrain implements TmxElement {
      * @param tile the tile to set
      */
     public void setTile(int tile) {
+        TmxFreezer.checkMutable(frozen);
         this.tile = tile;
     }
 
@@ -59,6 +61,7 @@ public class TmxTerrain implements TmxElement {
      * @param properties the properties to set
      */
     public void setProperties(TmxProperties properties) {
+        TmxFreezer.checkMutable(frozen);
         this.properties = properties;
     }
 
@@ -66,7 +69,9 @@ public class TmxTerrain implements TmxElement {
     public void accept(TmxElementVisitor visitor) {
 	visitor.visit(this);
 
-	properties.accept(visitor);
+	if (properties != null) {
+		properties.accept(visitor);
+	}
     }
 
     @Override
@@ -132,4 +137,9 @@ public class TmxTerrain implements TmxElement {
 	    return false;
 	return true;
     }
+
+    /**
+     * Whether this element belongs to a frozen map, see TmxMap.freeze
+     */
+    boolean frozen = false;
 }
\ No newline at end of file
@@ -27,6 +27,7 @@ public class TmxTerrainTypes implements TmxElement {
      * @param terrain terrain to add
      */
     public void addTerrain(TmxTerrain terrain) {
+	TmxFreezer.checkMutable(frozen);
 	terrains.add(terrain);
     }
     
@@ -57,7 +58,7 @@ public class TmxTerrainTypes implements TmxElement {
 	visitor.visit(this);
 	
 	for (TmxTerrain terrain : terrains) {
-	    visitor.visit(terrain);
+	    terrain.accept(visitor);
 	}
     }
    
@@ -105,4 +106,9 @@ public class TmxTerrainTypes implements TmxElement {
 	    return false;
 	return true;
     }
+
+    /**
+     * Whether this element belongs to a frozen map, see TmxMap.freeze
+     */
+    boolean frozen = false;
 }
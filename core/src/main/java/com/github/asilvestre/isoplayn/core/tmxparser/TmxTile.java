@@ -41,6 +41,7 @@ public class TmxTile implements TmxElement {
      *            the id to set
      */
     public void setId(int id) {
+	TmxFreezer.checkMutable(frozen);
 	this.id = id;
     }
 
@@ -56,6 +57,7 @@ public class TmxTile implements TmxElement {
      *            the horitzontallyFlipped to set
      */
     public void setHoritzontallyFlipped(boolean horitzontallyFlipped) {
+	TmxFreezer.checkMutable(frozen);
 	this.horitzontallyFlipped = horitzontallyFlipped;
     }
 
@@ -71,6 +73,7 @@ public class TmxTile implements TmxElement {
      *            the verticallyFlipped to set
      */
     public void setVerticallyFlipped(boolean verticallyFlipped) {
+	TmxFreezer.checkMutable(frozen);
 	this.verticallyFlipped = verticallyFlipped;
     }
 
@@ -86,6 +89,7 @@ public class TmxTile implements TmxElement {
      *            the diagonallyFlipped to set
      */
     public void setDiagonallyFlipped(boolean diagonallyFlipped) {
+	TmxFreezer.checkMutable(frozen);
 	this.diagonallyFlipped = diagonallyFlipped;
     }
 
@@ -94,6 +98,7 @@ public class TmxTile implements TmxElement {
      *            the properties to set
      */
     public void setProperties(TmxProperties properties) {
+	TmxFreezer.checkMutable(frozen);
 	this.properties = properties;
     }
 
@@ -109,7 +114,9 @@ public class TmxTile implements TmxElement {
 	visitor.visit(this);
 
 	// visiting all related objects
-	properties.accept(visitor);
+	if (properties != null) {
+		properties.accept(visitor);
+	}
     }
 
     @Override
@@ -188,4 +195,9 @@ public class TmxTile implements TmxElement {
 	    return false;
 	return true;
     }
+
+    /**
+     * Whether this element belongs to a frozen map, see TmxMap.freeze
+     */
+    boolean frozen = false;
 }
@@ -0,0 +1,62 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+/**
+ * Storage for the decoded global tile ids of a tile layer, indexed by tile
+ * coordinates
+ */
+public interface TmxTileGrid {
+
+	/**
+	 * @return width of the grid in tiles
+	 */
+	int getWidth();
+
+	/**
+	 * @return height of the grid in tiles
+	 */
+	int getHeight();
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the global tile id at the given tile coordinates without its
+	 *         flip flags
+	 */
+	int getGid(int x, int y);
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the flip flags of the tile at the given tile coordinates, a
+	 *         combination of TmxData.FLIPPED_HORIZONTALLY, FLIPPED_VERTICALLY
+	 *         and FLIPPED_DIAGONALLY
+	 */
+	int getFlip(int x, int y);
+
+	/**
+	 * Copies a whole row of global tile ids, without their flip flags
+	 * 
+	 * @param y
+	 *            row to copy
+	 * @param dst
+	 *            array to copy the row to, it needs room for getWidth() ids
+	 * @param dstOffset
+	 *            position in dst to copy the first id of the row to
+	 */
+	void getRow(int y, int[] dst, int dstOffset);
+}
@@ -32,6 +32,7 @@ public class TmxTileLayer implements TmxLayer {
 	 *            the layer to set
 	 */
 	public void setName(String name) {
+		TmxFreezer.checkMutable(frozen);
 		this.name = name;
 	}
 
@@ -47,6 +48,7 @@ public class TmxTileLayer implements TmxLayer {
 	 *            the opacity to set
 	 */
 	public void setOpacity(float opacity) {
+		TmxFreezer.checkMutable(frozen);
 		this.opacity = opacity;
 	}
 
@@ -62,6 +64,7 @@ public class TmxTileLayer implements TmxLayer {
 	 *            the visible to set
 	 */
 	public void setVisible(boolean visible) {
+		TmxFreezer.checkMutable(frozen);
 		this.visible = visible;
 	}
 
@@ -77,7 +80,39 @@ public class TmxTileLayer implements TmxLayer {
 	 *            the data to set
 	 */
 	public void setData(TmxData data) {
+		TmxFreezer.checkMutable(frozen);
 		this.data = data;
+		this.tileGrid = null;
+	}
+
+	/**
+	 * @return the grid the tiles of this layer are read from, null if it
+	 *         hasn't been set, see TmxMap.getTileGrid
+	 */
+	public TmxTileGrid getTileGrid() {
+		return tileGrid;
+	}
+
+	/**
+	 * @param tileGrid
+	 *            storage to read the tiles of this layer from
+	 */
+	public void setTileGrid(TmxTileGrid tileGrid) {
+		TmxFreezer.checkMutable(frozen);
+		this.tileGrid = tileGrid;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the global tile id at the given tile coordinates
+	 */
+	public int getGid(int x, int y) {
+		if (tileGrid == null) {
+			throw new IllegalStateException(String.format("Layer %s has no tile grid", name));
+		}
+
+		return tileGrid.getGid(x, y);
 	}
 
 	/**
@@ -85,6 +120,7 @@ public class TmxTileLayer implements TmxLayer {
 	 *            the properties to set
 	 */
 	public void setProperties(TmxProperties properties) {
+		TmxFreezer.checkMutable(frozen);
 		this.properties = properties;
 	}
 
@@ -100,8 +136,12 @@ public class TmxTileLayer implements TmxLayer {
 		visitor.visit(this);
 
 		// visiting all related objects
-		data.accept(visitor);
-		properties.accept(visitor);
+		if (data != null) {
+			data.accept(visitor);
+		}
+		if (properties != null) {
+			properties.accept(visitor);
+		}
 	}
 
 	@Override
@@ -140,6 +180,12 @@ public class TmxTileLayer implements TmxLayer {
 	 */
 	private TmxData data;
 
+	/**
+	 * Decoded tiles laid out by coordinates, storage only so it isn't
+	 * considered in equals
+	 */
+	private TmxTileGrid tileGrid;
+
 	/**
 	 * Properties for this map indexed by name
 	 */
@@ -187,4 +233,9 @@ public class TmxTileLayer implements TmxLayer {
 			return false;
 		return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
@@ -48,6 +48,7 @@ public class TmxTileOffset implements TmxElement {
 	 * @param x the x to set
 	 */
 	public void setX(int x) {
+		TmxFreezer.checkMutable(frozen);
 		this.x = x;
 	}
 
@@ -62,6 +63,7 @@ public class TmxTileOffset implements TmxElement {
 	 * @param y the y to set
 	 */
 	public void setY(int y) {
+		TmxFreezer.checkMutable(frozen);
 		this.y = y;
 	}
 
@@ -93,4 +95,9 @@ public class TmxTileOffset implements TmxElement {
 			return false;
 		return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
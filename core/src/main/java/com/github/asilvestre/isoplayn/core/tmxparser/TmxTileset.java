@@ -21,6 +21,19 @@ import java.util.TreeMap;
 
 public class TmxTileset implements TmxElement {
 
+	/**
+	 * Layout of each tile in the table returned by getTileRects: left, top,
+	 * width and height of the tile in the tileset image, and the offset to
+	 * draw it at
+	 */
+	public static final int RECT_X = 0;
+	public static final int RECT_Y = 1;
+	public static final int RECT_WIDTH = 2;
+	public static final int RECT_HEIGHT = 3;
+	public static final int RECT_OFFSET_X = 4;
+	public static final int RECT_OFFSET_Y = 5;
+	public static final int RECT_STRIDE = 6;
+
 	/**
 	 * @return the firstgid
 	 */
@@ -33,6 +46,7 @@ public class TmxTileset implements TmxElement {
 	 *            the firstgid to set
 	 */
 	public void setFirstgid(int firstgid) {
+		TmxFreezer.checkMutable(frozen);
 		this.firstgid = firstgid;
 	}
 
@@ -48,6 +62,7 @@ public class TmxTileset implements TmxElement {
 	 *            the source to set
 	 */
 	public void setSource(String source) {
+		TmxFreezer.checkMutable(frozen);
 		this.source = source;
 	}
 
@@ -63,6 +78,7 @@ public class TmxTileset implements TmxElement {
 	 *            the name to set
 	 */
 	public void setName(String name) {
+		TmxFreezer.checkMutable(frozen);
 		this.name = name;
 	}
 
@@ -78,7 +94,9 @@ public class TmxTileset implements TmxElement {
 	 *            the tilewidth to set
 	 */
 	public void setTilewidth(int tilewidth) {
+		TmxFreezer.checkMutable(frozen);
 		this.tilewidth = tilewidth;
+		this.tileRects = null;
 	}
 
 	/**
@@ -93,7 +111,9 @@ public class TmxTileset implements TmxElement {
 	 *            the tileheight to set
 	 */
 	public void setTileheight(int tileheight) {
+		TmxFreezer.checkMutable(frozen);
 		this.tileheight = tileheight;
+		this.tileRects = null;
 	}
 
 	/**
@@ -108,7 +128,9 @@ public class TmxTileset implements TmxElement {
 	 *            the spacing to set
 	 */
 	public void setSpacing(int spacing) {
+		TmxFreezer.checkMutable(frozen);
 		this.spacing = spacing;
+		this.tileRects = null;
 	}
 
 	/**
@@ -123,7 +145,9 @@ public class TmxTileset implements TmxElement {
 	 *            the margin to set
 	 */
 	public void setMargin(int margin) {
+		TmxFreezer.checkMutable(frozen);
 		this.margin = margin;
+		this.tileRects = null;
 	}
 
 	/**
@@ -131,6 +155,7 @@ public class TmxTileset implements TmxElement {
 	 *            the properties to set
 	 */
 	public void setProperties(TmxProperties properties) {
+		TmxFreezer.checkMutable(frozen);
 		this.properties = properties;
 	}
 
@@ -153,7 +178,9 @@ public class TmxTileset implements TmxElement {
 	 *            the tileOffset to set
 	 */
 	public void setTileOffset(TmxTileOffset tileOffset) {
+		TmxFreezer.checkMutable(frozen);
 		this.tileOffset = tileOffset;
+		this.tileRects = null;
 	}
 
 	/**
@@ -168,7 +195,94 @@ public class TmxTileset implements TmxElement {
 	 *            the image to set
 	 */
 	public void setImage(TmxImage image) {
+		TmxFreezer.checkMutable(frozen);
 		this.image = image;
+		this.tileRects = null;
+	}
+
+	/**
+	 * @return number of tiles in the tileset image
+	 */
+	public int getTileCount() {
+		return getSharedTileRects().length / RECT_STRIDE;
+	}
+
+	/**
+	 * Table with where each tile is in the tileset image and the offset to
+	 * draw it at, RECT_STRIDE ints per tile indexed by local tile id. It is
+	 * built the first time it is needed from the image size, margin and
+	 * spacing, and built again after changing any of them through this
+	 * tileset, but not after changing the TmxImage itself.
+	 * 
+	 * @return the table, empty if the tileset has no image with a size, it
+	 *         must not be modified. Frozen tilesets return a copy, getTileRect
+	 *         doesn't allocate.
+	 */
+	public int[] getTileRects() {
+		int[] res = getSharedTileRects();
+		return frozen ? res.clone() : res;
+	}
+
+	/**
+	 * @param localId
+	 *            id of the tile inside the tileset, from 0 to getTileCount() -
+	 *            1
+	 * @param field
+	 *            RECT_X, RECT_Y, RECT_WIDTH, RECT_HEIGHT, RECT_OFFSET_X or
+	 *            RECT_OFFSET_Y
+	 * @return a value of the table returned by getTileRects
+	 */
+	public int getTileRect(int localId, int field) {
+		int[] rects = getSharedTileRects();
+		if (localId < 0 || localId >= rects.length / RECT_STRIDE || field < 0 || field >= RECT_STRIDE) {
+			throw new IndexOutOfBoundsException(String.format("Tile rectangle out of bounds: %d,%d", localId,
+					field));
+		}
+
+		return rects[localId * RECT_STRIDE + field];
+	}
+
+	/**
+	 * @return the table of getTileRects without copying it, shared with the
+	 *         package
+	 */
+	int[] getSharedTileRects() {
+		int[] res = tileRects;
+		if (res == null) {
+			res = buildTileRects();
+			tileRects = res;
+		}
+
+		return res;
+	}
+
+	private int[] buildTileRects() {
+		int stepX = tilewidth + spacing;
+		int stepY = tileheight + spacing;
+		if (image == null || tilewidth <= 0 || tileheight <= 0) {
+			return new int[0];
+		}
+
+		int cols = Math.max(0, (image.getWidth() - 2 * margin + spacing) / stepX);
+		int rows = Math.max(0, (image.getHeight() - 2 * margin + spacing) / stepY);
+		int offsetX = tileOffset != null ? tileOffset.getX() : 0;
+		int offsetY = tileOffset != null ? tileOffset.getY() : 0;
+
+		int[] res = new int[cols * rows * RECT_STRIDE];
+		int i = 0;
+		for (int row = 0; row < rows; row++) {
+			for (int col = 0; col < cols; col++) {
+				res[i + RECT_X] = margin + col * stepX;
+				res[i + RECT_Y] = margin + row * stepY;
+				res[i + RECT_WIDTH] = tilewidth;
+				res[i + RECT_HEIGHT] = tileheight;
+				res[i + RECT_OFFSET_X] = offsetX;
+				res[i + RECT_OFFSET_Y] = offsetY;
+				i += RECT_STRIDE;
+			}
+		}
+
+		return res;
 	}
 
 	/**
@@ -176,8 +290,73 @@ public class TmxTileset implements TmxElement {
 	 *            the customTiles to set
 	 */
 	public void addCustomTile(TmxTile tile) {
+		TmxFreezer.checkMutable(frozen);
+		if (sharedCustomTiles) {
+			customTiles = new TreeMap<Integer, TmxTile>(customTiles);
+			sharedCustomTiles = false;
+		}
 		this.customTiles.put(tile.getId(), tile);
 	}
+
+	/**
+	 * Takes everything but the firstgid and the source from the definition
+	 * of an external tileset. The parts of the definition are shared, not
+	 * copied, so tilesets of many maps using the same external tileset take
+	 * the memory of one. Adding custom tiles to either of them doesn't change
+	 * the other.
+	 * 
+	 * @param definition
+	 *            tileset parsed from the external file
+	 */
+	void setDefinition(TmxTileset definition) {
+		name = definition.name;
+		tilewidth = definition.tilewidth;
+		tileheight = definition.tileheight;
+		spacing = definition.spacing;
+		margin = definition.margin;
+		properties = definition.properties;
+		tileOffset = definition.tileOffset;
+		image = definition.image;
+		customTiles = definition.customTiles;
+		terrainTypes = definition.terrainTypes;
+		tileRects = definition.getSharedTileRects();
+
+		sharedCustomTiles = true;
+		definition.sharedCustomTiles = true;
+	}
+
+	/**
+	 * @return the custom tiles ordered by id
+	 */
+	public Iterator<TmxTile> getCustomTiles() {
+		return TmxFreezer.iterator(customTiles.values(), frozen);
+	}
+
+	/**
+	 * @param id
+	 *            local id of the tile
+	 * @return the custom tile with the given id, null if the tile has no
+	 *         custom information
+	 */
+	public TmxTile getCustomTile(int id) {
+		return customTiles.get(id);
+	}
+
+	/**
+	 * @return the terrain types referenced by the tiles
+	 */
+	public TmxTerrainTypes getTerrainTypes() {
+		return terrainTypes;
+	}
+
+	/**
+	 * @param terrainTypes
+	 *            the terrain types to set
+	 */
+	public void setTerrainTypes(TmxTerrainTypes terrainTypes) {
+		TmxFreezer.checkMutable(frozen);
+		this.terrainTypes = terrainTypes;
+	}
 	
 	/**
 	 * @param gid Gid of the tile to get its terrain
@@ -202,8 +381,12 @@ public class TmxTileset implements TmxElement {
 		visitor.visit(this);
 
 		// visiting all related objects
-		properties.accept(visitor);
-		tileOffset.accept(visitor);
+		if (properties != null) {
+			properties.accept(visitor);
+		}
+		if (tileOffset != null) {
+			tileOffset.accept(visitor);
+		}
 
 		if (image != null) {
 			image.accept(visitor);
@@ -213,8 +396,10 @@ public class TmxTileset implements TmxElement {
 		while (iterTiles.hasNext()) {
 			iterTiles.next().accept(visitor);
 		}
-		
-		terrainTypes.accept(visitor);
+
+		if (terrainTypes != null) {
+			terrainTypes.accept(visitor);
+		}
 	}
 
 	@Override
@@ -283,11 +468,22 @@ public class TmxTileset implements TmxElement {
 	 */
 	private TmxImage image;
 
+	/**
+	 * Source rectangle and offset of each tile, null until needed
+	 */
+	private int[] tileRects;
+
 	/**
 	 * Custom tiles within this tileset indexed by id
 	 */
 	private TreeMap<Integer, TmxTile> customTiles = new TreeMap<Integer, TmxTile>();
 	
+	/**
+	 * Whether customTiles is shared with other tilesets of the same external
+	 * tileset, so it has to be copied before changing it
+	 */
+	private boolean sharedCustomTiles = false;
+
 	/**
 	 * Array of terrain types referenced by tiles
 	 */
@@ -368,4 +564,9 @@ public class TmxTileset implements TmxElement {
 		return false;
 	    return true;
 	}
+
+	/**
+	 * Whether this element belongs to a frozen map, see TmxMap.freeze
+	 */
+	boolean frozen = false;
 }
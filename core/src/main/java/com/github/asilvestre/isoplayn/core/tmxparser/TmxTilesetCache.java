@@ -0,0 +1,188 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static playn.core.PlayN.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import playn.core.util.Callback;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * External TSX tilesets by path, each file is fetched and parsed once no
+ * matter how many maps use it. Tilesets in the cache are shared, so they are
+ * frozen together with their tiles, properties and image.
+ */
+public class TmxTilesetCache {
+
+	/**
+	 * Resolves a path relative to a folder, removing . and .. segments so the
+	 * same file always gets the same path
+	 * 
+	 * @param basePath
+	 *            folder, ending in / unless empty
+	 * @param source
+	 *            path relative to the folder
+	 * @return the resolved path
+	 */
+	public static String resolvePath(String basePath, String source) {
+		ArrayList<String> segments = new ArrayList<String>();
+		int leadingUps = 0;
+		for (String segment : (basePath + source).split("/", -1)) {
+			if (segment.equals(".")) {
+				continue;
+			} else if (segment.equals("..")) {
+				if (segments.size() > 0) {
+					segments.remove(segments.size() - 1);
+				} else {
+					leadingUps++;
+				}
+			} else if (segment.length() > 0 || segments.isEmpty()) {
+				segments.add(segment);
+			}
+		}
+
+		StringBuilder res = new StringBuilder();
+		for (int i = 0; i < leadingUps; i++) {
+			res.append("../");
+		}
+		for (int i = 0; i < segments.size(); i++) {
+			res.append(i > 0 ? "/" : "").append(segments.get(i));
+		}
+
+		return res.toString();
+	}
+
+	/**
+	 * @param path
+	 *            path of a file
+	 * @return the folder of the file ending in /, empty if it has none
+	 */
+	public static String getFolder(String path) {
+		return path.substring(0, path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Gets an external tileset, fetching and parsing it the first time. Calls
+	 * for a tileset being fetched wait for that fetch.
+	 * 
+	 * @param path
+	 *            resolved path of the TSX file
+	 * @param callback
+	 *            called with the shared tileset
+	 */
+	public void get(final String path, Callback<TmxTileset> callback) {
+		TmxTileset tileset = tilesets.get(path);
+		if (tileset != null) {
+			callback.onSuccess(tileset);
+			return;
+		}
+
+		ArrayList<Callback<TmxTileset>> callbacks = waiting.get(path);
+		if (callbacks != null) {
+			callbacks.add(callback);
+			return;
+		}
+
+		callbacks = new ArrayList<Callback<TmxTileset>>();
+		callbacks.add(callback);
+		waiting.put(path, callbacks);
+
+		fetchText(path, new Callback<String>() {
+			public void onSuccess(String xml) {
+				try {
+					TmxTileset res = put(path, xml);
+					for (Callback<TmxTileset> callback : waiting.remove(path)) {
+						callback.onSuccess(res);
+					}
+				} catch (ParseTmxException e) {
+					onFailure(e);
+				}
+			}
+
+			public void onFailure(Throwable cause) {
+				for (Callback<TmxTileset> callback : waiting.remove(path)) {
+					callback.onFailure(cause);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param path
+	 *            resolved path of the TSX file
+	 * @return the tileset if it is in the cache, null otherwise
+	 */
+	public TmxTileset get(String path) {
+		return tilesets.get(path);
+	}
+
+	/**
+	 * Parses a tileset, freezes it and puts it in the cache
+	 * 
+	 * @param path
+	 *            resolved path of the TSX file
+	 * @param xml
+	 *            content of the TSX file
+	 * @return the frozen tileset
+	 * @throws ParseTmxException
+	 */
+	public TmxTileset put(String path, String xml) throws ParseTmxException {
+		TmxTileset res = TmxParser.createTmxTilesetFromXml(xml);
+		TmxFreezer.freeze(res);
+		tilesets.put(path, res);
+
+		return res;
+	}
+
+	/**
+	 * @return number of tilesets in the cache
+	 */
+	public int size() {
+		return tilesets.size();
+	}
+
+	/**
+	 * Empties the cache, maps already using its tilesets keep them
+	 */
+	public void clear() {
+		tilesets.clear();
+	}
+
+	/**
+	 * Fetches the content of a TSX file
+	 * 
+	 * @param path
+	 * @param callback
+	 */
+	protected void fetchText(String path, Callback<String> callback) {
+		assets().getText(path, callback);
+	}
+
+	/**
+	 * Parsed tilesets by path
+	 */
+	private final HashMap<String, TmxTileset> tilesets = new HashMap<String, TmxTileset>();
+
+	/**
+	 * Callbacks waiting for the tilesets being fetched by path
+	 */
+	private final HashMap<String, ArrayList<Callback<TmxTileset>>> waiting =
+			new HashMap<String, ArrayList<Callback<TmxTileset>>>();
+}
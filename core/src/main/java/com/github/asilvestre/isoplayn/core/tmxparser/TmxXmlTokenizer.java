@@ -0,0 +1,311 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import java.util.TreeMap;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Minimal pull tokenizer for the XML subset used by TMX files. It walks the
+ * XML string returning one event at a time, so no document tree is built.
+ */
+class TmxXmlTokenizer {
+
+	/**
+	 * Different events the tokenizer can return
+	 */
+	enum Events {
+		START_TAG, END_TAG, TEXT, END_DOCUMENT,
+	}
+
+	/**
+	 * @param xml
+	 *            XML to tokenize
+	 */
+	TmxXmlTokenizer(String xml) {
+		this.xml = xml;
+	}
+
+	/**
+	 * Moves to the next event
+	 *
+	 * @return the type of the event
+	 * @throws ParseTmxException
+	 */
+	Events next() throws ParseTmxException {
+		attributes = null;
+		text = null;
+
+		// A self closing tag gives an end tag right after the start tag
+		if (pendingEnd) {
+			pendingEnd = false;
+			return Events.END_TAG;
+		}
+
+		int len = xml.length();
+		while (pos < len) {
+			if (xml.charAt(pos) != '<') {
+				int end = xml.indexOf('<', pos);
+				end = end != -1 ? end : len;
+				text = decodeEntities(xml.substring(pos, end));
+				pos = end;
+				return Events.TEXT;
+			}
+
+			if (xml.startsWith("<?", pos)) {
+				pos = skipPast("?>");
+			} else if (xml.startsWith("<!--", pos)) {
+				pos = skipPast("-->");
+			} else if (xml.startsWith("<![CDATA[", pos)) {
+				int start = pos + 9;
+				pos = skipPast("]]>");
+				text = xml.substring(start, pos - 3);
+				return Events.TEXT;
+			} else if (xml.startsWith("<!", pos)) {
+				pos = skipPast(">");
+			} else if (xml.startsWith("</", pos)) {
+				pos += 2;
+				name = readName();
+				skipWhitespace();
+				expect('>');
+				return Events.END_TAG;
+			} else {
+				pos++;
+				name = readName();
+				readAttributes();
+				return Events.START_TAG;
+			}
+		}
+
+		return Events.END_DOCUMENT;
+	}
+
+	/**
+	 * @return name of the current start or end tag
+	 */
+	String getName() {
+		return name;
+	}
+
+	/**
+	 * @return attributes of the current start tag
+	 */
+	TreeMap<String, String> getAttributes() {
+		return attributes;
+	}
+
+	/**
+	 * @return the current text
+	 */
+	String getText() {
+		return text;
+	}
+
+	/**
+	 * Remembers the current position so it can be restored with reset, used
+	 * to look ahead in the document
+	 */
+	void mark() {
+		markPos = pos;
+		markPendingEnd = pendingEnd;
+		markName = name;
+		markAttributes = attributes;
+	}
+
+	/**
+	 * Goes back to the position saved with mark
+	 */
+	void reset() {
+		pos = markPos;
+		pendingEnd = markPendingEnd;
+		name = markName;
+		attributes = markAttributes;
+		text = null;
+	}
+
+	private void readAttributes() throws ParseTmxException {
+		attributes = new TreeMap<String, String>();
+
+		while (true) {
+			skipWhitespace();
+
+			if (xml.startsWith("/>", pos)) {
+				pos += 2;
+				pendingEnd = true;
+				return;
+			} else if (xml.startsWith(">", pos)) {
+				pos++;
+				return;
+			}
+
+			String attrName = readName();
+			skipWhitespace();
+			expect('=');
+			skipWhitespace();
+
+			if (pos >= xml.length()) {
+				throw error("Unexpected end of document");
+			}
+			char quote = xml.charAt(pos);
+			if (quote != '"' && quote != '\'') {
+				throw error(String.format("Attribute %s value has to be quoted", attrName));
+			}
+			int end = xml.indexOf(quote, pos + 1);
+			if (end == -1) {
+				throw error(String.format("Unterminated value for attribute %s", attrName));
+			}
+
+			attributes.put(attrName, decodeEntities(xml.substring(pos + 1, end)));
+			pos = end + 1;
+		}
+	}
+
+	private String readName() throws ParseTmxException {
+		int start = pos;
+		int len = xml.length();
+		while (pos < len) {
+			char c = xml.charAt(pos);
+			if (Character.isWhitespace(c) || c == '/' || c == '>' || c == '=') {
+				break;
+			}
+			pos++;
+		}
+
+		if (start == pos) {
+			throw error("Expecting a name");
+		}
+
+		return xml.substring(start, pos);
+	}
+
+	private void skipWhitespace() {
+		int len = xml.length();
+		while (pos < len && Character.isWhitespace(xml.charAt(pos))) {
+			pos++;
+		}
+	}
+
+	private void expect(char c) throws ParseTmxException {
+		if (pos >= xml.length() || xml.charAt(pos) != c) {
+			throw error(String.format("Expecting '%c'", c));
+		}
+		pos++;
+	}
+
+	/**
+	 * @param terminator
+	 * @return the position right after the terminator
+	 * @throws ParseTmxException
+	 */
+	private int skipPast(String terminator) throws ParseTmxException {
+		int end = xml.indexOf(terminator, pos);
+		if (end == -1) {
+			throw error(String.format("Expecting '%s'", terminator));
+		}
+
+		return end + terminator.length();
+	}
+
+	private String decodeEntities(String str) throws ParseTmxException {
+		int amp = str.indexOf('&');
+		if (amp == -1) {
+			return str;
+		}
+
+		StringBuilder res = new StringBuilder(str.length());
+		int last = 0;
+		while (amp != -1) {
+			int semicolon = str.indexOf(';', amp);
+			if (semicolon == -1) {
+				throw error("Unterminated entity");
+			}
+
+			res.append(str, last, amp);
+
+			String entity = str.substring(amp + 1, semicolon);
+			if (entity.equals("amp")) {
+				res.append('&');
+			} else if (entity.equals("lt")) {
+				res.append('<');
+			} else if (entity.equals("gt")) {
+				res.append('>');
+			} else if (entity.equals("quot")) {
+				res.append('"');
+			} else if (entity.equals("apos")) {
+				res.append('\'');
+			} else if (entity.startsWith("#")) {
+				try {
+					boolean hex = entity.startsWith("#x");
+					int code = Integer.parseInt(entity.substring(hex ? 2 : 1), hex ? 16 : 10);
+					res.append((char) code);
+				} catch (NumberFormatException e) {
+					throw error(String.format("Invalid character reference: %s", entity));
+				}
+			} else {
+				throw error(String.format("Unknown entity: %s", entity));
+			}
+
+			last = semicolon + 1;
+			amp = str.indexOf('&', last);
+		}
+		res.append(str, last, str.length());
+
+		return res.toString();
+	}
+
+	private ParseTmxException error(String msg) {
+		return new ParseTmxException(String.format("Error parsing the TMX XML at %d: %s", pos, msg));
+	}
+
+	/**
+	 * XML being tokenized
+	 */
+	private final String xml;
+
+	/**
+	 * Current position in the XML
+	 */
+	private int pos = 0;
+
+	/**
+	 * True when the last start tag was self closing
+	 */
+	private boolean pendingEnd = false;
+
+	/**
+	 * Name of the current tag
+	 */
+	private String name;
+
+	/**
+	 * Attributes of the current start tag
+	 */
+	private TreeMap<String, String> attributes;
+
+	/**
+	 * Current text
+	 */
+	private String text;
+
+	/**
+	 * State saved by mark
+	 */
+	private int markPos = 0;
+	private boolean markPendingEnd = false;
+	private String markName;
+	private TreeMap<String, String> markAttributes;
+}
@@ -0,0 +1,482 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import playn.core.Canvas;
+import playn.core.CanvasImage;
+import playn.core.Image;
+import playn.core.Surface;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxEditableTileGrid;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxMap;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxTileLayer;
+
+/**
+ * Tests for the isometric map renderer
+ */
+public class IsoMapRendererTest {
+
+    @Test
+    public void testRenderOnlyVisibleTiles() {
+	TmxMap map = createMap(100, 100);
+	IsoMapRenderer renderer = new IsoMapRenderer(map);
+	renderer.setTilesetImage(0, createImage(128, 128));
+
+	float camX = 1200, camY = 600, camW = 320, camH = 240;
+	renderer.setCamera(camX, camY, camW, camH);
+
+	RecordingSurface surface = new RecordingSurface();
+	renderer.render(RecordingSurface.create(surface));
+
+	// Counting the tiles whose images touch the camera one by one
+	int expected = 0;
+	for (int y = 0; y < 100; y++) {
+	    for (int x = 0; x < 100; x++) {
+		float left = (x - y) * 16 + 100 * 16 - 16;
+		float top = (x + y) * 8 + 16 - 32;
+		if (left < camX + camW && left + 32 > camX && top < camY + camH && top + 32 > camY) {
+		    expected++;
+		}
+	    }
+	}
+
+	assertEquals(surface.draws.size(), renderer.getDrawnTileCount());
+	assertTrue(expected > 0);
+	assertTrue(renderer.getDrawnTileCount() >= expected);
+	// Culling is conservative by at most a ring of tiles
+	assertTrue(renderer.getDrawnTileCount() < expected * 1.5);
+
+	for (float[] draw : surface.draws) {
+	    assertTrue(draw[0] < camX + camW + 32 && draw[0] + 32 > camX - 32);
+	    assertTrue(draw[1] < camY + camH + 32 && draw[1] + 32 > camY - 32);
+	}
+
+	// Rows are drawn from back to front
+	for (int i = 1; i < surface.draws.size(); i++) {
+	    assertTrue(surface.draws.get(i - 1)[1] <= surface.draws.get(i)[1]);
+	}
+    }
+
+    @Test
+    public void testRenderCostDependsOnCamera() {
+	IsoMapRenderer small = new IsoMapRenderer(createMap(50, 50));
+	IsoMapRenderer big = new IsoMapRenderer(createMap(400, 400));
+	small.setTilesetImage(0, createImage(128, 128));
+	big.setTilesetImage(0, createImage(128, 128));
+	small.setCamera(600, 300, 320, 240);
+	big.setCamera(600 + 5600, 300 + 2800, 320, 240);
+
+	small.render(RecordingSurface.create(new RecordingSurface()));
+	big.render(RecordingSurface.create(new RecordingSurface()));
+
+	assertEquals(small.getDrawnTileCount(), big.getDrawnTileCount());
+    }
+
+    @Test
+    public void testSkipInvisibleLayersAndMissingImages() {
+	IsoMapRenderer renderer = new IsoMapRenderer(createMap(10, 10));
+	renderer.setCamera(0, 0, 1000, 1000);
+
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertEquals(0, renderer.getDrawnTileCount());
+
+	TmxMap hidden = parse("<map version='1.0' orientation='isometric' width='1' height='1' tilewidth='32' "
+		+ "tileheight='16'><tileset firstgid='1' name='t' tilewidth='32' tileheight='32'>"
+		+ "<image source='t.png' width='128' height='128'/></tileset>"
+		+ "<layer name='l' visible='0'><data encoding='csv'>1</data></layer></map>");
+	renderer = new IsoMapRenderer(hidden);
+	renderer.setTilesetImage(0, createImage(128, 128));
+	renderer.setCamera(0, 0, 1000, 1000);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertEquals(0, renderer.getDrawnTileCount());
+    }
+
+    @Test
+    public void testBatchByTileset() {
+	// Checkerboard of two tilesets fitting the cells with a diagonal of
+	// tall tiles from a third one
+	StringBuilder csv = new StringBuilder();
+	for (int y = 0; y < 10; y++) {
+	    for (int x = 0; x < 10; x++) {
+		csv.append(x + y > 0 ? "," : "").append(x == y ? 33 : (x + y) % 2 == 0 ? 1 : 17);
+	    }
+	}
+	TmxMap map = parse("<map version='1.0' orientation='isometric' width='10' height='10' tilewidth='32' "
+		+ "tileheight='16'><tileset firstgid='1' name='a' tilewidth='32' tileheight='16'>"
+		+ "<image source='a.png' width='64' height='64'/></tileset>"
+		+ "<tileset firstgid='17' name='b' tilewidth='32' tileheight='16'>"
+		+ "<image source='b.png' width='64' height='64'/></tileset>"
+		+ "<tileset firstgid='33' name='c' tilewidth='32' tileheight='32'>"
+		+ "<image source='c.png' width='64' height='64'/></tileset>"
+		+ "<layer name='l'><data encoding='csv'>" + csv + "</data></layer></map>");
+
+	Image[] images = { createImage(64, 64), createImage(64, 64), createImage(64, 64) };
+	IsoMapRenderer renderer = new IsoMapRenderer(map);
+	for (int i = 0; i < images.length; i++) {
+	    renderer.setTilesetImage(i, images[i]);
+	}
+	renderer.setCamera(0, 0, 1000, 1000);
+
+	RecordingSurface surface = new RecordingSurface();
+	renderer.render(RecordingSurface.create(surface));
+
+	assertEquals(100, renderer.getDrawnTileCount());
+	assertEquals(3, renderer.getBatchCount());
+
+	// Tiles fitting their cells go first, tall tiles last from back to
+	// front
+	int[] expected = { 0, 0, 0 };
+	for (int i = 0; i < surface.images.size(); i++) {
+	    int index = i < 40 ? 0 : i < 90 ? 1 : 2;
+	    assertSame(images[index], surface.images.get(i));
+	    expected[index]++;
+	}
+	assertArrayEquals(new int[] { 40, 50, 10 }, expected);
+	for (int i = 91; i < surface.draws.size(); i++) {
+	    assertTrue(surface.draws.get(i - 1)[1] < surface.draws.get(i)[1]);
+	}
+    }
+
+    @Test
+    public void testTilesReachingCellsInFront() {
+	// A tile drawn 8 pixels down over the cells in front of its own
+	TmxMap map = parse("<map version='1.0' orientation='isometric' width='3' height='3' tilewidth='32' "
+		+ "tileheight='16'><tileset firstgid='1' name='a' tilewidth='32' tileheight='16'>"
+		+ "<image source='a.png' width='64' height='64'/></tileset>"
+		+ "<tileset firstgid='17' name='b' tilewidth='32' tileheight='16'><tileoffset x='0' y='8'/>"
+		+ "<image source='b.png' width='64' height='64'/></tileset>"
+		+ "<layer name='l'><data encoding='csv'>1,1,1,1,17,1,1,1,1</data></layer></map>");
+
+	Image[] images = { createImage(64, 64), createImage(64, 64) };
+	IsoMapRenderer renderer = new IsoMapRenderer(map);
+	renderer.setTilesetImage(0, images[0]);
+	renderer.setTilesetImage(1, images[1]);
+	renderer.setCamera(0, 0, 1000, 1000);
+
+	RecordingSurface surface = new RecordingSurface();
+	renderer.render(RecordingSurface.create(surface));
+	assertEquals(9, renderer.getDrawnTileCount());
+	assertEquals(3, renderer.getBatchCount());
+
+	// It goes after the 5 tiles of rows 0 to 2 and before the ones of rows
+	// 3 and 4, which cover it
+	assertEquals(5, surface.images.indexOf(images[1]));
+	assertEquals(2 * 8 + 8, surface.draws.get(5)[1], 0);
+	for (int i = 0; i < surface.draws.size(); i++) {
+	    float cellY = surface.draws.get(i)[1];
+	    if (i < 5) {
+		assertTrue(cellY <= 2 * 8);
+	    } else if (i > 5) {
+		assertTrue(cellY >= 3 * 8);
+	    }
+	}
+    }
+
+    @Test
+    public void testBatchCountDoesNotDependOnCamera() {
+	IsoMapRenderer renderer = new IsoMapRenderer(createMap(100, 100));
+	renderer.setTilesetImage(0, createImage(128, 128));
+
+	renderer.setCamera(1200, 600, 320, 240);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertEquals(1, renderer.getBatchCount());
+
+	renderer.setCamera(0, 0, 3200, 1600);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertEquals(1, renderer.getBatchCount());
+    }
+
+    @Test
+    public void testSpritesBetweenTiles() {
+	TmxMap map = createMap(10, 10);
+	TmxTileLayer layer = getLayer(map);
+	IsoMapRenderer renderer = new IsoMapRenderer(map);
+	renderer.setTilesetImage(0, createImage(128, 128));
+	renderer.setCamera(0, 0, 1000, 1000);
+
+	Image image = createImage(16, 48);
+	IsoSprite sprite = new IsoSprite(image, 8, 48);
+	sprite.setPosition(4.5f, 4.5f);
+	IsoSpriteLayer sprites = new IsoSpriteLayer();
+	sprites.add(sprite);
+	IsoSprite tile = new IsoSprite(1, 0);
+	tile.setPosition(2, 2);
+	sprites.add(tile);
+	renderer.setSprites(layer, sprites);
+	renderer.setLayerCached(layer, true);
+
+	RecordingSurface surface = new RecordingSurface();
+	renderer.render(RecordingSurface.create(surface));
+	assertEquals(100, renderer.getDrawnTileCount());
+	assertEquals(2, renderer.getDrawnSpriteCount());
+
+	// The sprite goes after the tiles of row 8 and before the ones of row 9
+	int index = surface.images.indexOf(image);
+	assertEquals(8 * 8 - 16, surface.draws.get(index - 1)[1], 0);
+	assertEquals(9 * 8 - 16, surface.draws.get(index + 1)[1], 0);
+	assertEquals(160 - 8, surface.draws.get(index)[0], 0);
+	assertEquals(9 * 8 - 48, surface.draws.get(index)[1], 0);
+
+	// Moving it changes where it is drawn
+	sprite.setPosition(0.5f, 0.5f);
+	surface = new RecordingSurface();
+	renderer.render(RecordingSurface.create(surface));
+	index = surface.images.indexOf(image);
+	assertEquals(-16, surface.draws.get(index - 1)[1], 0);
+	assertEquals(1 * 8 - 16, surface.draws.get(index + 1)[1], 0);
+
+	// Sprites far from the camera are not drawn
+	renderer.setCamera(1000, 1000, 100, 100);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertEquals(0, renderer.getDrawnSpriteCount());
+    }
+
+    @Test
+    public void testCachedLayer() {
+	TmxMap map = createMap(100, 100);
+	CachingRenderer renderer = new CachingRenderer(map);
+	renderer.setTilesetImage(0, createImage(128, 128));
+	renderer.setLayerCached(getLayer(map), true);
+	renderer.setBlockSize(256);
+	renderer.setCamera(1200, 600, 320, 240);
+
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertTrue(renderer.getRedrawnBlockCount() > 0);
+	assertEquals(renderer.getRedrawnBlockCount(), renderer.getCachedBlockCount());
+	assertTrue(renderer.getDrawnTileCount() > 0);
+
+	// Moving inside the same blocks draws no tile
+	renderer.setCamera(1210, 605, 320, 240);
+	RecordingSurface surface = new RecordingSurface();
+	renderer.render(RecordingSurface.create(surface));
+	assertEquals(0, renderer.getRedrawnBlockCount());
+	assertEquals(0, renderer.getDrawnTileCount());
+	assertEquals(renderer.getCachedBlockCount(), surface.draws.size());
+	for (Image image : surface.images) {
+	    assertTrue(renderer.blockImages.contains(image));
+	}
+
+	// Uncached layers are drawn tile by tile again
+	renderer.setLayerCached(getLayer(map), false);
+	assertEquals(0, renderer.getCachedBlockCount());
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertTrue(renderer.getDrawnTileCount() > 0);
+    }
+
+    @Test
+    public void testInvalidateCachedLayer() {
+	TmxMap map = createMap(100, 100);
+	TmxTileLayer layer = getLayer(map);
+	CachingRenderer renderer = new CachingRenderer(map);
+	renderer.setTilesetImage(0, createImage(128, 128));
+	renderer.setLayerCached(layer, true);
+	renderer.setBlockSize(256);
+	renderer.setCamera(1200, 600, 1024, 1024);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	int blocks = renderer.getCachedBlockCount();
+
+	// A tile in the middle of the camera only touches a few blocks
+	renderer.invalidateTile(layer, 60, 40);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertTrue(renderer.getRedrawnBlockCount() > 0);
+	assertTrue(renderer.getRedrawnBlockCount() <= 4);
+	assertTrue(renderer.getRedrawnBlockCount() < blocks);
+
+	// New layer data redraws everything
+	layer.setData(getLayer(createMap(100, 100)).getData());
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertEquals(blocks, renderer.getRedrawnBlockCount());
+	assertEquals(blocks, renderer.getCachedBlockCount());
+    }
+
+    @Test
+    public void testEditedTileRedrawsCachedBlocks() {
+	TmxMap map = createMap(100, 100);
+	TmxTileLayer layer = getLayer(map);
+	TmxEditableTileGrid grid = TmxEditableTileGrid.edit(map, layer);
+	CachingRenderer renderer = new CachingRenderer(map);
+	renderer.setTilesetImage(0, createImage(128, 128));
+	renderer.setLayerCached(layer, true);
+	renderer.setBlockSize(256);
+	renderer.setCamera(1200, 600, 1024, 1024);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	int blocks = renderer.getCachedBlockCount();
+
+	// Nothing changed, nothing is drawn again
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertEquals(0, renderer.getRedrawnBlockCount());
+
+	// Only the blocks the changed chunk is drawn in are drawn again
+	grid.setGid(60, 40, 2);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertTrue(renderer.getRedrawnBlockCount() > 0);
+	assertTrue(renderer.getRedrawnBlockCount() < blocks);
+
+	// Setting the same tile again changes nothing
+	grid.setGid(60, 40, 2);
+	renderer.render(RecordingSurface.create(new RecordingSurface()));
+	assertEquals(0, renderer.getRedrawnBlockCount());
+    }
+
+    @Test
+    public void testCachedBlocksLimit() {
+	TmxMap map = createMap(100, 100);
+	CachingRenderer renderer = new CachingRenderer(map);
+	renderer.setTilesetImage(0, createImage(128, 128));
+	renderer.setLayerCached(getLayer(map), true);
+	renderer.setBlockSize(256);
+	renderer.setMaxCachedBlocks(8);
+
+	for (int i = 0; i < 10; i++) {
+	    renderer.setCamera(i * 256, 600, 256, 256);
+	    renderer.render(RecordingSurface.create(new RecordingSurface()));
+	    assertTrue(renderer.getCachedBlockCount() <= 8);
+	}
+	assertEquals(8, renderer.getCachedBlockCount());
+	assertTrue(renderer.blockImages.size() > 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOrthogonalMap() {
+	new IsoMapRenderer(parse("<map version='1.0' orientation='orthogonal' width='1' height='1' "
+		+ "tilewidth='32' tileheight='16'></map>"));
+    }
+
+    /**
+     * Creates an isometric map with 32x16 cells full of tile 1 of a tileset
+     * with 32x32 tiles
+     */
+    static TmxMap createMap(int width, int height) {
+	StringBuilder csv = new StringBuilder();
+	for (int i = 0; i < width * height; i++) {
+	    csv.append(i > 0 ? ",1" : "1");
+	}
+
+	return parse("<map version='1.0' orientation='isometric' width='" + width + "' height='" + height
+		+ "' tilewidth='32' tileheight='16'><tileset firstgid='1' name='t' tilewidth='32' tileheight='32'>"
+		+ "<image source='t.png' width='128' height='128'/></tileset>"
+		+ "<layer name='l'><data encoding='csv'>" + csv + "</data></layer></map>");
+    }
+
+    static TmxMap parse(String xml) {
+	try {
+	    return TmxParser.createTmxMapFromXml(xml);
+	} catch (ParseTmxException e) {
+	    throw new AssertionError("Error parsing " + e.toString());
+	}
+    }
+
+    /**
+     * Creates a ready image of the given size
+     */
+    static Image createImage(final float width, final float height) {
+	return (Image) Proxy.newProxyInstance(Image.class.getClassLoader(), new Class<?>[] { Image.class },
+		new InvocationHandler() {
+		    public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("width")) {
+			    return width;
+			} else if (method.getName().equals("height")) {
+			    return height;
+			} else if (method.getName().equals("isReady")) {
+			    return true;
+			} else if (method.getName().equals("equals")) {
+			    return proxy == args[0];
+			}
+			return null;
+		    }
+		});
+    }
+
+    static TmxTileLayer getLayer(TmxMap map) {
+	return (TmxTileLayer) map.getLayers().next();
+    }
+
+    /**
+     * Renderer caching blocks in images that draw nothing
+     */
+    static class CachingRenderer extends IsoMapRenderer {
+	CachingRenderer(TmxMap map) {
+	    super(map);
+	}
+
+	@Override
+	protected CanvasImage createBlockImage(final float width, final float height) {
+	    final Canvas canvas = (Canvas) Proxy.newProxyInstance(Canvas.class.getClassLoader(),
+		    new Class<?>[] { Canvas.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+			    if (method.getReturnType() == float.class) {
+				return method.getName().equals("width") ? width : height;
+			    }
+			    return method.getReturnType() == Canvas.class ? proxy : null;
+			}
+		    });
+
+	    CanvasImage image = (CanvasImage) Proxy.newProxyInstance(CanvasImage.class.getClassLoader(),
+		    new Class<?>[] { CanvasImage.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+			    if (method.getName().equals("canvas")) {
+				return canvas;
+			    } else if (method.getName().equals("width")) {
+				return width;
+			    } else if (method.getName().equals("height")) {
+				return height;
+			    } else if (method.getName().equals("isReady")) {
+				return true;
+			    } else if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			    }
+			    return null;
+			}
+		    });
+	    blockImages.add(image);
+	    return image;
+	}
+
+	final ArrayList<Image> blockImages = new ArrayList<Image>();
+    }
+
+    /**
+     * Records the destination of the images drawn on a surface
+     */
+    static class RecordingSurface implements InvocationHandler {
+	static Surface create(RecordingSurface handler) {
+	    return (Surface) Proxy.newProxyInstance(Surface.class.getClassLoader(), new Class<?>[] { Surface.class },
+		    handler);
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) {
+	    if (method.getName().equals("drawImage")) {
+		draws.add(new float[] { (Float) args[1], (Float) args[2] });
+		images.add((Image) args[0]);
+	    }
+	    return method.getReturnType() == Surface.class ? proxy : null;
+	}
+
+	final ArrayList<float[]> draws = new ArrayList<float[]>();
+	final ArrayList<Image> images = new ArrayList<Image>();
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxData;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxMap;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxObjectGroup;
+
+/**
+ * Tests for the depth sorted sprite layer
+ */
+public class IsoSpriteLayerTest {
+
+    @Test
+    public void testIncrementalSort() {
+	Random random = new Random(42);
+	IsoSpriteLayer layer = new IsoSpriteLayer();
+	ArrayList<IsoSprite> sprites = new ArrayList<IsoSprite>();
+	for (int i = 0; i < 2000; i++) {
+	    IsoSprite sprite = new IsoSprite(null, 0, 0);
+	    sprite.setPosition(random.nextFloat() * 100, random.nextFloat() * 100);
+	    layer.add(sprite);
+	    sprites.add(sprite);
+	}
+	assertEquals(2000, layer.getSpriteCount());
+	assertEquals(0, layer.sort());
+	assertSorted(layer);
+
+	// Only the moved sprites are sorted again, moving one twice counts once
+	for (int i = 0; i < 10; i++) {
+	    sprites.get(i * 100).setPosition(random.nextFloat() * 100, random.nextFloat() * 100);
+	}
+	sprites.get(0).setPosition(50, 50);
+	assertEquals(10, layer.sort());
+	assertSorted(layer);
+	assertEquals(0, layer.sort());
+
+	// Removed sprites are not sorted even if they moved
+	sprites.get(100).setPosition(1, 1);
+	assertTrue(layer.remove(sprites.get(100)));
+	assertFalse(layer.remove(sprites.get(100)));
+	assertEquals(0, layer.sort());
+	assertEquals(1999, layer.getSpriteCount());
+	sprites.get(100).setPosition(2, 2);
+	assertEquals(0, layer.sort());
+    }
+
+    @Test
+    public void testSpritesFromRow() {
+	IsoSpriteLayer layer = new IsoSpriteLayer();
+	for (int i = 0; i < 10; i++) {
+	    IsoSprite sprite = new IsoSprite(null, 0, 0);
+	    sprite.setPosition(i + 0.5f, 0.5f);
+	    layer.add(sprite);
+	}
+
+	Iterator<IsoSprite> iterSprites = layer.getSpritesFrom(4);
+	assertEquals(4.5f, iterSprites.next().getX(), 0);
+	assertEquals(5.5f, iterSprites.next().getX(), 0);
+    }
+
+    @Test
+    public void testAddObjects() {
+	TmxMap map = IsoMapRendererTest.parse("<map version='1.0' orientation='isometric' width='10' height='10' "
+		+ "tilewidth='32' tileheight='16'><objectgroup name='o'>"
+		+ "<object gid='1' x='64' y='32'/><object gid='2147483650' x='8' y='24'/>"
+		+ "<object x='0' y='0' width='16' height='16'/><object gid='1' x='0' y='0' visible='0'/>"
+		+ "</objectgroup></map>");
+
+	IsoSpriteLayer layer = new IsoSpriteLayer();
+	ArrayList<IsoSprite> sprites = layer.addObjects((TmxObjectGroup) map.getLayers().next(), map);
+
+	assertEquals(2, sprites.size());
+	assertEquals(2, layer.getSpriteCount());
+	assertEquals(4, sprites.get(0).getX(), 0);
+	assertEquals(2, sprites.get(0).getY(), 0);
+	assertEquals(1, sprites.get(0).getGid());
+	assertEquals(2, sprites.get(1).getGid());
+	assertEquals(TmxData.FLIPPED_HORIZONTALLY, sprites.get(1).getFlip());
+
+	// Drawn from back to front
+	Iterator<IsoSprite> iterSprites = layer.getSprites();
+	assertSame(sprites.get(1), iterSprites.next());
+	assertSame(sprites.get(0), iterSprites.next());
+    }
+
+    private static void assertSorted(IsoSpriteLayer layer) {
+	Iterator<IsoSprite> iterSprites = layer.getSprites();
+	IsoSprite previous = iterSprites.next();
+	while (iterSprites.hasNext()) {
+	    IsoSprite sprite = iterSprites.next();
+	    int previousRow = (int) Math.floor(previous.getX()) + (int) Math.floor(previous.getY());
+	    int row = (int) Math.floor(sprite.getX()) + (int) Math.floor(sprite.getY());
+	    assertTrue(previousRow < row
+		    || (previousRow == row && previous.getX() + previous.getY() <= sprite.getX() + sprite.getY()));
+	    previous = sprite;
+	}
+    }
+}
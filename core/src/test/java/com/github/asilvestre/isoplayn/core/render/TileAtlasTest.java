@@ -0,0 +1,241 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.render;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import playn.core.CanvasImage;
+import playn.core.Image;
+
+import com.github.asilvestre.isoplayn.core.render.IsoMapRendererTest.RecordingSurface;
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxMap;
+
+/**
+ * Tests for the tile atlas
+ */
+public class TileAtlasTest {
+
+    @Test
+    public void testPackWithMarginAndSpacing() {
+	// 2x2 tiles of 4x4 pixels with a margin of 1 and a spacing of 2
+	TmxMap map = IsoMapRendererTest.parse("<map version='1.0' orientation='isometric' width='1' height='1' "
+		+ "tilewidth='4' tileheight='4'><tileset firstgid='1' name='t' tilewidth='4' tileheight='4' "
+		+ "margin='1' spacing='2'><image source='t.png' width='12' height='12'/></tileset></map>");
+
+	MemoryAtlas atlas = new MemoryAtlas(64);
+	atlas.pack(map, new Image[] { createImage(12, 12, null) });
+
+	assertEquals(1, atlas.getPageCount());
+	assertTrue(atlas.hasTileset(0));
+	assertEquals(-1, atlas.getSlot(0, 4));
+	assertEquals(-1, atlas.getSlot(1, 0));
+
+	for (int tile = 0; tile < 4; tile++) {
+	    int slot = atlas.getSlot(0, tile);
+	    int srcX = 1 + (tile % 2) * 6;
+	    int srcY = 1 + (tile / 2) * 6;
+	    for (int y = 0; y < 4; y++) {
+		for (int x = 0; x < 4; x++) {
+		    assertEquals(pixel(srcX + x, srcY + y), atlas.getPixel(atlas.getSlotPage(slot), atlas.getSlotX(slot)
+			    + x, atlas.getSlotY(slot) + y));
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testTransColour() {
+	TmxMap map = IsoMapRendererTest.parse("<map version='1.0' orientation='isometric' width='1' height='1' "
+		+ "tilewidth='4' tileheight='4'><tileset firstgid='1' name='t' tilewidth='4' tileheight='4'>"
+		+ "<image source='t.png' trans='ff00ff' width='4' height='4'/></tileset></map>");
+
+	MemoryAtlas atlas = new MemoryAtlas(64);
+	atlas.pack(map, new Image[] { createImage(4, 4, 0xffff00ff) });
+
+	int slot = atlas.getSlot(0, 0);
+	assertEquals(0, atlas.getPixel(0, atlas.getSlotX(slot) + 1, atlas.getSlotY(slot) + 1));
+	assertEquals(pixel(2, 1), atlas.getPixel(0, atlas.getSlotX(slot) + 2, atlas.getSlotY(slot) + 1));
+    }
+
+    @Test
+    public void testTilesetWithoutTileSize() {
+	// A ready image on a tileset without tile dimensions gives no tiles
+	TmxMap map = IsoMapRendererTest.parse("<map version='1.0' orientation='isometric' width='1' height='1' "
+		+ "tilewidth='4' tileheight='4'><tileset firstgid='1' name='t'>"
+		+ "<image source='t.png' width='8' height='8'/></tileset></map>");
+
+	MemoryAtlas atlas = new MemoryAtlas(64);
+	atlas.pack(map, new Image[] { createImage(8, 8, null) });
+
+	assertFalse(atlas.hasTileset(0));
+	assertEquals(-1, atlas.getSlot(0, 0));
+    }
+
+    @Test
+    public void testSeveralPages() {
+	TmxMap map = IsoMapRendererTest.parse("<map version='1.0' orientation='isometric' width='1' height='1' "
+		+ "tilewidth='8' tileheight='4'><tileset firstgid='1' name='a' tilewidth='8' tileheight='4'>"
+		+ "<image source='a.png' width='32' height='32'/></tileset>"
+		+ "<tileset firstgid='33' name='b' tilewidth='8' tileheight='8'>"
+		+ "<image source='b.png' width='16' height='16'/></tileset>"
+		+ "<tileset firstgid='37' name='c' tilewidth='8' tileheight='8'>"
+		+ "<image source='c.png' width='16' height='16'/></tileset></map>");
+
+	MemoryAtlas atlas = new MemoryAtlas(32);
+	atlas.pack(map, new Image[] { createImage(32, 32, null), createImage(16, 16, null), null });
+
+	assertTrue(atlas.getPageCount() > 1);
+	assertFalse(atlas.hasTileset(2));
+
+	// No tile goes out of its page or over another tile
+	ArrayList<int[]> placed = new ArrayList<int[]>();
+	for (int tileset = 0; tileset < 2; tileset++) {
+	    int w = 8;
+	    int h = tileset == 0 ? 4 : 8;
+	    for (int tile = 0; tile < (tileset == 0 ? 32 : 4); tile++) {
+		int slot = atlas.getSlot(tileset, tile);
+		int page = atlas.getSlotPage(slot);
+		int x = atlas.getSlotX(slot);
+		int y = atlas.getSlotY(slot);
+		assertTrue(x + w <= atlas.getPage(page).width() && y + h <= atlas.getPage(page).height());
+		for (int[] other : placed) {
+		    assertFalse(other[0] == page && x < other[1] + other[3] && other[1] < x + w && y < other[2] + other[4]
+			    && other[2] < y + h);
+		}
+		placed.add(new int[] { page, x, y, w, h });
+	    }
+	}
+    }
+
+    @Test
+    public void testRenderFromAtlas() {
+	TmxMap map = IsoMapRendererTest.parse("<map version='1.0' orientation='isometric' width='2' height='1' "
+		+ "tilewidth='32' tileheight='16'><tileset firstgid='1' name='a' tilewidth='32' tileheight='16'>"
+		+ "<image source='a.png' width='64' height='64'/></tileset>"
+		+ "<tileset firstgid='9' name='b' tilewidth='32' tileheight='16'>"
+		+ "<image source='b.png' width='64' height='64'/></tileset>"
+		+ "<layer name='l'><data encoding='csv'>1,9</data></layer></map>");
+
+	IsoMapRenderer renderer = new IsoMapRenderer(map);
+	renderer.setTilesetImage(0, createImage(64, 64, null));
+	renderer.setTilesetImage(1, createImage(64, 64, null));
+	renderer.setCamera(0, 0, 1000, 1000);
+
+	MemoryAtlas atlas = new MemoryAtlas(256);
+	atlas.pack(map, new Image[] { renderer.getTilesetImage(0), renderer.getTilesetImage(1) });
+	renderer.setAtlas(atlas);
+
+	RecordingSurface surface = new RecordingSurface();
+	renderer.render(RecordingSurface.create(surface));
+	assertEquals(2, renderer.getDrawnTileCount());
+	assertEquals(1, renderer.getBatchCount());
+	assertSame(atlas.getPage(0), surface.images.get(0));
+	assertSame(atlas.getPage(0), surface.images.get(1));
+    }
+
+    private static int pixel(int x, int y) {
+	return 0xff000000 | (y << 8) | x;
+    }
+
+    /**
+     * Creates a ready image whose pixels tell their position, optionally with
+     * a pixel of a colour at 1,1
+     */
+    static Image createImage(final int width, final int height, final Integer colour) {
+	return (Image) Proxy.newProxyInstance(Image.class.getClassLoader(), new Class<?>[] { Image.class },
+		new InvocationHandler() {
+		    public Object invoke(Object proxy, Method method, Object[] args) {
+			if (method.getName().equals("width")) {
+			    return (float) width;
+			} else if (method.getName().equals("height")) {
+			    return (float) height;
+			} else if (method.getName().equals("isReady")) {
+			    return true;
+			} else if (method.getName().equals("getRgb")) {
+			    int startX = (Integer) args[0], startY = (Integer) args[1];
+			    int w = (Integer) args[2], h = (Integer) args[3];
+			    int[] rgb = (int[]) args[4];
+			    int offset = (Integer) args[5], scanSize = (Integer) args[6];
+			    for (int y = 0; y < h; y++) {
+				for (int x = 0; x < w; x++) {
+				    boolean coloured = colour != null && startX + x == 1 && startY + y == 1;
+				    rgb[offset + y * scanSize + x] = coloured ? colour : pixel(startX + x, startY + y);
+				}
+			    }
+			} else if (method.getName().equals("equals")) {
+			    return proxy == args[0];
+			}
+			return null;
+		    }
+		});
+    }
+
+    /**
+     * Atlas keeping its pages in memory
+     */
+    static class MemoryAtlas extends TileAtlas {
+	MemoryAtlas(int pageSize) {
+	    super(pageSize);
+	}
+
+	int getPixel(int page, int x, int y) {
+	    return pixels.get(page)[y * widths.get(page) + x];
+	}
+
+	@Override
+	protected CanvasImage createPage(final float width, final float height) {
+	    final int[] page = new int[(int) (width * height)];
+	    pixels.add(page);
+	    widths.add((int) width);
+
+	    return (CanvasImage) Proxy.newProxyInstance(CanvasImage.class.getClassLoader(),
+		    new Class<?>[] { CanvasImage.class }, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+			    if (method.getName().equals("width")) {
+				return width;
+			    } else if (method.getName().equals("height")) {
+				return height;
+			    } else if (method.getName().equals("isReady")) {
+				return true;
+			    } else if (method.getName().equals("setRgb")) {
+				int startX = (Integer) args[0], startY = (Integer) args[1];
+				int w = (Integer) args[2], h = (Integer) args[3];
+				int[] rgb = (int[]) args[4];
+				int offset = (Integer) args[5], scanSize = (Integer) args[6];
+				for (int y = 0; y < h; y++) {
+				    for (int x = 0; x < w; x++) {
+					page[(startY + y) * (int) width + startX + x] = rgb[offset + y * scanSize + x];
+				    }
+				}
+			    } else if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			    }
+			    return null;
+			}
+		    });
+	}
+
+	final ArrayList<int[]> pixels = new ArrayList<int[]>();
+	final ArrayList<Integer> widths = new ArrayList<Integer>();
+    }
+}
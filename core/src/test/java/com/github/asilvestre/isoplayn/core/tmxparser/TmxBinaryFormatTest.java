@@ -0,0 +1,108 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for the binary TMX format
+ */
+public class TmxBinaryFormatTest {
+
+    @Test
+    public void testRoundTripTestMap() {
+	try {
+	    String xml = TmxParserTest.readResource("com/github/asilvestre/resources/tmx/test.tmx");
+	    TmxMap map = TmxParser.createTmxMapFromXml(xml);
+
+	    byte[] bytes = TmxBinaryFormat.compile(map);
+	    TmxMap loaded = TmxBinaryFormat.load(bytes);
+
+	    assertEquals(map, loaded);
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	} catch (IOException e) {
+	    fail("Error reading " + e.toString());
+	}
+    }
+
+    @Test
+    public void testRoundTripObjects() {
+	String input = "<map version='1.0' orientation='isometric' width='2' height='2' tilewidth='32' tileheight='32'>"
+		+ "<tileset firstgid='1' name='t' tilewidth='32' tileheight='32'><tileoffset x='1' y='-2'/>"
+		+ "<tile id='3'><properties><property name='collides' value='true'/></properties></tile></tileset>"
+		+ "<objectgroup name='g' color='#ff0000' opacity='0.5'>"
+		+ "<object name='n' type='t' x='1' y='2' width='3' height='4' visible='0'>"
+		+ "<properties><property name='p' value='\u00e9'/></properties><polygon points='0,0 3,4 -5,6'/></object>"
+		+ "<object x='3' y='4'><polyline points='0,0 1,1'/></object>" + "<object gid='2' x='5' y='6'/>"
+		+ "</objectgroup>" + "<layer name='l'><data encoding='csv'>1,2,3,2147483652</data></layer>" + "</map>";
+
+	try {
+	    TmxMap map = TmxParser.createTmxMapFromXml(input);
+	    TmxMap loaded = TmxBinaryFormat.load(TmxBinaryFormat.compile(map));
+
+	    assertEquals(map, loaded);
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	}
+    }
+
+    @Test
+    public void testLoadWrongData() {
+	byte[] bytes = TmxBinaryFormat.compile(new TmxMap());
+
+	// Truncated
+	byte[] truncated = new byte[bytes.length - 1];
+	System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+	// Unknown version
+	byte[] wrongVersion = bytes.clone();
+	wrongVersion[7] = (byte) (TmxBinaryFormat.VERSION + 1);
+
+	// Not a binary map
+	byte[] wrongMagic = bytes.clone();
+	wrongMagic[0] = '<';
+
+	byte[][] inputs = new byte[][] { truncated, wrongVersion, wrongMagic };
+	for (byte[] input : inputs) {
+	    try {
+		TmxBinaryFormat.load(input);
+		fail("Loading should have raised an exception");
+	    } catch (ParseTmxException e) {
+	    }
+	}
+    }
+
+    @Test
+    public void testRoundTripChunks() {
+	try {
+	    TmxMap map = TmxParser.createTmxMapFromXml(TmxTileGridTest.INFINITE_MAP);
+	    TmxMap loaded = TmxBinaryFormat.load(TmxBinaryFormat.compile(map));
+
+	    assertEquals(map, loaded);
+	    TmxTileLayer layer = (TmxTileLayer) loaded.getLayers().next();
+	    assertEquals(7, loaded.getTileGrid(layer).getGid(4, 3));
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	}
+    }
+}
@@ -0,0 +1,225 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for the collision geometry of polygons and polylines
+ */
+public class TmxCollisionGeometryTest {
+
+    private static TmxObjectPolygon createPolygon(int... points) {
+	TmxObjectPolygon polygon = new TmxObjectPolygon();
+	polygon.setPoints(points);
+	return polygon;
+    }
+
+    private static long area(int[] points, int[] vertices, int start, int end) {
+	long res = 0;
+	for (int i = start; i < end; i++) {
+	    int a = vertices[i];
+	    int b = vertices[i + 1 < end ? i + 1 : start];
+	    res += (long) points[a * 2] * points[b * 2 + 1] - (long) points[b * 2] * points[a * 2 + 1];
+	}
+	return res;
+    }
+
+    /**
+     * Checks the triangles and the pieces cover the polygon and the pieces
+     * are convex
+     */
+    private static void checkGeometry(TmxObjectPolygon polygon, TmxCollisionGeometry geometry) {
+	int[] points = polygon.getPoints();
+	int[] all = new int[polygon.getPointCount()];
+	for (int i = 0; i < all.length; i++) {
+	    all[i] = i;
+	}
+	long polygonArea = Math.abs(area(points, all, 0, all.length));
+
+	long trianglesArea = 0;
+	int[] triangles = geometry.getTriangles();
+	for (int t = 0; t < geometry.getTriangleCount(); t++) {
+	    long triangleArea = area(points, triangles, t * 3, t * 3 + 3);
+	    assertTrue(triangleArea > 0);
+	    trianglesArea += triangleArea;
+	}
+	assertEquals(polygonArea, trianglesArea);
+
+	long piecesArea = 0;
+	int[] starts = geometry.getPieceStarts();
+	for (int p = 0; p < geometry.getPieceCount(); p++) {
+	    int size = geometry.getPieceSize(p);
+	    assertTrue(size >= 3);
+	    piecesArea += area(points, geometry.getPieceVertices(), starts[p], starts[p + 1]);
+
+	    for (int i = 0; i < size; i++) {
+		int a = geometry.getPieceVertex(p, i);
+		int b = geometry.getPieceVertex(p, (i + 1) % size);
+		int c = geometry.getPieceVertex(p, (i + 2) % size);
+		long cross = (long) (points[b * 2] - points[a * 2]) * (points[c * 2 + 1] - points[b * 2 + 1])
+			- (long) (points[b * 2 + 1] - points[a * 2 + 1]) * (points[c * 2] - points[b * 2]);
+		assertTrue("Piece not convex", cross >= 0);
+	    }
+	}
+	assertEquals(polygonArea, piecesArea);
+	assertTrue(geometry.getPieceCount() <= geometry.getTriangleCount());
+    }
+
+    @Test
+    public void testConvexPolygon() {
+	// Both windings give the same single piece
+	TmxObjectPolygon square = createPolygon(0, 0, 10, 0, 10, 10, 0, 10);
+	TmxCollisionGeometry geometry = TmxCollisionGeometry.compute(square);
+	checkGeometry(square, geometry);
+	assertEquals(2, geometry.getTriangleCount());
+	assertEquals(1, geometry.getPieceCount());
+	assertEquals(4, geometry.getPieceSize(0));
+
+	TmxObjectPolygon reversed = createPolygon(0, 10, 10, 10, 10, 0, 0, 0);
+	geometry = TmxCollisionGeometry.compute(reversed);
+	checkGeometry(reversed, geometry);
+	assertEquals(1, geometry.getPieceCount());
+
+	assertEquals(0, geometry.getLeft());
+	assertEquals(0, geometry.getTop());
+	assertEquals(10, geometry.getRight());
+	assertEquals(10, geometry.getBottom());
+	assertEquals(4, geometry.getSegmentCount());
+	assertArrayEquals(new int[] { 0, 10, 10, 10 }, Arrays.copyOf(geometry.getSegments(), 4));
+	assertEquals(10, geometry.getSegment(0, TmxCollisionGeometry.SEGMENT_X1));
+	assertEquals(geometry.getTriangles()[4], geometry.getTriangleVertex(1, 1));
+
+	// Arrays handed out are copies, the geometry is shared by frozen maps
+	geometry.getSegments()[0] = 5;
+	geometry.getTriangles()[0] = 5;
+	geometry.getPieceStarts()[1] = 5;
+	geometry.getPieceVertices()[0] = 5;
+	assertEquals(0, geometry.getSegment(0, TmxCollisionGeometry.SEGMENT_X0));
+	assertArrayEquals(geometry.getSharedTriangles(), geometry.getTriangles());
+	assertEquals(4, geometry.getPieceSize(0));
+	assertEquals(geometry.getSharedPieceVertices()[0], geometry.getPieceVertex(0, 0));
+
+	try {
+	    geometry.getSegment(4, TmxCollisionGeometry.SEGMENT_X0);
+	    fail("Expecting an exception reading a segment out of bounds");
+	} catch (IndexOutOfBoundsException e) {
+	}
+    }
+
+    @Test
+    public void testConcavePolygon() {
+	// An L, it takes two convex pieces
+	TmxObjectPolygon polygon = createPolygon(0, 0, 20, 0, 20, 10, 10, 10, 10, 30, 0, 30);
+	TmxCollisionGeometry geometry = TmxCollisionGeometry.compute(polygon);
+	checkGeometry(polygon, geometry);
+	assertEquals(4, geometry.getTriangleCount());
+	assertEquals(2, geometry.getPieceCount());
+	assertEquals(0, geometry.getLeft());
+	assertEquals(30, geometry.getBottom());
+    }
+
+    @Test
+    public void testRandomStarPolygons() {
+	Random random = new Random(3);
+	for (int n = 0; n < 200; n++) {
+	    int count = 3 + random.nextInt(30);
+	    int[] points = new int[count * 2];
+	    for (int i = 0; i < count; i++) {
+		double angle = 2 * Math.PI * i / count;
+		int radius = 20 + random.nextInt(200);
+		points[i * 2] = (int) Math.round(Math.cos(angle) * radius);
+		points[i * 2 + 1] = (int) Math.round(Math.sin(angle) * radius);
+	    }
+
+	    TmxObjectPolygon polygon = createPolygon(points);
+	    TmxCollisionGeometry geometry = TmxCollisionGeometry.compute(polygon);
+	    checkGeometry(polygon, geometry);
+	}
+    }
+
+    @Test
+    public void testDegeneratePolygons() {
+	// Collinear and repeated points don't get stuck
+	TmxObjectPolygon polygon = createPolygon(0, 0, 5, 0, 10, 0, 10, 10, 10, 10, 0, 10);
+	checkGeometry(polygon, TmxCollisionGeometry.compute(polygon));
+
+	polygon = createPolygon(0, 0, 5, 0, 10, 0);
+	TmxCollisionGeometry geometry = TmxCollisionGeometry.compute(polygon);
+	assertEquals(0, geometry.getTriangleCount());
+	assertEquals(0, geometry.getPieceCount());
+
+	geometry = TmxCollisionGeometry.compute(new TmxObjectPolygon());
+	assertEquals(0, geometry.getSegmentCount());
+	assertEquals(0, geometry.getTriangleCount());
+    }
+
+    @Test
+    public void testPolyline() {
+	TmxObjectPolyline polyline = new TmxObjectPolyline();
+	polyline.setPoints(new int[] { 0, 0, -50, 40, 60, 200 });
+
+	TmxCollisionGeometry geometry = TmxCollisionGeometry.compute(polyline);
+	assertEquals(2, geometry.getSegmentCount());
+	assertArrayEquals(new int[] { 0, 0, -50, 40, -50, 40, 60, 200 }, geometry.getSegments());
+	assertEquals(-50, geometry.getLeft());
+	assertEquals(0, geometry.getTop());
+	assertEquals(60, geometry.getRight());
+	assertEquals(200, geometry.getBottom());
+	assertEquals(0, geometry.getTriangleCount());
+	assertEquals(0, geometry.getPieceCount());
+    }
+
+    @Test
+    public void testBuild() throws ParseTmxException {
+	String input = "<map version='1.0' orientation='orthogonal' width='1' height='1' tilewidth='32' "
+		+ "tileheight='32'><objectgroup name='o'>"
+		+ "<object x='0' y='0'><polygon points='0,0 20,0 20,10 10,10 10,30 0,30'/></object>"
+		+ "<object x='5' y='5'><polyline points='0,0 1,1'/></object></objectgroup></map>";
+
+	TmxMap map = TmxParser.createTmxMapFromXml(input);
+	Iterator<TmxObject> objects = ((TmxObjectGroup) map.getLayers().next()).getObjects();
+	TmxObjectPolygon polygon = (TmxObjectPolygon) objects.next();
+	TmxObjectPolyline polyline = (TmxObjectPolyline) objects.next();
+	assertNull(polygon.getCollisionGeometry());
+
+	TmxCollisionGeometry.build(map);
+	assertEquals(2, polygon.getCollisionGeometry().getPieceCount());
+	assertEquals(1, polyline.getCollisionGeometry().getSegmentCount());
+
+	// Frozen copies keep the geometry
+	TmxMap frozen = map.freeze();
+	objects = ((TmxObjectGroup) frozen.getLayers().next()).getObjects();
+	assertSame(polygon.getCollisionGeometry(), ((TmxObjectPolygon) objects.next()).getCollisionGeometry());
+	try {
+	    TmxCollisionGeometry.build(frozen);
+	    fail("Expecting an exception building the geometry of a frozen map");
+	} catch (IllegalStateException e) {
+	}
+
+	// Changing the points drops it
+	polygon.setPoints(new int[] { 0, 0, 1, 0, 1, 1 });
+	assertNull(polygon.getCollisionGeometry());
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for the tile collision grid
+ */
+public class TmxCollisionGridTest {
+
+    @Test
+    public void testBuild() throws ParseTmxException {
+	String input = "<map version='1.0' orientation='orthogonal' width='4' height='3' tilewidth='32' "
+		+ "tileheight='32'><tileset firstgid='1' name='a' tilewidth='32' tileheight='32'>"
+		+ "<tile id='1'><properties><property name='collides' value='true'/></properties></tile></tileset>"
+		+ "<tileset firstgid='10' name='b' tilewidth='32' tileheight='32'>"
+		+ "<tile id='0'><properties><property name='collides' value='true'/></properties></tile>"
+		+ "<tile id='1'><properties><property name='collides' value='false'/></properties></tile></tileset>"
+		+ "<layer name='floor' width='4' height='3'><data encoding='csv'>1,2,1,1,10,11,1,0,1,1,1,2147483650"
+		+ "</data></layer><layer name='walls' width='4' height='3'><data encoding='csv'>0,0,0,0,0,0,0,10,0,0,0,0"
+		+ "</data></layer></map>";
+
+	TmxMap map = TmxParser.createTmxMapFromXml(input);
+	Iterator<TmxLayer> layers = map.getLayers();
+	TmxTileLayer floor = (TmxTileLayer) layers.next();
+	TmxTileLayer walls = (TmxTileLayer) layers.next();
+
+	TmxCollisionGrid grid = TmxCollisionGrid.build(map, floor, "collides", "true");
+	assertEquals(4, grid.getWidth());
+	assertEquals(3, grid.getHeight());
+	assertEquals(3, grid.getBlockedCount());
+	assertTrue(grid.isBlocked(1, 0));
+	assertTrue(grid.isBlocked(0, 1));
+	assertFalse(grid.isBlocked(1, 1));
+	assertFalse(grid.isBlocked(3, 1));
+	// Flipped tiles block too
+	assertTrue(grid.isBlocked(3, 2));
+
+	// Outside the grid is blocked
+	assertTrue(grid.isBlocked(-1, 0));
+	assertTrue(grid.isBlocked(4, 0));
+
+	grid.addLayer(map, walls, "collides", "true");
+	assertEquals(4, grid.getBlockedCount());
+	assertTrue(grid.isBlocked(3, 1));
+
+	grid.setBlocked(3, 1, false);
+	assertFalse(grid.isBlocked(3, 1));
+
+	// Updating a tile looks at all the layers the grid was built from
+	assertTrue(grid.updateTile(map, walls, 3, 1));
+	assertTrue(grid.isBlocked(3, 1));
+	TmxEditableTileGrid edited = TmxEditableTileGrid.edit(map, floor);
+	edited.setGid(1, 1, 2);
+	assertTrue(grid.updateTile(map, floor, 1, 1));
+	assertTrue(grid.isBlocked(1, 1));
+	assertFalse(grid.updateTile(map, floor, 1, 1));
+	edited.setGid(3, 1, 0);
+	assertFalse(grid.updateTile(map, floor, 3, 1));
+	assertTrue(grid.isBlocked(3, 1));
+
+	// Layers the grid wasn't built from change nothing
+	assertFalse(new TmxCollisionGrid(4, 3).updateTile(map, floor, 1, 1));
+    }
+
+    @Test
+    public void testSweeps() {
+	TmxCollisionGrid grid = new TmxCollisionGrid(100, 50);
+	grid.setBlocked(70, 10, true);
+	grid.setBlocked(20, 40, true);
+
+	// A 2x3 rectangle moving right stops touching column 70
+	assertEquals(58, grid.sweepX(10, 9, 2, 3, 80));
+	assertEquals(5, grid.sweepX(10, 9, 2, 3, 5));
+	assertEquals(-10, grid.sweepX(10, 9, 2, 3, -20));
+	assertEquals(88, grid.sweepX(10, 0, 2, 3, 100));
+
+	assertEquals(29, grid.sweepY(19, 10, 3, 1, 40));
+	assertEquals(-10, grid.sweepY(19, 10, 3, 1, -40));
+	assertEquals(0, grid.sweepY(19, 10, 3, 1, 0));
+    }
+
+    @Test
+    public void testAnyBlockedMatchesTiles() {
+	Random random = new Random(11);
+	TmxCollisionGrid grid = new TmxCollisionGrid(150, 40);
+	for (int i = 0; i < 300; i++) {
+	    grid.setBlocked(random.nextInt(150), random.nextInt(40), true);
+	}
+
+	for (int n = 0; n < 2000; n++) {
+	    int x = random.nextInt(170) - 10;
+	    int y = random.nextInt(50) - 5;
+	    int width = random.nextInt(80);
+	    int height = random.nextInt(6);
+
+	    boolean expected = false;
+	    for (int ty = y; ty < y + height; ty++) {
+		for (int tx = x; tx < x + width; tx++) {
+		    expected |= grid.isBlocked(tx, ty);
+		}
+	    }
+	    assertEquals(expected, grid.isAnyBlocked(x, y, width, height));
+	}
+    }
+}
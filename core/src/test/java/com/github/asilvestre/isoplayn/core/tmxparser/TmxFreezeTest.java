@@ -0,0 +1,215 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for the frozen map snapshots
+ */
+public class TmxFreezeTest {
+
+    private static final String MAP = "<map version='1.0' orientation='isometric' width='3' height='2' "
+	    + "tilewidth='32' tileheight='16'><properties><property name='a' value='1'/></properties>"
+	    + "<tileset firstgid='1' name='t' tilewidth='32' tileheight='16'>"
+	    + "<image source='t.png' width='64' height='32'/>"
+	    + "<tile id='1'><properties><property name='b' value='2'/></properties></tile></tileset>"
+	    + "<layer name='l'><data encoding='csv'>1,2,3,4,2147483649,0</data></layer>"
+	    + "<objectgroup name='o'><object x='1' y='2'><polygon points='0,0 4,0 4,4'/></object>"
+	    + "</objectgroup></map>";
+
+    @Test
+    public void testFreezeCopiesTheMap() throws ParseTmxException {
+	TmxMap map = TmxParser.createTmxMapFromXml(MAP);
+	TmxMap frozen = map.freeze();
+
+	assertNotSame(map, frozen);
+	assertFalse(map.isFrozen());
+	assertTrue(frozen.isFrozen());
+	assertSame(frozen, frozen.freeze());
+	assertEquals(map, frozen);
+
+	TmxTileLayer layer = (TmxTileLayer) frozen.getLayers().next();
+	assertTrue(layer.getTileGrid() instanceof TmxArrayTileGrid);
+	assertEquals(1, layer.getGid(1, 1));
+	assertEquals(TmxData.FLIPPED_HORIZONTALLY, layer.getTileGrid().getFlip(1, 1));
+	assertEquals(0, frozen.resolveGid(4));
+	assertEquals(4, frozen.getTilesetAt(0).getTileCount());
+
+	// The original map can still be changed
+	map.setWidth(4);
+	map.getProperties().addProperty("c", "3");
+	assertEquals(3, frozen.getWidth());
+	assertNull(frozen.getProperties().getProperty("c"));
+    }
+
+    @Test
+    public void testFrozenMapCantChange() throws ParseTmxException {
+	final TmxMap frozen = TmxParser.createTmxMapFromXml(MAP).freeze();
+	final TmxTileset tileset = frozen.getTilesetAt(0);
+	Iterator<TmxLayer> layers = frozen.getLayers();
+	final TmxTileLayer layer = (TmxTileLayer) layers.next();
+	TmxObjectGroup group = (TmxObjectGroup) layers.next();
+	final TmxObjectPolygon polygon = (TmxObjectPolygon) group.getObjects().next();
+
+	Runnable[] changes = new Runnable[] { new Runnable() {
+	    public void run() {
+		frozen.setWidth(1);
+	    }
+	}, new Runnable() {
+	    public void run() {
+		frozen.addLayer(new TmxTileLayer());
+	    }
+	}, new Runnable() {
+	    public void run() {
+		frozen.getProperties().addProperty("c", "3");
+	    }
+	}, new Runnable() {
+	    public void run() {
+		tileset.setMargin(1);
+	    }
+	}, new Runnable() {
+	    public void run() {
+		tileset.getCustomTile(1).getProperties().addProperty("c", "3");
+	    }
+	}, new Runnable() {
+	    public void run() {
+		tileset.getImage().setWidth(1);
+	    }
+	}, new Runnable() {
+	    public void run() {
+		layer.setTileGrid(null);
+	    }
+	}, new Runnable() {
+	    public void run() {
+		polygon.setX(1);
+	    }
+	}, new Runnable() {
+	    public void run() {
+		polygon.setPoints(new int[] { 0, 0 });
+	    }
+	} };
+
+	for (Runnable change : changes) {
+	    try {
+		change.run();
+		fail("Expecting an exception changing a frozen map");
+	    } catch (IllegalStateException e) {
+	    }
+	}
+
+	try {
+	    Iterator<TmxLayer> iter = frozen.getLayers();
+	    iter.next();
+	    iter.remove();
+	    fail("Expecting an exception removing a layer of a frozen map");
+	} catch (UnsupportedOperationException e) {
+	}
+
+	try {
+	    polygon.getCoords().clear();
+	    fail("Expecting an exception removing coordinates of a frozen map");
+	} catch (UnsupportedOperationException e) {
+	}
+
+	// Points handed out are copies, changing them leaves the map as it was
+	int x = polygon.getPointX(0);
+	polygon.getPoints()[0] = x + 1;
+	polygon.getCoords().get(0).setX(x + 1);
+	assertEquals(x, polygon.getPointX(0));
+	assertEquals(x, polygon.getPoints()[0]);
+
+	// Same for the tiles and the tile table
+	TmxData data = layer.getData();
+	data.getGids()[0] = 5;
+	data.getFlips()[4] = 0;
+	assertEquals(1, data.getGid(0));
+	assertEquals(TmxData.FLIPPED_HORIZONTALLY, data.getFlip(4));
+	int tileX = tileset.getTileRect(1, TmxTileset.RECT_X);
+	tileset.getTileRects()[TmxTileset.RECT_STRIDE + TmxTileset.RECT_X] = tileX + 1;
+	assertEquals(tileX, tileset.getTileRect(1, TmxTileset.RECT_X));
+	assertEquals(tileX, tileset.getTileRects()[TmxTileset.RECT_STRIDE + TmxTileset.RECT_X]);
+    }
+
+    @Test
+    public void testFreezeInfiniteMap() throws ParseTmxException {
+	TmxMap map = TmxParser.createTmxMapFromXml(TmxTileGridTest.INFINITE_MAP);
+	TmxTileLayer original = (TmxTileLayer) map.getLayers().next();
+	TmxChunkedTileGrid originalGrid = (TmxChunkedTileGrid) map.getTileGrid(original);
+	originalGrid.setMaxDecodedChunks(1);
+
+	TmxMap frozen = map.freeze();
+	TmxTileLayer layer = (TmxTileLayer) frozen.getLayers().next();
+	TmxChunkedTileGrid grid = (TmxChunkedTileGrid) layer.getTileGrid();
+	assertEquals(3, grid.getDecodedChunkCount());
+	assertEquals(-2, grid.getStartX());
+	for (int y = 0; y < grid.getHeight(); y++) {
+	    for (int x = 0; x < grid.getWidth(); x++) {
+		assertEquals(originalGrid.getGid(x, y), grid.getGid(x, y));
+		assertEquals(originalGrid.getFlip(x, y), grid.getFlip(x, y));
+	    }
+	}
+
+	try {
+	    grid.setMaxDecodedChunks(1);
+	    fail("Expecting an exception changing a frozen grid");
+	} catch (IllegalStateException e) {
+	}
+    }
+
+    @Test
+    public void testReadFromManyThreads() throws Exception {
+	final TmxMap frozen = TmxParser.createTmxMapFromXml(MAP).freeze();
+
+	ExecutorService executor = Executors.newFixedThreadPool(4);
+	try {
+	    @SuppressWarnings("unchecked")
+	    Future<Integer>[] results = new Future[8];
+	    for (int i = 0; i < results.length; i++) {
+		results[i] = executor.submit(new Callable<Integer>() {
+		    public Integer call() {
+			int sum = 0;
+			for (int n = 0; n < 1000; n++) {
+			    TmxTileLayer layer = (TmxTileLayer) frozen.getLayers().next();
+			    for (int y = 0; y < 2; y++) {
+				for (int x = 0; x < 3; x++) {
+				    sum += frozen.resolveGid(layer.getGid(x, y)) + layer.getGid(x, y);
+				}
+			    }
+			}
+			return sum;
+		    }
+		});
+	    }
+
+	    for (Future<Integer> result : results) {
+		assertEquals(1000 * (11 - 1), result.get().intValue());
+	    }
+	} finally {
+	    executor.shutdown();
+	}
+    }
+}
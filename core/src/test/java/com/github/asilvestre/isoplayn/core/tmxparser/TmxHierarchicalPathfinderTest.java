@@ -0,0 +1,158 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for the hierarchical pathfinder
+ */
+public class TmxHierarchicalPathfinderTest {
+
+    @Test
+    public void testMatchesFlatSearch() {
+	Random random = new Random(13);
+	for (int n = 0; n < 10; n++) {
+	    boolean diagonal = n % 2 == 0;
+	    TmxCollisionGrid grid = new TmxCollisionGrid(61, 47);
+	    for (int i = 0; i < 61 * 47 / 4; i++) {
+		grid.setBlocked(random.nextInt(61), random.nextInt(47), true);
+	    }
+
+	    TmxPathfinder flat = new TmxPathfinder(grid);
+	    flat.setDiagonal(diagonal);
+	    TmxHierarchicalPathfinder hierarchical = new TmxHierarchicalPathfinder(grid, 10, diagonal);
+	    TmxPathfinder.Path path = new TmxPathfinder.Path();
+
+	    for (int q = 0; q < 30; q++) {
+		int startX = random.nextInt(61);
+		int startY = random.nextInt(47);
+		int goalX = random.nextInt(61);
+		int goalY = random.nextInt(47);
+
+		boolean found = flat.findPath(startX, startY, goalX, goalY, path);
+		int cost = path.getCost();
+
+		assertEquals(found, hierarchical.findPath(startX, startY, goalX, goalY, path));
+		if (found) {
+		    assertTrue(TmxPathfinderTest.checkPath(grid, path, diagonal) >= cost);
+		    assertEquals(startX, path.getX(0));
+		    assertEquals(startY, path.getY(0));
+		    assertEquals(goalX, path.getX(path.size() - 1));
+		    assertEquals(goalY, path.getY(path.size() - 1));
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testLongRoute() {
+	// Walls with a gap, alternating sides
+	TmxCollisionGrid grid = new TmxCollisionGrid(512, 512);
+	for (int x = 32; x < 512; x += 64) {
+	    for (int y = 0; y < 512; y++) {
+		boolean gap = (x / 64) % 2 == 0 ? y > 500 : y < 11;
+		if (!gap) {
+		    grid.setBlocked(x, y, true);
+		}
+	    }
+	}
+
+	TmxHierarchicalPathfinder pathfinder = new TmxHierarchicalPathfinder(grid);
+	TmxPathfinder.Path path = new TmxPathfinder.Path();
+	assertTrue(pathfinder.findPath(0, 256, 511, 256, path));
+	TmxPathfinderTest.checkPath(grid, path, true);
+	assertTrue(pathfinder.getExpandedCount() < pathfinder.getNodeCount());
+	assertTrue(pathfinder.getExpandedCount() < 1000);
+    }
+
+    @Test
+    public void testTileChanged() {
+	TmxCollisionGrid grid = new TmxCollisionGrid(40, 40);
+	TmxHierarchicalPathfinder pathfinder = new TmxHierarchicalPathfinder(grid, 10, true);
+	TmxPathfinder.Path path = new TmxPathfinder.Path();
+	assertEquals(16, pathfinder.getClusterBuildCount());
+	assertTrue(pathfinder.findPath(5, 5, 35, 35, path));
+
+	// A wall across the whole map, only the clusters along it are built
+	for (int x = 0; x < 40; x++) {
+	    grid.setBlocked(x, 20, true);
+	    pathfinder.tileChanged(x, 20);
+	}
+	assertFalse(pathfinder.findPath(5, 5, 35, 35, path));
+	assertEquals(16 + 12, pathfinder.getClusterBuildCount());
+
+	// A door on the border of a cluster builds it and its neighbours
+	grid.setBlocked(25, 20, false);
+	pathfinder.tileChanged(25, 20);
+	assertTrue(pathfinder.findPath(5, 5, 35, 35, path));
+	TmxPathfinderTest.checkPath(grid, path, true);
+	assertEquals(16 + 12 + 5, pathfinder.getClusterBuildCount());
+
+	// Tiles inside a cluster only build that cluster again
+	grid.setBlocked(15, 15, true);
+	pathfinder.tileChanged(15, 15);
+	assertTrue(pathfinder.findPath(5, 5, 35, 35, path));
+	assertEquals(16 + 12 + 5 + 1, pathfinder.getClusterBuildCount());
+    }
+
+    @Test
+    public void testUpdateTile() throws ParseTmxException {
+	StringBuilder csv = new StringBuilder();
+	for (int i = 0; i < 40 * 20; i++) {
+	    csv.append(i > 0 ? ",1" : "1");
+	}
+	TmxMap map = TmxParser.createTmxMapFromXml("<map version='1.0' orientation='orthogonal' width='40' "
+		+ "height='20' tilewidth='32' tileheight='32'><tileset firstgid='1' name='t' tilewidth='32' "
+		+ "tileheight='32'><tile id='1'><properties><property name='collides' value='true'/></properties>"
+		+ "</tile></tileset><layer name='l' width='40' height='20'><data encoding='csv'>" + csv
+		+ "</data></layer></map>");
+	TmxTileLayer layer = (TmxTileLayer) map.getLayers().next();
+
+	TmxCollisionGrid grid = TmxCollisionGrid.build(map, layer, "collides", "true");
+	TmxHierarchicalPathfinder pathfinder = new TmxHierarchicalPathfinder(grid, 10, true);
+	TmxPathfinder.Path path = new TmxPathfinder.Path();
+	assertTrue(pathfinder.findPath(5, 10, 35, 10, path));
+	assertEquals(30 * TmxPathfinder.STRAIGHT_COST, path.getCost());
+
+	// A wall with a gap at the bottom edited into the layer
+	TmxEditableTileGrid tiles = TmxEditableTileGrid.edit(map, layer);
+	for (int y = 0; y < 19; y++) {
+	    tiles.setGid(20, y, 2);
+	    assertTrue(pathfinder.updateTile(map, layer, 20, y));
+	}
+	assertFalse(pathfinder.updateTile(map, layer, 20, 0));
+
+	assertTrue(pathfinder.findPath(5, 10, 35, 10, path));
+	assertTrue(TmxPathfinderTest.checkPath(grid, path, true) > 30 * TmxPathfinder.STRAIGHT_COST);
+	boolean throughGap = false;
+	for (int i = 0; i < path.size(); i++) {
+	    throughGap |= path.getX(i) == 20 && path.getY(i) == 19;
+	}
+	assertTrue(throughGap);
+
+	// Closing the gap leaves no way
+	tiles.setGid(20, 19, 2);
+	assertTrue(pathfinder.updateTile(map, layer, 20, 19));
+	assertFalse(pathfinder.findPath(5, 10, 35, 10, path));
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for the parsed map cache
+ */
+public class TmxMapCacheTest {
+
+    private static final String MAP = "<map version='1.0' orientation='isometric' width='%d' height='1' "
+	    + "tilewidth='32' tileheight='32'><layer name='l'><data encoding='csv'>%s</data></layer></map>";
+
+    private static String createMap(int width) {
+	StringBuilder tiles = new StringBuilder();
+	for (int i = 0; i < width; i++) {
+	    tiles.append(i > 0 ? "," : "").append(1);
+	}
+
+	return String.format(MAP, width, tiles);
+    }
+
+    @Test
+    public void testHitsAndMisses() throws ParseTmxException {
+	TmxMapCache cache = new TmxMapCache();
+	String xml = createMap(4);
+
+	TmxMap map = cache.get("a.tmx", xml);
+	assertTrue(map.isFrozen());
+	assertSame(map, cache.get("a.tmx", xml));
+	assertEquals(1, cache.getHitCount());
+	assertEquals(1, cache.getMissCount());
+
+	// Other paths and changed content are other maps
+	assertNotSame(map, cache.get("b.tmx", xml));
+	TmxMap changed = cache.get("a.tmx", createMap(5));
+	assertNotSame(map, changed);
+	assertEquals(5, changed.getWidth());
+	assertEquals(3, cache.getMissCount());
+	assertEquals(3, cache.size());
+	assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws ParseTmxException {
+	String small = createMap(10);
+	long bytes = TmxMapCache.estimateBytes(TmxParser.createTmxMapFromXml(small).freeze());
+	assertTrue(bytes > 50);
+
+	TmxMapCache cache = new TmxMapCache(bytes * 2);
+	TmxMap a = cache.get("a.tmx", small);
+	cache.get("b.tmx", small);
+	assertEquals(bytes * 2, cache.getBytes());
+
+	// a was used last, so b goes
+	cache.get("a.tmx", small);
+	cache.get("c.tmx", small);
+	assertEquals(1, cache.getEvictionCount());
+	assertEquals(2, cache.size());
+	assertSame(a, cache.get("a.tmx", small));
+	cache.get("b.tmx", small);
+	assertEquals(4, cache.getMissCount());
+
+	// Bigger maps take more of the budget
+	cache.get("d.tmx", createMap(1000));
+	assertEquals(0, cache.size());
+	assertEquals(0, cache.getBytes());
+
+	cache.setMaxBytes(bytes * 3);
+	cache.get("a.tmx", small);
+	cache.get("b.tmx", small);
+	cache.setMaxBytes(bytes);
+	assertEquals(1, cache.size());
+	assertEquals(bytes, cache.getBytes());
+    }
+
+    @Test
+    public void testSharedBetweenThreads() throws ParseTmxException, InterruptedException {
+	final TmxMapCache cache = new TmxMapCache(TmxMapCache.estimateBytes(TmxParser.createTmxMapFromXml(
+		createMap(10)).freeze()) * 3);
+	final String[] paths = new String[] { "a.tmx", "b.tmx", "c.tmx", "d.tmx", "e.tmx" };
+	final String small = createMap(10);
+	final Throwable[] failure = new Throwable[1];
+
+	Thread[] threads = new Thread[4];
+	for (int t = 0; t < threads.length; t++) {
+	    final int first = t;
+	    threads[t] = new Thread() {
+		@Override
+		public void run() {
+		    try {
+			for (int i = 0; i < 200; i++) {
+			    TmxMap map = cache.get(paths[(first + i) % paths.length], small);
+			    assertTrue(map.isFrozen());
+			    assertEquals(10, map.getWidth());
+			}
+		    } catch (Throwable e) {
+			synchronized (failure) {
+			    failure[0] = e;
+			}
+		    }
+		}
+	    };
+	    threads[t].start();
+	}
+	for (Thread thread : threads) {
+	    thread.join();
+	}
+
+	assertNull(failure[0]);
+	assertEquals(4 * 200, cache.getHitCount() + cache.getMissCount());
+	assertTrue(cache.size() <= 3);
+	assertEquals(cache.size() * cache.getMaxBytes() / 3, cache.getBytes());
+    }
+
+    @Test
+    public void testParseFailure() {
+	TmxMapCache cache = new TmxMapCache();
+	try {
+	    cache.get("a.tmx", String.format(MAP, 1, "a"));
+	    fail("Expecting a parse error");
+	} catch (ParseTmxException e) {
+	}
+
+	assertEquals(0, cache.size());
+	assertEquals(1, cache.getMissCount());
+    }
+}
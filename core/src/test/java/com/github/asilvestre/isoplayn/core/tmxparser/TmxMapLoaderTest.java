@@ -0,0 +1,277 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import playn.core.Image;
+import playn.core.util.Callback;
+
+/**
+ * Tests for loading maps with their tileset images
+ */
+public class TmxMapLoaderTest {
+
+    private static final String MAP = "<map version='1.0' orientation='isometric' width='1' height='1' "
+	    + "tilewidth='32' tileheight='32'>"
+	    + "<tileset firstgid='1' name='a' tilewidth='32' tileheight='32'>"
+	    + "<image source='a.png' width='64' height='64'/></tileset>"
+	    + "<tileset firstgid='5' name='b' tilewidth='32' tileheight='32'/>"
+	    + "<tileset firstgid='6' name='c' tilewidth='32' tileheight='32'>"
+	    + "<image source='c.png' width='64' height='64'/></tileset>"
+	    + "<tileset firstgid='10' name='d' tilewidth='32' tileheight='32'>"
+	    + "<image source='a.png' width='64' height='64'/></tileset>"
+	    + "<layer name='l'><data encoding='csv'>1</data></layer></map>";
+
+    @Test
+    public void testLoadWaitsForAllImages() {
+	for (boolean stream : new boolean[] { false, true }) {
+	    DeferredLoader loader = new DeferredLoader();
+	    loader.setStream(stream);
+	    RecordingCallback callback = new RecordingCallback();
+	    loader.loadXml(MAP, "tmx/", callback);
+
+	    // Images shared by tilesets are loaded once
+	    assertEquals(2, loader.paths.size());
+	    assertEquals("tmx/a.png", loader.paths.get(0));
+	    assertEquals("tmx/c.png", loader.paths.get(1));
+
+	    loader.callbacks.get(1).onSuccess(loader.images.get(1));
+	    assertEquals(0, callback.successes.size());
+	    loader.callbacks.get(0).onSuccess(loader.images.get(0));
+	    assertEquals(1, callback.successes.size());
+	    assertEquals(0, callback.failures.size());
+
+	    TmxMapLoader.LoadedMap loaded = callback.successes.get(0);
+	    assertEquals(1, loaded.getMap().getTilesetAt(0).getFirstgid());
+	    assertEquals(1, loaded.getMap().getTileGrid((TmxTileLayer) loaded.getMap().getLayers().next()).getGid(0, 0));
+	    assertSame(loader.images.get(0), loaded.getTilesetImage(0));
+	    assertNull(loaded.getTilesetImage(1));
+	    assertSame(loader.images.get(1), loaded.getTilesetImage(2));
+	    assertSame(loader.images.get(0), loaded.getTilesetImage(3));
+	}
+    }
+
+    @Test
+    public void testImageFailure() {
+	DeferredLoader loader = new DeferredLoader();
+	RecordingCallback callback = new RecordingCallback();
+	loader.loadXml(MAP, "", callback);
+
+	loader.callbacks.get(0).onFailure(new Exception("Not found"));
+	loader.callbacks.get(1).onSuccess(loader.images.get(1));
+	assertEquals(0, callback.successes.size());
+	assertEquals(1, callback.failures.size());
+
+	// Failed images are loaded again, loaded ones are not
+	loader.loadXml(MAP, "", callback);
+	assertEquals(3, loader.paths.size());
+	assertEquals("a.png", loader.paths.get(2));
+    }
+
+    @Test
+    public void testParseFailure() {
+	DeferredLoader loader = new DeferredLoader();
+	RecordingCallback callback = new RecordingCallback();
+	loader.loadXml("<map version='1.0' orientation='isometric' width='1' height='1' tilewidth='32' "
+		+ "tileheight='32'><layer name='l'><data encoding='csv'>a</data></layer></map>", "", callback);
+
+	assertEquals(0, callback.successes.size());
+	assertEquals(1, callback.failures.size());
+    }
+
+    @Test
+    public void testExternalTilesets() {
+	String map = "<map version='1.0' orientation='isometric' width='1' height='1' tilewidth='32' "
+		+ "tileheight='32'><tileset firstgid='%d' source='../tilesets/./ground.tsx'/>"
+		+ "<layer name='l'><data encoding='csv'>%d</data></layer></map>";
+	String tsx = "<tileset name='ground' tilewidth='32' tileheight='16'>"
+		+ "<image source='img/ground.png' width='64' height='64'/>"
+		+ "<tile id='1'><properties><property name='p' value='v'/></properties></tile></tileset>";
+
+	DeferredTilesetCache cache = new DeferredTilesetCache();
+	DeferredLoader loader = new DeferredLoader();
+	loader.setTilesetCache(cache);
+	RecordingCallback callback = new RecordingCallback();
+	loader.loadXml(String.format(map, 1, 2), "maps/", callback);
+	loader.loadXml(String.format(map, 3, 4), "maps/", callback);
+
+	// Both maps wait for a single fetch of the file
+	assertEquals(1, cache.paths.size());
+	assertEquals("tilesets/ground.tsx", cache.paths.get(0));
+	assertEquals(0, loader.paths.size());
+
+	// Images are relative to the tileset file and both maps share them
+	cache.callbacks.get(0).onSuccess(tsx);
+	assertEquals(1, cache.size());
+	assertEquals(1, loader.paths.size());
+	assertEquals("tilesets/img/ground.png", loader.paths.get(0));
+	assertEquals(2, loader.callbacks.size());
+	assertEquals(0, callback.successes.size());
+
+	loader.callbacks.get(0).onSuccess(loader.images.get(0));
+	loader.callbacks.get(1).onSuccess(loader.images.get(0));
+	assertEquals(2, callback.successes.size());
+
+	TmxTileset first = callback.successes.get(0).getMap().getTilesetAt(0);
+	final TmxTileset second = callback.successes.get(1).getMap().getTilesetAt(0);
+	assertEquals(1, first.getFirstgid());
+	assertEquals(3, second.getFirstgid());
+	assertEquals("ground", second.getName());
+	assertEquals(16, second.getTileheight());
+	assertSame(first.getImage(), second.getImage());
+	assertSame(first.getTileRects(), second.getTileRects());
+	assertSame(first.getCustomTile(1), second.getCustomTile(1));
+	assertSame(loader.images.get(0), callback.successes.get(1).getTilesetImage(0));
+
+	// The shared definition can't be changed through any map
+	final TmxTileset definition = cache.get("tilesets/ground.tsx");
+	Runnable[] changes = new Runnable[] { new Runnable() {
+	    public void run() {
+		definition.setName("other");
+	    }
+	}, new Runnable() {
+	    public void run() {
+		second.getImage().setWidth(1);
+	    }
+	}, new Runnable() {
+	    public void run() {
+		second.getCustomTile(1).setId(5);
+	    }
+	}, new Runnable() {
+	    public void run() {
+		second.getCustomTile(1).getProperties().addProperty("q", "w");
+	    }
+	} };
+	for (Runnable change : changes) {
+	    try {
+		change.run();
+		fail("Expecting an exception changing a shared tileset");
+	    } catch (IllegalStateException e) {
+	    }
+	}
+
+	// Tiles added to a map don't show up in the others
+	TmxTile tile = new TmxTile();
+	tile.setId(2);
+	first.addCustomTile(tile);
+	assertSame(tile, first.getCustomTile(2));
+	assertNull(second.getCustomTile(2));
+	assertNull(cache.get("tilesets/ground.tsx").getCustomTile(2));
+
+	// Later maps use the parsed tileset and the loaded image right away
+	loader.loadXml(String.format(map, 1, 1), "maps/", callback);
+	assertEquals(1, cache.paths.size());
+	assertEquals(1, loader.paths.size());
+	loader.callbacks.get(2).onSuccess(loader.images.get(0));
+	assertEquals(3, callback.successes.size());
+
+	// Until the images are cleared
+	loader.clearImages();
+	loader.loadXml(String.format(map, 1, 1), "maps/", callback);
+	assertEquals(2, loader.paths.size());
+    }
+
+    @Test
+    public void testExternalTilesetFailure() {
+	DeferredTilesetCache cache = new DeferredTilesetCache();
+	DeferredLoader loader = new DeferredLoader();
+	loader.setTilesetCache(cache);
+	RecordingCallback callback = new RecordingCallback();
+	loader.loadXml("<map version='1.0' orientation='isometric' width='1' height='1' tilewidth='32' "
+		+ "tileheight='32'><tileset firstgid='1' source='a.tsx'/></map>", "", callback);
+
+	cache.callbacks.get(0).onSuccess("<map/>");
+	assertEquals(0, callback.successes.size());
+	assertEquals(1, callback.failures.size());
+	assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testResolvePath() {
+	assertEquals("a/c.tsx", TmxTilesetCache.resolvePath("a/b/", "../c.tsx"));
+	assertEquals("a/b/c.tsx", TmxTilesetCache.resolvePath("a/b/", "./c.tsx"));
+	assertEquals("../c.tsx", TmxTilesetCache.resolvePath("a/", "../../c.tsx"));
+	assertEquals("c.tsx", TmxTilesetCache.resolvePath("", "c.tsx"));
+	assertEquals("/a/c.tsx", TmxTilesetCache.resolvePath("/a//", "c.tsx"));
+	assertEquals("a/b/", TmxTilesetCache.getFolder("a/b/c.tsx"));
+	assertEquals("", TmxTilesetCache.getFolder("c.tsx"));
+    }
+
+    /**
+     * Tileset cache whose files arrive when the test says so
+     */
+    static class DeferredTilesetCache extends TmxTilesetCache {
+	@Override
+	protected void fetchText(String path, Callback<String> callback) {
+	    paths.add(path);
+	    callbacks.add(callback);
+	}
+
+	final ArrayList<String> paths = new ArrayList<String>();
+	final ArrayList<Callback<String>> callbacks = new ArrayList<Callback<String>>();
+    }
+
+    /**
+     * Loader whose images load when the test says so
+     */
+    static class DeferredLoader extends TmxMapLoader {
+	@Override
+	protected Image loadImage(String path) {
+	    paths.add(path);
+	    Image image = (Image) Proxy.newProxyInstance(Image.class.getClassLoader(), new Class<?>[] { Image.class },
+		    new InvocationHandler() {
+			@SuppressWarnings("unchecked")
+			public Object invoke(Object proxy, Method method, Object[] args) {
+			    if (method.getName().equals("addCallback")) {
+				callbacks.add((Callback<Image>) args[0]);
+			    } else if (method.getName().equals("equals")) {
+				return proxy == args[0];
+			    } else if (method.getName().equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			    }
+			    return null;
+			}
+		    });
+	    images.add(image);
+	    return image;
+	}
+
+	final ArrayList<String> paths = new ArrayList<String>();
+	final ArrayList<Image> images = new ArrayList<Image>();
+	final ArrayList<Callback<Image>> callbacks = new ArrayList<Callback<Image>>();
+    }
+
+    static class RecordingCallback implements Callback<TmxMapLoader.LoadedMap> {
+	public void onSuccess(TmxMapLoader.LoadedMap result) {
+	    successes.add(result);
+	}
+
+	public void onFailure(Throwable cause) {
+	    failures.add(cause);
+	}
+
+	final ArrayList<TmxMapLoader.LoadedMap> successes = new ArrayList<TmxMapLoader.LoadedMap>();
+	final ArrayList<Throwable> failures = new ArrayList<Throwable>();
+    }
+}
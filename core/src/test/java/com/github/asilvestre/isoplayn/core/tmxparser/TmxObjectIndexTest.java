@@ -0,0 +1,120 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for the object group spatial index
+ */
+public class TmxObjectIndexTest {
+
+    private static int[] getIndexes(TmxObjectIndex.Result res) {
+	int[] indexes = new int[res.size()];
+	for (int i = 0; i < indexes.length; i++) {
+	    indexes[i] = res.getIndex(i);
+	}
+	Arrays.sort(indexes);
+	return indexes;
+    }
+
+    @Test
+    public void testQueries() throws ParseTmxException {
+	String input = "<map version='1.0' orientation='orthogonal' width='10' height='10' tilewidth='32' "
+		+ "tileheight='32'><objectgroup name='o'>"
+		+ "<object x='0' y='0' width='10' height='10'/>"
+		+ "<object x='300' y='20' width='500' height='10'/>"
+		+ "<object x='100' y='100'><polyline points='0,0 -50,40 60,200'/></object>"
+		+ "<object gid='1' x='400' y='400' width='32' height='32'/>"
+		+ "<object x='1000' y='1000'/></objectgroup></map>";
+
+	TmxMap map = TmxParser.createTmxMapFromXml(input);
+	TmxObjectIndex index = new TmxObjectIndex((TmxObjectGroup) map.getLayers().next(), 64);
+	assertEquals(5, index.getObjectCount());
+	TmxObjectIndex.Result res = new TmxObjectIndex.Result();
+
+	index.queryPoint(5, 5, res);
+	assertArrayEquals(new int[] { 0 }, getIndexes(res));
+	assertSame(index.getObject(0), res.get(0));
+
+	// Objects spanning many cells are found once
+	index.queryRect(0, 0, 1000, 50, res);
+	assertArrayEquals(new int[] { 0, 1 }, getIndexes(res));
+
+	// Polylines cover their points
+	index.queryPoint(55, 140, res);
+	assertArrayEquals(new int[] { 2 }, getIndexes(res));
+	index.queryPoint(160, 300, res);
+	assertArrayEquals(new int[] { 2 }, getIndexes(res));
+
+	// Tile objects go up from their position
+	index.queryPoint(410, 380, res);
+	assertArrayEquals(new int[] { 3 }, getIndexes(res));
+	index.queryPoint(410, 420, res);
+	assertEquals(0, res.size());
+
+	index.queryRadius(1003, 1004, 5, res);
+	assertArrayEquals(new int[] { 4 }, getIndexes(res));
+	index.queryRadius(1004, 1004, 5, res);
+	assertEquals(0, res.size());
+
+	index.queryRect(-5000, -5000, 100, 100, res);
+	assertEquals(0, res.size());
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+	Random random = new Random(7);
+	TmxObjectGroup group = new TmxObjectGroup();
+	for (int i = 0; i < 500; i++) {
+	    TmxObject obj = new TmxObject();
+	    obj.setX(random.nextInt(4000) - 1000);
+	    obj.setY(random.nextInt(3000));
+	    obj.setWidth(random.nextInt(300));
+	    obj.setHeight(random.nextInt(300));
+	    group.addObject(obj);
+	}
+
+	TmxObjectIndex index = new TmxObjectIndex(group);
+	TmxObjectIndex.Result res = new TmxObjectIndex.Result();
+	for (int n = 0; n < 200; n++) {
+	    float x = random.nextInt(5000) - 1500;
+	    float y = random.nextInt(4000) - 500;
+	    float size = random.nextInt(400);
+
+	    index.queryRect(x, y, size, size, res);
+	    int[] found = getIndexes(res);
+
+	    int count = 0;
+	    int[] expected = new int[index.getObjectCount()];
+	    for (int i = 0; i < index.getObjectCount(); i++) {
+		TmxObject obj = index.getObject(i);
+		if (obj.getX() <= x + size && obj.getX() + obj.getWidth() >= x && obj.getY() <= y + size
+			&& obj.getY() + obj.getHeight() >= y) {
+		    expected[count++] = i;
+		}
+	    }
+	    assertArrayEquals(Arrays.copyOf(expected, count), found);
+	}
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for decoding layers concurrently
+ */
+public class TmxParallelParserTest {
+
+    @Before
+    public void setUp() {
+	executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() {
+	executor.shutdownNow();
+    }
+
+    @Test
+    public void testParseTestMap() {
+	try {
+	    String xml = TmxParserTest.readResource("com/github/asilvestre/resources/tmx/test.tmx");
+
+	    TmxMap expected = TmxParser.createTmxMapFromXml(xml);
+	    assertEquals(expected, TmxParallelParser.createTmxMapFromXml(xml, false, executor));
+	    assertEquals(expected, TmxParallelParser.createTmxMapFromXml(xml, true, executor));
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	} catch (IOException e) {
+	    fail("Error reading " + e.toString());
+	}
+    }
+
+    @Test
+    public void testParseWrongLayerData() {
+	String input = "<map version='1.0' orientation='isometric' width='2' height='1' tilewidth='32' tileheight='32'>"
+		+ "<layer name='a'><data encoding='csv'>1,2</data></layer>"
+		+ "<layer name='b'><data encoding='base64' compression='zlib'>AQAAAAIAAAAAAAAAAwAAgA==</data></layer>"
+		+ "</map>";
+
+	try {
+	    TmxParallelParser.createTmxMapFromXml(input, false, executor);
+	    fail("Parsing should have raised an exception");
+	} catch (ParseTmxException e) {
+	}
+    }
+
+    private ExecutorService executor;
+}
@@ -17,6 +17,11 @@ package com.github.asilvestre.isoplayn.core.tmxparser;
 
 import static org.junit.Assert.*;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -302,7 +307,7 @@ public class TmxParserTest {
 
     @Test
     public void testParseMapWithLayer() {
-	String input = "<map version=\"1.0\" orientation=\"isometric\" width=\"101\" height=\"100\""
+	String input = "<map version=\"1.0\" orientation=\"isometric\" width=\"100\" height=\"100\""
 		+ " tilewidth=\"31\" tileheight=\"32\">"
 		+ " <properties> "
 		+ "<property name=\"aa\" value=\"2\"/> "
@@ -316,7 +321,7 @@ public class TmxParserTest {
 		+ "</properties>"
 		+ "<image source=\"../Downloads/36805.jpg\" width=\"75\" height=\"74\" trans=\"ff00ff\"/>"
 		+ "</tileset>"
-		+ "<layer name='hello' width='100' height='101' visible='1' opacity='0.5'>"
+		+ "<layer name='hello' width='100' height='100' visible='1' opacity='0.5'>"
 		+ "<properties><property name=\"a\" value=\"2222\"/>"
 		+ " </properties>"
 		+ "<data encoding='base64' compression='zlib'>"
@@ -329,7 +334,7 @@ public class TmxParserTest {
 	TmxMap output = new TmxMap();
 	output.setVersion("1.0");
 	output.setOrientation(TmxMap.Orientations.ISOMETRIC);
-	output.setWidth(101);
+	output.setWidth(100);
 	output.setHeight(100);
 	output.setTilewidth(31);
 	output.setTileheight(32);
@@ -397,7 +402,13 @@ public class TmxParserTest {
 
     @Test
     public void testParseMapWithMultipleLayers() {
-	String input = "<map version=\"1.0\" orientation=\"isometric\" width=\"101\" height=\"100\""
+	// The second layer lists its tiles, as many as the map has
+	StringBuilder tiles = new StringBuilder();
+	for (int i = 0; i < 100 * 100; i++) {
+	    tiles.append("<tile gid='").append(i % 2 + 1).append("'/>");
+	}
+
+	String input = "<map version=\"1.0\" orientation=\"isometric\" width=\"100\" height=\"100\""
 		+ " tilewidth=\"31\" tileheight=\"32\">"
 		+ " <properties> "
 		+ "<property name=\"aa\" value=\"2\"/> "
@@ -411,7 +422,7 @@ public class TmxParserTest {
 		+ "</properties>"
 		+ "<image source=\"../Downloads/36805.jpg\" width=\"75\" height=\"74\" trans=\"ff00ff\"/>"
 		+ "</tileset>"
-		+ "<layer name='hello' width='100' height='101' visible='1' opacity='0.5'>"
+		+ "<layer name='hello' width='100' height='100' visible='1' opacity='0.5'>"
 		+ "<properties><property name=\"a\" value=\"2222\"/>"
 		+ " </properties>"
 		+ "<data encoding='base64' compression='zlib'>"
@@ -420,13 +431,13 @@ public class TmxParserTest {
 		+ "dZ7W+yGOee9FjH1rsJWs/y7iRWdrP5sv8DFCPcb3PLMw663qz7Gd63LPGzHi+So9+kdm1/u3r0Sdyb4nehzSJm9lCj7jWe0/PGk"
 		+ "NM67o8Y73nnxZ7uZqbFs+6m50Wz8pq4Vw3R+m5BHvaNUrn41qsMzpHLXKNnK3rkC96RqLDXC3/d2jwnNLnqxqsU9pbsY4Oe9FiL1"
 		+ "oAAAAAAAAAAAAAAAAAAAAAAAAAAADk+AKy5gHH" + "</data></layer>" + "<layer name='a'>"
-		+ "<data encoding='base64' compression='zlib'>" + "<tile gid='1'/> <tile gid='2'/>" + "</data></layer>"
+		+ "<data encoding='base64' compression='zlib'>" + tiles + "</data></layer>"
 		+ "</map>";
 
 	TmxMap output = new TmxMap();
 	output.setVersion("1.0");
 	output.setOrientation(TmxMap.Orientations.ISOMETRIC);
-	output.setWidth(101);
+	output.setWidth(100);
 	output.setHeight(100);
 	output.setTilewidth(31);
 	output.setTileheight(32);
@@ -487,13 +498,11 @@ public class TmxParserTest {
 	otherData.setEncoding(TmxData.Encoding.BASE64);
 	otherData.setCompression(TmxData.Compression.ZLIB);
 
-	TmxDataTile tile1 = new TmxDataTile();
-	tile1.setGid(1);
-	otherData.addTile(tile1);
-
-	TmxDataTile tile2 = new TmxDataTile();
-	tile2.setGid(2);
-	otherData.addTile(tile2);
+	for (int i = 0; i < 100 * 100; i++) {
+	    TmxDataTile tile = new TmxDataTile();
+	    tile.setGid(i % 2 + 1);
+	    otherData.addTile(tile);
+	}
 
 	otherLayer.setData(otherData);
 
@@ -729,7 +738,7 @@ public class TmxParserTest {
 
     @Test
     public void testParseMapWithMixedLayers() {
-	String input = "<map version=\"1.0\" orientation=\"isometric\" width=\"101\" height=\"100\""
+	String input = "<map version=\"1.0\" orientation=\"isometric\" width=\"1\" height=\"1\""
 		+ " tilewidth=\"31\" tileheight=\"32\">" + " <properties> " + "<property name=\"aa\" value=\"2\"/> "
 		+ "<property name=\"r\" value=\"111\"/> " + "</properties>"
 		+ "<tileset firstgid=\"1\" name=\"a\" tilewidth=\"32\" tileheight=\"31\" margin=\"2\""
@@ -743,8 +752,8 @@ public class TmxParserTest {
 	TmxMap output = new TmxMap();
 	output.setVersion("1.0");
 	output.setOrientation(TmxMap.Orientations.ISOMETRIC);
-	output.setWidth(101);
-	output.setHeight(100);
+	output.setWidth(1);
+	output.setHeight(1);
 	output.setTilewidth(31);
 	output.setTileheight(32);
 
@@ -814,6 +823,291 @@ public class TmxParserTest {
 	}
     }
 
+    /**
+     * Parses a map with a single layer holding the given data tag and returns
+     * the parsed layer data
+     */
+    private TmxData parseLayerData(String dataTag) throws ParseTmxException {
+	String input = "<map version=\"1.0\" orientation=\"isometric\" width=\"2\" height=\"2\""
+		+ " tilewidth=\"32\" tileheight=\"32\">" + "<layer name='a' width='2' height='2'>" + dataTag
+		+ "</layer></map>";
+
+	TmxMap parsedMap = TmxParser.createTmxMapFromXml(input);
+	TmxTileLayer layer = (TmxTileLayer) parsedMap.getLayers().next();
+
+	return layer.getData();
+    }
+
+    @Test
+    public void testDecodeLayerData() {
+	int[] expected = new int[] { 1, 2, 0, 3 };
+	byte[] expectedFlips = new byte[] { 0, 0, 0, 4 };
+
+	try {
+	    TmxData zlib = parseLayerData("<data encoding='base64' compression='zlib'>\n   eJxjZGBgYGKAAGYGhgYAAMQAhw==\n</data>");
+	    assertArrayEquals(expected, zlib.getGids());
+	    assertArrayEquals(expectedFlips, zlib.getFlips());
+
+	    TmxData gzip = parseLayerData("<data encoding='base64' compression='gzip'>"
+		    + "H4sIAAAAAAACA2NkYGBgYoAAZgaGBgCVaOVREAAAAA==</data>");
+	    assertArrayEquals(expected, gzip.getGids());
+
+	    TmxData plain = parseLayerData("<data encoding='base64'>AQAAAAIAAAAAAAAAAwAAgA==</data>");
+	    assertEquals(TmxData.Compression.NONE, plain.getCompression());
+	    assertArrayEquals(expected, plain.getGids());
+
+	    TmxData csv = parseLayerData("<data encoding='csv'>\n1,2,\n0,2147483651\n</data>");
+	    assertArrayEquals(expected, csv.getGids());
+	    assertArrayEquals(expectedFlips, csv.getFlips());
+	    assertEquals(3, csv.getGid(3));
+	    assertEquals(TmxData.FLIPPED_HORIZONTALLY, csv.getFlip(3));
+	    assertEquals(0, csv.getFlip(2));
+	    assertArrayEquals(new int[] { 1, 2, 0, 0x80000003 }, csv.getRawGids());
+
+	    TmxData unflipped = parseLayerData("<data encoding='csv'>1,2,0,3</data>");
+	    assertNull(unflipped.getFlips());
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	}
+    }
+
+    @Test
+    public void testDecodeTestMapLayerData() {
+	TmxData data = new TmxData();
+	data.setData("eJzt2kFuwyAQQNHI9z90tpEDNgODQfJ7UtRKqbuYXxlK/PncO07fH7UfvLmWHMfP1+h8e67h2nF69VxPjnOD3tlqEldaJzJ7"
+		+ "aNLuPP9ag5GZ6pEjs4cm47J6ZFxPfg9NxmT2yPodb1Va2zVZpzQ3Pdap9bCOrFGbWca+d/Qc5k3u5vT73t0sa7PXIaa1Se/7xFy"
+		+ "dZ7W+yGOee9FjH1rsJWs/y7iRWdrP5sv8DFCPcb3PLMw663qz7Gd63LPGzHi+So9+kdm1/u3r0Sdyb4nehzSJm9lCj7jWe0/PGk"
+		+ "NM67o8Y73nnxZ7uZqbFs+6m50Wz8pq4Vw3R+m5BHvaNUrn41qsMzpHLXKNnK3rkC96RqLDXC3/d2jwnNLnqxqsU9pbsY4Oe9FiL1"
+		+ "oAAAAAAAAAAAAAAAAAAAAAAAAAAADk+AKy5gHH");
+
+	try {
+	    data.Decompress();
+	} catch (ParseTmxException e) {
+	    fail("Error decoding " + e.toString());
+	}
+
+	assertEquals(100 * 100, data.getGidCount());
+    }
+
+    @Test
+    public void testDecodeWrongLayerData() {
+	try {
+	    parseLayerData("<data encoding='base64' compression='zlib'>AQAAAAIAAAAAAAAAAwAAgA==</data>");
+	    fail("Parsing should have raised an exception");
+	} catch (ParseTmxException e) {
+	}
+
+	try {
+	    parseLayerData("<data encoding='base64' compression='none'>AQAAAAIAAAAAAA</data>");
+	    fail("Parsing should have raised an exception");
+	} catch (ParseTmxException e) {
+	}
+
+	// Decoding lazily doesn't take wrong data for a layer without tiles
+	TmxData data = new TmxData();
+	data.setData("AQAAAAIAAAAAAA");
+	for (int i = 0; i < 2; i++) {
+	    try {
+		data.getGids();
+		fail("Getting the tiles should have raised an exception");
+	    } catch (IllegalStateException e) {
+		assertTrue(e.getCause() instanceof ParseTmxException);
+	    }
+	}
+
+	// Comparing and hashing wrong data doesn't decode it
+	TmxData same = new TmxData();
+	same.setData("AQAAAAIAAAAAAA");
+	assertEquals(data, same);
+	assertEquals(data.hashCode(), same.hashCode());
+	TmxData other = new TmxData();
+	other.setData("AQAAAAIAAAAAAB");
+	assertFalse(data.equals(other));
+
+	// Data not decoded yet hashes as the same tiles decoded
+	TmxData lazy = new TmxData();
+	lazy.setEncoding(TmxData.Encoding.CSV);
+	lazy.setData("1,2,2147483651");
+	TmxData decoded = new TmxData();
+	decoded.setEncoding(TmxData.Encoding.CSV);
+	decoded.setData("1,2,2147483651");
+	decoded.getGids();
+	assertEquals(decoded.hashCode(), lazy.hashCode());
+	assertEquals(decoded, lazy);
+    }
+
+    @Test
+    public void testResolveGid() {
+	try {
+	    String xml = readResource("com/github/asilvestre/resources/tmx/test.tmx");
+	    TmxMap map = TmxParser.createTmxMapFromXml(xml);
+
+	    assertEquals(-1, map.resolveGid(0));
+	    assertEquals(0, map.resolveGid(1));
+	    assertEquals(0, map.resolveGid(4));
+	    assertEquals(1, map.resolveGid(5));
+	    assertEquals(2, map.resolveGid(9 | TmxData.FLIPPED_HORIZONTALLY | TmxData.FLIPPED_DIAGONALLY));
+	    assertEquals(3, map.resolveGid(13));
+	    assertEquals(3, map.resolveGid(1000));
+	    assertEquals(0, map.getLocalId(TmxData.FLIPPED_VERTICALLY | 13));
+	    assertEquals(3, map.getLocalId(8));
+	    assertEquals(-1, map.getLocalId(0));
+	    assertEquals(map.getTileset(9), map.getTilesetAt(map.resolveGid(10)));
+
+	    // Adding a tileset rebuilds the index
+	    TmxTileset tileset = new TmxTileset();
+	    tileset.setFirstgid(17);
+	    map.addTileset(tileset);
+	    assertEquals(3, map.resolveGid(16));
+	    assertEquals(4, map.resolveGid(17));
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	} catch (IOException e) {
+	    fail("Error reading " + e.toString());
+	}
+    }
+
+    @Test
+    public void testTileRects() {
+	String input = "<map version='1.0' orientation='isometric' width='1' height='1' tilewidth='32' tileheight='32'>"
+		+ "<tileset firstgid='1' name='t' tilewidth='4' tileheight='8' margin='1' spacing='2'>"
+		+ "<tileoffset x='3' y='-5'/><image source='t.png' width='14' height='21'/></tileset></map>";
+
+	try {
+	    TmxMap map = TmxParser.createTmxMapFromXml(input);
+	    TmxTileset tileset = map.getTilesetAt(0);
+
+	    // 2 columns and 2 rows fit, the last pixels of each row are left out
+	    assertEquals(4, tileset.getTileCount());
+	    int[] rects = tileset.getTileRects();
+	    assertSame(rects, tileset.getTileRects());
+	    assertArrayEquals(new int[] { 7, 11, 4, 8, 3, -5 }, Arrays.copyOfRange(rects, 3 * TmxTileset.RECT_STRIDE,
+		    4 * TmxTileset.RECT_STRIDE));
+	    assertEquals(1, rects[TmxTileset.RECT_X]);
+	    assertEquals(7, rects[TmxTileset.RECT_STRIDE + TmxTileset.RECT_X]);
+	    assertEquals(1, rects[TmxTileset.RECT_STRIDE + TmxTileset.RECT_Y]);
+
+	    // Changing the tileset builds the table again
+	    tileset.setSpacing(0);
+	    assertEquals(6, tileset.getTileCount());
+	    assertEquals(5, tileset.getTileRects()[TmxTileset.RECT_STRIDE + TmxTileset.RECT_X]);
+
+	    tileset.setImage(null);
+	    assertEquals(0, tileset.getTileCount());
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	}
+    }
+
+    @Test
+    public void testObjectTileFlips() {
+	String input = "<map version='1.0' orientation='isometric' width='2' height='2' tilewidth='32' tileheight='32'>"
+		+ "<objectgroup name='g'><object gid='3221225477' x='1' y='2'/></objectgroup></map>";
+
+	try {
+	    TmxMap map = TmxParser.createTmxMapFromXml(input);
+	    TmxObjectGroup group = (TmxObjectGroup) map.getLayers().next();
+	    TmxObjectTile obj = (TmxObjectTile) group.getObjects().next();
+
+	    assertEquals(5, obj.getGid());
+	    assertEquals(TmxData.FLIPPED_HORIZONTALLY | TmxData.FLIPPED_VERTICALLY, obj.getFlip());
+	    assertTrue(obj.isHoritzontallyFlipped());
+	    assertTrue(obj.isVerticallyFlipped());
+	    assertFalse(obj.isDiagonallyFlipped());
+	    assertEquals(0xC0000005, obj.getRawGid());
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	}
+    }
+
+    /**
+     * Reads a file from the classpath
+     */
+    static String readResource(String path) throws IOException {
+	InputStream in = TmxParserTest.class.getClassLoader().getResourceAsStream(path);
+	assertNotNull("Missing resource " + path, in);
+
+	BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+	StringBuilder res = new StringBuilder();
+	try {
+	    char[] buffer = new char[4096];
+	    int read;
+	    while ((read = reader.read(buffer)) != -1) {
+		res.append(buffer, 0, read);
+	    }
+	} finally {
+	    reader.close();
+	}
+
+	return res.toString();
+    }
+
+    @Test
+    public void testParseMapStream() {
+	try {
+	    String xml = readResource("com/github/asilvestre/resources/tmx/test.tmx");
+
+	    TmxMap expected = TmxParser.createTmxMapFromXml(xml);
+	    TmxMap streamed = TmxParser.createTmxMapFromXmlStream(xml);
+
+	    assertEquals(expected, streamed);
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	} catch (IOException e) {
+	    fail("Error reading " + e.toString());
+	}
+    }
+
+    @Test
+    public void testParseObjectsStream() {
+	String input = "<?xml version='1.0' encoding='UTF-8'?>\n<!-- comment -->"
+		+ "<map version='1.0' orientation='isometric' width='2' height='2' tilewidth='32' tileheight='32'>"
+		+ "<objectgroup name='a &amp; b'>"
+		+ "<object x='1' y='2'><properties><property name='p' value='&lt;v&gt;'/></properties>"
+		+ "<polygon points='0,0 3,4 -5,6'/></object>" + "<object x='3' y='4'><polyline points='0,0 1,1'/></object>"
+		+ "<object gid='2' x='5' y='6'/>" + "<object x='7' y='8'/>" + "</objectgroup>"
+		+ "<layer name='l'><data encoding='csv'>1,2,3,4</data></layer>" + "</map>";
+
+	try {
+	    TmxMap expected = TmxParser.createTmxMapFromXml(input);
+	    TmxMap streamed = TmxParser.createTmxMapFromXmlStream(input);
+
+	    assertEquals(expected, streamed);
+
+	    TmxObjectGroup group = (TmxObjectGroup) streamed.getLayers().next();
+	    assertEquals("a & b", group.getName());
+
+	    Iterator<TmxObject> objects = group.getObjects();
+	    TmxObject polygon = objects.next();
+	    assertTrue(polygon instanceof TmxObjectPolygon);
+	    assertEquals("<v>", polygon.getProperties().getProperty("p"));
+	    assertEquals(3, ((TmxObjectPolygon) polygon).getCoords().size());
+	    assertTrue(objects.next() instanceof TmxObjectPolyline);
+	    assertTrue(objects.next() instanceof TmxObjectTile);
+	    assertEquals(TmxObject.class, objects.next().getClass());
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	}
+    }
+
+    @Test
+    public void testParseMapStreamWrongFormat() {
+	String[] inputs = new String[] {
+		"<map version='1.0'><object x='2' y='1'/></map>",
+		"<map version='1.0'><layer name='a'></map>",
+		"<map version='1.0'><layer name='a'>",
+		"<tileset firstgid='1'/>",
+		"<map version='1.0'><layer name=a/></map>", };
+
+	for (String input : inputs) {
+	    try {
+		TmxParser.createTmxMapFromXmlStream(input);
+		fail("Parsing should have raised an exception: " + input);
+	    } catch (ParseTmxException e) {
+	    }
+	}
+    }
+
     @Test
     public void testParseMapWitWrongFormat() {
 	String input = "<map version=\"1.0\" orientation=\"isometric\" width=\"101\" height=\"100\""
@@ -826,4 +1120,27 @@ public class TmxParserTest {
 	}
     }
 
+    @Test
+    public void testParsePoints() throws ParseTmxException {
+	String input = "<map version='1.0' orientation='orthogonal' width='1' height='1' tilewidth='32' "
+		+ "tileheight='32'><objectgroup name='o'><object x='0' y='0'>"
+		+ "<polygon points=' 0,0  -12,+34\t2147483647,-2147483648 '/></object></objectgroup></map>";
+
+	TmxMap map = TmxParser.createTmxMapFromXml(input);
+	TmxObjectPolygon polygon = (TmxObjectPolygon) ((TmxObjectGroup) map.getLayers().next()).getObjects().next();
+	assertArrayEquals(new int[] { 0, 0, -12, 34, Integer.MAX_VALUE, Integer.MIN_VALUE }, polygon.getPoints());
+	assertEquals(3, polygon.getPointCount());
+	assertEquals(-12, polygon.getPointX(1));
+	assertEquals(34, polygon.getPointY(1));
+
+	String[] wrongPoints = new String[] { "0,0 1", "0,0 1,", "a,1", "1,2b", "0,0,1", "1,-", "2147483648,0" };
+	for (String points : wrongPoints) {
+	    try {
+		TmxParser.createTmxMapFromXml(input.replaceFirst("points='[^']*'", "points='" + points + "'"));
+		fail("Parsing should have raised an exception: " + points);
+	    } catch (ParseTmxException e) {
+	    }
+	}
+    }
+
 }
@@ -0,0 +1,208 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests for the grid pathfinder
+ */
+public class TmxPathfinderTest {
+
+    private static TmxCollisionGrid createGrid(Random random, int width, int height, int blockedPercent) {
+	TmxCollisionGrid grid = new TmxCollisionGrid(width, height);
+	for (int y = 0; y < height; y++) {
+	    for (int x = 0; x < width; x++) {
+		if (random.nextInt(100) < blockedPercent) {
+		    grid.setBlocked(x, y, true);
+		}
+	    }
+	}
+	return grid;
+    }
+
+    /**
+     * Checks every step of a path is a legal move and returns its cost
+     */
+    static int checkPath(TmxCollisionGrid grid, TmxPathfinder.Path path, boolean diagonal) {
+	int cost = 0;
+	for (int i = 0; i < path.size(); i++) {
+	    assertFalse(grid.isBlocked(path.getX(i), path.getY(i)));
+	    if (i == 0) {
+		continue;
+	    }
+
+	    int dx = path.getX(i) - path.getX(i - 1);
+	    int dy = path.getY(i) - path.getY(i - 1);
+	    assertTrue(Math.abs(dx) <= 1 && Math.abs(dy) <= 1 && (dx != 0 || dy != 0));
+	    if (dx != 0 && dy != 0) {
+		assertTrue(diagonal);
+		assertFalse(grid.isBlocked(path.getX(i - 1) + dx, path.getY(i - 1)));
+		assertFalse(grid.isBlocked(path.getX(i - 1), path.getY(i - 1) + dy));
+		cost += TmxPathfinder.DIAGONAL_COST;
+	    } else {
+		cost += TmxPathfinder.STRAIGHT_COST;
+	    }
+	}
+	assertEquals(cost, path.getCost());
+	return cost;
+    }
+
+    @Test
+    public void testStraightLine() {
+	TmxCollisionGrid grid = new TmxCollisionGrid(10, 10);
+	TmxPathfinder pathfinder = new TmxPathfinder(grid);
+	TmxPathfinder.Path path = new TmxPathfinder.Path();
+
+	assertTrue(pathfinder.findPath(1, 1, 8, 1, path));
+	assertEquals(8, path.size());
+	assertEquals(1, path.getX(0));
+	assertEquals(8, path.getX(7));
+	assertEquals(70, path.getCost());
+
+	assertTrue(pathfinder.findPath(0, 0, 9, 9, path));
+	assertEquals(10, path.size());
+	assertEquals(9 * TmxPathfinder.DIAGONAL_COST, path.getCost());
+
+	assertTrue(pathfinder.findPath(3, 3, 3, 3, path));
+	assertEquals(1, path.size());
+	assertEquals(0, path.getCost());
+    }
+
+    @Test
+    public void testNoPath() {
+	TmxCollisionGrid grid = new TmxCollisionGrid(10, 10);
+	for (int y = 0; y < 10; y++) {
+	    grid.setBlocked(5, y, true);
+	}
+	TmxPathfinder pathfinder = new TmxPathfinder(grid);
+	TmxPathfinder.Path path = new TmxPathfinder.Path();
+
+	assertFalse(pathfinder.findPath(0, 0, 9, 9, path));
+	assertEquals(0, path.size());
+	assertFalse(pathfinder.findPath(5, 0, 0, 0, path));
+	assertFalse(pathfinder.findPath(-1, 0, 0, 0, path));
+
+	// Corners can't be cut
+	grid.setBlocked(5, 5, false);
+	grid.setBlocked(4, 6, true);
+	grid.setBlocked(6, 4, true);
+	assertTrue(pathfinder.findPath(4, 5, 6, 5, path));
+	grid.setBlocked(4, 5, true);
+	grid.setBlocked(6, 6, true);
+	grid.setBlocked(5, 5, true);
+	grid.setBlocked(5, 4, false);
+	grid.setBlocked(4, 4, false);
+	assertFalse(pathfinder.findPath(4, 4, 6, 6, path));
+
+	// Expansions can be limited
+	grid = new TmxCollisionGrid(100, 100);
+	pathfinder = new TmxPathfinder(grid);
+	pathfinder.setJumpPoints(false);
+	pathfinder.setMaxExpanded(10);
+	assertFalse(pathfinder.findPath(0, 0, 99, 50, path));
+	assertEquals(10, pathfinder.getExpandedCount());
+    }
+
+    @Test
+    public void testJumpPointsMatchAStar() {
+	Random random = new Random(5);
+	for (int n = 0; n < 20; n++) {
+	    TmxCollisionGrid grid = createGrid(random, 40, 30, 30);
+	    TmxPathfinder astar = new TmxPathfinder(grid);
+	    astar.setJumpPoints(false);
+	    TmxPathfinder jps = new TmxPathfinder(grid);
+	    TmxPathfinder.Path path = new TmxPathfinder.Path();
+
+	    for (int q = 0; q < 20; q++) {
+		int startX = random.nextInt(40);
+		int startY = random.nextInt(30);
+		int goalX = random.nextInt(40);
+		int goalY = random.nextInt(30);
+
+		boolean found = astar.findPath(startX, startY, goalX, goalY, path);
+		int cost = found ? checkPath(grid, path, true) : -1;
+
+		assertEquals(found, jps.findPath(startX, startY, goalX, goalY, path));
+		if (found) {
+		    assertEquals(cost, checkPath(grid, path, true));
+		    assertEquals(startX, path.getX(0));
+		    assertEquals(goalY, path.getY(path.size() - 1));
+		}
+	    }
+	}
+    }
+
+    @Test
+    public void testFourDirections() {
+	Random random = new Random(9);
+	TmxCollisionGrid grid = createGrid(random, 30, 30, 25);
+	TmxPathfinder pathfinder = new TmxPathfinder(grid);
+	pathfinder.setDiagonal(false);
+	TmxPathfinder.Path path = new TmxPathfinder.Path();
+
+	for (int q = 0; q < 50; q++) {
+	    int startX = random.nextInt(30);
+	    int startY = random.nextInt(30);
+	    int goalX = random.nextInt(30);
+	    int goalY = random.nextInt(30);
+
+	    int distance = bfs(grid, startX, startY, goalX, goalY);
+	    assertEquals(distance >= 0, pathfinder.findPath(startX, startY, goalX, goalY, path));
+	    if (distance >= 0) {
+		assertEquals(distance * TmxPathfinder.STRAIGHT_COST, checkPath(grid, path, false));
+	    }
+	}
+    }
+
+    /**
+     * @return steps from a tile to another moving in 4 directions, -1 if
+     *         there is no way
+     */
+    private static int bfs(TmxCollisionGrid grid, int startX, int startY, int goalX, int goalY) {
+	if (grid.isBlocked(startX, startY) || grid.isBlocked(goalX, goalY)) {
+	    return -1;
+	}
+
+	int width = grid.getWidth();
+	int[] distances = new int[width * grid.getHeight()];
+	Arrays.fill(distances, -1);
+	int[] queue = new int[distances.length];
+	int head = 0;
+	int tail = 0;
+	queue[tail++] = startY * width + startX;
+	distances[startY * width + startX] = 0;
+	int[] dxs = new int[] { 1, -1, 0, 0 };
+	int[] dys = new int[] { 0, 0, 1, -1 };
+	while (head < tail) {
+	    int node = queue[head++];
+	    for (int d = 0; d < 4; d++) {
+		int x = node % width + dxs[d];
+		int y = node / width + dys[d];
+		if (!grid.isBlocked(x, y) && distances[y * width + x] < 0) {
+		    distances[y * width + x] = distances[node] + 1;
+		    queue[tail++] = y * width + x;
+		}
+	    }
+	}
+	return distances[goalY * width + goalX];
+    }
+}
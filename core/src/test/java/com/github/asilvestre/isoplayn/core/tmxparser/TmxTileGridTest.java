@@ -0,0 +1,376 @@
+/**
+ * Copyright Antoni Silvestre
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+package com.github.asilvestre.isoplayn.core.tmxparser;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.github.asilvestre.isoplayn.core.tmxparser.TmxParser.ParseTmxException;
+
+/**
+ * Tests for the tile grid storages
+ */
+public class TmxTileGridTest {
+
+    @Test
+    public void testArrayTileGrid() {
+	String input = "<map version='1.0' orientation='isometric' width='3' height='2' tilewidth='32' tileheight='32'>"
+		+ "<layer name='l'><data encoding='csv'>1,2,3,4,5,2147483654</data></layer></map>";
+
+	try {
+	    TmxMap map = TmxParser.createTmxMapFromXml(input);
+	    TmxTileLayer layer = (TmxTileLayer) map.getLayers().next();
+	    TmxTileGrid grid = map.getTileGrid(layer);
+
+	    assertEquals(3, grid.getWidth());
+	    assertEquals(2, grid.getHeight());
+	    assertEquals(2, layer.getGid(1, 0));
+	    assertEquals(6, layer.getGid(2, 1));
+	    assertEquals(TmxData.FLIPPED_HORIZONTALLY, grid.getFlip(2, 1));
+	    assertEquals(0, grid.getFlip(1, 1));
+
+	    int[] row = new int[4];
+	    grid.getRow(1, row, 1);
+	    assertArrayEquals(new int[] { 0, 4, 5, 6 }, row);
+
+	    try {
+		grid.getGid(3, 0);
+		fail("Expecting an exception reading out of the grid");
+	    } catch (IndexOutOfBoundsException e) {
+	    }
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	}
+    }
+
+    @Test
+    public void testArrayTileGridWrongSize() {
+	String input = "<map version='1.0' orientation='isometric' width='3' height='2' tilewidth='32' tileheight='32'>"
+		+ "<layer name='l'><data encoding='csv'>1,2,3</data></layer></map>";
+
+	try {
+	    TmxParser.createTmxMapFromXml(input);
+	    fail("Expecting an exception parsing a layer with the wrong number of tiles");
+	} catch (ParseTmxException e) {
+	    assertTrue(e.getMessage().contains("3 tiles, expecting 6"));
+	}
+    }
+
+    @Test
+    public void testMappedTileGrid() {
+	int[] gids = new int[] { 1, 2, 3, 4, 5, 6 };
+	byte[] flips = new byte[] { 0, 1, 0, 0, 0, 4 };
+	TmxTileGrid heap = new TmxArrayTileGrid(3, 2, gids, flips);
+
+	File file = null;
+	try {
+	    file = File.createTempFile("grid", ".tmxg");
+	    TmxTileGrid mapped = TmxMappedTileGrid.create(file, heap);
+
+	    assertEquals(3, mapped.getWidth());
+	    assertEquals(2, mapped.getHeight());
+	    for (int y = 0; y < 2; y++) {
+		for (int x = 0; x < 3; x++) {
+		    assertEquals(heap.getGid(x, y), mapped.getGid(x, y));
+		    assertEquals(heap.getFlip(x, y), mapped.getFlip(x, y));
+		}
+	    }
+
+	    int[] row = new int[3];
+	    TmxMappedTileGrid.open(file).getRow(1, row, 0);
+	    assertArrayEquals(new int[] { 4, 5, 6 }, row);
+	} catch (IOException e) {
+	    fail("Error mapping " + e.toString());
+	} finally {
+	    if (file != null) {
+		file.delete();
+	    }
+	}
+    }
+
+    @Test
+    public void testMappedTileGridWrongFile() {
+	File file = null;
+	try {
+	    file = File.createTempFile("grid", ".tmxg");
+	    TmxMappedTileGrid.open(file);
+	    fail("Expecting an exception mapping an empty file");
+	} catch (IOException e) {
+	} finally {
+	    if (file != null) {
+		file.delete();
+	    }
+	}
+    }
+
+    @Test
+    public void testChunkedTileGrid() {
+	int[] gids = new int[5 * 3];
+	gids[0] = 1;
+	gids[4] = 2;
+	gids[14] = 3;
+	byte[] flips = new byte[gids.length];
+	flips[4] = 2;
+	flips[7] = 1;
+	TmxTileGrid heap = new TmxArrayTileGrid(5, 3, gids, flips);
+
+	TmxChunkedTileGrid chunked = TmxChunkedTileGrid.fromGrid(heap, 2);
+	assertEquals(5, chunked.getWidth());
+	assertEquals(3, chunked.getHeight());
+	for (int y = 0; y < 3; y++) {
+	    for (int x = 0; x < 5; x++) {
+		assertEquals(heap.getGid(x, y), chunked.getGid(x, y));
+		assertEquals(heap.getFlip(x, y), chunked.getFlip(x, y));
+	    }
+	}
+
+	int[] row = new int[5];
+	chunked.getRow(0, row, 0);
+	assertArrayEquals(new int[] { 1, 0, 0, 0, 2 }, row);
+	chunked.getRow(2, row, 0);
+	assertArrayEquals(new int[] { 0, 0, 0, 0, 3 }, row);
+    }
+
+    static final String INFINITE_MAP = "<map version='1.0' orientation='orthogonal' width='10' height='10' "
+	    + "tilewidth='32' tileheight='32' infinite='1'>"
+	    + "<layer name='l'><data encoding='csv'>"
+	    + "<chunk x='-2' y='0' width='2' height='2'>1,2,\n3,4</chunk>"
+	    + "<chunk x='2' y='2' width='2' height='2'>5,6,2147483655,8</chunk>"
+	    + "<chunk x='0' y='0' width='2' height='2'>9,10,11,12</chunk>" + "</data></layer></map>";
+
+    @Test
+    public void testParseChunks() {
+	try {
+	    TmxMap map = TmxParser.createTmxMapFromXml(INFINITE_MAP);
+	    assertEquals(map, TmxParser.createTmxMapFromXmlStream(INFINITE_MAP));
+
+	    TmxTileLayer layer = (TmxTileLayer) map.getLayers().next();
+	    assertEquals(3, layer.getData().getChunkCount());
+
+	    TmxChunkedTileGrid grid = (TmxChunkedTileGrid) map.getTileGrid(layer);
+	    assertEquals(-2, grid.getStartX());
+	    assertEquals(0, grid.getStartY());
+	    assertEquals(6, grid.getWidth());
+	    assertEquals(4, grid.getHeight());
+	    assertEquals(0, grid.getDecodedChunkCount());
+
+	    int[] row = new int[6];
+	    grid.getRow(1, row, 0);
+	    assertArrayEquals(new int[] { 3, 4, 11, 12, 0, 0 }, row);
+	    assertEquals(2, grid.getDecodedChunkCount());
+	    assertEquals(8, grid.getGid(5, 3));
+	    assertEquals(7, grid.getGid(4, 3));
+	    assertEquals(TmxData.FLIPPED_HORIZONTALLY, grid.getFlip(4, 3));
+	    assertEquals(0, grid.getGid(0, 3));
+	    assertEquals(3, grid.getDecodedChunkCount());
+
+	    // Evicted chunks are decoded again when read
+	    grid.setMaxDecodedChunks(1);
+	    assertEquals(1, grid.getDecodedChunkCount());
+	    assertEquals(1, grid.getGid(0, 0));
+	    assertEquals(10, grid.getGid(3, 0));
+	    assertEquals(1, grid.getDecodedChunkCount());
+
+	    // The chunk read the longest ago goes first, changing the payloads
+	    // tells the chunks decoded again apart
+	    grid.setMaxDecodedChunks(2);
+	    assertEquals(1, grid.getGid(0, 0));
+	    assertEquals(5, grid.getGid(4, 2));
+	    assertEquals(1, grid.getGid(0, 0));
+	    assertEquals(10, grid.getGid(3, 0));
+	    assertEquals(2, grid.getDecodedChunkCount());
+	    Iterator<TmxDataChunk> chunks = layer.getData().getChunks();
+	    chunks.next().setData("13,13,13,13");
+	    chunks.next().setData("14,14,14,14");
+	    assertEquals(1, grid.getGid(0, 0));
+	    assertEquals(14, grid.getGid(4, 2));
+	} catch (ParseTmxException e) {
+	    fail("Error parsing " + e.toString());
+	}
+    }
+
+    @Test
+    public void testParseWrongChunks() {
+	String input = "<map version='1.0' orientation='orthogonal' width='10' height='10' tilewidth='32' "
+		+ "tileheight='32'><layer name='l'><data encoding='csv'>"
+		+ "<chunk x='0' y='0' width='2' height='2'>1,2,3,4</chunk>"
+		+ "<chunk x='1' y='0' width='2' height='2'>5,6,7,8</chunk>" + "</data></layer></map>";
+
+	try {
+	    TmxParser.createTmxMapFromXml(input);
+	    fail("Expecting an exception parsing misaligned chunks");
+	} catch (ParseTmxException e) {
+	}
+    }
+
+    @Test
+    public void testCorruptChunks() throws ParseTmxException {
+	String input = "<map version='1.0' orientation='orthogonal' width='10' height='10' tilewidth='32' "
+		+ "tileheight='32' infinite='1'><layer name='l'><data encoding='base64' compression='none'>"
+		+ "<chunk x='0' y='0' width='2' height='2'>AQAAAAIAAAAAAA</chunk>"
+		+ "<chunk x='2' y='0' width='2' height='2'>AQAAAAIAAAADAAAA</chunk>" + "</data></layer></map>";
+
+	TmxMap map = TmxParser.createTmxMapFromXml(input);
+	TmxTileLayer layer = (TmxTileLayer) map.getLayers().next();
+	TmxChunkedTileGrid grid = (TmxChunkedTileGrid) map.getTileGrid(layer);
+
+	// Wrong chunks are not taken for empty ones, reading them fails again
+	for (int i = 0; i < 2; i++) {
+	    try {
+		grid.getGid(0, 0);
+		fail("Expecting an exception reading a chunk that can't be decoded");
+	    } catch (IllegalStateException e) {
+		assertTrue(e.getCause() instanceof ParseTmxException);
+	    }
+
+	    try {
+		grid.getGid(2, 0);
+		fail("Expecting an exception reading a chunk with the wrong number of tiles");
+	    } catch (IllegalStateException e) {
+		assertTrue(e.getMessage().contains("3 tiles, expecting 4"));
+	    }
+	}
+	assertEquals(0, grid.getDecodedChunkCount());
+
+	try {
+	    map.freeze();
+	    fail("Expecting an exception freezing a map with wrong chunks");
+	} catch (IllegalStateException e) {
+	}
+
+	// The payloads are kept, fixing them fixes the grid
+	Iterator<TmxDataChunk> chunks = layer.getData().getChunks();
+	chunks.next().setData("AQAAAAIAAAADAAAABAAAAA==");
+	chunks.next().setData("BQAAAAYAAAAHAAAACAAAAA==");
+	assertEquals(1, grid.getGid(0, 0));
+	assertEquals(7, grid.getGid(2, 1));
+    }
+
+    @Test
+    public void testEditableTileGrid() throws ParseTmxException {
+	String input = "<map version='1.0' orientation='isometric' width='5' height='3' tilewidth='32' tileheight='32'>"
+		+ "<layer name='l'><data encoding='csv'>1,2,3,4,5,0,0,0,0,0,6,7,8,9,2147483658</data></layer></map>";
+
+	TmxMap map = TmxParser.createTmxMapFromXml(input);
+	TmxTileLayer layer = (TmxTileLayer) map.getLayers().next();
+	TmxTileGrid original = map.getTileGrid(layer);
+	TmxEditableTileGrid grid = TmxEditableTileGrid.edit(map, layer);
+	assertSame(grid, layer.getTileGrid());
+	assertSame(grid, TmxEditableTileGrid.edit(map, layer));
+
+	for (int y = 0; y < 3; y++) {
+	    for (int x = 0; x < 5; x++) {
+		assertEquals(original.getGid(x, y), grid.getGid(x, y));
+		assertEquals(original.getFlip(x, y), grid.getFlip(x, y));
+	    }
+	}
+
+	grid.setGid(2, 1, 3 | TmxData.FLIPPED_VERTICALLY);
+	grid.setGid(0, 0, 0);
+	assertEquals(3, layer.getGid(2, 1));
+	assertEquals(TmxData.FLIPPED_VERTICALLY, grid.getFlip(2, 1));
+	assertEquals(0, layer.getGid(0, 0));
+
+	int[] row = new int[5];
+	grid.getRow(1, row, 0);
+	assertArrayEquals(new int[] { 0, 0, 3, 0, 0 }, row);
+	assertEquals(0, grid.getCopiedChunkCount());
+
+	try {
+	    grid.setGid(5, 0, 1);
+	    fail("Expecting an exception writing out of the grid");
+	} catch (IndexOutOfBoundsException e) {
+	}
+    }
+
+    @Test
+    public void testEditableTileGridSnapshots() {
+	TmxEditableTileGrid grid = new TmxEditableTileGrid(8, 8, 4);
+	grid.setGid(1, 1, 1);
+	grid.setGid(5, 5, 2);
+
+	TmxTileGrid first = grid.snapshot();
+	grid.setGid(1, 1, 3);
+	grid.setGid(2, 2, 4);
+	grid.setGid(6, 1, 5);
+
+	// Only the chunk that had tiles is copied, setting the same tile copies
+	// nothing
+	assertEquals(1, grid.getCopiedChunkCount());
+	grid.setGid(5, 5, 2);
+	assertEquals(1, grid.getCopiedChunkCount());
+
+	assertEquals(1, first.getGid(1, 1));
+	assertEquals(0, first.getGid(2, 2));
+	assertEquals(0, first.getGid(6, 1));
+	assertEquals(2, first.getGid(5, 5));
+	assertEquals(3, grid.getGid(1, 1));
+	assertEquals(5, grid.getGid(6, 1));
+
+	TmxTileGrid second = grid.snapshot();
+	grid.setGid(5, 5, 0);
+	assertEquals(2, grid.getCopiedChunkCount());
+	assertEquals(2, first.getGid(5, 5));
+	assertEquals(2, second.getGid(5, 5));
+	assertEquals(3, second.getGid(1, 1));
+	assertEquals(0, grid.getGid(5, 5));
+    }
+
+    @Test
+    public void testEditableTileGridReadersDontSeeWrites() throws Exception {
+	final TmxEditableTileGrid grid = new TmxEditableTileGrid(64, 64, 8);
+	final AtomicReference<TmxTileGrid> latest = new AtomicReference<TmxTileGrid>(grid.snapshot());
+	final boolean[] consistent = new boolean[] { true };
+
+	// Every snapshot has all its tiles set to the same value
+	Thread reader = new Thread() {
+	    public void run() {
+		int[] row = new int[64];
+		for (int i = 0; i < 200; i++) {
+		    TmxTileGrid snapshot = latest.get();
+		    int expected = snapshot.getGid(0, 0);
+		    for (int y = 0; y < 64; y++) {
+			snapshot.getRow(y, row, 0);
+			for (int x = 0; x < 64; x++) {
+			    if (row[x] != expected) {
+				consistent[0] = false;
+			    }
+			}
+		    }
+		}
+	    }
+	};
+	reader.start();
+
+	for (int gid = 1; gid <= 50; gid++) {
+	    for (int y = 0; y < 64; y++) {
+		for (int x = 0; x < 64; x++) {
+		    grid.setGid(x, y, gid);
+		}
+	    }
+	    latest.set(grid.snapshot());
+	}
+	reader.join();
+
+	assertTrue(consistent[0]);
+    }
+}